@@ -22,6 +22,8 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * The NCMB Class contains sdk initialize method and factory method for Service class
@@ -107,6 +109,31 @@ public class NCMB {
      */
     protected static NCMBServicePool sServicePool;
 
+    /**
+     * HTTP transport
+     */
+    private static NCMBTransport sTransport;
+
+    /**
+     * Retry policy for all services
+     */
+    private static volatile NCMBRetryPolicy sRetryPolicy;
+
+    /**
+     * Retry policy for each service path
+     */
+    private static final ConcurrentHashMap<String, NCMBRetryPolicy> sServiceRetryPolicies = new ConcurrentHashMap<>();
+
+    /**
+     * Client side rate limiter for all services
+     */
+    private static volatile NCMBRateLimiter sRateLimiter;
+
+    /**
+     * Client side rate limiter for each service path
+     */
+    private static final ConcurrentHashMap<String, NCMBRateLimiter> sServiceRateLimiters = new ConcurrentHashMap<>();
+
     /**
      * Setup SDK internals
      *
@@ -167,6 +194,29 @@ public class NCMB {
                                   String domainUrl,
                                   String apiVersion,
                                   Map<String,String> installationCustomFields) {
+        initialize(context, applicationKey, clientKey, domainUrl, apiVersion, installationCustomFields, null);
+    }
+
+    /**
+     * Setup SDK internals with HTTP transport
+     *
+     * @param context                  Application context
+     * @param applicationKey           application key
+     * @param clientKey                client key
+     * @param domainUrl                host name for api request
+     * @param apiVersion               version for rest api
+     * @param installationCustomFields installation custom fileds
+     * @param transport                HTTP transport. NCMBDefaultTransport is used if null
+     */
+    public static void initialize(Context context,
+                                  String applicationKey,
+                                  String clientKey,
+                                  String domainUrl,
+                                  String apiVersion,
+                                  Map<String,String> installationCustomFields,
+                                  NCMBTransport transport) {
+        sTransport = transport;
+
         String aDomainUrl = domainUrl;
         if (aDomainUrl == null) {
             aDomainUrl = getMetadata(context, METADATA_PREFIX + "DOMAIN_URL");
@@ -186,6 +236,8 @@ public class NCMB {
         String apiBaseUrl = aDomainUrl + aApiVersion + "/";
         sCurrentContext = new NCMBContext(context, applicationKey, clientKey, apiBaseUrl);
         sServicePool = new NCMBServicePool();
+        // 前回起動時に送信できなかったsaveEventuallyを再送する
+        NCMBEventuallyQueue.resume();
 
         // 永続化
         Context appState = NCMBApplicationController.getApplicationState();
@@ -254,6 +306,222 @@ public class NCMB {
         return NCMBConnection.sConnectionTimeout;
     }
 
+    /**
+     * Keep connections of the default transport alive and reuse them for the next request<br>
+     * The default is invalid<br>
+     * true = valid , false = inValid
+     *
+     * @param connectionReuse connection reuse enable flag
+     */
+    public static void enableConnectionReuse(boolean connectionReuse) {
+        NCMBDefaultTransport.sConnectionReuse = connectionReuse;
+    }
+
+    /**
+     * Request gzip compressed response and decode it in the SDK<br>
+     * The default is valid<br>
+     * true = valid , false = inValid
+     *
+     * @param responseCompression response compression enable flag
+     */
+    public static void enableResponseCompression(boolean responseCompression) {
+        NCMBConnection.sResponseCompression = responseCompression;
+    }
+
+    /**
+     * Share one network round trip between identical GET requests running at the same time<br>
+     * The default is invalid<br>
+     * true = valid , false = inValid
+     *
+     * @param requestCoalescing request coalescing enable flag
+     */
+    public static void enableRequestCoalescing(boolean requestCoalescing) {
+        NCMBConnection.sRequestCoalescing = requestCoalescing;
+    }
+
+    /**
+     * Set executor running callbacks of background methods<br>
+     * The default is null and callbacks run on the main thread<br>
+     * Set an executor when results do not need to update views directly
+     *
+     * @param callbackExecutor executor running callbacks, or null for the main thread
+     */
+    public static void setCallbackExecutor(Executor callbackExecutor) {
+        NCMBConnection.sCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Convert response data to result objects such as NCMBObject list on the worker thread
+     * before the callback is executed<br>
+     * The default is valid<br>
+     * true = valid , false = inValid
+     *
+     * @param backgroundMaterialization background materialization enable flag
+     */
+    public static void enableBackgroundMaterialization(boolean backgroundMaterialization) {
+        NCMBConnection.sBackgroundMaterialization = backgroundMaterialization;
+    }
+
+    /**
+     * Setting batching window of background writes<br>
+     * saveInBackground and deleteObjectInBackground of NCMBObject issued within the window
+     * are sent as one request of batch api, and the result is passed to each callback<br>
+     * Writes of subclasses such as NCMBUser and NCMBInstallation are sent at once<br>
+     * Writes waiting in the window are kept only in memory and are lost when the process is killed.
+     * Use saveEventually for writes that must survive a restart<br>
+     * The default 0 sends each write at once
+     *
+     * @param windowMillis milliseconds to wait for other writes. 0 or less disables batching
+     */
+    public static void setWriteBatchWindow(long windowMillis) {
+        NCMBWriteBatcher.sWindow = windowMillis;
+    }
+
+    /**
+     * Getting batching window of background writes
+     *
+     * @return milliseconds
+     */
+    public static long getWriteBatchWindow() {
+        return NCMBWriteBatcher.sWindow;
+    }
+
+    /**
+     * Setting minimum size of json request body compressed with gzip<br>
+     * Applied to saving and updating objects. The default 0 does not compress request body
+     *
+     * @param threshold bytes. 0 or less disables compression
+     */
+    public static void setRequestCompressionThreshold(int threshold) {
+        NCMBConnection.sRequestCompressionThreshold = threshold;
+    }
+
+    /**
+     * Getting minimum size of json request body compressed with gzip
+     *
+     * @return threshold bytes
+     */
+    public static int getRequestCompressionThreshold() {
+        return NCMBConnection.sRequestCompressionThreshold;
+    }
+
+    /**
+     * Setting retry policy applied to all services<br>
+     * The default is null and requests are not retried
+     *
+     * @param policy retry policy. null to disable retry
+     */
+    public static void setRetryPolicy(NCMBRetryPolicy policy) {
+        sRetryPolicy = policy;
+    }
+
+    /**
+     * Setting retry policy applied to the service instead of the policy for all services
+     *
+     * @param serviceType service type
+     * @param policy      retry policy. null to use the policy for all services
+     */
+    public static void setRetryPolicy(ServiceType serviceType, NCMBRetryPolicy policy) {
+        String servicePath = getServicePath(serviceType);
+        if (policy == null) {
+            sServiceRetryPolicies.remove(servicePath);
+        } else {
+            sServiceRetryPolicies.put(servicePath, policy);
+        }
+    }
+
+    /**
+     * Get retry policy for the service path
+     *
+     * @param servicePath service path of request
+     * @return retry policy, or null if requests are not retried
+     */
+    static NCMBRetryPolicy getRetryPolicy(String servicePath) {
+        if (servicePath != null) {
+            NCMBRetryPolicy policy = sServiceRetryPolicies.get(servicePath);
+            if (policy != null) {
+                return policy;
+            }
+        }
+        return sRetryPolicy;
+    }
+
+    static String getServicePath(ServiceType serviceType) {
+        switch (serviceType) {
+            case OBJECT:
+                return NCMBObjectService.SERVICE_PATH;
+            case USER:
+                return NCMBUserService.SERVICE_PATH;
+            case ROLE:
+                return NCMBRoleService.SERVICE_PATH;
+            case INSTALLATION:
+                return NCMBInstallationService.SERVICE_PATH;
+            case PUSH:
+                return NCMBPushService.SERVICE_PATH;
+            case FILE:
+                return NCMBFileService.SERVICE_PATH;
+            case SCRIPT:
+                return NCMBScriptService.SERVICE_PATH;
+            default:
+                throw new IllegalArgumentException("Invalid serviceType");
+        }
+    }
+
+    /**
+     * Setting client side rate limiter applied to all services<br>
+     * The default is null and requests are not limited
+     *
+     * @param limiter rate limiter. null to disable rate limit
+     */
+    public static void setRateLimiter(NCMBRateLimiter limiter) {
+        sRateLimiter = limiter;
+    }
+
+    /**
+     * Setting client side rate limiter applied to the service instead of the limiter for all services
+     *
+     * @param serviceType service type
+     * @param limiter     rate limiter. null to use the limiter for all services
+     */
+    public static void setRateLimiter(ServiceType serviceType, NCMBRateLimiter limiter) {
+        String servicePath = getServicePath(serviceType);
+        if (limiter == null) {
+            sServiceRateLimiters.remove(servicePath);
+        } else {
+            sServiceRateLimiters.put(servicePath, limiter);
+        }
+    }
+
+    /**
+     * Get rate limiter for the service path
+     *
+     * @param servicePath service path of request
+     * @return rate limiter, or null if requests are not limited
+     */
+    static NCMBRateLimiter getRateLimiter(String servicePath) {
+        if (servicePath != null) {
+            NCMBRateLimiter limiter = sServiceRateLimiters.get(servicePath);
+            if (limiter != null) {
+                return limiter;
+            }
+        }
+        return sRateLimiter;
+    }
+
+    /**
+     * Get HTTP transport
+     *
+     * @return transport given by initialize or default transport
+     */
+    static NCMBTransport getTransport() {
+        NCMBTransport transport = sTransport;
+        if (transport == null) {
+            transport = new NCMBDefaultTransport();
+            sTransport = transport;
+        }
+        return transport;
+    }
+
     /**
      * Get NCMBContext
      *
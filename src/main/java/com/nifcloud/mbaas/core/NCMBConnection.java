@@ -16,23 +16,34 @@
 package com.nifcloud.mbaas.core;
 
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
 import android.webkit.MimeTypeMap;
 
-import java.io.BufferedWriter;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Mac;
 
 /**
  * NCMBConnection is a class that communicates with NIFCLOUD mobile backend
@@ -42,12 +53,73 @@ public class NCMBConnection {
     //time out millisecond from NIFCLOUD mobile backend
     static int sConnectionTimeout = 10000;
 
+    //Request gzip compressed response
+    static boolean sResponseCompression = true;
+
+    //Whether identical GET requests running at the same time share one round trip. Disabled by default
+    static volatile boolean sRequestCoalescing = false;
+
+    //Executor running callbacks of asynchronous requests. Callbacks run on the main thread if null
+    static volatile Executor sCallbackExecutor = null;
+
+    //Whether results are converted from response data on the worker thread before callback
+    static volatile boolean sBackgroundMaterialization = true;
+
+    //Handler posting callbacks to the main thread. Shared by all classes through runOnCallbackThread
+    private static Handler sMainHandler = null;
+
+    //Minimum size in bytes of json request body compressed with gzip. Not compressed if 0 or less
+    static int sRequestCompressionThreshold = 0;
+
+    //HTTP status for Range request out of file size
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     //API request object
     private NCMBRequest ncmbRequest = null;
 
     //Callback after request api
     private RequestApiCallback mCallback;
 
+    //Service path for request dispatcher
+    private String mServicePath = null;
+
+    //Destination of file download
+    private NCMBFileDownload mDownload = null;
+    //再開したダウンロード全体のシグネチャを計算する
+    private NCMBSignedInputStream mDownloadSigner = null;
+
+    //Reader passing search results to callback while response body is read
+    private NCMBResultReader<?> mResultReader = null;
+
+    //Whether json request body may be compressed
+    private boolean mRequestCompression = false;
+
+    //Idempotency key sent with retried POST request
+    private String mIdempotencyKey = null;
+
+    //Waiting time in milliseconds requested by Retry-After header of the last response
+    private long mRetryAfter = -1;
+
+    //Call led by this connection and shared with identical requests
+    private NCMBSingleFlight.Call mFlight = null;
+
+    //Call of identical request whose result this connection waits for
+    private volatile NCMBSingleFlight.Call mJoined = null;
+
+    //Handle of the background method which started this request
+    private NCMBRequestHandle mHandle = null;
+
+    //Task running the asynchronous request
+    private volatile StaticAsyncTask mTask = null;
+
+    //Connection currently sending the request, closed on cancel
+    private volatile HttpURLConnection mActiveConnection = null;
+
+    private volatile boolean mCancelled = false;
+
+    //Whether rate limit token for the first attempt was taken before dispatching
+    private boolean mPermitReserved = false;
+
     /**
      * setting callback for api request
      *
@@ -75,144 +147,643 @@ public class NCMBConnection {
     public NCMBResponse sendRequest() throws NCMBException {
 
         NCMBResponse res = null;
+        Future<NCMBResponse> future = null;
+        String key = createCoalescingKey();
+        if (key != null) {
+            NCMBSingleFlight.Call call = new NCMBSingleFlight.Call(key);
+            NCMBSingleFlight.Call running = NCMBSingleFlight.start(call);
+            if (running != call) {
+                //同じリクエストの結果を待つ
+                NCMBConnectionStats.requestCoalesced();
+                NCMBResponse shared = running.await(getTotalTimeout());
+                if (shared == null) {
+                    //先行するリクエストがキャンセルされたため自身で送信する
+                    return sendRequest();
+                }
+                return checkResponse(shared.copy());
+            }
+            mFlight = call;
+        }
         try {
-            ExecutorService exec = Executors.newSingleThreadExecutor();
+            try {
+                //レート制限の待機は呼び出し元のスレッドで行う
+                long wait = reservePermit();
+                if (wait > 0) {
+                    NCMBRequestDispatcher.getInstance().sleep(wait);
+                }
+            } catch (NCMBException e) {
+                abandonFlight(e);
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                NCMBException error = new NCMBException(e);
+                abandonFlight(error);
+                throw error;
+            }
+            try {
+                future = NCMBRequestDispatcher.getInstance().submit(new Callable<NCMBResponse>() {
+                    @Override
+                    public NCMBResponse call() throws NCMBException {
+                        return perform();
+                    }
 
-            Future<NCMBResponse> future = exec.submit(new Callable<NCMBResponse>() {
-                @Override
-                public NCMBResponse call() throws NCMBException {
-                    HttpURLConnection urlConnection = null;
-                    NCMBResponse res = null;
-
-                    try {
-                        URL url = ncmbRequest.getUrl();
-                        urlConnection = (HttpURLConnection) url.openConnection();
-                        urlConnection.setRequestMethod(ncmbRequest.getMethod());
-                        //Set HTTP request header
-                        for (String requestKey : ncmbRequest.getAllRequestProperties().keySet()) {
-                            urlConnection.setRequestProperty(requestKey, ncmbRequest.getRequestProperty(requestKey));
-                        }
+                }, ncmbRequest.getUrl().getHost(), mServicePath);
+            } catch (RejectedExecutionException e) {
+                //同期処理はNCMBExceptionのみを投げる
+                NCMBException error = new NCMBException(NCMBException.GENERIC_ERROR, e.getMessage());
+                abandonFlight(error);
+                throw error;
+            }
 
-                        //Check request method
-                        if (urlConnection.getRequestMethod().equals("POST") ||
-                                urlConnection.getRequestMethod().equals("PUT")) {
-
-                            //enable post data option
-                            urlConnection.setDoOutput(true);
-
-                            if (urlConnection.getRequestProperty("Content-Type").equals(NCMBRequest.HEADER_CONTENT_TYPE_JSON)) {
-                                //Sending json data
-                                DataOutputStream out = new DataOutputStream(urlConnection.getOutputStream());
-                                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-                                writer.write(ncmbRequest.getContent());
-                                writer.flush();
-                                writer.close();
-                            } else if (urlConnection.getRequestProperty("Content-Type").equals(NCMBRequest.HEADER_CONTENT_TYPE_FILE)) {
-
-                                //Sending file data
-                                final String boundary = Long.toString(System.currentTimeMillis());
-                                final String lineEnd = "\r\n";
-                                urlConnection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-                                DataOutputStream out = new DataOutputStream(urlConnection.getOutputStream());
-
-                                //upload data
-                                out.writeBytes("--" + boundary + lineEnd);
-                                out.writeBytes("Content-Disposition: form-data; name=file; filename=" + URLEncoder.encode(ncmbRequest.getFileName(), "UTF-8") + lineEnd);
-                                out.writeBytes("Content-Type: " + createMimeType(ncmbRequest.getFileName()) + lineEnd);
-                                out.writeBytes(lineEnd);
-                                for (int i = 0; i < ncmbRequest.getFileData().length; i++) {
-                                    out.writeByte(ncmbRequest.getFileData()[i]);
-                                }
-                                out.writeBytes(lineEnd);
-
-                                //ACLのみ対応
-                                if (!ncmbRequest.getContent().isEmpty() && !ncmbRequest.getContent().equals("{}")) {
-                                    out.writeBytes("--" + boundary + lineEnd);
-                                    out.writeBytes("Content-Disposition: form-data; name=acl; filename=acl" + lineEnd);
-                                    out.writeBytes(lineEnd);
-                                    out.writeBytes(ncmbRequest.getContent());
-                                    out.writeBytes(lineEnd);
-                                }
-
-                                out.writeBytes("--" + boundary + "--" + lineEnd);
-                                out.flush();
-                                out.close();
-                            }
+            if (mDownload != null || mResultReader != null) {
+                //Download and streamed search time depend on response size, so only read timeout is applied
+                res = future.get();
+            } else {
+                res = future.get(getTotalTimeout(), TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            //待機を止めるだけでなく通信も中断する
+            NCMBConnectionStats.requestTimedOut();
+            cancel();
+            if (future != null) {
+                future.cancel(true);
+            }
+            NCMBException error = new NCMBException(e);
+            //実行前に取り消された場合も同じリクエストを待っている呼び出しを終了させる
+            abandonFlight(error);
+            throw error;
+        } catch (CancellationException e) {
+            //待機キューから破棄された
+            NCMBException error = new NCMBException(NCMBException.GENERIC_ERROR,
+                    NCMBRequestDispatcher.DISCARDED_MESSAGE);
+            abandonFlight(error);
+            throw error;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new NCMBException(e);
+        }
+        return checkResponse(res);
+    }
 
-                        }
-                        urlConnection.connect();
-
-                        //Read response data
-                        if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_CREATED ||
-                                urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                            res = new NCMBResponse(urlConnection.getInputStream(), urlConnection.getResponseCode(), urlConnection.getHeaderFields());
-                        } else {
-                            res = new NCMBResponse(urlConnection.getErrorStream(), urlConnection.getResponseCode(), urlConnection.getHeaderFields());
-                        }
+    // リトライとレート制限の待機を含めたリクエスト全体のタイムアウト時間
+    private long getTotalTimeout() {
+        int attempts = 1;
+        long timeout = 0;
+        NCMBRetryPolicy policy = NCMB.getRetryPolicy(mServicePath);
+        if (policy != null && isRetryable(policy)) {
+            attempts += policy.getMaxRetries();
+            timeout += policy.getMaxTotalBackoff();
+        }
+        NCMBRateLimiter limiter = NCMB.getRateLimiter(mServicePath);
+        long maxWait = limiter != null ? limiter.getMaxWait() : 0;
+        return timeout + (sConnectionTimeout + maxWait) * attempts;
+    }
 
-                        // response signature check
-                        responseSignatureCheck(urlConnection, res, ncmbRequest);
+    // レート制限が設定されている場合は送信可能になるまで待機する
+    private void acquirePermit() throws NCMBException {
+        if (mPermitReserved) {
+            //ディスパッチ前に待機済み
+            mPermitReserved = false;
+            return;
+        }
+        NCMBRateLimiter limiter = NCMB.getRateLimiter(mServicePath);
+        if (limiter != null) {
+            limiter.acquire(ncmbRequest.getApplicationKey(), mServicePath);
+        }
+    }
 
+    // ディスパッチ前にレート制限のトークンを予約し、待機時間(ミリ秒)を返す
+    private long reservePermit() throws NCMBException {
+        NCMBRateLimiter limiter = NCMB.getRateLimiter(mServicePath);
+        if (limiter == null) {
+            return 0;
+        }
+        long wait = limiter.reserve(ncmbRequest.getApplicationKey(), mServicePath);
+        mPermitReserved = true;
+        return wait;
+    }
 
-                    } catch (IOException e) {
-                        throw new NCMBException(NCMBException.AUTH_FAILURE, e.getMessage());
-                    } finally {
-                        //Disconnect HTTPURLConnection
-                        if (urlConnection != null) {
-                            urlConnection.disconnect();
-                        }
+    /**
+     * Send request and read response on the current thread
+     *
+     * @return result object from NIFCLOUD mobile backend
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse exchange() throws NCMBException {
+        try {
+            return exchangeOnce();
+        } catch (IOException e) {
+            throw networkError(e);
+        }
+    }
+
+    private NCMBResponse exchangeOnce() throws IOException, NCMBException {
+        acquirePermit();
+        NCMBTransport transport = NCMB.getTransport();
+        HttpURLConnection urlConnection = null;
+        NCMBResponse res = null;
+        boolean responseRead = false;
+        mRetryAfter = -1;
+
+        try {
+            URL url = ncmbRequest.getUrl();
+            urlConnection = transport.openConnection(url);
+            setActiveConnection(urlConnection);
+            //Worker threads must not block longer than timeout
+            urlConnection.setConnectTimeout(sConnectionTimeout);
+            urlConnection.setReadTimeout(sConnectionTimeout);
+            urlConnection.setRequestMethod(ncmbRequest.getMethod());
+            //Set HTTP request header
+            for (String requestKey : ncmbRequest.getAllRequestProperties().keySet()) {
+                urlConnection.setRequestProperty(requestKey, ncmbRequest.getRequestProperty(requestKey));
+            }
+            //Decode gzip response by SDK to count compressed bytes
+            urlConnection.setRequestProperty("Accept-Encoding", sResponseCompression ? "gzip" : "identity");
+            if (mIdempotencyKey != null) {
+                urlConnection.setRequestProperty(NCMBRetryPolicy.HEADER_IDEMPOTENCY_KEY, mIdempotencyKey);
+            }
+
+            //Check request method
+            if (urlConnection.getRequestMethod().equals("POST") ||
+                    urlConnection.getRequestMethod().equals("PUT")) {
+
+                //enable post data option
+                urlConnection.setDoOutput(true);
+
+                if (urlConnection.getRequestProperty("Content-Type").equals(NCMBRequest.HEADER_CONTENT_TYPE_JSON)) {
+                    //Sending json data with known length
+                    byte[] content = ncmbRequest.getContent().getBytes("UTF-8");
+                    int contentLength = content.length;
+                    if (mRequestCompression && sRequestCompressionThreshold > 0
+                            && content.length >= sRequestCompressionThreshold) {
+                        content = gzip(content);
+                        urlConnection.setRequestProperty("Content-Encoding", "gzip");
                     }
-                    return res;
+                    NCMBConnectionStats.requestBodyWritten(contentLength, content.length);
+                    urlConnection.setFixedLengthStreamingMode(content.length);
+                    OutputStream out = urlConnection.getOutputStream();
+                    out.write(content);
+                    out.flush();
+                    out.close();
+                } else if (urlConnection.getRequestProperty("Content-Type").equals(NCMBRequest.HEADER_CONTENT_TYPE_FILE)) {
+                    //Sending file data
+                    writeMultipartBody(urlConnection);
                 }
 
-            });
+            }
+            urlConnection.connect();
+
+            //Read response data
+            InputStream in;
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_CREATED ||
+                    urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                in = urlConnection.getInputStream();
+            } else {
+                in = urlConnection.getErrorStream();
+            }
 
-            res = future.get(sConnectionTimeout, TimeUnit.MILLISECONDS);
-            if (res.statusCode != HttpURLConnection.HTTP_CREATED &&
-                    res.statusCode != HttpURLConnection.HTTP_OK) {
-                throw new NCMBException(res.mbStatus, res.mbErrorMessage);
+            // gzip response is decoded while reading
+            NCMBCountingInputStream receivedIn = null;
+            NCMBCountingInputStream decodedIn = null;
+            if (in != null) {
+                receivedIn = new NCMBCountingInputStream(in);
+                in = receivedIn;
+                if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                    decodedIn = new NCMBCountingInputStream(new GZIPInputStream(receivedIn, NCMBFileData.BUFFER_SIZE));
+                    in = decodedIn;
+                }
+            }
+
+            // response signature is calculated while reading response data
+            String responseSignature = urlConnection.getHeaderField("X-NCMB-Response-Signature");
+            NCMBSignedInputStream signedIn = null;
+            if (NCMB.getResponseValidation() && responseSignature != null && !responseSignature.isEmpty() && in != null) {
+                signedIn = new NCMBSignedInputStream(in, ncmbRequest,
+                        !NCMBResponse.isJsonContentType(urlConnection.getContentType()));
+                in = signedIn;
+            }
+            int responseCode = urlConnection.getResponseCode();
+            boolean streamed = mResultReader != null && in != null && responseCode == HttpURLConnection.HTTP_OK
+                    && NCMBResponse.isJsonContentType(urlConnection.getContentType());
+            if (streamed) {
+                //検索結果を読み込みながらコールバックに渡す。シグネチャを検証する場合は検証後に渡す
+                res = mResultReader.read(in, responseCode, signedIn != null);
+            } else {
+                //シグネチャは読み込みながら計算するため受信したデータは保持しない
+                res = new NCMBResponse(in, responseCode, urlConnection.getHeaderFields(), false);
             }
+            responseRead = true;
+            if (receivedIn != null) {
+                NCMBConnectionStats.responseBodyRead(receivedIn.getCount(),
+                        decodedIn != null ? decodedIn.getCount() : receivedIn.getCount());
+            }
+            if (signedIn != null) {
+                checkSignature(signedIn, responseSignature);
+            }
+            if (streamed) {
+                mResultReader.flush();
+            }
+            mRetryAfter = parseRetryAfter(urlConnection);
+
+        } catch (IOException e) {
+            //キャンセルにより切断された場合
+            checkCancelled();
+            throw e;
+        } finally {
+            //Release HTTPURLConnection
+            mActiveConnection = null;
+            if (urlConnection != null) {
+                NCMBDefaultTransport.releaseConnection(transport, urlConnection, responseRead);
+            }
+        }
+        return res;
+    }
+
+    NCMBResponse perform() throws NCMBException {
+        NCMBSingleFlight.Call flight = mFlight;
+        if (flight == null) {
+            return performRequest();
+        }
+        mFlight = null;
+        NCMBResponse res = null;
+        NCMBException error = null;
+        try {
+            res = performRequest();
             return res;
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            throw new NCMBException(e);
+        } catch (NCMBException e) {
+            error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            error = new NCMBException(e);
+            throw e;
+        } finally {
+            if (res == null && error == null) {
+                //Errorで中断した場合も待機中の呼び出しを終了させる
+                error = new NCMBException(NCMBException.GENERIC_ERROR, "Request failed.");
+            }
+            if (mCancelled) {
+                //キャンセルを待っている呼び出しに広げない
+                flight.release();
+            } else {
+                //同じリクエストを待っている呼び出しに結果を共有する
+                flight.complete(res, error);
+            }
         }
     }
 
-    // レスポンスシグネチャが正常か判定
-    void responseSignatureCheck(URLConnection urlConnection, NCMBResponse res, NCMBRequest req) throws NCMBException {
+    private NCMBResponse performRequest() throws NCMBException {
+        if (mDownload != null) {
+            return download();
+        }
+        NCMBRetryPolicy policy = NCMB.getRetryPolicy(mServicePath);
+        if (policy == null || !isRetryable(policy)) {
+            return exchange();
+        }
+        return exchangeWithRetry(policy);
+    }
+
+    // リクエストを再送できるか判定
+    private boolean isRetryable(NCMBRetryPolicy policy) {
+        if (policy.getMaxRetries() == 0 || !policy.isRetryableMethod(ncmbRequest.getMethod())) {
+            return false;
+        }
+        //読み込み済みのストリームは再送できない
+        NCMBFileData fileBody = ncmbRequest.getFileBody();
+        return fileBody == null || fileBody.isRepeatable();
+    }
+
+    /**
+     * Send request and retry it on network error or temporary server error
+     *
+     * @param policy retry policy
+     * @return result object from NIFCLOUD mobile backend
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse exchangeWithRetry(NCMBRetryPolicy policy) throws NCMBException {
+        if (NCMBRequest.HTTP_METHOD_POST.equals(ncmbRequest.getMethod())) {
+            //同じリクエストであることをサーバーが判別できるよう、リトライ時も同じキーを送信する
+            mIdempotencyKey = UUID.randomUUID().toString();
+        }
+        int retryCount = 0;
+        while (true) {
+            NCMBResponse res = null;
+            IOException error = null;
+            try {
+                res = exchangeOnce();
+            } catch (IOException e) {
+                error = e;
+            }
+            if (res != null && !policy.isRetryableResponse(res)) {
+                policy.recordSuccess();
+                return res;
+            }
+
+            long backoff = -1;
+            //受信済みの検索結果を重複して渡さないよう再送しない
+            boolean delivered = mResultReader != null && mResultReader.getCount() > 0;
+            if (!delivered && retryCount < policy.getMaxRetries() && policy.acquireRetry()) {
+                backoff = policy.computeBackoff(retryCount, res != null ? mRetryAfter : -1);
+            }
+            if (backoff < 0) {
+                if (error != null) {
+                    throw networkError(error);
+                }
+                return res;
+            }
+            try {
+                //待機中は他のリクエストに実行枠を譲る
+                NCMBRequestDispatcher.getInstance().sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (error != null) {
+                    throw networkError(error);
+                }
+                return res;
+            }
+            retryCount++;
+            NCMBConnectionStats.requestRetried();
+            //待機後のタイムスタンプで署名し直す
+            ncmbRequest.resign();
+        }
+    }
+
+    // Retry-Afterヘッダーの待機時間(ミリ秒)を取得する
+    private static long parseRetryAfter(HttpURLConnection urlConnection) {
+        String retryAfter = urlConnection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            //HTTP-date形式
+            long date = urlConnection.getHeaderFieldDate("Retry-After", -1);
+            return date < 0 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Download file data to the destination set by setDownload.<br>
+     * When the connection is lost while reading, download is resumed with Range request from the last written byte.
+     * The response signature of a partial response is verified against the whole file data,
+     * continuing the signature calculated for the data already written.
+     *
+     * @return result object from NIFCLOUD mobile backend
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse download() throws NCMBException {
+        int resumeCount = 0;
+        try {
+            while (true) {
+                long position = mDownload.position();
+                try {
+                    return downloadOnce();
+                } catch (IOException e) {
+                    //データを受信できていない場合は再開しない
+                    if (mDownload.position() <= position || resumeCount >= NCMBFileDownload.MAX_RESUME_COUNT) {
+                        throw networkError(e);
+                    }
+                    resumeCount++;
+                }
+            }
+        } finally {
+            try {
+                mDownload.close();
+            } catch (IOException e) {
+                //クローズ時のエラーは無視する
+            }
+        }
+    }
+
+    private NCMBResponse downloadOnce() throws IOException, NCMBException {
+        acquirePermit();
+        NCMBTransport transport = NCMB.getTransport();
+        HttpURLConnection urlConnection = null;
+        boolean responseRead = false;
+        try {
+            urlConnection = transport.openConnection(ncmbRequest.getUrl());
+            setActiveConnection(urlConnection);
+            urlConnection.setConnectTimeout(sConnectionTimeout);
+            urlConnection.setReadTimeout(sConnectionTimeout);
+            urlConnection.setRequestMethod(ncmbRequest.getMethod());
+            for (String requestKey : ncmbRequest.getAllRequestProperties().keySet()) {
+                urlConnection.setRequestProperty(requestKey, ncmbRequest.getRequestProperty(requestKey));
+            }
+            //Range is applied to file data without content encoding
+            urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            long offset = mDownload.position();
+            if (offset > 0) {
+                //Range header is not included in signature
+                urlConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            String contentRange = urlConnection.getHeaderField("Content-Range");
+            NCMBResponse res;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-")) {
+                    throw new NCMBException(NCMBException.NOT_EFFICIENT_VALUE, "Invalid content range: " + contentRange);
+                }
+                transferBody(urlConnection, 0, true);
+                res = new NCMBResponse(HttpURLConnection.HTTP_OK);
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                //Range request is ignored by server
+                long skip = offset > 0 && !mDownload.restart() ? offset : 0;
+                transferBody(urlConnection, skip, false);
+                res = new NCMBResponse(HttpURLConnection.HTTP_OK);
+            } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0
+                    && ("bytes */" + offset).equals(contentRange)) {
+                //Already downloaded whole file data
+                res = new NCMBResponse(HttpURLConnection.HTTP_OK);
+            } else {
+                res = readErrorResponse(urlConnection, responseCode);
+            }
+            responseRead = true;
+            return res;
+        } catch (IOException e) {
+            //キャンセルにより切断された場合は再開しない
+            checkCancelled();
+            throw e;
+        } finally {
+            mActiveConnection = null;
+            if (urlConnection != null) {
+                NCMBDefaultTransport.releaseConnection(transport, urlConnection, responseRead);
+            }
+        }
+    }
+
+    // レスポンスボディを書き込み、シグネチャを検証する
+    // 部分レスポンスの場合は書き込み済みのデータを含むファイル全体のシグネチャを検証する
+    private void transferBody(HttpURLConnection urlConnection, long skip, boolean partial) throws IOException, NCMBException {
         String responseSignature = urlConnection.getHeaderField("X-NCMB-Response-Signature");
-        if (NCMB.getResponseValidation() && responseSignature != null && !responseSignature.isEmpty()) {
-            String hashData = "";
-            if (res.responseByte != null) {
-                // file data
-                String hexadecimal = asHex(res.responseByte);
-                hashData = req.getSignatureHashData() + "\n" + hexadecimal;
-            } else if(res.responseDataString != null){
-                // json data
-                hashData = req.getSignatureHashData() + "\n" + res.responseData.toString();
-            }else {
-                // delete,logout API
-                hashData = req.getSignatureHashData();
+        NCMBCountingInputStream receivedIn = new NCMBCountingInputStream(urlConnection.getInputStream());
+        InputStream in = receivedIn;
+        NCMBSignedInputStream signedIn = null;
+        if (NCMB.getResponseValidation()) {
+            signedIn = partial ? resumeSigner(receivedIn) : new NCMBSignedInputStream(in, ncmbRequest, true);
+            mDownloadSigner = signedIn;
+            in = signedIn;
+        }
+        try {
+            mDownload.transfer(in, skip);
+        } finally {
+            NCMBConnectionStats.responseBodyRead(receivedIn.getCount(), receivedIn.getCount());
+        }
+        if (signedIn != null && responseSignature != null && !responseSignature.isEmpty()) {
+            checkSignature(signedIn, responseSignature);
+        }
+    }
+
+    // 書き込み済みのデータのシグネチャ計算を引き継ぐ
+    private NCMBSignedInputStream resumeSigner(InputStream in) throws IOException, NCMBException {
+        long offset = mDownload.position();
+        NCMBSignedInputStream signer = mDownloadSigner;
+        if (signer == null || signer.count() != offset) {
+            //以前の通信で計算できていない場合は書き込み済みのデータを読み直す
+            InputStream written = mDownload.openWritten();
+            if (written == null) {
+                throw new NCMBException(NCMBException.INVALID_RESPONSE_SIGNATURE, "Resumed download can not be verified.");
+            }
+            try {
+                signer = new NCMBSignedInputStream(written, ncmbRequest, true);
+                if (signer.skip(offset) != offset) {
+                    throw new IOException("Written data is shorter than expected.");
+                }
+            } finally {
+                written.close();
             }
+        }
+        signer.resume(in);
+        return signer;
+    }
+
+    // エラーレスポンスを読み込みながらシグネチャを計算し、検証する
+    private NCMBResponse readErrorResponse(HttpURLConnection urlConnection, int responseCode) throws IOException, NCMBException {
+        String responseSignature = urlConnection.getHeaderField("X-NCMB-Response-Signature");
+        InputStream in = urlConnection.getErrorStream();
+        NCMBSignedInputStream signedIn = null;
+        if (NCMB.getResponseValidation() && responseSignature != null && !responseSignature.isEmpty() && in != null) {
+            signedIn = new NCMBSignedInputStream(in, ncmbRequest,
+                    !NCMBResponse.isJsonContentType(urlConnection.getContentType()));
+            in = signedIn;
+        }
+        NCMBResponse res = new NCMBResponse(in, responseCode, urlConnection.getHeaderFields(), false);
+        if (signedIn != null) {
+            checkSignature(signedIn, responseSignature);
+        }
+        return res;
+    }
+
+    // リクエストボディをgzip圧縮する
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(buffer);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    // ファイルデータをマルチパート形式でストリーミング送信する
+    private void writeMultipartBody(HttpURLConnection urlConnection) throws IOException {
+        final String boundary = Long.toString(System.currentTimeMillis());
+        final String lineEnd = "\r\n";
+        urlConnection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+        StringBuilder header = new StringBuilder();
+        header.append("--").append(boundary).append(lineEnd);
+        header.append("Content-Disposition: form-data; name=file; filename=").append(URLEncoder.encode(ncmbRequest.getFileName(), "UTF-8")).append(lineEnd);
+        header.append("Content-Type: ").append(createMimeType(ncmbRequest.getFileName())).append(lineEnd);
+        header.append(lineEnd);
+
+        StringBuilder footer = new StringBuilder();
+        footer.append(lineEnd);
+        //ACLのみ対応
+        if (!ncmbRequest.getContent().isEmpty() && !ncmbRequest.getContent().equals("{}")) {
+            footer.append("--").append(boundary).append(lineEnd);
+            footer.append("Content-Disposition: form-data; name=acl; filename=acl").append(lineEnd);
+            footer.append(lineEnd);
+            footer.append(ncmbRequest.getContent());
+            footer.append(lineEnd);
+        }
+        footer.append("--").append(boundary).append("--").append(lineEnd);
+
+        byte[] headerBytes = header.toString().getBytes("UTF-8");
+        byte[] footerBytes = footer.toString().getBytes("UTF-8");
+        NCMBFileData fileBody = ncmbRequest.getFileBody();
+        long fileLength = fileBody != null ? fileBody.length() : 0;
 
-            String newSignature = req.createSignature(hashData, req.getClientKey());
-            if (!newSignature.equals(responseSignature)) {
-                throw new NCMBException(NCMBException.INVALID_RESPONSE_SIGNATURE, "Authentication error by response signature incorrect.");
+        //長さが分かる場合は固定長、不明な場合はチャンク形式で送信する
+        long contentLength = fileLength < 0 ? -1 : headerBytes.length + fileLength + footerBytes.length;
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            urlConnection.setFixedLengthStreamingMode((int) contentLength);
+        } else {
+            urlConnection.setChunkedStreamingMode(NCMBFileData.BUFFER_SIZE);
+        }
+
+        OutputStream out = new BufferedOutputStream(urlConnection.getOutputStream(), NCMBFileData.BUFFER_SIZE);
+        try {
+            out.write(headerBytes);
+            if (fileBody != null) {
+                fileBody.writeTo(out);
             }
+            out.write(footerBytes);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    // 成功以外のステータスコードの場合はエラーとする
+    NCMBResponse checkResponse(NCMBResponse res) throws NCMBException {
+        if (res.statusCode != HttpURLConnection.HTTP_CREATED &&
+                res.statusCode != HttpURLConnection.HTTP_OK) {
+            throw new NCMBException(res.mbStatus, res.mbErrorMessage);
+        }
+        return res;
+    }
+
+    // 読み込み済みのレスポンスのシグネチャが正常か判定
+    private void checkSignature(NCMBSignedInputStream signedIn, String responseSignature) throws NCMBException {
+        if (!signedIn.signature().equals(responseSignature)) {
+            throw new NCMBException(NCMBException.INVALID_RESPONSE_SIGNATURE, "Authentication error by response signature incorrect.");
         }
     }
 
-    // バイト配列を16進数文字列に変換
-    String asHex(byte[] data) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : data) {
-            String s = Integer.toHexString(0xff & b);
-            if (s.length() == 1) {
-                sb.append("0");
+    // レスポンスシグネチャが正常か判定
+    void responseSignatureCheck(URLConnection urlConnection, NCMBResponse res, NCMBRequest req) throws NCMBException {
+        String responseSignature = urlConnection.getHeaderField("X-NCMB-Response-Signature");
+        if (NCMB.getResponseValidation() && responseSignature != null && !responseSignature.isEmpty()) {
+            try {
+                Mac mac = req.createSignatureMac(req.getClientKey());
+                mac.update(req.getSignatureHashData().getBytes("UTF-8"));
+                if (res.responseByte != null) {
+                    // file data
+                    mac.update((byte) '\n');
+                    byte[] hexBuffer = new byte[NCMBFileDownload.BUFFER_SIZE * 2];
+                    for (int offset = 0; offset < res.responseByte.length; offset += NCMBFileDownload.BUFFER_SIZE) {
+                        int length = Math.min(NCMBFileDownload.BUFFER_SIZE, res.responseByte.length - offset);
+                        NCMBSignedInputStream.updateHex(mac, res.responseByte, offset, length, hexBuffer);
+                    }
+                } else if (res.rawBody != null) {
+                    // json data
+                    mac.update((byte) '\n');
+                    mac.update(res.rawBody);
+                }
+                // delete,logout API has no response data
+
+                String newSignature = Base64.encodeToString(mac.doFinal(), Base64.NO_WRAP);
+                if (!newSignature.equals(responseSignature)) {
+                    throw new NCMBException(NCMBException.INVALID_RESPONSE_SIGNATURE, "Authentication error by response signature incorrect.");
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new NCMBException(e);
+            } finally {
+                //検証後は受信したデータを保持しない
+                res.rawBody = null;
             }
-            sb.append(s);
         }
-        return sb.toString();
     }
 
     /**
@@ -222,9 +793,271 @@ public class NCMBConnection {
      */
     public void sendRequestAsynchronously(RequestApiCallback callback) {
         setCallbackListener(callback);
-        StaticAsyncTask task = new StaticAsyncTask(this);
-        task.execute();
+        mHandle = NCMBRequestHandle.current();
+        if (mHandle != null) {
+            mHandle.add(this);
+        }
+        if (mCancelled) {
+            deliverCancelled();
+            return;
+        }
+        dispatch();
+    }
+
+    // 同じリクエストの結果を待つか、ディスパッチャーに登録する
+    private void dispatch() {
+        String key = createCoalescingKey();
+        if (key != null) {
+            NCMBSingleFlight.Call call = new NCMBSingleFlight.Call(key);
+            NCMBSingleFlight.Call running = NCMBSingleFlight.start(call);
+            if (running != call) {
+                if (running.addWaiter(this)) {
+                    mJoined = running;
+                    NCMBConnectionStats.requestCoalesced();
+                    return;
+                }
+            } else {
+                mFlight = call;
+            }
+        }
+        long wait;
+        try {
+            //レート制限の待機はワーカースレッドを使わずにディスパッチを遅らせる
+            wait = reservePermit();
+        } catch (NCMBException e) {
+            abandonFlight(e);
+            executeCallback(null, e);
+            return;
+        }
+        final StaticAsyncTask task = new StaticAsyncTask(this);
+        mTask = task;
+        try {
+            task.executeOnExecutor(NCMBRequestDispatcher.getInstance().newCallExecutor(
+                    ncmbRequest.getUrl().getHost(), mServicePath, new Runnable() {
+                        @Override
+                        public void run() {
+                            task.discard();
+                        }
+                    }, wait));
+        } catch (RejectedExecutionException e) {
+            NCMBException error = new NCMBException(NCMBException.GENERIC_ERROR, e.getMessage());
+            abandonFlight(error);
+            executeCallback(null, error);
+        }
+    }
+
+    /**
+     * Execute callback with the result shared by identical request.<br>
+     * Called on the thread of the leading request, and the callback is posted to the callback thread.
+     *
+     * @param res   response of the leading request
+     * @param error error of the leading request
+     */
+    void deliverShared(NCMBResponse res, NCMBException error) {
+        NCMBResponse copy = null;
+        if (error == null) {
+            try {
+                //呼び出し毎に別のレスポンスを渡す
+                copy = checkResponse(res.copy());
+                prepareResult(copy);
+            } catch (NCMBException e) {
+                error = e;
+            }
+        }
+        final NCMBResponse sharedRes = copy;
+        final NCMBException sharedError = error;
+        runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                executeCallback(sharedRes, sharedError);
+            }
+        });
+    }
+
+    /**
+     * Send the request by itself, when the leading identical request has been cancelled
+     */
+    void resend() {
+        mJoined = null;
+        runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    deliverCancelled();
+                } else {
+                    dispatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel the request and close its connection
+     */
+    void cancel() {
+        if (mCancelled) {
+            return;
+        }
+        mCancelled = true;
+        NCMBConnectionStats.requestCancelled();
+        HttpURLConnection activeConnection = mActiveConnection;
+        if (activeConnection != null) {
+            //読み込み中のソケットを閉じて通信を中断する
+            activeConnection.disconnect();
+        }
+        NCMBSingleFlight.Call joined = mJoined;
+        if (joined != null && joined.removeWaiter(this)) {
+            runOnCallbackThread(new Runnable() {
+                @Override
+                public void run() {
+                    deliverCancelled();
+                }
+            });
+        }
+        StaticAsyncTask task = mTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void setActiveConnection(HttpURLConnection urlConnection) throws NCMBException {
+        mActiveConnection = urlConnection;
+        //接続中にキャンセルされた場合
+        checkCancelled();
+    }
+
+    private void checkCancelled() throws NCMBException {
+        if (mCancelled) {
+            throw new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled.");
+        }
+    }
+
+    private void deliverCancelled() {
+        executeCallback(null, new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+    }
 
+    // リクエストのハンドル内でコールバックを実行する。コールバック内のリクエストも同じハンドルに属する
+    private void executeCallback(NCMBResponse res, NCMBException error) {
+        //キャンセル済みのハンドルではコールバック内のリクエストを開始しない
+        final NCMBRequestHandle handle = mHandle != null && !mHandle.isCancelled() ? mHandle : null;
+        if (mHandle != null) {
+            mHandle.remove(this);
+        }
+        if (handle != null) {
+            NCMBRequestHandle.enter(handle);
+        }
+        try {
+            if (mCallback != null) {
+                mCallback.done(res, error);
+            }
+        } finally {
+            if (handle != null) {
+                NCMBRequestHandle.end(handle);
+            }
+        }
+    }
+
+    /**
+     * Create the exception of a network error.<br>
+     * The code is AUTH_FAILURE as before, and the IOException is kept as the cause
+     * to tell the error from the same code returned by NIFCLOUD mobile backend
+     *
+     * @param e exception while sending request or reading response
+     * @return exception passed to the caller
+     */
+    static NCMBException networkError(IOException e) {
+        NCMBException error = new NCMBException(NCMBException.AUTH_FAILURE, e.getMessage());
+        error.initCause(e);
+        return error;
+    }
+
+    // 結果オブジェクトへの変換をコールバック前にワーカースレッドで行う
+    private void prepareResult(NCMBResponse res) {
+        if (sBackgroundMaterialization && mCallback instanceof NCMBService.ServiceCallback) {
+            ((NCMBService.ServiceCallback) mCallback).prepare(res);
+        }
+    }
+
+    /**
+     * Run the task on the thread where callbacks are executed.<br>
+     * Classes posting callbacks use this method instead of creating their own Handler.
+     *
+     * @param task task
+     */
+    static void runOnCallbackThread(Runnable task) {
+        Executor executor = sCallbackExecutor;
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            getMainHandler().post(task);
+        }
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    // 送信できなかった場合、同じリクエストを待っている呼び出しにエラーを通知する
+    private void abandonFlight(NCMBException error) {
+        if (mFlight != null) {
+            mFlight.complete(null, error);
+            mFlight = null;
+        }
+    }
+
+    // キャンセルされた場合、同じリクエストを待っている呼び出しをそれぞれ送信させる
+    private void releaseFlight() {
+        if (mFlight != null) {
+            mFlight.release();
+            mFlight = null;
+        }
+    }
+
+    // 同じリクエストをまとめるためのキーを作成する。まとめられない場合はnull
+    private String createCoalescingKey() {
+        if (!sRequestCoalescing || mDownload != null || mResultReader != null) {
+            return null;
+        }
+        return NCMBSingleFlight.createKey(ncmbRequest);
+    }
+
+    /**
+     * Set service path used to limit the number of running requests per service
+     *
+     * @param servicePath service path of request
+     */
+    void setServicePath(String servicePath) {
+        mServicePath = servicePath;
+    }
+
+    /**
+     * Set destination to download response body without buffering in memory
+     *
+     * @param download destination of file data
+     */
+    void setDownload(NCMBFileDownload download) {
+        mDownload = download;
+    }
+
+    /**
+     * Set reader to pass search results to callback without buffering whole response in memory
+     *
+     * @param resultReader reader of search results
+     */
+    void setResultReader(NCMBResultReader<?> resultReader) {
+        mResultReader = resultReader;
+    }
+
+    /**
+     * Allow json request body to be compressed with gzip when it is larger than the threshold
+     *
+     * @param requestCompression true to allow compression
+     */
+    void setRequestCompression(boolean requestCompression) {
+        mRequestCompression = requestCompression;
     }
 
     private String createMimeType(String fileName) {
@@ -245,6 +1078,10 @@ public class NCMBConnection {
         private NCMBConnection connection = null;
         NCMBResponse res = null;
         NCMBException error = null;
+        //Whether the callback has been passed to the callback executor
+        private volatile boolean delivered = false;
+        //Error passed instead of the cancellation when discarded from the dispatcher queue
+        private volatile NCMBException rejection = null;
 
         StaticAsyncTask(NCMBConnection connection) {
             this.connection = connection;
@@ -254,20 +1091,62 @@ public class NCMBConnection {
         protected Void doInBackground(Void... params) {
             if(connection != null){
                 try {
-                    res = connection.sendRequest();
+                    //Already running on dispatcher thread
+                    res = connection.checkResponse(connection.perform());
+                    connection.prepareResult(res);
                 } catch (NCMBException e) {
                     error = e;
                 }
-
+                //コールバックの実行スレッドが指定されている場合はメインスレッドを経由しない
+                if (sCallbackExecutor != null && !isCancelled()) {
+                    delivered = true;
+                    final NCMBResponse result = res;
+                    final NCMBException resultError = error;
+                    runOnCallbackThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            connection.executeCallback(result, resultError);
+                        }
+                    });
+                }
             }
             return null;
         }
 
+        // 待機キューから破棄された場合はAsyncTaskごと取り消し、拒否のエラーを渡す
+        void discard() {
+            rejection = new NCMBException(NCMBException.GENERIC_ERROR, NCMBRequestDispatcher.DISCARDED_MESSAGE);
+            cancel(false);
+        }
+
+        @Override
+        protected void onCancelled() {
+            if(connection != null && !delivered){
+                final NCMBException cancelled = rejection != null
+                        ? rejection : new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled.");
+                if (rejection != null) {
+                    connection.abandonFlight(cancelled);
+                } else {
+                    connection.releaseFlight();
+                }
+                if (sCallbackExecutor != null) {
+                    runOnCallbackThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            connection.executeCallback(null, cancelled);
+                        }
+                    });
+                } else {
+                    connection.executeCallback(null, cancelled);
+                }
+            }
+        }
+
         @Override
         protected void onPostExecute(Void o) {
 
-            if(connection != null && connection.mCallback != null){
-                connection.mCallback.done(res, error);
+            if(connection != null && !delivered){
+                connection.executeCallback(res, error);
             }
         }
     }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NCMBConnectionStats contains connection and transferred bytes counters of the SDK
+ */
+public class NCMBConnectionStats {
+
+    private static final AtomicLong sKeptAliveReleases = new AtomicLong();
+    private static final AtomicLong sDisconnects = new AtomicLong();
+    private static final AtomicLong sRequestBytes = new AtomicLong();
+    private static final AtomicLong sRequestBytesSent = new AtomicLong();
+    private static final AtomicLong sResponseBytesReceived = new AtomicLong();
+    private static final AtomicLong sResponseBytes = new AtomicLong();
+    private static final AtomicLong sRetries = new AtomicLong();
+    private static final AtomicLong sRateLimitWaits = new AtomicLong();
+    private static final AtomicLong sRateLimitWaitNanos = new AtomicLong();
+    private static final AtomicLong sRateLimitSheds = new AtomicLong();
+    private static final AtomicLong sCoalescedRequests = new AtomicLong();
+    private static final AtomicLong sCancelledRequests = new AtomicLong();
+    private static final AtomicLong sTimedOutRequests = new AtomicLong();
+
+    /**
+     * Get the number of connections returned to the keep-alive pool of HttpURLConnection
+     * after the response was read to the end.<br>
+     * HttpURLConnection does not tell whether the next request actually reuses the socket,
+     * so this counts releases, not reuses.
+     *
+     * @return number of kept-alive releases
+     */
+    public static long getKeptAliveReleaseCount() {
+        return sKeptAliveReleases.get();
+    }
+
+    /**
+     * Get the number of connections disconnected after the request
+     *
+     * @return number of disconnected connections
+     */
+    public static long getDisconnectCount() {
+        return sDisconnects.get();
+    }
+
+    /**
+     * Get the total size of json request bodies before compression
+     *
+     * @return bytes before compression
+     */
+    public static long getRequestBytes() {
+        return sRequestBytes.get();
+    }
+
+    /**
+     * Get the total size of json request bodies actually sent, after compression
+     *
+     * @return bytes sent
+     */
+    public static long getRequestBytesSent() {
+        return sRequestBytesSent.get();
+    }
+
+    /**
+     * Get the total size of response bodies actually received, before decompression
+     *
+     * @return bytes received
+     */
+    public static long getResponseBytesReceived() {
+        return sResponseBytesReceived.get();
+    }
+
+    /**
+     * Get the total size of response bodies after decompression
+     *
+     * @return bytes after decompression
+     */
+    public static long getResponseBytes() {
+        return sResponseBytes.get();
+    }
+
+    /**
+     * Get the number of requests sent again by retry policy
+     *
+     * @return number of retries
+     */
+    public static long getRetryCount() {
+        return sRetries.get();
+    }
+
+    /**
+     * Get the number of requests delayed by client side rate limit
+     *
+     * @return number of delayed requests
+     */
+    public static long getRateLimitWaitCount() {
+        return sRateLimitWaits.get();
+    }
+
+    /**
+     * Get the total time requests waited for client side rate limit
+     *
+     * @return milliseconds
+     */
+    public static long getRateLimitWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(sRateLimitWaitNanos.get());
+    }
+
+    /**
+     * Get the number of requests not sent because of client side rate limit
+     *
+     * @return number of shed requests
+     */
+    public static long getRateLimitShedCount() {
+        return sRateLimitSheds.get();
+    }
+
+    /**
+     * Get the number of requests which shared the response of an identical request running at the same time
+     *
+     * @return number of coalesced requests
+     */
+    public static long getCoalescedRequestCount() {
+        return sCoalescedRequests.get();
+    }
+
+    /**
+     * Get the number of requests cancelled, including requests aborted by timeout
+     *
+     * @return number of cancelled requests
+     */
+    public static long getCancelledRequestCount() {
+        return sCancelledRequests.get();
+    }
+
+    /**
+     * Get the number of synchronous requests aborted by timeout
+     *
+     * @return number of timed out requests
+     */
+    public static long getTimedOutRequestCount() {
+        return sTimedOutRequests.get();
+    }
+
+    /**
+     * Reset all counters
+     */
+    public static void reset() {
+        sKeptAliveReleases.set(0);
+        sDisconnects.set(0);
+        sRequestBytes.set(0);
+        sRequestBytesSent.set(0);
+        sResponseBytesReceived.set(0);
+        sResponseBytes.set(0);
+        sRetries.set(0);
+        sRateLimitWaits.set(0);
+        sRateLimitWaitNanos.set(0);
+        sRateLimitSheds.set(0);
+        sCoalescedRequests.set(0);
+        sCancelledRequests.set(0);
+        sTimedOutRequests.set(0);
+    }
+
+    static void connectionReleased(boolean keptAlive) {
+        if (keptAlive) {
+            sKeptAliveReleases.incrementAndGet();
+        } else {
+            sDisconnects.incrementAndGet();
+        }
+    }
+
+    static void requestBodyWritten(long bytes, long sentBytes) {
+        sRequestBytes.addAndGet(bytes);
+        sRequestBytesSent.addAndGet(sentBytes);
+    }
+
+    static void responseBodyRead(long receivedBytes, long bytes) {
+        sResponseBytesReceived.addAndGet(receivedBytes);
+        sResponseBytes.addAndGet(bytes);
+    }
+
+    static void requestRetried() {
+        sRetries.incrementAndGet();
+    }
+
+    static void requestWaited(long waitNanos) {
+        sRateLimitWaits.incrementAndGet();
+        sRateLimitWaitNanos.addAndGet(waitNanos);
+    }
+
+    static void requestShed() {
+        sRateLimitSheds.incrementAndGet();
+    }
+
+    static void requestCoalesced() {
+        sCoalescedRequests.incrementAndGet();
+    }
+
+    static void requestCancelled() {
+        sCancelledRequests.incrementAndGet();
+    }
+
+    static void requestTimedOut() {
+        sTimedOutRequests.incrementAndGet();
+    }
+}
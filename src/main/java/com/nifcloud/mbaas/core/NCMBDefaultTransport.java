@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * NCMBDefaultTransport uses HttpURLConnection.<br>
+ * By default the connection is disconnected after each request.
+ * When connection reuse is enabled, the response is read to the end and closed instead,
+ * so that the next request to the same host is sent on the kept-alive socket.
+ */
+public class NCMBDefaultTransport implements NCMBTransport {
+
+    // コネクションを返却する際に読み捨てるレスポンスの上限
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    //connection reuse flag
+    static volatile boolean sConnectionReuse = false;
+
+    /**
+     * Whether connections are kept alive and reused
+     *
+     * @return true if connections are reused
+     */
+    protected boolean isConnectionReuse() {
+        return sConnectionReuse;
+    }
+
+    /**
+     * Open connection to the given URL
+     *
+     * @param url request URL
+     * @return connection not connected yet
+     * @throws IOException exception while opening connection
+     */
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    /**
+     * Release connection to keep-alive pool, or disconnect it if connection reuse is disabled.<br>
+     * The SDK calls this method only after the response has been read;
+     * connections whose request failed are disconnected without draining the response
+     *
+     * @param connection connection opened by this transport
+     */
+    @Override
+    public void releaseConnection(HttpURLConnection connection) {
+        if (isConnectionReuse() && drain(connection)) {
+            NCMBConnectionStats.connectionReleased(true);
+        } else {
+            connection.disconnect();
+            NCMBConnectionStats.connectionReleased(false);
+        }
+    }
+
+    /**
+     * 通信の後始末を行う。
+     * レスポンスを読み込めなかったコネクションは読み捨てると再接続が発生するため、
+     * 既定のトランスポートでは返却せずに切断する
+     *
+     * @param transport    コネクションを作成したトランスポート
+     * @param connection   コネクション
+     * @param responseRead レスポンスを読み込んだ場合はtrue
+     */
+    static void releaseConnection(NCMBTransport transport, HttpURLConnection connection, boolean responseRead) {
+        if (responseRead || !(transport instanceof NCMBDefaultTransport)) {
+            transport.releaseConnection(connection);
+        } else {
+            connection.disconnect();
+            NCMBConnectionStats.connectionReleased(false);
+        }
+    }
+
+    // レスポンスを読み切ってストリームを閉じる。再利用できない場合はfalse
+    static boolean drain(HttpURLConnection connection) {
+        InputStream in = null;
+        try {
+            int statusCode = connection.getResponseCode();
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                in = connection.getErrorStream();
+            } else {
+                in = connection.getInputStream();
+            }
+            if (in == null) {
+                return true;
+            }
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int nRead;
+            while ((nRead = in.read(buffer)) != -1) {
+                total += nRead;
+                if (total > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,895 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NCMBEventuallyQueue keeps saveEventually and deleteEventually of NCMBObject
+ * and sends them when NIFCLOUD mobile backend can be reached.<br>
+ * Writes are appended to a journal file in the private NCMB folder, so they are sent
+ * even after the application restarted. Successive writes to the same object are merged
+ * into one request, and writes are sent one by one in the order they were made.
+ * Requests failed by network error are retried later, and requests rejected by
+ * NIFCLOUD mobile backend are removed with the error passed to the callback.
+ * Temporary errors other than network errors are retried up to {@value #MAX_RETRIES} times.<br>
+ * When the application has ACCESS_NETWORK_STATE permission, writes are sent as soon as
+ * the network becomes available.
+ */
+public class NCMBEventuallyQueue {
+
+    static final String JOURNAL_FILE_NAME = "eventuallyJournal";
+    /** default maximum size of the journal file */
+    public static final long DEFAULT_MAX_JOURNAL_BYTES = 1024 * 1024;
+
+    static final String KIND_SAVE = "save";
+    static final String KIND_DELETE = "delete";
+
+    // リトライ間隔(ミリ秒)
+    static final long MIN_RETRY_DELAY = 1000;
+    static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+    // 通信エラー以外の一時的なエラーで再送する回数の上限
+    static final int MAX_RETRIES = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static NCMBEventuallyQueue sInstance;
+    private static volatile long sMaxJournalBytes = DEFAULT_MAX_JOURNAL_BYTES;
+
+    private static final AtomicLong sFlushedCount = new AtomicLong();
+    private static final AtomicLong sFailedCount = new AtomicLong();
+    private static final AtomicLong sFlushNanos = new AtomicLong();
+    private static volatile int sPendingCount = 0;
+    private static volatile long sJournalBytes = 0;
+
+    /**
+     * Write waiting to be sent. Merged writes are kept as one operation
+     */
+    static class Operation {
+        // 含まれるジャーナルのレコード番号
+        final List<Long> seqs = new ArrayList<>();
+        String kind;
+        final String className;
+        String objectId;
+        final String localId;
+        JSONObject body;
+        final List<NCMBObject> objects = new ArrayList<>();
+        final List<DoneCallback> callbacks = new ArrayList<>();
+        // 通信エラー以外で再送した回数
+        int retries = 0;
+
+        Operation(long seq, String kind, String className, String objectId, String localId, JSONObject body) {
+            seqs.add(seq);
+            this.kind = kind;
+            this.className = className;
+            this.objectId = objectId;
+            this.localId = localId;
+            this.body = body;
+        }
+
+        boolean isCreate() {
+            return KIND_SAVE.equals(kind) && objectId == null;
+        }
+    }
+
+    // 以下はキューのスレッドのみで扱う
+    private final LinkedList<Operation> mQueue = new LinkedList<>();
+    private final Map<String, String> mResolvedIds = new HashMap<>();
+    private long mNextSeq = 1;
+    private int mAckedRecords = 0;
+    private boolean mLoaded = false;
+    private boolean mReceiverRegistered = false;
+    private long mRetryDelay = MIN_RETRY_DELAY;
+    private ScheduledFuture<?> mScheduledFlush = null;
+    private Operation mRunning = null;
+
+    final ScheduledThreadPoolExecutor mExecutor;
+
+    NCMBEventuallyQueue() {
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NCMB Eventually");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get shared queue
+     *
+     * @return queue
+     */
+    static synchronized NCMBEventuallyQueue getInstance() {
+        if (sInstance == null) {
+            sInstance = new NCMBEventuallyQueue();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Send waiting writes now, without waiting for the next retry
+     */
+    public static void flush() {
+        getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                getInstance().flushNow();
+            }
+        });
+    }
+
+    /**
+     * Set the maximum size of the journal file.<br>
+     * Writes are rejected while the journal can not be kept under the size
+     *
+     * @param maxJournalBytes maximum size in bytes
+     */
+    public static void setMaxJournalBytes(long maxJournalBytes) {
+        if (maxJournalBytes < 1) {
+            throw new IllegalArgumentException("maxJournalBytes must be greater than 0");
+        }
+        sMaxJournalBytes = maxJournalBytes;
+    }
+
+    /**
+     * Get the maximum size of the journal file
+     *
+     * @return maximum size in bytes
+     */
+    public static long getMaxJournalBytes() {
+        return sMaxJournalBytes;
+    }
+
+    /**
+     * Get the number of requests waiting to be sent, after merging writes to the same object
+     *
+     * @return number of waiting requests
+     */
+    public static int getPendingCount() {
+        return sPendingCount;
+    }
+
+    /**
+     * Get the size of the journal file
+     *
+     * @return size in bytes
+     */
+    public static long getJournalBytes() {
+        return sJournalBytes;
+    }
+
+    /**
+     * Get the number of requests sent successfully
+     *
+     * @return number of sent requests
+     */
+    public static long getFlushedCount() {
+        return sFlushedCount.get();
+    }
+
+    /**
+     * Get the number of requests removed because NIFCLOUD mobile backend rejected them
+     *
+     * @return number of failed requests
+     */
+    public static long getFailedCount() {
+        return sFailedCount.get();
+    }
+
+    /**
+     * Get the total time spent sending requests.<br>
+     * Flush throughput is getFlushedCount divided by this time
+     *
+     * @return nanoseconds
+     */
+    public static long getFlushNanos() {
+        return sFlushNanos.get();
+    }
+
+    /**
+     * Load the journal written before the application restarted and send the writes in it
+     */
+    static void resume() {
+        Context context = NCMB.getCurrentContext().context;
+        if (context == null || !journalFile().exists()) {
+            return;
+        }
+        getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                getInstance().load();
+                getInstance().flushNow();
+            }
+        });
+    }
+
+    /**
+     * Add saving the object
+     *
+     * @param object   object to save
+     * @param callback callback after the object is saved, or null
+     */
+    void save(final NCMBObject object, final DoneCallback callback) {
+        final JSONObject body;
+        final String objectId = object.getObjectId();
+        final boolean created = objectId == null && object.mLocalId == null;
+        try {
+            if (objectId == null) {
+                if (object.mLocalId == null) {
+                    object.mLocalId = UUID.randomUUID().toString();
+                    body = new JSONObject(object.mFields.toString());
+                } else {
+                    //登録待ちのオブジェクトは変更されたキーのみ送信する
+                    body = object.createUpdateJsonData();
+                }
+            } else {
+                body = object.createUpdateJsonData();
+            }
+        } catch (JSONException e) {
+            deliver(callback, new NCMBException(NCMBException.INVALID_JSON, e.getMessage()));
+            return;
+        }
+        //送信前の変更は送信済みとして扱い、次の保存では以降の変更のみ送信する
+        final Set<String> updateKeys = new HashSet<>(object.mUpdateKeys);
+        object.mUpdateKeys.clear();
+        final String className = object.getClassName();
+        final String localId = objectId == null ? object.mLocalId : null;
+        //ジャーナルに書き込めなかった場合は変更を戻す
+        final Runnable rollback = new Runnable() {
+            @Override
+            public void run() {
+                object.mUpdateKeys.addAll(updateKeys);
+                if (created && localId.equals(object.mLocalId)) {
+                    object.mLocalId = null;
+                }
+            }
+        };
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                add(KIND_SAVE, className, objectId, localId, body, object, callback, rollback);
+            }
+        });
+    }
+
+    /**
+     * Add deleting the object
+     *
+     * @param object   object to delete
+     * @param callback callback after the object is deleted, or null
+     */
+    void delete(final NCMBObject object, final DoneCallback callback) {
+        final String objectId = object.getObjectId();
+        final String localId = objectId == null ? object.mLocalId : null;
+        if (objectId == null && localId == null) {
+            deliver(callback, new NCMBException(NCMBException.REQUIRED, "objectId is must not be null or empty"));
+            return;
+        }
+        final String className = object.getClassName();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                add(KIND_DELETE, className, objectId, localId, null, object, callback, null);
+            }
+        });
+    }
+
+    private void execute(final Runnable task) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    //キューのスレッドを止めない
+                }
+            }
+        });
+    }
+
+    private void add(String kind, String className, String objectId, String localId, JSONObject body,
+                     NCMBObject object, DoneCallback callback, Runnable rollback) {
+        load();
+        long seq = mNextSeq++;
+        byte[] line;
+        try {
+            line = toLine(createRecord(seq, kind, className, objectId, localId, body));
+        } catch (JSONException e) {
+            reject(callback, rollback, new NCMBException(NCMBException.INVALID_JSON, e.getMessage()));
+            return;
+        }
+        //ジャーナルの大きさは書き込むバイト数で比べる
+        if (sJournalBytes + line.length > sMaxJournalBytes) {
+            compact();
+        }
+        if (sJournalBytes + line.length > sMaxJournalBytes) {
+            reject(callback, rollback,
+                    new NCMBException(NCMBException.GENERIC_ERROR, "Journal of eventually queue is full."));
+            return;
+        }
+        try {
+            append(line);
+        } catch (IOException e) {
+            reject(callback, rollback, new NCMBException(e));
+            return;
+        }
+        Operation operation = new Operation(seq, kind, className, objectId, localId, body);
+        operation.objects.add(object);
+        if (callback != null) {
+            operation.callbacks.add(callback);
+        }
+        enqueue(operation);
+        registerReceiver();
+        if (mScheduledFlush == null) {
+            //再送待ちの間は送信せず、続く書き込みと結合する
+            flushNow();
+        }
+    }
+
+    /**
+     * Add the operation to the queue, merging it with the last operation for the same object
+     *
+     * @param operation operation to add
+     */
+    void enqueue(Operation operation) {
+        Operation last = findLast(operation);
+        if (last != null && merge(last, operation)) {
+            if (last.kind == null) {
+                //登録前に削除されたオブジェクトは送信しない
+                mQueue.remove(last);
+                try {
+                    appendAck(last, null);
+                } catch (IOException | JSONException e) {
+                    //書き込めない場合は次回起動時に再度取り消される
+                }
+                finishOperation(last, null, null);
+            }
+        } else {
+            mQueue.add(operation);
+        }
+        sPendingCount = mQueue.size();
+    }
+
+    // 同じオブジェクトへの送信前の最後の操作
+    private Operation findLast(Operation operation) {
+        String target = targetOf(operation);
+        Iterator<Operation> iterator = mQueue.descendingIterator();
+        while (iterator.hasNext()) {
+            Operation queued = iterator.next();
+            if (queued.className.equals(operation.className) && target.equals(targetOf(queued))) {
+                return queued == mRunning ? null : queued;
+            }
+        }
+        return null;
+    }
+
+    private String targetOf(Operation operation) {
+        if (operation.objectId != null) {
+            return operation.objectId;
+        }
+        String objectId = mResolvedIds.get(operation.localId);
+        return objectId != null ? objectId : operation.localId;
+    }
+
+    /**
+     * Merge the next operation into the last operation for the same object
+     *
+     * @param last last operation
+     * @param next next operation
+     * @return false if the operations can not be merged
+     */
+    static boolean merge(Operation last, Operation next) {
+        if (KIND_DELETE.equals(next.kind)) {
+            if (KIND_DELETE.equals(last.kind)) {
+                absorb(last, next);
+                return true;
+            }
+            if (last.isCreate() && last.localId != null) {
+                //登録前のオブジェクトの削除は登録と合わせて取り消す
+                absorb(last, next);
+                last.kind = null;
+                return true;
+            }
+            absorb(last, next);
+            last.kind = KIND_DELETE;
+            last.body = null;
+            return true;
+        }
+        if (!KIND_SAVE.equals(last.kind) || !mergeBody(last.body, next.body)) {
+            return false;
+        }
+        absorb(last, next);
+        return true;
+    }
+
+    private static void absorb(Operation last, Operation next) {
+        last.seqs.addAll(next.seqs);
+        last.objects.addAll(next.objects);
+        last.callbacks.addAll(next.callbacks);
+    }
+
+    /**
+     * Merge update data of the next save into the last save
+     *
+     * @param base last update data, changed if merged
+     * @param next next update data
+     * @return false if the update data can not be merged
+     */
+    static boolean mergeBody(JSONObject base, JSONObject next) {
+        Iterator<String> keys = next.keys();
+        //結合できるか確認してから変更する
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = next.opt(key);
+            if (!base.has(key) || !isOperation(value)) {
+                continue;
+            }
+            Object baseValue = base.opt(key);
+            if (!isIncrement(value) || !(isIncrement(baseValue) || baseValue instanceof Number)) {
+                return false;
+            }
+        }
+        try {
+            keys = next.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = next.get(key);
+                if (base.has(key) && isIncrement(value)) {
+                    Object baseValue = base.get(key);
+                    if (isIncrement(baseValue)) {
+                        JSONObject increment = new JSONObject(baseValue.toString());
+                        increment.put("amount", addNumbers(((JSONObject) baseValue).get("amount"),
+                                ((JSONObject) value).get("amount")));
+                        base.put(key, increment);
+                    } else {
+                        base.put(key, addNumbers(baseValue, ((JSONObject) value).get("amount")));
+                    }
+                } else {
+                    base.put(key, value);
+                }
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isOperation(Object value) {
+        return value instanceof JSONObject && ((JSONObject) value).has("__op");
+    }
+
+    private static boolean isIncrement(Object value) {
+        return isOperation(value) && "Increment".equals(((JSONObject) value).optString("__op"));
+    }
+
+    private static Number addNumbers(Object a, Object b) {
+        Number x = (Number) a;
+        Number y = (Number) b;
+        if (x instanceof Double || x instanceof Float || y instanceof Double || y instanceof Float) {
+            return x.doubleValue() + y.doubleValue();
+        }
+        return x.longValue() + y.longValue();
+    }
+
+    private void flushNow() {
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+        load();
+        while (!mQueue.isEmpty()) {
+            Operation operation = mQueue.getFirst();
+            mRunning = operation;
+            long start = System.nanoTime();
+            JSONObject result = null;
+            NCMBException error = null;
+            try {
+                result = send(operation);
+            } catch (NCMBException e) {
+                error = e;
+            } finally {
+                mRunning = null;
+                sFlushNanos.addAndGet(System.nanoTime() - start);
+            }
+            if (error != null && shouldRetry(operation, error)) {
+                scheduleRetry();
+                return;
+            }
+            mQueue.removeFirst();
+            sPendingCount = mQueue.size();
+            try {
+                appendAck(operation, result);
+            } catch (IOException | JSONException e) {
+                //書き込めない場合は次回起動時に再送される
+            }
+            if (error == null) {
+                sFlushedCount.incrementAndGet();
+            } else {
+                sFailedCount.incrementAndGet();
+            }
+            finishOperation(operation, result, error);
+        }
+        mRetryDelay = MIN_RETRY_DELAY;
+        compact();
+    }
+
+    private JSONObject send(Operation operation) throws NCMBException {
+        NCMBObjectService objService = (NCMBObjectService) NCMB.factory(NCMB.ServiceType.OBJECT);
+        String objectId = operation.objectId != null ? operation.objectId : mResolvedIds.get(operation.localId);
+        if (KIND_DELETE.equals(operation.kind)) {
+            if (objectId == null) {
+                //登録されていないオブジェクトは削除済みとする
+                return null;
+            }
+            objService.deleteObject(operation.className, objectId);
+            return null;
+        }
+        if (objectId == null) {
+            return objService.saveObject(operation.className, operation.body);
+        }
+        return objService.updateObject(operation.className, objectId, operation.body);
+    }
+
+    /**
+     * Check whether the request may succeed later
+     *
+     * @param e exception of the request
+     * @return true if the request should be retried
+     */
+    static boolean isTransient(NCMBException e) {
+        String code = e.getCode();
+        return isNetworkError(e)
+                || NCMBException.GENERIC_ERROR.equals(code)
+                || NCMBException.RESTRICTED.equals(code)
+                || NCMBException.INTERNAL_SERVER_ERROR.equals(code)
+                || NCMBException.STORAGE_ERROR.equals(code);
+    }
+
+    /**
+     * Check whether the operation should be retried.<br>
+     * Network errors are retried until the network becomes available, and other temporary errors
+     * are retried up to MAX_RETRIES times
+     *
+     * @param operation operation failed
+     * @param e         exception of the request
+     * @return true if the operation should be retried
+     */
+    static boolean shouldRetry(Operation operation, NCMBException e) {
+        if (!isTransient(e)) {
+            return false;
+        }
+        if (isNetworkError(e)) {
+            return true;
+        }
+        return operation.retries++ < MAX_RETRIES;
+    }
+
+    private static boolean isNetworkError(NCMBException e) {
+        //通信エラーとタイムアウトは原因の例外を持つ。サーバーが返したエラーはコードが同じでも通信エラーとしない
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleRetry() {
+        mScheduledFlush = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushNow();
+                } catch (RuntimeException e) {
+                    //キューのスレッドを止めない
+                }
+            }
+        }, mRetryDelay, TimeUnit.MILLISECONDS);
+        mRetryDelay = Math.min(mRetryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    private void finishOperation(final Operation operation, final JSONObject result, final NCMBException error) {
+        if (operation.localId != null && result != null && result.has("objectId")) {
+            mResolvedIds.put(operation.localId, result.optString("objectId"));
+        }
+        if (operation.objects.isEmpty() && operation.callbacks.isEmpty()) {
+            return;
+        }
+        NCMBConnection.runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    for (NCMBObject object : operation.objects) {
+                        try {
+                            //登録前に削除されて送信しなかった場合も削除したオブジェクトとして扱う
+                            if (KIND_DELETE.equals(operation.kind) || operation.kind == null) {
+                                object.mFields = new JSONObject();
+                            } else {
+                                object.setServerDataToProperties(result);
+                            }
+                        } catch (NCMBException | IllegalArgumentException e) {
+                            //結果を反映できないオブジェクトは変更しない
+                        }
+                    }
+                }
+                for (NCMBObject object : operation.objects) {
+                    if (object.getObjectId() != null || operation.kind == null
+                            || error != null && operation.localId != null) {
+                        //登録済み、登録できなかった、または登録前に削除されたオブジェクトは次の保存で全ての値を送信する
+                        object.mLocalId = null;
+                    }
+                }
+                for (DoneCallback callback : operation.callbacks) {
+                    callback.done(error);
+                }
+            }
+        });
+    }
+
+    // 追加できなかった操作の変更を戻してエラーを渡す
+    private static void reject(final DoneCallback callback, final Runnable rollback, final NCMBException error) {
+        if (rollback == null) {
+            deliver(callback, error);
+            return;
+        }
+        NCMBConnection.runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                rollback.run();
+                if (callback != null) {
+                    callback.done(error);
+                }
+            }
+        });
+    }
+
+    private static void deliver(final DoneCallback callback, final NCMBException error) {
+        if (callback == null) {
+            return;
+        }
+        NCMBConnection.runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                callback.done(error);
+            }
+        });
+    }
+
+    private void registerReceiver() {
+        if (mReceiverRegistered) {
+            return;
+        }
+        mReceiverRegistered = true;
+        Context context = NCMB.getCurrentContext().context;
+        if (context == null || context.checkCallingOrSelfPermission(Manifest.permission.ACCESS_NETWORK_STATE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                    flush();
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    // ジャーナル
+
+    private static File journalFile() {
+        return NCMBLocalFile.create(JOURNAL_FILE_NAME);
+    }
+
+    static JSONObject createRecord(long seq, String kind, String className, String objectId, String localId,
+                                   JSONObject body) throws JSONException {
+        JSONObject record = new JSONObject();
+        record.put("type", "op");
+        record.put("seq", seq);
+        record.put("kind", kind);
+        record.put("className", className);
+        if (objectId != null) {
+            record.put("objectId", objectId);
+        }
+        if (localId != null) {
+            record.put("localId", localId);
+        }
+        if (body != null) {
+            record.put("body", body);
+        }
+        return record;
+    }
+
+    private void appendAck(Operation operation, JSONObject result) throws IOException, JSONException {
+        JSONObject record = new JSONObject();
+        record.put("type", "ack");
+        JSONArray seqs = new JSONArray();
+        for (Long seq : operation.seqs) {
+            seqs.put(seq);
+        }
+        record.put("seqs", seqs);
+        if (operation.localId != null && result != null && result.has("objectId")) {
+            record.put("localId", operation.localId);
+            record.put("objectId", result.optString("objectId"));
+        }
+        append(toLine(record));
+        mAckedRecords++;
+    }
+
+    // ジャーナルに書き込む1行
+    private static byte[] toLine(JSONObject record) {
+        return (record.toString() + "\n").getBytes(UTF_8);
+    }
+
+    private void append(byte[] line) throws IOException {
+        NCMBLocalFile.checkNCMBContext();
+        FileOutputStream out = new FileOutputStream(journalFile(), true);
+        try {
+            out.write(line);
+            //プロセスが終了しても失われないように書き込む
+            out.getFD().sync();
+            sJournalBytes += line.length;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load operations not sent yet from the journal
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        NCMBLocalFile.checkNCMBContext();
+        mLoaded = true;
+        File file = journalFile();
+        if (!file.exists()) {
+            return;
+        }
+        sJournalBytes = file.length();
+        List<JSONObject> records = new ArrayList<>();
+        Set<Long> acked = new HashSet<>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject record;
+                    try {
+                        record = new JSONObject(line);
+                    } catch (JSONException e) {
+                        //書き込み途中で終了したレコードは読み飛ばす
+                        continue;
+                    }
+                    mNextSeq = Math.max(mNextSeq, record.optLong("seq", 0) + 1);
+                    if ("ack".equals(record.optString("type"))) {
+                        JSONArray seqs = record.optJSONArray("seqs");
+                        for (int i = 0; seqs != null && i < seqs.length(); i++) {
+                            acked.add(seqs.optLong(i));
+                        }
+                        mAckedRecords++;
+                        if (record.has("localId") && record.has("objectId")) {
+                            mResolvedIds.put(record.optString("localId"), record.optString("objectId"));
+                        }
+                    } else {
+                        records.add(record);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return;
+        }
+        for (JSONObject record : records) {
+            long seq = record.optLong("seq");
+            if (acked.contains(seq)) {
+                continue;
+            }
+            enqueue(new Operation(seq, record.optString("kind"), record.optString("className"),
+                    record.has("objectId") ? record.optString("objectId") : null,
+                    record.has("localId") ? record.optString("localId") : null,
+                    record.optJSONObject("body")));
+        }
+    }
+
+    /**
+     * Rewrite the journal with operations not sent yet
+     */
+    private void compact() {
+        if (mAckedRecords == 0) {
+            return;
+        }
+        File file = journalFile();
+        if (mQueue.isEmpty()) {
+            file.delete();
+            sJournalBytes = 0;
+            mAckedRecords = 0;
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        long bytes = 0;
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                for (Operation operation : mQueue) {
+                    //登録済みのオブジェクトはobjectIdで記録する
+                    String objectId = operation.objectId != null
+                            ? operation.objectId : mResolvedIds.get(operation.localId);
+                    JSONObject record = createRecord(operation.seqs.get(0), operation.kind, operation.className,
+                            objectId, objectId == null ? operation.localId : null, operation.body);
+                    byte[] line = toLine(record);
+                    out.write(line);
+                    bytes += line.length;
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException | JSONException e) {
+            temp.delete();
+            return;
+        }
+        if (temp.renameTo(file)) {
+            //まとめた操作は最初のレコード番号のみで管理する
+            for (Operation operation : mQueue) {
+                long first = operation.seqs.get(0);
+                operation.seqs.clear();
+                operation.seqs.add(first);
+            }
+            sJournalBytes = bytes;
+            mAckedRecords = 0;
+        } else {
+            temp.delete();
+        }
+    }
+}
@@ -15,9 +15,16 @@
  */
 package com.nifcloud.mbaas.core;
 
+import android.net.Uri;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -30,6 +37,9 @@ import java.util.List;
  */
 public class NCMBFile extends NCMBBase {
 
+    // ストリーミングでアップロードするファイルデータ
+    private NCMBFileData mFileSource;
+
     static final List<String> ignoreKeys = Arrays.asList("fileName", "fileData", "mimeType", "fileSize", "createDate", "updateDate", "acl");
 
     /**
@@ -68,6 +78,7 @@ public class NCMBFile extends NCMBBase {
      * @param data fileData
      */
     public void setFileData(byte[] data) {
+        mFileSource = null;
         try {
             mFields.put("fileData", data);
         } catch (JSONException e) {
@@ -75,6 +86,57 @@ public class NCMBFile extends NCMBBase {
         }
     }
 
+    /**
+     * Set file to upload.<br>
+     * The file content is streamed when saving and is not kept in memory.
+     *
+     * @param file file to upload
+     */
+    public void setFileData(File file) {
+        setFileSource(NCMBFileData.of(file));
+    }
+
+    /**
+     * Set stream to upload.<br>
+     * The stream is read when saving and closed after uploading.
+     *
+     * @param in     stream of file data
+     * @param length length of file data. -1 if unknown
+     */
+    public void setFileData(InputStream in, long length) {
+        setFileSource(NCMBFileData.of(in, length));
+    }
+
+    /**
+     * Set channel to upload.<br>
+     * The content from the current position of channel is uploaded when saving.
+     *
+     * @param channel channel of file data
+     * @throws NCMBException exception from reading the channel
+     */
+    public void setFileData(FileChannel channel) throws NCMBException {
+        try {
+            setFileSource(NCMBFileData.of(channel));
+        } catch (IOException e) {
+            throw new NCMBException(e);
+        }
+    }
+
+    /**
+     * Set Uri (content:// or file://) to upload.<br>
+     * The content is read with ContentResolver of the context given by NCMB.initialize.
+     *
+     * @param uri Uri of file data
+     */
+    public void setFileData(Uri uri) {
+        setFileSource(NCMBFileData.of(NCMB.getCurrentContext().context.getContentResolver(), uri));
+    }
+
+    private void setFileSource(NCMBFileData source) {
+        mFileSource = source;
+        mFields.remove("fileData");
+    }
+
     /**
      * Get fileData
      *
@@ -153,7 +215,12 @@ public class NCMBFile extends NCMBBase {
     public void save() throws NCMBException {
         JSONObject aclJson = createAclJSON();
         NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
-        JSONObject res = fileService.saveFile(getFileName(), getFileData(), aclJson);
+        JSONObject res;
+        if (mFileSource != null) {
+            res = fileService.saveFile(getFileName(), mFileSource, aclJson);
+        } else {
+            res = fileService.saveFile(getFileName(), getFileData(), aclJson);
+        }
         setLocalData(res);
     }
 
@@ -173,7 +240,7 @@ public class NCMBFile extends NCMBBase {
         }
 
         NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
-        fileService.saveFileInBackground(getFileName(), getFileData(), aclJson, new ExecuteServiceCallback() {
+        ExecuteServiceCallback saveCallback = new ExecuteServiceCallback() {
             @Override
             public void done(JSONObject jsonData, NCMBException e) {
                 if (e != null) {
@@ -193,7 +260,12 @@ public class NCMBFile extends NCMBBase {
                     }
                 }
             }
-        });
+        };
+        if (mFileSource != null) {
+            fileService.saveFileInBackground(getFileName(), mFileSource, aclJson, saveCallback);
+        } else {
+            fileService.saveFileInBackground(getFileName(), getFileData(), aclJson, saveCallback);
+        }
     }
 
     /**
@@ -317,6 +389,76 @@ public class NCMBFile extends NCMBBase {
         });
     }
 
+    /**
+     * Download fileData from file store to the file without keeping it in memory
+     *
+     * @param file destination file. Existing content is overwritten
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchToFile(File file) throws NCMBException {
+        fetchToFile(file, false);
+    }
+
+    /**
+     * Download fileData from file store to the file without keeping it in memory.<br>
+     * If resume is true, download continues from the end of the existing file.
+     *
+     * @param file   destination file
+     * @param resume true to continue from the end of the existing file
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchToFile(File file, boolean resume) throws NCMBException {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToFile(getFileName(), file, resume);
+    }
+
+    /**
+     * Download fileData from file store to the stream without keeping it in memory.<br>
+     * The stream is flushed but not closed.
+     *
+     * @param out destination stream
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchToStream(OutputStream out) throws NCMBException {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToStream(getFileName(), out);
+    }
+
+    /**
+     * Download fileData from file store to the file asynchronously
+     *
+     * @param file     destination file. Existing content is overwritten
+     * @param callback callback after file download
+     */
+    public void fetchToFileInBackground(File file, DoneCallback callback) {
+        fetchToFileInBackground(file, false, callback);
+    }
+
+    /**
+     * Download fileData from file store to the file asynchronously.<br>
+     * If resume is true, download continues from the end of the existing file.
+     *
+     * @param file     destination file
+     * @param resume   true to continue from the end of the existing file
+     * @param callback callback after file download
+     */
+    public void fetchToFileInBackground(File file, boolean resume, DoneCallback callback) {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToFileInBackground(getFileName(), file, resume, callback);
+    }
+
+    /**
+     * Download fileData from file store to the stream asynchronously.<br>
+     * The stream is flushed but not closed.
+     *
+     * @param out      destination stream
+     * @param callback callback after file download
+     */
+    public void fetchToStreamInBackground(OutputStream out, DoneCallback callback) {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToStreamInBackground(getFileName(), out, callback);
+    }
+
     private JSONObject createAclJSON() throws NCMBException {
         JSONObject aclJson = null;
         try {
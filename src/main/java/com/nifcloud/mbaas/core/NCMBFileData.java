@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Source of file data written to the body of a file upload request
+ */
+abstract class NCMBFileData {
+
+    // 書き込み時のバッファサイズ
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Get length of file data
+     *
+     * @return length in bytes, or -1 if unknown
+     */
+    abstract long length();
+
+    /**
+     * Whether the data can be written more than once
+     *
+     * @return true if the data can be written again
+     */
+    boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Write file data to the given stream
+     *
+     * @param out stream of request body
+     * @throws IOException exception while reading or writing data
+     */
+    abstract void writeTo(OutputStream out) throws IOException;
+
+    static NCMBFileData of(final byte[] data) {
+        return new NCMBFileData() {
+            @Override
+            long length() {
+                return data.length;
+            }
+
+            @Override
+            void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+
+    static NCMBFileData of(final File file) {
+        return new NCMBFileData() {
+            @Override
+            long length() {
+                return file.length();
+            }
+
+            @Override
+            void writeTo(OutputStream out) throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    copy(in.getChannel(), 0, file.length(), out);
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    static NCMBFileData of(final FileChannel channel) throws IOException {
+        final long position = channel.position();
+        final long length = channel.size() - position;
+        return new NCMBFileData() {
+            @Override
+            long length() {
+                return length;
+            }
+
+            @Override
+            void writeTo(OutputStream out) throws IOException {
+                copy(channel, position, length, out);
+            }
+        };
+    }
+
+    static NCMBFileData of(final InputStream in, final long length) {
+        return new NCMBFileData() {
+            @Override
+            long length() {
+                return length;
+            }
+
+            @Override
+            boolean isRepeatable() {
+                return false;
+            }
+
+            @Override
+            void writeTo(OutputStream out) throws IOException {
+                try {
+                    copy(in, out);
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    static NCMBFileData of(final ContentResolver resolver, final Uri uri) {
+        long length = -1;
+        try {
+            AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(uri, "r");
+            if (descriptor != null) {
+                length = descriptor.getLength();
+                descriptor.close();
+            }
+        } catch (IOException | SecurityException e) {
+            // 長さが不明な場合はチャンク形式で送信する
+        }
+        final long contentLength = length < 0 ? -1 : length;
+        return new NCMBFileData() {
+            @Override
+            long length() {
+                return contentLength;
+            }
+
+            @Override
+            void writeTo(OutputStream out) throws IOException {
+                InputStream in = resolver.openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Can not open " + uri);
+                }
+                try {
+                    copy(in, out);
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int nRead;
+        while ((nRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, nRead);
+        }
+    }
+
+    private static void copy(FileChannel channel, long position, long length, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long written = 0;
+        while (written < length) {
+            long count = channel.transferTo(position + written, length - written, target);
+            if (count <= 0) {
+                break;
+            }
+            written += count;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * NCMBFileDownload writes downloaded file data to a file or stream without keeping the whole data in memory.<br>
+ * The number of written bytes is kept, so an interrupted download can be resumed with Range request.
+ */
+abstract class NCMBFileDownload {
+
+    // 中断したダウンロードを再開する最大回数
+    static final int MAX_RESUME_COUNT = 3;
+
+    static final int BUFFER_SIZE = 32768;
+
+    // 書き込み済みのバイト数
+    long mPosition;
+    // 書き込み済みのデータのダイジェスト。巻き戻せない出力先で読み飛ばすデータとの照合に使う
+    MessageDigest mWrittenDigest;
+
+    /**
+     * Create download to file
+     *
+     * @param file   destination file
+     * @param resume true to continue from the end of existing file
+     * @return download target
+     */
+    static NCMBFileDownload toFile(File file, boolean resume) {
+        return new FileDownload(file, resume);
+    }
+
+    /**
+     * Create download to stream.<br>
+     * The stream is flushed but not closed after download.
+     *
+     * @param out destination stream
+     * @return download target
+     */
+    static NCMBFileDownload toStream(OutputStream out) {
+        return new StreamDownload(out);
+    }
+
+    /**
+     * Get the number of bytes already written
+     *
+     * @return written bytes
+     */
+    long position() {
+        return mPosition;
+    }
+
+    /**
+     * Open destination positioned at the written bytes
+     *
+     * @return destination channel
+     * @throws IOException exception from destination
+     */
+    abstract WritableByteChannel open() throws IOException;
+
+    /**
+     * Discard written data to receive the whole data again
+     *
+     * @return true if written data was discarded, false if the destination can not be rewound
+     * @throws IOException exception from destination
+     */
+    abstract boolean restart() throws IOException;
+
+    /**
+     * Open the data already written to read it again
+     *
+     * @return written data, or null if the destination can not be read
+     * @throws IOException exception from destination
+     */
+    abstract InputStream openWritten() throws IOException;
+
+    /**
+     * Release destination after download
+     *
+     * @throws IOException exception from destination
+     */
+    abstract void close() throws IOException;
+
+    /**
+     * Write response body to destination
+     *
+     * @param in   response body
+     * @param skip number of bytes to skip at the beginning of response body
+     * @throws IOException exception from connection or destination
+     */
+    void transfer(InputStream in, long skip) throws IOException {
+        ReadableByteChannel src = Channels.newChannel(in);
+        WritableByteChannel dst = open();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        //読み飛ばすデータが書き込み済みのデータと一致することを確認する
+        MessageDigest skipped = null;
+        byte[] written = null;
+        if (skip > 0) {
+            if (mWrittenDigest == null) {
+                throw new IOException("Written data can not be compared with the response.");
+            }
+            skipped = newDigest();
+            written = digestOf(mWrittenDigest);
+        }
+        try {
+            while (src.read(buffer) != -1) {
+                buffer.flip();
+                if (skip > 0) {
+                    int length = (int) Math.min(skip, buffer.remaining());
+                    skipped.update(buffer.array(), buffer.position(), length);
+                    buffer.position(buffer.position() + length);
+                    skip -= length;
+                    if (skip == 0 && !MessageDigest.isEqual(written, skipped.digest())) {
+                        throw new IOException("Response does not match the data already written.");
+                    }
+                }
+                int start = buffer.position();
+                while (buffer.hasRemaining()) {
+                    mPosition += dst.write(buffer);
+                }
+                if (mWrittenDigest != null) {
+                    mWrittenDigest.update(buffer.array(), start, buffer.position() - start);
+                }
+                buffer.clear();
+            }
+            if (skip > 0) {
+                throw new IOException("Response is shorter than the data already written.");
+            }
+        } finally {
+            src.close();
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 計算途中のダイジェストの値を取得する
+    private static byte[] digestOf(MessageDigest digest) throws IOException {
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static class FileDownload extends NCMBFileDownload {
+        private final File mFile;
+        private RandomAccessFile mRandomAccessFile;
+        private FileChannel mChannel;
+
+        FileDownload(File file, boolean resume) {
+            mFile = file;
+            if (resume && file.exists()) {
+                mPosition = file.length();
+            }
+        }
+
+        @Override
+        WritableByteChannel open() throws IOException {
+            if (mChannel == null) {
+                mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+                mChannel = mRandomAccessFile.getChannel();
+                //再開しない場合は既存の内容を破棄する
+                mChannel.truncate(mPosition);
+            }
+            mChannel.position(mPosition);
+            return mChannel;
+        }
+
+        @Override
+        boolean restart() throws IOException {
+            open();
+            mChannel.truncate(0);
+            mPosition = 0;
+            return true;
+        }
+
+        @Override
+        InputStream openWritten() throws IOException {
+            return new FileInputStream(mFile);
+        }
+
+        @Override
+        void close() throws IOException {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+                mRandomAccessFile = null;
+                mChannel = null;
+            }
+        }
+    }
+
+    private static class StreamDownload extends NCMBFileDownload {
+        private final OutputStream mOut;
+        private WritableByteChannel mChannel;
+
+        StreamDownload(OutputStream out) {
+            mOut = out;
+            mWrittenDigest = newDigest();
+        }
+
+        @Override
+        WritableByteChannel open() {
+            if (mChannel == null) {
+                mChannel = Channels.newChannel(mOut);
+            }
+            return mChannel;
+        }
+
+        @Override
+        boolean restart() {
+            //書き込み済みのデータは取り消せないため、先頭から照合しながら読み飛ばす
+            return false;
+        }
+
+        @Override
+        InputStream openWritten() {
+            return null;
+        }
+
+        @Override
+        void close() throws IOException {
+            mOut.flush();
+        }
+    }
+}
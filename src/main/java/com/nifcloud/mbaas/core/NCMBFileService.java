@@ -15,12 +15,19 @@
  */
 package com.nifcloud.mbaas.core;
 
+import android.net.Uri;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,6 +56,10 @@ public class NCMBFileService extends NCMBService {
             super(service, (CallbackBase) callback);
         }
 
+        FileServiceCallback(NCMBFileService service, DoneCallback callback) {
+            super(service, (CallbackBase) callback);
+        }
+
 
         protected NCMBFileService getFileService() {
             return (NCMBFileService) mService;
@@ -88,6 +99,76 @@ public class NCMBFileService extends NCMBService {
         return response.responseData;
     }
 
+    /**
+     * Upload file to NIFCLOUD mobile backend with streaming the file content
+     *
+     * @param fileName upload file name
+     * @param file     file to upload
+     * @param aclJson  saving file acl
+     * @return API response
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public JSONObject saveFile(String fileName, File file, JSONObject aclJson) throws NCMBException {
+        return saveFile(fileName, NCMBFileData.of(file), aclJson);
+    }
+
+    /**
+     * Upload file data read from stream to NIFCLOUD mobile backend.<br>
+     * The stream is closed after uploading.
+     *
+     * @param fileName upload file name
+     * @param in       stream of file data
+     * @param length   length of file data. -1 if unknown
+     * @param aclJson  saving file acl
+     * @return API response
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public JSONObject saveFile(String fileName, InputStream in, long length, JSONObject aclJson) throws NCMBException {
+        return saveFile(fileName, NCMBFileData.of(in, length), aclJson);
+    }
+
+    /**
+     * Upload file data from the current position of channel to NIFCLOUD mobile backend
+     *
+     * @param fileName upload file name
+     * @param channel  channel of file data
+     * @param aclJson  saving file acl
+     * @return API response
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public JSONObject saveFile(String fileName, FileChannel channel, JSONObject aclJson) throws NCMBException {
+        try {
+            return saveFile(fileName, NCMBFileData.of(channel), aclJson);
+        } catch (IOException e) {
+            throw new NCMBException(e);
+        }
+    }
+
+    /**
+     * Upload content of Uri (content:// or file://) to NIFCLOUD mobile backend
+     *
+     * @param fileName upload file name
+     * @param uri      Uri of file data
+     * @param aclJson  saving file acl
+     * @return API response
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public JSONObject saveFile(String fileName, Uri uri, JSONObject aclJson) throws NCMBException {
+        return saveFile(fileName, NCMBFileData.of(mContext.context.getContentResolver(), uri), aclJson);
+    }
+
+    JSONObject saveFile(String fileName, NCMBFileData fileBody, JSONObject aclJson) throws NCMBException {
+        if (!validateFileName(fileName)) {
+            throw new NCMBException(NCMBException.REQUIRED, "fileName is must not be null or empty");
+        }
+        String url = createURL(fileName);
+        NCMBResponse response = sendRequestFile(url, NCMBRequest.HTTP_METHOD_POST, fileName, fileBody, aclJson);
+        if (response.statusCode != NCMBResponse.HTTP_STATUS_CREATED) {
+            throw new NCMBException(NCMBException.NOT_EFFICIENT_VALUE, "Invalid status code");
+        }
+        return response.responseData;
+    }
+
     /**
      * Upload file data to NIFCLOUD mobile backend in background thread
      *
@@ -104,24 +185,123 @@ public class NCMBFileService extends NCMBService {
         String url = createURL(fileName);
 
         try {
-            sendRequestFileAsync(url, NCMBRequest.HTTP_METHOD_POST, fileName, fileData, aclJson, new FileServiceCallback(this, callback) {
-                @Override
-                public void handleResponse(NCMBResponse response) {
+            sendRequestFileAsync(url, NCMBRequest.HTTP_METHOD_POST, fileName, fileData, aclJson, createSaveFileCallback(callback));
+        } catch (NCMBException e) {
+            //Exception handling for NCMBRequest
+            if (callback != null) {
+                callback.done(null, e);
+            }
+        }
+    }
 
-                    ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
-                    if (callback != null) {
-                        callback.done(response.responseData, null);
-                    }
-                }
+    /**
+     * Upload file data to NIFCLOUD mobile backend in background thread
+     *
+     * @param fileName upload file name
+     * @param fileData file data to byte[]
+     * @param aclJson  saving file acl
+     * @return task completed with the result of saving file
+     */
+    public NCMBTask<JSONObject> saveFileTask(String fileName, byte[] fileData, JSONObject aclJson) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            saveFileInBackground(fileName, fileData, aclJson, new TaskExecuteCallback(task));
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
 
-                @Override
-                public void handleError(NCMBException e) {
-                    ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
-                    if (callback != null) {
-                        callback.done(null, e);
-                    }
-                }
-            });
+    /**
+     * Upload file to NIFCLOUD mobile backend with streaming the file content in background thread
+     *
+     * @param fileName upload file name
+     * @param file     file to upload
+     * @param aclJson  saving file acl
+     * @param callback callback for after file save
+     */
+    public void saveFileInBackground(String fileName, File file, JSONObject aclJson, ExecuteServiceCallback callback) {
+        saveFileInBackground(fileName, NCMBFileData.of(file), aclJson, callback);
+    }
+
+    /**
+     * Upload file to NIFCLOUD mobile backend with streaming the file content in background thread
+     *
+     * @param fileName upload file name
+     * @param file     file to upload
+     * @param aclJson  saving file acl
+     * @return task completed with the result of saving file
+     */
+    public NCMBTask<JSONObject> saveFileTask(String fileName, File file, JSONObject aclJson) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            saveFileInBackground(fileName, file, aclJson, new TaskExecuteCallback(task));
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Upload file data read from stream to NIFCLOUD mobile backend in background thread.<br>
+     * The stream is closed after uploading.
+     *
+     * @param fileName upload file name
+     * @param in       stream of file data
+     * @param length   length of file data. -1 if unknown
+     * @param aclJson  saving file acl
+     * @param callback callback for after file save
+     */
+    public void saveFileInBackground(String fileName, InputStream in, long length, JSONObject aclJson, ExecuteServiceCallback callback) {
+        saveFileInBackground(fileName, NCMBFileData.of(in, length), aclJson, callback);
+    }
+
+    /**
+     * Upload file data from the current position of channel to NIFCLOUD mobile backend in background thread
+     *
+     * @param fileName upload file name
+     * @param channel  channel of file data
+     * @param aclJson  saving file acl
+     * @param callback callback for after file save
+     */
+    public void saveFileInBackground(String fileName, FileChannel channel, JSONObject aclJson, ExecuteServiceCallback callback) {
+        NCMBFileData fileBody;
+        try {
+            fileBody = NCMBFileData.of(channel);
+        } catch (IOException e) {
+            if (callback != null) {
+                callback.done(null, new NCMBException(e));
+            }
+            return;
+        }
+        saveFileInBackground(fileName, fileBody, aclJson, callback);
+    }
+
+    /**
+     * Upload content of Uri (content:// or file://) to NIFCLOUD mobile backend in background thread
+     *
+     * @param fileName upload file name
+     * @param uri      Uri of file data
+     * @param aclJson  saving file acl
+     * @param callback callback for after file save
+     */
+    public void saveFileInBackground(String fileName, Uri uri, JSONObject aclJson, ExecuteServiceCallback callback) {
+        saveFileInBackground(fileName, NCMBFileData.of(mContext.context.getContentResolver(), uri), aclJson, callback);
+    }
+
+    void saveFileInBackground(String fileName, NCMBFileData fileBody, JSONObject aclJson, ExecuteServiceCallback callback) {
+        if (!validateFileName(fileName)) {
+            if (callback != null) {
+                callback.done(null, new NCMBException(NCMBException.REQUIRED, "fileName is must not be null or empty"));
+            }
+            return;
+        }
+
+        String url = createURL(fileName);
+        try {
+            sendRequestFileAsync(url, NCMBRequest.HTTP_METHOD_POST, fileName, fileBody, aclJson, createSaveFileCallback(callback));
         } catch (NCMBException e) {
             //Exception handling for NCMBRequest
             if (callback != null) {
@@ -130,6 +310,27 @@ public class NCMBFileService extends NCMBService {
         }
     }
 
+    private FileServiceCallback createSaveFileCallback(ExecuteServiceCallback callback) {
+        return new FileServiceCallback(this, callback) {
+            @Override
+            public void handleResponse(NCMBResponse response) {
+
+                ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
+                if (callback != null) {
+                    callback.done(response.responseData, null);
+                }
+            }
+
+            @Override
+            public void handleError(NCMBException e) {
+                ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
+                if (callback != null) {
+                    callback.done(null, e);
+                }
+            }
+        };
+    }
+
 
     /**
      * Update ACL of file
@@ -209,6 +410,24 @@ public class NCMBFileService extends NCMBService {
         }
     }
 
+    /**
+     * Update file acl in background thread
+     *
+     * @param fileName update file name
+     * @param aclJson  update file acl
+     * @return task completed with the result of updating file
+     */
+    public NCMBTask<JSONObject> updateFileTask(String fileName, JSONObject aclJson) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            updateFileInBackground(fileName, aclJson, new TaskExecuteCallback(task));
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Delete file data to NIFCLOUD mobile backend
      *
@@ -272,6 +491,23 @@ public class NCMBFileService extends NCMBService {
         }
     }
 
+    /**
+     * Delete file in background thread
+     *
+     * @param fileName delete file name
+     * @return task completed with the result of deleting file
+     */
+    public NCMBTask<JSONObject> deleteFileTask(String fileName) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            deleteFileInBackground(fileName, new TaskExecuteCallback(task));
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Get file data from NIFCLOUD mobile backend
      *
@@ -336,6 +572,176 @@ public class NCMBFileService extends NCMBService {
         }
     }
 
+    /**
+     * Get file data in background thread
+     *
+     * @param fileName fetch file name
+     * @return task completed with the file data
+     */
+    public NCMBTask<byte[]> fetchFileTask(String fileName) {
+        final NCMBTask<byte[]> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            fetchFileInBackground(fileName, new FetchFileCallback() {
+                @Override
+                public void done(byte[] data, NCMBException e) {
+                    task.complete(data, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the file.<br>
+     * The file data is written directly to the file without keeping it in memory.
+     *
+     * @param fileName get file name
+     * @param file     destination file. Existing content is overwritten
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchFileToFile(String fileName, File file) throws NCMBException {
+        fetchFileToFile(fileName, file, false);
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the file.<br>
+     * If resume is true, download continues from the end of the existing file with Range request.
+     * When response validation is enabled, the response signature is verified against the whole file,
+     * including the data written before resuming.
+     *
+     * @param fileName get file name
+     * @param file     destination file
+     * @param resume   true to continue from the end of the existing file
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchFileToFile(String fileName, File file, boolean resume) throws NCMBException {
+        fetchFile(fileName, NCMBFileDownload.toFile(file, resume));
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the stream.<br>
+     * The stream is flushed but not closed.
+     * If the server ignores Range request while resuming, the data already written is compared with
+     * the beginning of the response, and download fails if they differ.
+     *
+     * @param fileName get file name
+     * @param out      destination stream
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public void fetchFileToStream(String fileName, OutputStream out) throws NCMBException {
+        fetchFile(fileName, NCMBFileDownload.toStream(out));
+    }
+
+    void fetchFile(String fileName, NCMBFileDownload download) throws NCMBException {
+        if (!validateFileName(fileName)) {
+            throw new NCMBException(NCMBException.REQUIRED, "fileName is must not be null or empty");
+        }
+
+        String url = createURL(fileName);
+        NCMBResponse response = sendDownloadRequest(url, download);
+        if (response.statusCode != NCMBResponse.HTTP_STATUS_OK) {
+            throw new NCMBException(NCMBException.NOT_EFFICIENT_VALUE, "Invalid status code");
+        }
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the file in background thread
+     *
+     * @param fileName get file name
+     * @param file     destination file. Existing content is overwritten
+     * @param callback callback for after file download
+     */
+    public void fetchFileToFileInBackground(String fileName, File file, DoneCallback callback) {
+        fetchFileToFileInBackground(fileName, file, false, callback);
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the file in background thread.<br>
+     * If resume is true, download continues from the end of the existing file with Range request.
+     *
+     * @param fileName get file name
+     * @param file     destination file
+     * @param resume   true to continue from the end of the existing file
+     * @param callback callback for after file download
+     */
+    public void fetchFileToFileInBackground(String fileName, File file, boolean resume, DoneCallback callback) {
+        fetchFileInBackground(fileName, NCMBFileDownload.toFile(file, resume), callback);
+    }
+
+    /**
+     * Download file data to local file in background thread
+     *
+     * @param fileName fetch file name
+     * @param file     destination file
+     * @param resume   true to continue from the end of existing local file
+     * @return task completed with the destination file
+     */
+    public NCMBTask<File> fetchFileToFileTask(String fileName, final File file, boolean resume) {
+        final NCMBTask<File> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            fetchFileToFileInBackground(fileName, file, resume, new DoneCallback() {
+                @Override
+                public void done(NCMBException e) {
+                    task.complete(file, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Download file data from NIFCLOUD mobile backend and write it to the stream in background thread.<br>
+     * The stream is flushed but not closed.
+     *
+     * @param fileName get file name
+     * @param out      destination stream
+     * @param callback callback for after file download
+     */
+    public void fetchFileToStreamInBackground(String fileName, OutputStream out, DoneCallback callback) {
+        fetchFileInBackground(fileName, NCMBFileDownload.toStream(out), callback);
+    }
+
+    void fetchFileInBackground(String fileName, NCMBFileDownload download, DoneCallback callback) {
+        if (!validateFileName(fileName)) {
+            if (callback != null) {
+                callback.done(new NCMBException(NCMBException.REQUIRED, "fileName is must not be null or empty"));
+            }
+            return;
+        }
+
+        String url = createURL(fileName);
+        try {
+            sendDownloadRequestAsync(url, download, new FileServiceCallback(this, callback) {
+                @Override
+                public void handleResponse(NCMBResponse response) {
+                    DoneCallback callback = (DoneCallback) mCallback;
+                    if (callback != null) {
+                        callback.done(null);
+                    }
+                }
+
+                @Override
+                public void handleError(NCMBException e) {
+                    DoneCallback callback = (DoneCallback) mCallback;
+                    if (callback != null) {
+                        callback.done(e);
+                    }
+                }
+            });
+        } catch (NCMBException e) {
+            //Exception handling for NCMBRequest
+            if (callback != null) {
+                callback.done(e);
+            }
+        }
+    }
+
     /**
      * Get files from NIFCLOUD mobile backend
      *
@@ -364,17 +770,19 @@ public class NCMBFileService extends NCMBService {
         String url = createURL(null);
         try {
             sendRequestAsync(url, NCMBRequest.HTTP_METHOD_GET, null, conditions, new FileServiceCallback(this, callback) {
+                List<NCMBFile> mResults = null;
+
+                @Override
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
+                    mResults = createSearchResults(response.responseData);
+                }
+
                 @Override
                 public void handleResponse(NCMBResponse response) {
 
                     SearchFileCallback callback = (SearchFileCallback) mCallback;
                     if (callback != null) {
-                        try {
-                            callback.done(createSearchResults(response.responseData), null);
-                        } catch (NCMBException callbackException) {
-                            callback.done(null, callbackException);
-                        }
-
+                        callback.done(mResults, null);
                     }
                 }
 
@@ -395,6 +803,63 @@ public class NCMBFileService extends NCMBService {
         }
     }
 
+    /**
+     * Search files in background thread
+     *
+     * @param conditions search conditions
+     * @return task completed with the list of files
+     */
+    public NCMBTask<List<NCMBFile>> searchFileTask(JSONObject conditions) {
+        final NCMBTask<List<NCMBFile>> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            searchFileInBackground(conditions, new SearchFileCallback() {
+                @Override
+                public void done(List<NCMBFile> files, NCMBException e) {
+                    task.complete(files, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Search files and pass each found file to the callback while the response is read.<br>
+     * Found files are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found file
+     * @return number of found files
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchFileEach(JSONObject conditions, SearchEachCallback<NCMBFile> callback) throws NCMBException {
+        return searchEach(createURL(null), conditions, createResultReader(callback));
+    }
+
+    /**
+     * Search files in background and pass each found file to the callback while the response is read
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found file
+     */
+    public void searchFileEachInBackground(JSONObject conditions, SearchEachCallback<NCMBFile> callback) {
+        searchEachInBackground(createURL(null), conditions, createResultReader(callback));
+    }
+
+    // 検索結果をNCMBFileに変換しながら読み込む
+    private NCMBResultReader<NCMBFile> createResultReader(SearchEachCallback<NCMBFile> callback) {
+        return new NCMBResultReader<NCMBFile>(callback) {
+            @Override
+            NCMBFile createItem(JSONObject item) throws NCMBException {
+                NCMBFile file = new NCMBFile();
+                file.setLocalData(item);
+                return file;
+            }
+        };
+    }
+
     /**
      * Create search results
      *
@@ -438,4 +903,18 @@ public class NCMBFileService extends NCMBService {
         }
         return true;
     }
-}
\ No newline at end of file
+
+    // タスクを完了するコールバック
+    private static class TaskExecuteCallback implements ExecuteServiceCallback {
+        private final NCMBTask<JSONObject> mTask;
+
+        TaskExecuteCallback(NCMBTask<JSONObject> task) {
+            mTask = task;
+        }
+
+        @Override
+        public void done(JSONObject json, NCMBException e) {
+            mTask.complete(json, e);
+        }
+    }
+}
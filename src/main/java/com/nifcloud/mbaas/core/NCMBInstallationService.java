@@ -455,19 +455,19 @@ public class NCMBInstallationService extends NCMBService {
         try {
             final RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
             sendRequestAsync(request, new InstallationServiceCallback(this, callback) {
+                ArrayList<NCMBInstallation> mResults = null;
+
                 @Override
-                public void handleResponse(NCMBResponse response) {
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
                     //return the value of the key 'results'
-                    ArrayList<NCMBInstallation> array = null;
-                    try {
-                        array = createSearchResults(response.responseData);
-                    } catch (NCMBException e) {
-                        callback.done(null, e);
-                    }
+                    mResults = createSearchResults(response.responseData);
+                }
 
+                @Override
+                public void handleResponse(NCMBResponse response) {
                     SearchInstallationCallback callback = (SearchInstallationCallback) mCallback;
                     if (callback != null) {
-                        callback.done(array, null);
+                        callback.done(mResults, null);
                     }
                 }
 
@@ -486,6 +486,49 @@ public class NCMBInstallationService extends NCMBService {
         }
     }
 
+    /**
+     * Search installations and pass each found installation to the callback while the response is read.<br>
+     * Found installations are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found installation
+     * @return number of found installations
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchInstallationEach(JSONObject conditions, SearchEachCallback<NCMBInstallation> callback)
+            throws NCMBException {
+        RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
+        return searchEach(request.url, request.query, createResultReader(callback));
+    }
+
+    /**
+     * Search installations in background and pass each found installation to the callback while the response is read
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found installation
+     */
+    public void searchInstallationEachInBackground(JSONObject conditions,
+                                                   SearchEachCallback<NCMBInstallation> callback) {
+        try {
+            RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
+            searchEachInBackground(request.url, request.query, createResultReader(callback));
+        } catch (NCMBException error) {
+            if (callback != null) {
+                callback.done(0, error);
+            }
+        }
+    }
+
+    // 検索結果をNCMBInstallationに変換しながら読み込む
+    private NCMBResultReader<NCMBInstallation> createResultReader(SearchEachCallback<NCMBInstallation> callback) {
+        return new NCMBResultReader<NCMBInstallation>(callback) {
+            @Override
+            NCMBInstallation createItem(JSONObject item) {
+                return new NCMBInstallation(item);
+            }
+        };
+    }
+
     // endregion
 
     // region internal method
@@ -0,0 +1,657 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * NCMBLocalDatastore keeps pinned NCMBObjects in a SQLite database of the application.<br>
+ * Objects are pinned with NCMBObject.pin and searched with NCMBQuery.fromLocalDatastore.
+ * Keys often used in search conditions can be declared as indexes with createIndex.
+ * Equality, $in, $lt, $lte, $gt and $gte conditions on indexed keys and on objectId are searched with
+ * SQLite indexes, and when every condition and the order can be served by indexes, limit and skip are
+ * also applied in SQLite. Other conditions are evaluated on the objects read from the database.
+ */
+public class NCMBLocalDatastore {
+
+    static final String DATABASE_NAME = "ncmb_datastore.db";
+    static final int DATABASE_VERSION = 1;
+
+    // インデックスに配列などを保存した場合の種類
+    private static final String TYPE_OTHER = String.valueOf(NCMBLocalMatcher.TYPE_OTHER);
+
+    private static Helper sHelper;
+    private static Context sHelperContext;
+
+    private static class Helper extends SQLiteOpenHelper {
+
+        Helper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE objects (className TEXT NOT NULL, objectId TEXT NOT NULL,"
+                    + " data TEXT NOT NULL, PRIMARY KEY (className, objectId))");
+            db.execSQL("CREATE TABLE indexes (className TEXT NOT NULL, key TEXT NOT NULL,"
+                    + " PRIMARY KEY (className, key))");
+            db.execSQL("CREATE TABLE index_values (className TEXT NOT NULL, key TEXT NOT NULL,"
+                    + " objectId TEXT NOT NULL, type INTEGER NOT NULL, num REAL, str TEXT)");
+            db.execSQL("CREATE INDEX index_values_num ON index_values (className, key, type, num)");
+            db.execSQL("CREATE INDEX index_values_str ON index_values (className, key, type, str)");
+            db.execSQL("CREATE INDEX index_values_object ON index_values (className, objectId)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            //バージョン1のみ
+        }
+    }
+
+    private static synchronized SQLiteDatabase getDatabase() throws NCMBException {
+        NCMBLocalFile.checkNCMBContext();
+        Context context = NCMB.getCurrentContext().context.getApplicationContext();
+        if (sHelper == null || sHelperContext != context) {
+            if (sHelper != null) {
+                sHelper.close();
+            }
+            sHelper = new Helper(context);
+            sHelperContext = context;
+        }
+        try {
+            return sHelper.getWritableDatabase();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        }
+    }
+
+    /**
+     * Declare the key as an index of the class.<br>
+     * Objects already pinned are indexed at once
+     *
+     * @param className class name
+     * @param key       field name to index
+     * @throws NCMBException failed to write the database
+     */
+    public static void createIndex(String className, String key) throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("className", className);
+            values.put("key", key);
+            if (db.insertWithOnConflict("indexes", null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                SQLiteStatement insert = compileInsert(db);
+                Cursor cursor = db.rawQuery("SELECT objectId, data FROM objects WHERE className = ?",
+                        new String[]{className});
+                try {
+                    while (cursor.moveToNext()) {
+                        insertIndexValue(insert, className, cursor.getString(0), key,
+                                NCMBLocalMatcher.fieldValue(new JSONObject(cursor.getString(1)), key));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException | JSONException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove the index of the class
+     *
+     * @param className class name
+     * @param key       indexed field name
+     * @throws NCMBException failed to write the database
+     */
+    public static void dropIndex(String className, String key) throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        String[] args = new String[]{className, key};
+        db.beginTransaction();
+        try {
+            db.delete("indexes", "className = ? AND key = ?", args);
+            db.delete("index_values", "className = ? AND key = ?", args);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Unpin all objects. Declared indexes are kept
+     *
+     * @throws NCMBException failed to write the database
+     */
+    public static void clear() throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            db.delete("objects", null, null);
+            db.delete("index_values", null, null);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Unpin all objects of the class. Declared indexes are kept
+     *
+     * @param className class name
+     * @throws NCMBException failed to write the database
+     */
+    public static void clear(String className) throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        String[] args = new String[]{className};
+        db.beginTransaction();
+        try {
+            db.delete("objects", "className = ?", args);
+            db.delete("index_values", "className = ?", args);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Save the objects to the database in one transaction
+     *
+     * @param objects objects to pin
+     * @throws NCMBException objectId is not set or failed to write the database
+     */
+    static void pin(List<? extends NCMBObject> objects) throws NCMBException {
+        for (NCMBObject object : objects) {
+            if (object.getObjectId() == null) {
+                throw new NCMBException(NCMBException.REQUIRED, "objectId is must not be null or empty");
+            }
+        }
+        SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            Map<String, Set<String>> indexes = new HashMap<>();
+            SQLiteStatement insert = compileInsert(db);
+            for (NCMBObject object : objects) {
+                String className = object.getClassName();
+                String objectId = object.getObjectId();
+                ContentValues values = new ContentValues();
+                values.put("className", className);
+                values.put("objectId", objectId);
+                values.put("data", object.mFields.toString());
+                db.insertWithOnConflict("objects", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                db.delete("index_values", "className = ? AND objectId = ?", new String[]{className, objectId});
+
+                Set<String> keys = indexes.get(className);
+                if (keys == null) {
+                    keys = getIndexedKeys(db, className);
+                    indexes.put(className, keys);
+                }
+                for (String key : keys) {
+                    insertIndexValue(insert, className, objectId, key,
+                            NCMBLocalMatcher.fieldValue(object.mFields, key));
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Remove the objects from the database in one transaction
+     *
+     * @param objects objects to unpin
+     * @throws NCMBException objectId is not set or failed to write the database
+     */
+    static void unpin(List<? extends NCMBObject> objects) throws NCMBException {
+        for (NCMBObject object : objects) {
+            if (object.getObjectId() == null) {
+                throw new NCMBException(NCMBException.REQUIRED, "objectId is must not be null or empty");
+            }
+        }
+        SQLiteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            for (NCMBObject object : objects) {
+                String[] args = new String[]{object.getClassName(), object.getObjectId()};
+                db.delete("objects", "className = ? AND objectId = ?", args);
+                db.delete("index_values", "className = ? AND objectId = ?", args);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            throw new NCMBException(e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement("INSERT INTO index_values (className, key, objectId, type, num, str)"
+                + " VALUES (?, ?, ?, ?, ?, ?)");
+    }
+
+    private static void insertIndexValue(SQLiteStatement insert, String className, String objectId, String key,
+                                         Object value) {
+        int type = NCMBLocalMatcher.typeOf(value);
+        if (type == NCMBLocalMatcher.TYPE_NONE) {
+            //値がない場合は保存せず、並べ替えではNULLとして扱う
+            return;
+        }
+        insert.clearBindings();
+        insert.bindString(1, className);
+        insert.bindString(2, key);
+        insert.bindString(3, objectId);
+        insert.bindLong(4, type);
+        Double number = NCMBLocalMatcher.indexNumber(value);
+        if (number != null) {
+            insert.bindDouble(5, number);
+        }
+        String string = NCMBLocalMatcher.indexString(value);
+        if (string != null) {
+            insert.bindString(6, string);
+        }
+        insert.executeInsert();
+    }
+
+    private static Set<String> getIndexedKeys(SQLiteDatabase db, String className) {
+        Set<String> keys = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT key FROM indexes WHERE className = ?", new String[]{className});
+        try {
+            while (cursor.moveToNext()) {
+                keys.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Search pinned objects
+     *
+     * @param className  class name
+     * @param conditions search conditions of NCMBQuery
+     * @return data of the objects. limit is not applied if not set
+     * @throws NCMBException the conditions can not be evaluated or failed to read the database
+     */
+    static List<JSONObject> find(String className, JSONObject conditions) throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        Statement statement = createStatement(db, className, conditions);
+        List<JSONObject> results = new ArrayList<>();
+        try {
+            Cursor cursor = db.rawQuery(statement.toSql("o.data", conditions), statement.getArgs(conditions));
+            try {
+                while (cursor.moveToNext()) {
+                    JSONObject item = new JSONObject(cursor.getString(0));
+                    if (statement.exact || NCMBLocalMatcher.matches(item, statement.where)) {
+                        results.add(item);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException | JSONException e) {
+            throw new NCMBException(e);
+        }
+        if (statement.ordered) {
+            return results;
+        }
+        Collections.sort(results, NCMBLocalMatcher.createComparator(conditions.optString("order", null)));
+        int skip = Math.min(conditions.optInt("skip", 0), results.size());
+        int limit = conditions.optInt("limit", 0);
+        int end = limit > 0 ? Math.min(skip + limit, results.size()) : results.size();
+        return new ArrayList<>(results.subList(skip, end));
+    }
+
+    /**
+     * Count pinned objects
+     *
+     * @param className  class name
+     * @param conditions search conditions of NCMBQuery
+     * @return number of the objects matching the conditions
+     * @throws NCMBException the conditions can not be evaluated or failed to read the database
+     */
+    static int count(String className, JSONObject conditions) throws NCMBException {
+        SQLiteDatabase db = getDatabase();
+        Statement statement = createStatement(db, className, conditions);
+        try {
+            if (statement.exact) {
+                Cursor cursor = db.rawQuery(statement.toSql("COUNT(*)", null), statement.getArgs(null));
+                try {
+                    return cursor.moveToNext() ? cursor.getInt(0) : 0;
+                } finally {
+                    cursor.close();
+                }
+            }
+            int count = 0;
+            Cursor cursor = db.rawQuery(statement.toSql("o.data", null), statement.getArgs(null));
+            try {
+                while (cursor.moveToNext()) {
+                    if (NCMBLocalMatcher.matches(new JSONObject(cursor.getString(0)), statement.where)) {
+                        count++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            return count;
+        } catch (SQLException | JSONException e) {
+            throw new NCMBException(e);
+        }
+    }
+
+    private static Statement createStatement(SQLiteDatabase db, String className, JSONObject conditions) {
+        Set<String> indexedKeys = getIndexedKeys(db, className);
+        Statement statement = new Statement(className, conditions, indexedKeys);
+        if (statement.exact && !statement.pushedKeys.isEmpty()) {
+            //配列などを保存したキーは条件を全てSQLで評価できない
+            StringBuilder sql = new StringBuilder("SELECT 1 FROM index_values WHERE className = ? AND type = ")
+                    .append(TYPE_OTHER).append(" AND key IN (");
+            List<String> args = new ArrayList<>();
+            args.add(className);
+            for (String key : statement.pushedKeys) {
+                sql.append(args.size() > 1 ? ", ?" : "?");
+                args.add(key);
+            }
+            Cursor cursor = db.rawQuery(sql.append(") LIMIT 1").toString(), args.toArray(new String[args.size()]));
+            try {
+                if (cursor.moveToNext()) {
+                    statement.exact = false;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        statement.createOrder(conditions, indexedKeys);
+        return statement;
+    }
+
+    /**
+     * SQL statement to search pinned objects.<br>
+     * Conditions on indexed keys are searched with index_values,
+     * and the results may include objects not matching the other conditions unless exact is true
+     */
+    static class Statement {
+        final JSONObject where;
+        // SQLで評価した条件のキー
+        final Set<String> pushedKeys = new HashSet<>();
+        // 全ての条件をSQLで評価したか
+        boolean exact = true;
+        // 並べ替えとlimit, skipをSQLで行ったか
+        boolean ordered = false;
+
+        private final List<String> mJoinArgs = new ArrayList<>();
+        private final List<String> mWhereArgs = new ArrayList<>();
+        private final StringBuilder mJoin = new StringBuilder();
+        private final StringBuilder mWhere = new StringBuilder("o.className = ?");
+        private String mOrder = null;
+
+        Statement(String className, JSONObject conditions, Set<String> indexedKeys) {
+            where = conditions != null ? conditions.optJSONObject("where") : null;
+            mWhereArgs.add(className);
+            if (where == null) {
+                return;
+            }
+            Iterator<String> keys = where.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object condition = where.opt(key);
+                if (key.equals("objectId") && condition instanceof String) {
+                    mWhere.append(" AND o.objectId = ?");
+                    mWhereArgs.add((String) condition);
+                } else if (indexedKeys.contains(key)) {
+                    addIndexCondition(className, key, condition);
+                } else {
+                    exact = false;
+                }
+            }
+        }
+
+        private void addIndexCondition(String className, String key, Object condition) {
+            // 条件ごとの、いずれかに一致すればよいインデックスの行の条件
+            List<List<Term>> conjuncts = new ArrayList<>();
+            if (condition instanceof JSONObject && isOperators((JSONObject) condition)) {
+                JSONObject operators = (JSONObject) condition;
+                Iterator<String> iterator = operators.keys();
+                while (iterator.hasNext()) {
+                    String operator = iterator.next();
+                    List<Term> terms = createTerms(operator, operators.opt(operator));
+                    if (terms != null) {
+                        conjuncts.add(terms);
+                    } else {
+                        exact = false;
+                    }
+                }
+            } else {
+                List<Term> terms = createTerms("$eq", condition);
+                if (terms != null) {
+                    conjuncts.add(terms);
+                } else {
+                    exact = false;
+                }
+            }
+            if (conjuncts.isEmpty()) {
+                return;
+            }
+            pushedKeys.add(key);
+            //範囲の条件は1つの行の条件にまとめてインデックスの範囲を検索する
+            Term combined = null;
+            for (Iterator<List<Term>> iterator = conjuncts.iterator(); iterator.hasNext(); ) {
+                List<Term> terms = iterator.next();
+                if (terms.size() == 1) {
+                    combined = combined == null ? terms.get(0) : combined.and(terms.get(0));
+                    iterator.remove();
+                }
+            }
+            if (combined != null) {
+                conjuncts.add(Collections.singletonList(combined));
+            }
+            for (List<Term> terms : conjuncts) {
+                //配列などの値は検索後に評価する
+                mWhere.append(" AND o.objectId IN (SELECT objectId FROM index_values"
+                        + " WHERE className = ? AND key = ? AND type = ").append(TYPE_OTHER);
+                mWhereArgs.add(className);
+                mWhereArgs.add(key);
+                for (Term term : terms) {
+                    mWhere.append(" UNION ALL SELECT objectId FROM index_values WHERE className = ? AND key = ? AND ")
+                            .append(term.sql);
+                    mWhereArgs.add(className);
+                    mWhereArgs.add(key);
+                    mWhereArgs.addAll(term.args);
+                }
+                mWhere.append(")");
+            }
+        }
+
+        private static boolean isOperators(JSONObject condition) {
+            Iterator<String> keys = condition.keys();
+            while (keys.hasNext()) {
+                if (!keys.next().startsWith("$")) {
+                    return false;
+                }
+            }
+            return condition.length() > 0;
+        }
+
+        /**
+         * Condition on a row of index_values
+         */
+        static class Term {
+            final String sql;
+            final List<String> args;
+
+            Term(String sql, List<String> args) {
+                this.sql = sql;
+                this.args = args;
+            }
+
+            Term and(Term other) {
+                List<String> args = new ArrayList<>(this.args);
+                args.addAll(other.args);
+                return new Term(sql + " AND " + other.sql, args);
+            }
+        }
+
+        /**
+         * Create conditions on rows of index_values. A value matches if a row matches any of the conditions
+         *
+         * @return conditions, or null if the operator can not be searched with the index
+         */
+        static List<Term> createTerms(String operator, Object operand) {
+            switch (operator) {
+                case "$eq":
+                    return createComparison("=", operand);
+                case "$lt":
+                    return createComparison("<", operand);
+                case "$lte":
+                    return createComparison("<=", operand);
+                case "$gt":
+                    return createComparison(">", operand);
+                case "$gte":
+                    return createComparison(">=", operand);
+                case "$in":
+                    if (!(operand instanceof JSONArray) || ((JSONArray) operand).length() == 0) {
+                        return null;
+                    }
+                    JSONArray array = (JSONArray) operand;
+                    List<Term> terms = new ArrayList<>();
+                    for (int i = 0; i < array.length(); i++) {
+                        List<Term> comparison = createComparison("=", array.opt(i));
+                        if (comparison == null) {
+                            return null;
+                        }
+                        terms.addAll(comparison);
+                    }
+                    return terms;
+                default:
+                    return null;
+            }
+        }
+
+        private static List<Term> createComparison(String operator, Object value) {
+            int type = NCMBLocalMatcher.typeOf(value);
+            Double number = NCMBLocalMatcher.indexNumber(value);
+            String string = NCMBLocalMatcher.indexString(value);
+            if (number == null && string == null) {
+                return null;
+            }
+            List<String> args = new ArrayList<>();
+            args.add(String.valueOf(type));
+            if (number != null) {
+                args.add(String.valueOf(number));
+                return Collections.singletonList(new Term("type = ? AND num " + operator + " ?", args));
+            }
+            args.add(string);
+            return Collections.singletonList(new Term("type = ? AND str " + operator + " ?", args));
+        }
+
+        /**
+         * Sort in SQL if all conditions are evaluated in SQL and the order key is indexed
+         */
+        void createOrder(JSONObject conditions, Set<String> indexedKeys) {
+            if (!exact) {
+                return;
+            }
+            String order = conditions != null ? conditions.optString("order", "") : "";
+            if (order.isEmpty() || order.equals("objectId")) {
+                mOrder = "o.objectId";
+            } else if (order.equals("-objectId")) {
+                mOrder = "o.objectId DESC";
+            } else {
+                boolean descending = order.startsWith("-");
+                String key = descending ? order.substring(1) : order;
+                if (order.contains(",") || !indexedKeys.contains(key)) {
+                    return;
+                }
+                mJoin.append(" LEFT JOIN index_values s ON s.className = o.className"
+                        + " AND s.objectId = o.objectId AND s.key = ?");
+                mJoinArgs.add(key);
+                String direction = descending ? " DESC" : "";
+                mOrder = "s.type" + direction + ", s.num" + direction + ", s.str" + direction + ", o.objectId";
+            }
+            ordered = true;
+        }
+
+        /**
+         * Create SQL
+         *
+         * @param columns    columns to select
+         * @param conditions conditions with limit and skip, or null to select all rows
+         * @return SQL
+         */
+        String toSql(String columns, JSONObject conditions) {
+            StringBuilder sql = new StringBuilder("SELECT ").append(columns).append(" FROM objects o");
+            if (conditions != null && ordered) {
+                sql.append(mJoin);
+            }
+            sql.append(" WHERE ").append(mWhere);
+            if (conditions != null && ordered) {
+                sql.append(" ORDER BY ").append(mOrder);
+                int limit = conditions.optInt("limit", 0);
+                int skip = conditions.optInt("skip", 0);
+                if (limit > 0 || skip > 0) {
+                    sql.append(" LIMIT ").append(limit > 0 ? limit : -1).append(" OFFSET ").append(skip);
+                }
+            }
+            return sql.toString();
+        }
+
+        /**
+         * Create arguments of the SQL
+         *
+         * @param conditions the same conditions given to toSql
+         * @return arguments
+         */
+        String[] getArgs(JSONObject conditions) {
+            List<String> args = new ArrayList<>();
+            if (conditions != null && ordered) {
+                args.addAll(mJoinArgs);
+            }
+            args.addAll(mWhereArgs);
+            return args.toArray(new String[args.size()]);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * NCMBLocalMatcher evaluates search conditions of NCMBQuery on objects in the local datastore.<br>
+ * Values are compared by type first, in the same order as the values indexed in SQLite,
+ * so that results sorted with an index are the same as results sorted in memory.
+ */
+class NCMBLocalMatcher {
+
+    // 値の種類。インデックスのtype列と同じ値を使う
+    static final int TYPE_NONE = -1;
+    static final int TYPE_NUMBER = 0;
+    static final int TYPE_BOOLEAN = 1;
+    static final int TYPE_STRING = 2;
+    static final int TYPE_DATE = 3;
+    static final int TYPE_OTHER = 9;
+
+    /**
+     * Get the type of the value
+     *
+     * @param value field value
+     * @return one of TYPE_ constants
+     */
+    static int typeOf(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return TYPE_NONE;
+        } else if (value instanceof Number) {
+            return TYPE_NUMBER;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (isDate(value)) {
+            return TYPE_DATE;
+        }
+        return TYPE_OTHER;
+    }
+
+    /**
+     * Get the number stored to the index for the value
+     *
+     * @param value field value
+     * @return number, or null if the value is stored as string
+     */
+    static Double indexNumber(Object value) {
+        switch (typeOf(value)) {
+            case TYPE_NUMBER:
+                return ((Number) value).doubleValue();
+            case TYPE_BOOLEAN:
+                return (Boolean) value ? 1.0 : 0.0;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the string stored to the index for the value
+     *
+     * @param value field value
+     * @return string, or null if the value is stored as number
+     */
+    static String indexString(Object value) {
+        switch (typeOf(value)) {
+            case TYPE_STRING:
+                return (String) value;
+            case TYPE_DATE:
+                return ((JSONObject) value).optString("iso");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the field value of the object.<br>
+     * createDate and updateDate are kept as string in NCMBObject, so they are returned as Date data
+     *
+     * @param object object data
+     * @param key    field name
+     * @return field value, or null if the object does not have the field
+     */
+    static Object fieldValue(JSONObject object, String key) {
+        Object value = object.opt(key);
+        if (value instanceof String && (key.equals("createDate") || key.equals("updateDate"))) {
+            JSONObject date = new JSONObject();
+            try {
+                date.put("__type", "Date");
+                date.put("iso", value);
+            } catch (JSONException e) {
+                return value;
+            }
+            return date;
+        }
+        return value;
+    }
+
+    private static boolean isDate(Object value) {
+        return value instanceof JSONObject && "Date".equals(((JSONObject) value).optString("__type"))
+                && ((JSONObject) value).has("iso");
+    }
+
+    /**
+     * Check whether the object matches where conditions
+     *
+     * @param object object data
+     * @param where  where conditions of the query, or null
+     * @return true if the object matches
+     * @throws NCMBException the conditions include an operator not supported in the local datastore
+     */
+    static boolean matches(JSONObject object, JSONObject where) throws NCMBException {
+        if (where == null) {
+            return true;
+        }
+        Iterator<String> keys = where.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object condition = where.opt(key);
+            if (key.equals("$or")) {
+                if (!matchesAny(object, condition)) {
+                    return false;
+                }
+            } else if (!matchesField(fieldValue(object, key), condition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesAny(JSONObject object, Object conditions) throws NCMBException {
+        if (!(conditions instanceof JSONArray)) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT, "$or must be an array.");
+        }
+        JSONArray array = (JSONArray) conditions;
+        for (int i = 0; i < array.length(); i++) {
+            if (matches(object, array.optJSONObject(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesField(Object value, Object condition) throws NCMBException {
+        if (!isOperators(condition)) {
+            return valueEquals(value, condition);
+        }
+        JSONObject operators = (JSONObject) condition;
+        Iterator<String> iterator = operators.keys();
+        while (iterator.hasNext()) {
+            String operator = iterator.next();
+            Object operand = operators.opt(operator);
+            if (!matchesOperator(value, operator, operand)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // キーが全て演算子のオブジェクトを条件とする
+    private static boolean isOperators(Object condition) {
+        if (!(condition instanceof JSONObject) || ((JSONObject) condition).length() == 0) {
+            return false;
+        }
+        Iterator<String> iterator = ((JSONObject) condition).keys();
+        while (iterator.hasNext()) {
+            if (!iterator.next().startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesOperator(Object value, String operator, Object operand) throws NCMBException {
+        switch (operator) {
+            case "$ne":
+                return !valueEquals(value, operand);
+            case "$lt":
+                return isComparable(value, operand) && compareValues(value, operand) < 0;
+            case "$lte":
+                return isComparable(value, operand) && compareValues(value, operand) <= 0;
+            case "$gt":
+                return isComparable(value, operand) && compareValues(value, operand) > 0;
+            case "$gte":
+                return isComparable(value, operand) && compareValues(value, operand) >= 0;
+            case "$in":
+                return containsAny(toArray(operand, operator), value);
+            case "$nin":
+                return !containsAny(toArray(operand, operator), value);
+            case "$exists":
+                return (typeOf(value) != TYPE_NONE) == Boolean.TRUE.equals(operand);
+            case "$inArray":
+                return value instanceof JSONArray && containsAny((JSONArray) value, toArray(operand, operator));
+            case "$ninArray":
+                return !(value instanceof JSONArray) || !containsAny((JSONArray) value, toArray(operand, operator));
+            case "$all":
+                return value instanceof JSONArray && containsAll((JSONArray) value, toArray(operand, operator));
+            default:
+                throw new NCMBException(NCMBException.INVALID_FORMAT,
+                        operator + " is not supported in the local datastore.");
+        }
+    }
+
+    private static JSONArray toArray(Object operand, String operator) throws NCMBException {
+        if (!(operand instanceof JSONArray)) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT, operator + " must be an array.");
+        }
+        return (JSONArray) operand;
+    }
+
+    // 同じ種類の順序のある値のみ大小を比較する
+    private static boolean isComparable(Object value, Object operand) {
+        int type = typeOf(value);
+        return type == typeOf(operand) && type != TYPE_NONE && type != TYPE_OTHER;
+    }
+
+    /**
+     * Check whether the field value equals to the condition value.<br>
+     * For array fields, the condition matches any element of the array
+     *
+     * @param value     field value
+     * @param condition condition value
+     * @return true if the values are equal
+     */
+    static boolean valueEquals(Object value, Object condition) {
+        if (value instanceof JSONArray && !(condition instanceof JSONArray)) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                if (valueEquals(array.opt(i), condition)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int type = typeOf(value);
+        if (type != typeOf(condition)) {
+            return false;
+        }
+        if (type == TYPE_NONE) {
+            return true;
+        }
+        if (type == TYPE_OTHER) {
+            return canonical(value).equals(canonical(condition));
+        }
+        return compareValues(value, condition) == 0;
+    }
+
+    private static String canonical(Object value) {
+        StringBuilder builder = new StringBuilder();
+        NCMBQueryCache.appendCanonical(builder, value);
+        return builder.toString();
+    }
+
+    private static boolean containsAny(JSONArray values, Object value) {
+        for (int i = 0; i < values.length(); i++) {
+            if (valueEquals(value, values.opt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAny(JSONArray values, JSONArray elements) {
+        for (int i = 0; i < elements.length(); i++) {
+            if (valueEquals(values, elements.opt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAll(JSONArray values, JSONArray elements) {
+        for (int i = 0; i < elements.length(); i++) {
+            if (!valueEquals(values, elements.opt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare values for sorting. Values are ordered by type and then by value
+     *
+     * @param a value
+     * @param b value
+     * @return negative if a is smaller than b
+     */
+    static int compareValues(Object a, Object b) {
+        int typeA = typeOf(a);
+        int typeB = typeOf(b);
+        if (typeA != typeB) {
+            return typeA < typeB ? -1 : 1;
+        }
+        Double numberA = indexNumber(a);
+        if (numberA != null) {
+            return Double.compare(numberA, indexNumber(b));
+        }
+        String stringA = indexString(a);
+        if (stringA != null) {
+            return stringA.compareTo(indexString(b));
+        }
+        //その他の値は順序を付けない
+        return 0;
+    }
+
+    /**
+     * Create comparator from order conditions of the query.<br>
+     * Objects with the same values are ordered by objectId
+     *
+     * @param order order condition such as "key1,-key2", or null
+     * @return comparator of object data
+     */
+    static Comparator<JSONObject> createComparator(String order) {
+        final String[] keys = order == null || order.isEmpty() ? new String[0] : order.split(",");
+        return new Comparator<JSONObject>() {
+            @Override
+            public int compare(JSONObject a, JSONObject b) {
+                for (String key : keys) {
+                    boolean descending = key.startsWith("-");
+                    String field = descending ? key.substring(1) : key;
+                    int result = compareValues(fieldValue(a, field), fieldValue(b, field));
+                    if (result != 0) {
+                        return descending ? -result : result;
+                    }
+                }
+                return a.optString("objectId").compareTo(b.optString("objectId"));
+            }
+        };
+    }
+}
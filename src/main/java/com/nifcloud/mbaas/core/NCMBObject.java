@@ -24,6 +24,7 @@ import org.json.JSONObject;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,6 +32,9 @@ import java.util.List;
  */
 public class NCMBObject extends NCMBBase{
 
+    // saveEventuallyで登録待ちのオブジェクトの識別子
+    String mLocalId;
+
     /**
      * Constructor with class name
      * @param className class name for data store
@@ -104,7 +108,10 @@ public class NCMBObject extends NCMBBase{
 
             }
         };
-        if (getObjectId() == null) {
+        if (NCMBWriteBatcher.isEnabled(this)) {
+            //待機時間内の書き込みとまとめて送信する
+            NCMBWriteBatcher.getInstance().add(this, false, executeCallback);
+        } else if (getObjectId() == null) {
             NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
             objService.saveObjectInBackground(mClassName, mFields, executeCallback);
         } else {
@@ -178,8 +185,7 @@ public class NCMBObject extends NCMBBase{
      * @param callback callback after delete object
      */
     public void deleteObjectInBackground (final DoneCallback callback) {
-        NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
-        objService.deleteObjectInBackground(mClassName, getObjectId(), new ExecuteServiceCallback() {
+        ExecuteServiceCallback executeCallback = new ExecuteServiceCallback() {
             @Override
             public void done(JSONObject jsonData, NCMBException e) {
                 if (e != null) {
@@ -194,7 +200,158 @@ public class NCMBObject extends NCMBBase{
                     }
                 }
             }
-        });
+        };
+        if (NCMBWriteBatcher.isEnabled(this)) {
+            //待機時間内の書き込みとまとめて送信する
+            NCMBWriteBatcher.getInstance().add(this, true, executeCallback);
+        } else {
+            NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
+            objService.deleteObjectInBackground(mClassName, getObjectId(), executeCallback);
+        }
+    }
+
+    /**
+     * save current NCMBObject to data store when NIFCLOUD mobile backend can be reached.<br>
+     * The object is kept in a journal file until it is saved, even if the application is restarted
+     */
+    public void saveEventually() {
+        saveEventually(null);
+    }
+
+    /**
+     * save current NCMBObject to data store when NIFCLOUD mobile backend can be reached.<br>
+     * The object is kept in a journal file until it is saved, even if the application is restarted.
+     * Successive saves of the same object are sent as one request
+     * @param callback callback after the object is saved
+     */
+    public void saveEventually(DoneCallback callback) {
+        NCMBEventuallyQueue.getInstance().save(this, callback);
+    }
+
+    /**
+     * delete current NCMBObject from data store when NIFCLOUD mobile backend can be reached.<br>
+     * The object is kept in a journal file until it is deleted, even if the application is restarted
+     */
+    public void deleteEventually() {
+        deleteEventually(null);
+    }
+
+    /**
+     * delete current NCMBObject from data store when NIFCLOUD mobile backend can be reached.<br>
+     * The object is kept in a journal file until it is deleted, even if the application is restarted.
+     * An object deleted before it is saved is not sent
+     * @param callback callback after the object is deleted
+     */
+    public void deleteEventually(DoneCallback callback) {
+        NCMBEventuallyQueue.getInstance().delete(this, callback);
+    }
+
+    /**
+     * save current NCMBObject to the local datastore.<br>
+     * The pinned data is not updated automatically, so pin again after the object is changed
+     * @throws NCMBException objectId is not set or failed to write the local datastore
+     */
+    public void pin() throws NCMBException {
+        NCMBLocalDatastore.pin(Collections.singletonList(this));
+    }
+
+    /**
+     * remove current NCMBObject from the local datastore
+     * @throws NCMBException objectId is not set or failed to write the local datastore
+     */
+    public void unpin() throws NCMBException {
+        NCMBLocalDatastore.unpin(Collections.singletonList(this));
+    }
+
+    /**
+     * save NCMBObjects to the local datastore in one transaction
+     * @param objects objects to pin
+     * @throws NCMBException objectId is not set or failed to write the local datastore
+     */
+    public static void pinAll(List<? extends NCMBObject> objects) throws NCMBException {
+        NCMBLocalDatastore.pin(objects);
+    }
+
+    /**
+     * remove NCMBObjects from the local datastore in one transaction
+     * @param objects objects to unpin
+     * @throws NCMBException objectId is not set or failed to write the local datastore
+     */
+    public static void unpinAll(List<? extends NCMBObject> objects) throws NCMBException {
+        NCMBLocalDatastore.unpin(objects);
+    }
+
+    /**
+     * save NCMBObjects to data store at once with batch api.<br>
+     * Objects are sent in requests of up to NCMBObjectService.BATCH_MAX_REQUESTS objects one after another
+     * @param objects objects to save
+     * @return exception of each object in the same order as the objects, or null if succeeded
+     * @throws NCMBException exception from NIFCLOUD mobile backend when a batch request failed
+     */
+    public static List<NCMBException> saveAll(List<NCMBObject> objects) throws NCMBException {
+        NCMBObjectService objService = (NCMBObjectService) NCMB.factory(NCMB.ServiceType.OBJECT);
+        return new NCMBObjectBatch(objService, objects, false).execute();
+    }
+
+    /**
+     * save NCMBObjects to data store at once with batch api asynchronously
+     * @param objects objects to save
+     * @param callback callback after all objects saved
+     */
+    public static void saveAllInBackground(List<NCMBObject> objects, BatchCallback callback) {
+        saveAllInBackground(objects, NCMBObjectBatch.DEFAULT_PARALLELISM, callback);
+    }
+
+    /**
+     * save NCMBObjects to data store at once with batch api asynchronously
+     * @param objects objects to save
+     * @param parallelism maximum number of batch requests sent at the same time
+     * @param callback callback after all objects saved
+     */
+    public static void saveAllInBackground(List<NCMBObject> objects, int parallelism,
+                                                        BatchCallback callback) {
+        executeBatchInBackground(objects, false, parallelism, callback);
+    }
+
+    /**
+     * delete NCMBObjects from data store at once with batch api.<br>
+     * Objects are sent in requests of up to NCMBObjectService.BATCH_MAX_REQUESTS objects one after another
+     * @param objects objects to delete
+     * @return exception of each object in the same order as the objects, or null if succeeded
+     * @throws NCMBException exception from NIFCLOUD mobile backend when a batch request failed
+     */
+    public static List<NCMBException> deleteAll(List<NCMBObject> objects) throws NCMBException {
+        NCMBObjectService objService = (NCMBObjectService) NCMB.factory(NCMB.ServiceType.OBJECT);
+        return new NCMBObjectBatch(objService, objects, true).execute();
+    }
+
+    /**
+     * delete NCMBObjects from data store at once with batch api asynchronously
+     * @param objects objects to delete
+     * @param callback callback after all objects deleted
+     */
+    public static void deleteAllInBackground(List<NCMBObject> objects, BatchCallback callback) {
+        deleteAllInBackground(objects, NCMBObjectBatch.DEFAULT_PARALLELISM, callback);
+    }
+
+    /**
+     * delete NCMBObjects from data store at once with batch api asynchronously
+     * @param objects objects to delete
+     * @param parallelism maximum number of batch requests sent at the same time
+     * @param callback callback after all objects deleted
+     */
+    public static void deleteAllInBackground(List<NCMBObject> objects, int parallelism,
+                                                          BatchCallback callback) {
+        executeBatchInBackground(objects, true, parallelism, callback);
+    }
+
+    private static void executeBatchInBackground(List<NCMBObject> objects, boolean delete,
+                                                              int parallelism, BatchCallback callback) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
+        new NCMBObjectBatch(objService, objects, delete).executeInBackground(parallelism, callback);
     }
 
     /**
@@ -305,7 +462,7 @@ public class NCMBObject extends NCMBBase{
      * @param res
      * @throws NCMBException
      */
-    private void setServerDataToProperties(JSONObject res) throws NCMBException {
+    void setServerDataToProperties(JSONObject res) throws NCMBException {
         if (res != null) {
             if (res.has("objectId")) {
                 try {
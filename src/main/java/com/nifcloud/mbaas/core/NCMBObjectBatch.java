@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NCMBObjectBatch saves or deletes objects with batch api.<br>
+ * Objects are divided into chunks of BATCH_MAX_REQUESTS, and the result of each request
+ * is set to the object in the same way as save and deleteObject.
+ */
+class NCMBObjectBatch {
+
+    // 同時に送信するバッチリクエストの既定数
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private final NCMBObjectService mService;
+    private final List<NCMBObject> mObjects;
+    private final boolean mDelete;
+    private final NCMBException[] mErrors;
+    // バッチリクエスト毎のリクエストと対応するオブジェクトの位置
+    private final List<JSONArray> mChunks = new ArrayList<>();
+    private final List<List<Integer>> mChunkIndexes = new ArrayList<>();
+
+    private final Object mLock = new Object();
+    private int mNextChunk = 0;
+    private int mRunning = 0;
+    private NCMBException mError = null;
+    private boolean mFinished = false;
+
+    /**
+     * Constructor
+     *
+     * @param service service to send batch requests
+     * @param objects objects to save or delete
+     * @param delete  true to delete objects
+     */
+    NCMBObjectBatch(NCMBObjectService service, List<NCMBObject> objects, boolean delete) {
+        mService = service;
+        mObjects = new ArrayList<>(objects);
+        mDelete = delete;
+        mErrors = new NCMBException[mObjects.size()];
+        JSONArray requests = null;
+        List<Integer> indexes = null;
+        for (int i = 0; i < mObjects.size(); i++) {
+            JSONObject request;
+            try {
+                request = createRequest(mService, mObjects.get(i), mDelete);
+            } catch (NCMBException e) {
+                //送信できないオブジェクトはエラーとする
+                mErrors[i] = e;
+                continue;
+            }
+            if (requests == null || requests.length() == NCMBObjectService.BATCH_MAX_REQUESTS) {
+                requests = new JSONArray();
+                indexes = new ArrayList<>();
+                mChunks.add(requests);
+                mChunkIndexes.add(indexes);
+            }
+            requests.put(request);
+            indexes.add(i);
+        }
+    }
+
+    /**
+     * Create a request of batch api to save or delete the object
+     *
+     * @param service service creating the request
+     * @param object  object to save or delete
+     * @param delete  true to delete the object
+     * @return request of batch api
+     * @throws NCMBException the object can not be sent
+     */
+    static JSONObject createRequest(NCMBObjectService service, NCMBObject object, boolean delete)
+            throws NCMBException {
+        if (object == null) {
+            throw new NCMBException(NCMBException.REQUIRED, "object is must not be null");
+        }
+        String objectId = object.getObjectId();
+        if (delete) {
+            if (objectId == null) {
+                throw new NCMBException(NCMBException.REQUIRED, "objectId is must not be null or empty");
+            }
+            return service.createBatchRequest(NCMBRequest.HTTP_METHOD_DELETE, object.getClassName(), objectId, null);
+        }
+        try {
+            if (objectId == null) {
+                //送信するまでに変更されないように作成時の値をコピーする
+                return service.createBatchRequest(NCMBRequest.HTTP_METHOD_POST, object.getClassName(), null,
+                        new JSONObject(object.mFields.toString()));
+            }
+            return service.createBatchRequest(NCMBRequest.HTTP_METHOD_PUT, object.getClassName(), objectId,
+                    object.createUpdateJsonData());
+        } catch (JSONException e) {
+            throw new NCMBException(NCMBException.INVALID_JSON, e.getMessage());
+        }
+    }
+
+    /**
+     * Send batch requests one by one
+     *
+     * @return exception of each object, or null if succeeded
+     * @throws NCMBException exception from NIFCLOUD mobile backend when a batch request failed
+     */
+    List<NCMBException> execute() throws NCMBException {
+        for (int i = 0; i < mChunks.size(); i++) {
+            JSONArray results = mService.batch(mChunks.get(i));
+            applyResults(mChunkIndexes.get(i), results);
+        }
+        return Arrays.asList(mErrors);
+    }
+
+    /**
+     * Send batch requests in background thread
+     *
+     * @param parallelism maximum number of batch requests sent at the same time
+     * @param callback    callback after all objects are processed
+     */
+    void executeInBackground(int parallelism, BatchCallback callback) {
+        if (mChunks.isEmpty()) {
+            finish(callback);
+            return;
+        }
+        for (int i = 0; i < parallelism; i++) {
+            if (!startNext(callback)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Start sending the next batch request
+     *
+     * @return false if no request is left
+     */
+    private boolean startNext(final BatchCallback callback) {
+        final int index;
+        synchronized (mLock) {
+            if (mError != null || mNextChunk >= mChunks.size()) {
+                return false;
+            }
+            index = mNextChunk++;
+            mRunning++;
+        }
+        mService.batchInBackground(mChunks.get(index), new ExecuteServiceCallback() {
+            @Override
+            public void done(JSONObject jsonData, NCMBException e) {
+                if (e == null) {
+                    try {
+                        applyResults(mChunkIndexes.get(index), NCMBObjectService.getBatchResults(jsonData,
+                                mChunks.get(index).length()));
+                    } catch (NCMBException resultError) {
+                        e = resultError;
+                    }
+                }
+                synchronized (mLock) {
+                    mRunning--;
+                    if (e != null) {
+                        //送信できなかったオブジェクトにもエラーを設定する
+                        for (int i : mChunkIndexes.get(index)) {
+                            mErrors[i] = e;
+                        }
+                        if (mError == null) {
+                            mError = e;
+                        }
+                    }
+                }
+                startNext(callback);
+                finish(callback);
+            }
+        });
+        return true;
+    }
+
+    private void finish(BatchCallback callback) {
+        synchronized (mLock) {
+            if (mFinished || mRunning > 0 || (mError == null && mNextChunk < mChunks.size())) {
+                return;
+            }
+            mFinished = true;
+            if (mError != null) {
+                for (int i = mNextChunk; i < mChunks.size(); i++) {
+                    for (int index : mChunkIndexes.get(i)) {
+                        mErrors[index] = mError;
+                    }
+                }
+            }
+        }
+        if (callback != null) {
+            callback.done(Arrays.asList(mErrors), mError);
+        }
+    }
+
+    /**
+     * Set results of a batch request to the objects
+     *
+     * @param indexes position of the objects
+     * @param results results of the batch request
+     */
+    void applyResults(List<Integer> indexes, JSONArray results) {
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            NCMBObject object = mObjects.get(index);
+            JSONObject result = results.optJSONObject(i);
+            if (result != null && result.has("success")) {
+                if (mDelete) {
+                    object.mFields = new JSONObject();
+                } else {
+                    try {
+                        object.setServerDataToProperties(result.optJSONObject("success"));
+                    } catch (NCMBException e) {
+                        mErrors[index] = e;
+                        continue;
+                    }
+                }
+                object.mUpdateKeys.clear();
+            } else {
+                mErrors[index] = NCMBObjectService.getBatchError(result);
+            }
+        }
+    }
+}
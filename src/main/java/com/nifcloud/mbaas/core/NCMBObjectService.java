@@ -19,6 +19,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +30,9 @@ import java.util.List;
 public class NCMBObjectService extends NCMBService{
 
     public static final String SERVICE_PATH = "classes/";
+    static final String BATCH_PATH = "batch";
+    /** maximum number of requests in a batch */
+    public static final int BATCH_MAX_REQUESTS = 50;
 
     /**
      * Inner class for callback
@@ -63,6 +68,8 @@ public class NCMBObjectService extends NCMBService{
     NCMBObjectService(NCMBContext context) {
         super(context);
         mServicePath = SERVICE_PATH;
+        // オブジェクトの登録・更新はリクエストボディを圧縮できる
+        mRequestCompression = true;
     }
 
     /**
@@ -130,7 +137,29 @@ public class NCMBObjectService extends NCMBService{
             }
 
         }
+    }
 
+    /**
+     * Saving JSONObject data to NIFCLOUD mobile backend in background thread
+     *
+     * @param className Datastore class name which to save the object
+     * @param params    saving Object data
+     * @return task completed with the result of saving object
+     */
+    public NCMBTask<JSONObject> saveObjectTask(String className, JSONObject params) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            saveObjectInBackground(className, params, new ExecuteServiceCallback() {
+                @Override
+                public void done(JSONObject json, NCMBException e) {
+                    task.complete(json, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
     }
 
     /**
@@ -173,12 +202,19 @@ public class NCMBObjectService extends NCMBService{
 
             try {
                 sendRequestAsync(requestParams, new ObjectServiceCallback(this, callback) {
+                    NCMBObject mResult = null;
+
+                    @Override
+                    public void prepareResponse(NCMBResponse response) {
+                        mResult = new NCMBObject(className, response.responseData);
+                    }
+
                     @Override
                     public void handleResponse(NCMBResponse response) {
 
                         FetchCallback<NCMBObject> callback = (FetchCallback) mCallback;
                         if (callback != null) {
-                            callback.done(new NCMBObject(className, response.responseData), null);
+                            callback.done(mResult, null);
                         }
                     }
 
@@ -197,7 +233,29 @@ public class NCMBObjectService extends NCMBService{
 
             }
         }
+    }
 
+    /**
+     * Fetching object from NIFCLOUD mobile backend in background thread
+     *
+     * @param className Datastore class name which to fetch the object
+     * @param objectId  Datastore object id of fetch data
+     * @return task completed with the fetched object
+     */
+    public NCMBTask<NCMBObject> fetchObjectTask(String className, String objectId) {
+        final NCMBTask<NCMBObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            fetchObjectInBackground(className, objectId, new FetchCallback<NCMBObject>() {
+                @Override
+                public void done(NCMBObject object, NCMBException e) {
+                    task.complete(object, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
     }
 
     /**
@@ -264,7 +322,30 @@ public class NCMBObjectService extends NCMBService{
 
             }
         }
+    }
 
+    /**
+     * Updating object in background thread
+     *
+     * @param className Datastore class name which to update the object
+     * @param objectId  Datastore object id of update data
+     * @param params    update data
+     * @return task completed with the result of updating object
+     */
+    public NCMBTask<JSONObject> updateObjectTask(String className, String objectId, JSONObject params) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            updateObjectInBackground(className, objectId, params, new ExecuteServiceCallback() {
+                @Override
+                public void done(JSONObject json, NCMBException e) {
+                    task.complete(json, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
     }
 
     /**
@@ -331,7 +412,167 @@ public class NCMBObjectService extends NCMBService{
 
             }
         }
+    }
+
+    /**
+     * Deleting object in background thread
+     *
+     * @param className Datastore class name which to delete the object
+     * @param objectId  Datastore object id of delete data
+     * @return task completed with the result of deleting object
+     */
+    public NCMBTask<JSONObject> deleteObjectTask(String className, String objectId) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            deleteObjectInBackground(className, objectId, new ExecuteServiceCallback() {
+                @Override
+                public void done(JSONObject json, NCMBException e) {
+                    task.complete(json, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Create a request of batch api
+     * @param method HTTP method of the request
+     * @param className Datastore class name of the object
+     * @param objectId Datastore object id, or null for a new object
+     * @param body request body, or null
+     * @return request of batch api
+     * @throws NCMBException invalid className or objectId
+     */
+    JSONObject createBatchRequest(String method, String className, String objectId, JSONObject body)
+            throws NCMBException {
+        if (!validateClassName(className)) {
+            throw new NCMBException(NCMBException.REQUIRED, "className is must not be null or empty");
+        }
+        String path;
+        try {
+            path = new URL(mContext.baseUrl).getPath() + mServicePath + className;
+        } catch (MalformedURLException e) {
+            throw new NCMBException(e);
+        }
+        if (objectId != null) {
+            path += "/" + objectId;
+        }
+        try {
+            JSONObject request = new JSONObject();
+            request.put("method", method);
+            request.put("path", path);
+            if (body != null) {
+                request.put("body", body);
+            }
+            return request;
+        } catch (JSONException e) {
+            throw new NCMBException(NCMBException.INVALID_JSON, e.getMessage());
+        }
+    }
+
+    /**
+     * Executing requests of data store at once with batch api
+     * @param requests requests created with method, path and body. up to BATCH_MAX_REQUESTS requests
+     * @return result of each request. success or error is set to each result
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public JSONArray batch(JSONArray requests) throws NCMBException {
+        String url = mContext.baseUrl + BATCH_PATH;
+        String type = NCMBRequest.HTTP_METHOD_POST;
+        NCMBResponse response = sendRequest(url, type, createBatchContent(requests));
+        if (response.statusCode != NCMBResponse.HTTP_STATUS_OK) {
+            throw new NCMBException(NCMBException.NOT_EFFICIENT_VALUE, "Invalid status code");
+        }
+        return getBatchResults(response.responseData, requests.length());
+    }
+
+    /**
+     * Executing requests of data store at once with batch api in background thread
+     * @param requests requests created with method, path and body. up to BATCH_MAX_REQUESTS requests
+     * @param callback callback for after batch. result of each request is set to "results" of json data
+     */
+    public void batchInBackground(final JSONArray requests, ExecuteServiceCallback callback) {
+        RequestParams requestParams = new RequestParams();
+        requestParams.url = mContext.baseUrl + BATCH_PATH;
+        requestParams.type = NCMBRequest.HTTP_METHOD_POST;
+        try {
+            requestParams.content = createBatchContent(requests);
+            sendRequestAsync(requestParams, new ObjectServiceCallback(this, callback) {
+                @Override
+                public void handleResponse(NCMBResponse response) {
+                    ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
+                    try {
+                        getBatchResults(response.responseData, requests.length());
+                    } catch (NCMBException e) {
+                        if (callback != null) {
+                            callback.done(null, e);
+                        }
+                        return;
+                    }
+                    if (callback != null) {
+                        callback.done(response.responseData, null);
+                    }
+                }
+
+                @Override
+                public void handleError(NCMBException e) {
+                    ExecuteServiceCallback callback = (ExecuteServiceCallback) mCallback;
+                    if (callback != null) {
+                        callback.done(null, e);
+                    }
+                }
+            });
+        } catch (NCMBException e) {
+            //Exception handling for NCMBRequest
+            if (callback != null) {
+                callback.done(null, e);
+            }
+        }
+    }
+
+    private String createBatchContent(JSONArray requests) throws NCMBException {
+        if (requests == null || requests.length() == 0 || requests.length() > BATCH_MAX_REQUESTS) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT,
+                    "requests must contain 1 to " + BATCH_MAX_REQUESTS + " requests");
+        }
+        try {
+            JSONObject content = new JSONObject();
+            content.put("requests", requests);
+            return content.toString();
+        } catch (JSONException e) {
+            throw new NCMBException(NCMBException.INVALID_JSON, e.getMessage());
+        }
+    }
 
+    /**
+     * Get results of batch api from response data
+     * @param responseData response data
+     * @param count number of requests
+     * @return result of each request
+     * @throws NCMBException number of results is different from requests
+     */
+    static JSONArray getBatchResults(JSONObject responseData, int count) throws NCMBException {
+        JSONArray results = responseData == null ? null : responseData.optJSONArray("results");
+        if (results == null || results.length() != count) {
+            throw new NCMBException(NCMBException.INVALID_JSON, "Invalid results of batch");
+        }
+        return results;
+    }
+
+    /**
+     * Get exception from a failed result of batch api
+     * @param result result of a request
+     * @return exception of the request
+     */
+    static NCMBException getBatchError(JSONObject result) {
+        JSONObject error = result == null ? null : result.optJSONObject("error");
+        if (error == null) {
+            return new NCMBException(NCMBException.INVALID_JSON, "Invalid result of batch");
+        }
+        return new NCMBException(error.optString("code"), error.optString("error"));
     }
 
     /**
@@ -375,17 +616,19 @@ public class NCMBObjectService extends NCMBService{
         reqParams.query = conditions;
         try {
             sendRequestAsync(reqParams, new ObjectServiceCallback(this, callback){
+                List<NCMBObject> mResults = null;
+
+                @Override
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
+                    mResults = createSearchResults(className, response.responseData);
+                }
+
                 @Override
                 public void handleResponse(NCMBResponse response) {
 
                     SearchObjectCallback callback = (SearchObjectCallback) mCallback;
                     if (callback != null) {
-                        try {
-                            callback.done(createSearchResults(className, response.responseData), null);
-                        } catch (NCMBException callbackException) {
-                            callback.done(null, callbackException);
-                        }
-
+                        callback.done(mResults, null);
                     }
                 }
 
@@ -406,6 +649,77 @@ public class NCMBObjectService extends NCMBService{
         }
     }
 
+    /**
+     * Searching objects in background thread
+     *
+     * @param className  Datastore class name which to search the objects
+     * @param conditions search conditions
+     * @return task completed with the list of search results
+     */
+    public NCMBTask<List<NCMBObject>> searchObjectTask(String className, JSONObject conditions) {
+        final NCMBTask<List<NCMBObject>> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            searchObjectInBackground(className, conditions, new SearchObjectCallback() {
+                @Override
+                public void done(List<NCMBObject> objects, NCMBException e) {
+                    task.complete(objects, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Search objects and pass each found object to the callback while the response is read.<br>
+     * Found objects are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param className  Datastore class name which to search the objects
+     * @param conditions search conditions
+     * @param callback   callback receiving each found object
+     * @return number of found objects
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchObjectEach(String className, JSONObject conditions, SearchEachCallback<NCMBObject> callback)
+            throws NCMBException {
+        if (!validateClassName(className)) {
+            throw new NCMBException(NCMBException.REQUIRED, "className is must not be null or empty");
+        }
+        String url = mContext.baseUrl + mServicePath + className;
+        return searchEach(url, conditions, createResultReader(className, callback));
+    }
+
+    /**
+     * Search objects in background and pass each found object to the callback while the response is read
+     *
+     * @param className  Datastore class name which to search the objects
+     * @param conditions search conditions
+     * @param callback   callback receiving each found object
+     */
+    public void searchObjectEachInBackground(String className, JSONObject conditions,
+                                                          SearchEachCallback<NCMBObject> callback) {
+        if (!validateClassName(className)) {
+            if (callback != null) {
+                callback.done(0, new NCMBException(NCMBException.REQUIRED, "className is must not be null or empty"));
+            }
+        } else {
+            String url = mContext.baseUrl + mServicePath + className;
+            searchEachInBackground(url, conditions, createResultReader(className, callback));
+        }
+    }
+
+    // 検索結果をNCMBObjectに変換しながら読み込む
+    private NCMBResultReader<NCMBObject> createResultReader(final String className, SearchEachCallback<NCMBObject> callback) {
+        return new NCMBResultReader<NCMBObject>(callback) {
+            @Override
+            NCMBObject createItem(JSONObject item) {
+                return new NCMBObject(className, item);
+            }
+        };
+    }
+
     /**
      * create url to request object search api
      * @param className class name for search object
@@ -503,6 +817,29 @@ public class NCMBObjectService extends NCMBService{
         }
     }
 
+    /**
+     * Counting objects in background thread
+     *
+     * @param className  Datastore class name which to count the objects
+     * @param conditions search conditions
+     * @return task completed with the number of objects
+     */
+    public NCMBTask<Integer> countObjectTask(String className, JSONObject conditions) {
+        final NCMBTask<Integer> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            countObjectInBackground(className, conditions, new CountCallback() {
+                @Override
+                public void done(int result, NCMBException e) {
+                    task.complete(e == null ? result : null, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Create search results
      *
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * NCMBPartitionedScan reads all search results of a query by splitting it into ranges of createDate.<br>
+ * The oldest and the newest createDate are searched first, and the period between them is divided
+ * into ranges of equal length. Each range is read page by page with its own cursor,
+ * and a limited number of ranges are read at the same time.
+ *
+ * @param <T> type of search results
+ */
+class NCMBPartitionedScan<T extends NCMBBase> {
+
+    private final NCMBQuery<T> mQuery;
+    private final int mPartitions;
+    private final int mParallelism;
+    private final boolean mOrdered;
+    private final SearchEachCallback<T> mCallback;
+
+    private final Object mLock = new Object();
+    // 各範囲の開始・終了日時(nullは制限なし)
+    private List<String[]> mRanges;
+    // 次に検索を開始する範囲
+    private int mNextPartition = 0;
+    // 検索中の範囲の数
+    private int mRunning = 0;
+    private int mTotal = 0;
+    private NCMBException mError = null;
+    private boolean mFinished = false;
+
+    // 順序を保つ場合に結果を渡している範囲と、後の範囲の結果
+    private int mDeliverIndex = 0;
+    private List<List<T>> mBuffers;
+    private boolean[] mCompleted;
+
+    /**
+     * Constructor
+     *
+     * @param query       query to read
+     * @param partitions  number of ranges to split
+     * @param parallelism maximum number of ranges read at the same time
+     * @param ordered     true to pass results in order of createDate
+     * @param callback    callback receiving each search result
+     */
+    NCMBPartitionedScan(NCMBQuery<T> query, int partitions, int parallelism, boolean ordered,
+                        SearchEachCallback<T> callback) {
+        mQuery = query;
+        mPartitions = partitions;
+        mParallelism = parallelism;
+        mOrdered = ordered;
+        mCallback = callback;
+    }
+
+    /**
+     * Search the range of createDate and start reading the partitions
+     */
+    void start() {
+        //createDateの条件がある場合は分割しない
+        if (mPartitions <= 1 || mQuery.hasCondition("createDate")) {
+            List<String[]> ranges = new ArrayList<>();
+            ranges.add(new String[]{null, null});
+            startPartitions(ranges);
+            return;
+        }
+        final NCMBTask<List<T>> first;
+        final NCMBTask<List<T>> last;
+        try {
+            JSONObject firstConditions = mQuery.getPageConditions(null, null, 1, null, null);
+            JSONObject lastConditions = mQuery.getPageConditions(null, null, 1, null, null);
+            lastConditions.put("order", "-createDate");
+            first = mQuery.findTask(firstConditions);
+            last = mQuery.findTask(lastConditions);
+        } catch (NCMBException e) {
+            mCallback.done(0, e);
+            return;
+        } catch (JSONException e) {
+            mCallback.done(0, new NCMBException(NCMBException.INVALID_JSON, e.getMessage()));
+            return;
+        }
+        NCMBTask.allOf(first, last).whenComplete(new NCMBTask.Callback<List<Object>>() {
+            @Override
+            public void done(List<Object> result, NCMBException e) {
+                if (e != null) {
+                    mCallback.done(0, e);
+                    return;
+                }
+                List<T> firstResults = first.getResult();
+                List<T> lastResults = last.getResult();
+                if (firstResults.isEmpty() || lastResults.isEmpty()) {
+                    mCallback.done(0, null);
+                    return;
+                }
+                try {
+                    startPartitions(splitRange(getCreateDate(firstResults.get(0)),
+                            getCreateDate(lastResults.get(0)), mPartitions));
+                } catch (NCMBException createDateError) {
+                    mCallback.done(0, createDateError);
+                }
+            }
+        });
+    }
+
+    /**
+     * Split the period between the oldest and the newest createDate into ranges of equal length.<br>
+     * The first range has no lower limit and the last range has no upper limit,
+     * so that data created while reading is not missed.
+     *
+     * @param min        the oldest createDate
+     * @param max        the newest createDate
+     * @param partitions number of ranges
+     * @return start and end of each range in ISO 8601 format, null for no limit
+     */
+    static List<String[]> splitRange(Date min, Date max, int partitions) {
+        SimpleDateFormat format = NCMBDateFormat.getIso8601();
+        long from = min.getTime();
+        long span = Math.max(max.getTime() - from, 0);
+        List<String[]> ranges = new ArrayList<>();
+        String lower = null;
+        long previous = from;
+        for (int i = 1; i < partitions; i++) {
+            long boundary = from + span * i / partitions;
+            //期間が短い場合は同じ境界を使わない
+            if (boundary <= previous) {
+                continue;
+            }
+            String upper = format.format(new Date(boundary));
+            ranges.add(new String[]{lower, upper});
+            lower = upper;
+            previous = boundary;
+        }
+        ranges.add(new String[]{lower, null});
+        return ranges;
+    }
+
+    private Date getCreateDate(T item) throws NCMBException {
+        String date = item.mFields.optString("createDate", null);
+        if (date == null) {
+            throw new NCMBException(NCMBException.MISSING_VALUE, "createDate is required for partitioning.");
+        }
+        try {
+            return NCMBDateFormat.getIso8601().parse(date);
+        } catch (ParseException e) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT, e.getMessage());
+        }
+    }
+
+    private void startPartitions(List<String[]> ranges) {
+        synchronized (mLock) {
+            mRanges = ranges;
+            if (mOrdered) {
+                mBuffers = new ArrayList<>();
+                for (int i = 0; i < ranges.size(); i++) {
+                    mBuffers.add(new ArrayList<T>());
+                }
+                mCompleted = new boolean[ranges.size()];
+            }
+        }
+        for (int i = 0; i < mParallelism; i++) {
+            if (!startNext()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Start reading the next range
+     *
+     * @return false if no range is left
+     */
+    private boolean startNext() {
+        final int index;
+        synchronized (mLock) {
+            if (mError != null || mNextPartition >= mRanges.size()) {
+                return false;
+            }
+            index = mNextPartition++;
+            mRunning++;
+        }
+        String[] range = mRanges.get(index);
+        mQuery.findAllInBackground(new NCMBQueryCursor(mQuery, range[0], range[1]), new SearchEachCallback<T>() {
+            @Override
+            public void item(T item) {
+                deliver(index, item);
+            }
+
+            @Override
+            public void done(int count, NCMBException e) {
+                finishPartition(index, e);
+            }
+        });
+        return true;
+    }
+
+    private void deliver(int index, T item) {
+        synchronized (mLock) {
+            if (mFinished) {
+                return;
+            }
+            if (mOrdered && index != mDeliverIndex) {
+                //前の範囲が終わるまで保持する
+                mBuffers.get(index).add(item);
+                return;
+            }
+            mTotal++;
+            mCallback.item(item);
+        }
+    }
+
+    private void finishPartition(int index, NCMBException e) {
+        boolean next;
+        synchronized (mLock) {
+            mRunning--;
+            if (e != null && mError == null) {
+                mError = e;
+            }
+            if (mOrdered && mError == null) {
+                mCompleted[index] = true;
+                //終了した範囲に続く範囲の結果を順に渡す
+                while (mDeliverIndex < mRanges.size() && mCompleted[mDeliverIndex]) {
+                    mDeliverIndex++;
+                    if (mDeliverIndex < mRanges.size()) {
+                        List<T> buffer = mBuffers.get(mDeliverIndex);
+                        for (T item : buffer) {
+                            mTotal++;
+                            mCallback.item(item);
+                        }
+                        buffer.clear();
+                    }
+                }
+            }
+            next = mError == null && mNextPartition < mRanges.size();
+        }
+        if (next) {
+            startNext();
+        }
+        synchronized (mLock) {
+            if (mFinished || mRunning > 0 || (mError == null && mNextPartition < mRanges.size())) {
+                return;
+            }
+            mFinished = true;
+            if (mBuffers != null) {
+                mBuffers.clear();
+            }
+        }
+        mCallback.done(mTotal, mError);
+    }
+}
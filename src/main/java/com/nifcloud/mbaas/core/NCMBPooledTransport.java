@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * NCMBPooledTransport keeps connections alive and reuses TLS sessions.<br>
+ * Connections are always returned to the keep-alive pool of HttpURLConnection instead of being disconnected.
+ * HTTPS connections use the default SSLSocketFactory of HttpsURLConnection, including one installed
+ * by the application for a custom trust store or pinning, so TLS sessions are resumed through its session cache.
+ * A factory given to the constructor is used instead for all HTTPS connections of this transport.<br>
+ * HttpURLConnection does not multiplex requests with HTTP/2.
+ * Use a custom NCMBTransport backed by an HTTP/2 client for multiplexing.
+ */
+public class NCMBPooledTransport extends NCMBDefaultTransport {
+
+    // 指定された場合のみ設定する。nullの場合はHttpsURLConnectionの既定を使う
+    private final SSLSocketFactory mSocketFactory;
+
+    /**
+     * Constructor using the default SSLSocketFactory of HttpsURLConnection
+     */
+    public NCMBPooledTransport() {
+        this(null);
+    }
+
+    /**
+     * Constructor with SSLSocketFactory shared by all HTTPS connections
+     *
+     * @param socketFactory factory for HTTPS connections, or null to use the default of HttpsURLConnection
+     */
+    public NCMBPooledTransport(SSLSocketFactory socketFactory) {
+        mSocketFactory = socketFactory;
+    }
+
+    /**
+     * Connections are always reused
+     *
+     * @return true
+     */
+    @Override
+    protected boolean isConnectionReuse() {
+        return true;
+    }
+
+    /**
+     * Open connection to the given URL
+     *
+     * @param url request URL
+     * @return connection not connected yet
+     * @throws IOException exception while opening connection
+     */
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = super.openConnection(url);
+        if (mSocketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(mSocketFactory);
+        }
+        return connection;
+    }
+}
@@ -376,19 +376,19 @@ public class NCMBPushService extends NCMBService {
         try {
             final RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
             sendRequestAsync(request, new PushServiceCallback(this, callback) {
+                ArrayList<NCMBPush> mResults = null;
+
                 @Override
-                public void handleResponse(NCMBResponse response){
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
                     //return the value of the key 'results'
-                    ArrayList<NCMBPush> results = null;
-                    try {
-                        results = createSearchResults(response.responseData);
-                    } catch (NCMBException e) {
-                        callback.done(null, e);
-                    }
+                    mResults = createSearchResults(response.responseData);
+                }
 
+                @Override
+                public void handleResponse(NCMBResponse response){
                     SearchPushCallback callback = (SearchPushCallback) mCallback;
                     if (callback != null) {
-                        callback.done(results, null);
+                        callback.done(mResults, null);
                     }
                 }
 
@@ -407,6 +407,47 @@ public class NCMBPushService extends NCMBService {
         }
     }
 
+    /**
+     * Search push notifications and pass each found push notification to the callback while the response is read.<br>
+     * Found push notifications are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found push notification
+     * @return number of found push notifications
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchPushEach(JSONObject conditions, SearchEachCallback<NCMBPush> callback) throws NCMBException {
+        RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
+        return searchEach(request.url, request.query, createResultReader(callback));
+    }
+
+    /**
+     * Search push notifications in background and pass each found push notification to the callback while the response is read
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found push notification
+     */
+    public void searchPushEachInBackground(JSONObject conditions, SearchEachCallback<NCMBPush> callback) {
+        try {
+            RequestParams request = createRequestParams(null, null, conditions, NCMBRequest.HTTP_METHOD_GET);
+            searchEachInBackground(request.url, request.query, createResultReader(callback));
+        } catch (NCMBException error) {
+            if (callback != null) {
+                callback.done(0, error);
+            }
+        }
+    }
+
+    // 検索結果をNCMBPushに変換しながら読み込む
+    private NCMBResultReader<NCMBPush> createResultReader(SearchEachCallback<NCMBPush> callback) {
+        return new NCMBResultReader<NCMBPush>(callback) {
+            @Override
+            NCMBPush createItem(JSONObject item) {
+                return new NCMBPush(item);
+            }
+        };
+    }
+
     /**
      * Open push registration in background
      *
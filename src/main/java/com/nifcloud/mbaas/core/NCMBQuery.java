@@ -23,6 +23,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,12 +31,35 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * NCMBQuery is used to search data from NIFCLOUD mobile backend
  */
 public class NCMBQuery<T extends NCMBBase> {
+
+    /**
+     * Policy to use cached search results of NCMBQueryCache
+     */
+    public enum CachePolicy {
+        /** search from NIFCLOUD mobile backend without the cache */
+        NETWORK_ONLY,
+        /** use cached results only. fails if the results are not cached */
+        CACHE_ONLY,
+        /** use cached results, or search from NIFCLOUD mobile backend if not cached */
+        CACHE_ELSE_NETWORK,
+        /** search from NIFCLOUD mobile backend, or use cached results if the search failed */
+        NETWORK_ELSE_CACHE,
+        /** pass cached results first and then search from NIFCLOUD mobile backend.
+         * find works as NETWORK_ELSE_CACHE */
+        CACHE_THEN_NETWORK
+    }
+
     private String mClassName;
+    private CachePolicy mCachePolicy = CachePolicy.NETWORK_ONLY;
+    private boolean mPersisted = false;
+    private boolean mFromLocalDatastore = false;
 
     private JSONObject mWhereConditions = new JSONObject();
     private int limitNumber = 0;
@@ -53,42 +77,376 @@ public class NCMBQuery<T extends NCMBBase> {
         mWhereConditions = new JSONObject();
     }
 
+    /**
+     * set policy to use cached search results. The default is NETWORK_ONLY<br>
+     * Search results of find, findInBackground and findTask are cached unless the policy is NETWORK_ONLY
+     * @param cachePolicy cache policy
+     */
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        mCachePolicy = cachePolicy;
+    }
+
+    /**
+     * get policy to use cached search results
+     * @return cache policy
+     */
+    public CachePolicy getCachePolicy() {
+        return mCachePolicy;
+    }
+
+    /**
+     * set whether the last search results are saved to the storage<br>
+     * findInBackground of a persisted query passes the saved results first, even after the application restarted,
+     * and then passes the results searched from NIFCLOUD mobile backend to the callback again.
+     * The results are saved in the private folder of the application and deleted with NCMBQueryCache.clearSnapshots
+     * @param persisted true to save search results
+     */
+    public void setPersisted(boolean persisted) {
+        mPersisted = persisted;
+    }
+
+    /**
+     * get whether the last search results are saved to the storage
+     * @return true if search results are saved
+     */
+    public boolean isPersisted() {
+        return mPersisted;
+    }
+
+    /**
+     * search pinned objects in the local datastore instead of NIFCLOUD mobile backend<br>
+     * find, findInBackground, findTask, count, countInBackground and countTask use the local datastore.
+     * Search results are not limited to 100 objects unless the limit is set.
+     * Subquery, relation, geo and regular expression conditions are not supported
+     */
+    public void fromLocalDatastore() {
+        mFromLocalDatastore = true;
+    }
+
+    /**
+     * get whether the query searches the local datastore
+     * @return true if the query searches the local datastore
+     */
+    public boolean isFromLocalDatastore() {
+        return mFromLocalDatastore;
+    }
+
     /**
      * search data from NIFCLOUD mobile backend
      * @return NCMBObject(include extend class) list of search result
      * @throws NCMBException exception from NIFCLOUD mobile backend
      */
     public List<T> find () throws NCMBException {
+        JSONObject conditions = getConditions();
+        if (mFromLocalDatastore) {
+            return createItems(NCMBLocalDatastore.find(mClassName, conditions));
+        }
+        if (mCachePolicy == CachePolicy.NETWORK_ONLY) {
+            return find(conditions);
+        }
+        if (mCachePolicy == CachePolicy.CACHE_ONLY || mCachePolicy == CachePolicy.CACHE_ELSE_NETWORK) {
+            List<T> cached = findFromCache(conditions);
+            if (cached != null) {
+                return cached;
+            }
+            if (mCachePolicy == CachePolicy.CACHE_ONLY) {
+                throw new NCMBException(NCMBException.DATA_NOT_FOUND, "Search results are not cached.");
+            }
+        }
+        List<T> results;
+        try {
+            results = find(conditions);
+        } catch (NCMBException e) {
+            List<T> cached = mCachePolicy == CachePolicy.CACHE_ELSE_NETWORK ? null : findFromCache(conditions);
+            if (cached == null) {
+                throw e;
+            }
+            return cached;
+        }
+        NCMBQueryCache.put(mClassName, conditions, results);
+        return results;
+    }
+
+    /**
+     * search data with the conditions from NIFCLOUD mobile backend
+     * @param conditions search conditions
+     * @return NCMBObject(include extend class) list of search result
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    List<T> find(JSONObject conditions) throws NCMBException {
         if (mClassName.equals("user")) {
             NCMBUserService userServ = (NCMBUserService) NCMB.factory(NCMB.ServiceType.USER);
-            return (List<T>) userServ.searchUser(getConditions());
+            return (List<T>) userServ.searchUser(conditions);
         } else if (mClassName.equals("role")) {
             NCMBRoleService roleServ = (NCMBRoleService) NCMB.factory(NCMB.ServiceType.ROLE);
-            return (List<T>) roleServ.searchRole(getConditions());
+            return (List<T>) roleServ.searchRole(conditions);
         } else if (mClassName.equals("push")) {
             NCMBPushService pushServ = (NCMBPushService) NCMB.factory(NCMB.ServiceType.PUSH);
-            return (List<T>) pushServ.searchPush(getConditions());
+            return (List<T>) pushServ.searchPush(conditions);
         } else if (mClassName.equals("installation")){
             NCMBInstallationService installationServ = (NCMBInstallationService)NCMB.factory(NCMB.ServiceType.INSTALLATION);
-            return (List<T>)installationServ.searchInstallation(getConditions());
+            return (List<T>)installationServ.searchInstallation(conditions);
         } else if (mClassName.equals("file")){
             NCMBFileService fileServ = (NCMBFileService)NCMB.factory(NCMB.ServiceType.FILE);
-            return (List<T>)fileServ.searchFile(getConditions());
+            return (List<T>)fileServ.searchFile(conditions);
         } else {
             NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
-            return objServ.searchObject(mClassName, getConditions());
+            return objServ.searchObject(mClassName, conditions);
         }
 
     }
 
     /**
-     * search data from NIFCLOUD mobile backend asynchronously
+     * search data from NIFCLOUD mobile backend asynchronously<br>
+     * With CACHE_THEN_NETWORK the callback is executed twice if the results are cached,
+     * with cached results and then with results from NIFCLOUD mobile backend
      * @param callback executed callback after data search
      */
     public void findInBackground (final FindCallback<T> callback) {
+        final JSONObject conditions = getConditions();
+        final CachePolicy policy = mCachePolicy;
+        if (mFromLocalDatastore) {
+            findLocalInBackground(conditions, callback);
+            return;
+        }
+        if (mPersisted) {
+            findPersistedInBackground(conditions, callback);
+            return;
+        }
+        if (policy == CachePolicy.NETWORK_ONLY) {
+            findInBackground(conditions, callback);
+            return;
+        }
+        final NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        try {
+            if (policy != CachePolicy.NETWORK_ELSE_CACHE) {
+                List<T> cached = null;
+                NCMBException cacheError = null;
+                try {
+                    cached = findFromCache(conditions);
+                } catch (NCMBException e) {
+                    cacheError = e;
+                }
+                if (cached == null && cacheError == null && policy == CachePolicy.CACHE_ONLY) {
+                    cacheError = new NCMBException(NCMBException.DATA_NOT_FOUND, "Search results are not cached.");
+                }
+                if (cached != null || cacheError != null) {
+                    deliverCached(handle, callback, cached, cacheError);
+                    if (policy != CachePolicy.CACHE_THEN_NETWORK) {
+                        return;
+                    }
+                }
+            }
+            findInBackground(conditions, new FindCallback<T>() {
+                @Override
+                public void done(List<T> results, NCMBException e) {
+                    if (e == null) {
+                        NCMBQueryCache.put(mClassName, conditions, results);
+                    } else if (policy == CachePolicy.NETWORK_ELSE_CACHE && !handle.isCancelled()) {
+                        try {
+                            List<T> cached = findFromCache(conditions);
+                            if (cached != null) {
+                                results = cached;
+                                e = null;
+                            }
+                        } catch (NCMBException cacheError) {
+                            //通信のエラーを返す
+                        }
+                    }
+                    callback.done(results, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+    }
+
+    /**
+     * search data asynchronously passing the saved search results first
+     * @param conditions search conditions
+     * @param callback executed callback with saved results and then with results from NIFCLOUD mobile backend
+     */
+    private void findPersistedInBackground(final JSONObject conditions, final FindCallback<T> callback) {
+        // 別のアプリケーションやユーザーの保存した結果を渡さないように、キーにはログイン中のユーザーを含める
+        final String key = NCMBQueryCache.createKey(mClassName, conditions);
+        final CachePolicy policy = mCachePolicy;
+        // 通信で検索できた後は保存した結果を渡さない(通信に失敗した場合は保存した結果を渡す)
+        final AtomicBoolean searched = new AtomicBoolean(false);
+        final Executor executor = NCMBRequestDispatcher.getInstance().executor();
+        final NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<JSONObject> items = NCMBQuerySnapshot.read(key);
+                    if (items == null) {
+                        return;
+                    }
+                    final List<T> results;
+                    try {
+                        results = createItems(items);
+                    } catch (NCMBException e) {
+                        return;
+                    }
+                    NCMBConnection.runOnCallbackThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (searched.get() || handle.isCancelled()) {
+                                return;
+                            }
+                            NCMBRequestHandle.enter(handle);
+                            try {
+                                callback.done(results, null);
+                            } finally {
+                                NCMBRequestHandle.end(handle);
+                            }
+                        }
+                    });
+                }
+            });
+            findInBackground(conditions, new FindCallback<T>() {
+                @Override
+                public void done(List<T> results, NCMBException e) {
+                    if (e == null) {
+                        searched.set(true);
+                        //コールバックで変更される前の検索結果を保存する
+                        final String json = NCMBQueryCache.toJson(results);
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                NCMBQuerySnapshot.write(key, json);
+                            }
+                        });
+                        if (policy != CachePolicy.NETWORK_ONLY) {
+                            NCMBQueryCache.put(mClassName, conditions, results);
+                        }
+                    }
+                    callback.done(results, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+    }
+
+    /**
+     * search the local datastore on the background thread.<br>
+     * If the search is cancelled, the callback is executed with the same error as a cancelled request
+     * @param conditions search conditions
+     * @param callback executed callback after data search
+     */
+    private void findLocalInBackground(final JSONObject conditions, final FindCallback<T> callback) {
+        final NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        try {
+            NCMBRequestDispatcher.getInstance().executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<T> results = null;
+                    NCMBException error = null;
+                    try {
+                        //キャンセル済みの場合は検索しない
+                        if (!handle.isCancelled()) {
+                            results = createItems(NCMBLocalDatastore.find(mClassName, conditions));
+                        }
+                    } catch (NCMBException e) {
+                        error = e;
+                    } catch (RuntimeException e) {
+                        error = new NCMBException(e);
+                    }
+                    final List<T> resultItems = results;
+                    final NCMBException resultError = error;
+                    NCMBConnection.runOnCallbackThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (handle.isCancelled()) {
+                                callback.done(null, createCancelledError());
+                                return;
+                            }
+                            NCMBRequestHandle.enter(handle);
+                            try {
+                                callback.done(resultItems, resultError);
+                            } finally {
+                                NCMBRequestHandle.end(handle);
+                            }
+                        }
+                    });
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+    }
+
+    // 通信をキャンセルした場合と同じエラー
+    private static NCMBException createCancelledError() {
+        return new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled.");
+    }
+
+    // キャッシュした検索結果をコールバックのスレッドで渡す
+    private void deliverCached(final NCMBRequestHandle handle, final FindCallback<T> callback,
+                               final List<T> results, final NCMBException e) {
+        NCMBConnection.runOnCallbackThread(new Runnable() {
+            @Override
+            public void run() {
+                NCMBRequestHandle.enter(handle);
+                try {
+                    callback.done(results, e);
+                } finally {
+                    NCMBRequestHandle.end(handle);
+                }
+            }
+        });
+    }
+
+    /**
+     * get cached search results
+     * @param conditions search conditions
+     * @return search results, or null if not cached
+     * @throws NCMBException invalid cached data
+     */
+    private List<T> findFromCache(JSONObject conditions) throws NCMBException {
+        List<JSONObject> items = NCMBQueryCache.get(mClassName, conditions);
+        if (items == null) {
+            return null;
+        }
+        return createItems(items);
+    }
+
+    private List<T> createItems(List<JSONObject> items) throws NCMBException {
+        List<T> results = new ArrayList<>(items.size());
+        for (JSONObject item : items) {
+            results.add(createItem(item));
+        }
+        return results;
+    }
+
+    private T createItem(JSONObject item) throws NCMBException {
+        if (mClassName.equals("user")) {
+            return (T) new NCMBUser(item);
+        } else if (mClassName.equals("role")) {
+            return (T) new NCMBRole(item);
+        } else if (mClassName.equals("push")) {
+            return (T) new NCMBPush(item);
+        } else if (mClassName.equals("installation")) {
+            return (T) new NCMBInstallation(item);
+        } else if (mClassName.equals("file")) {
+            NCMBFile file = new NCMBFile();
+            file.setLocalData(item);
+            return (T) file;
+        } else {
+            return (T) new NCMBObject(mClassName, item);
+        }
+    }
+
+    /**
+     * search data with the conditions asynchronously
+     * @param conditions search conditions
+     * @param callback executed callback after data search
+     */
+    void findInBackground(JSONObject conditions, final FindCallback<T> callback) {
         if (mClassName.equals("user")) {
             NCMBUserService userServ = (NCMBUserService) NCMB.factory(NCMB.ServiceType.USER);
-            userServ.searchUserInBackground(getConditions(), new SearchUserCallback() {
+            userServ.searchUserInBackground(conditions, new SearchUserCallback() {
                 @Override
                 public void done(ArrayList<NCMBUser> users, NCMBException e) {
                     callback.done((List<T>) users, e);
@@ -96,7 +454,7 @@ public class NCMBQuery<T extends NCMBBase> {
             });
         } else if (mClassName.equals("role")) {
             NCMBRoleService roleServ = (NCMBRoleService) NCMB.factory(NCMB.ServiceType.ROLE);
-            roleServ.searchRoleInBackground(getConditions(), new SearchRoleCallback() {
+            roleServ.searchRoleInBackground(conditions, new SearchRoleCallback() {
                 @Override
                 public void done(ArrayList<NCMBRole> users, NCMBException e) {
                     callback.done((List<T>) users, e);
@@ -104,7 +462,7 @@ public class NCMBQuery<T extends NCMBBase> {
             });
         } else if (mClassName.equals("push")) {
             NCMBPushService pushServ = (NCMBPushService) NCMB.factory(NCMB.ServiceType.PUSH);
-            pushServ.searchPushInBackground(getConditions(), new SearchPushCallback() {
+            pushServ.searchPushInBackground(conditions, new SearchPushCallback() {
                 @Override
                 public void done(ArrayList<NCMBPush> users, NCMBException e) {
                     callback.done((List<T>) users, e);
@@ -112,7 +470,7 @@ public class NCMBQuery<T extends NCMBBase> {
             });
         } else if (mClassName.equals("installation")) {
             NCMBInstallationService installationServ = (NCMBInstallationService)NCMB.factory(NCMB.ServiceType.INSTALLATION);
-            installationServ.searchInstallationInBackground(getConditions(), new SearchInstallationCallback () {
+            installationServ.searchInstallationInBackground(conditions, new SearchInstallationCallback () {
                 @Override
                 public void done(ArrayList<NCMBInstallation> users, NCMBException e) {
                     callback.done((List<T>) users, e);
@@ -120,7 +478,7 @@ public class NCMBQuery<T extends NCMBBase> {
             });
         } else if (mClassName.equals("file")) {
             NCMBFileService fileServ = (NCMBFileService)NCMB.factory(NCMB.ServiceType.FILE);
-            fileServ.searchFileInBackground(getConditions(), new SearchFileCallback() {
+            fileServ.searchFileInBackground(conditions, new SearchFileCallback() {
                 @Override
                 public void done(List<NCMBFile> files, NCMBException e) {
                     callback.done((List<T>) files, e);
@@ -128,7 +486,7 @@ public class NCMBQuery<T extends NCMBBase> {
             });
         }else {
             NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
-            objServ.searchObjectInBackground(mClassName, getConditions(), new SearchObjectCallback() {
+            objServ.searchObjectInBackground(mClassName, conditions, new SearchObjectCallback() {
                 @Override
                 public void done(List<NCMBObject> objects, NCMBException e) {
                     callback.done((List<T>) objects, e);
@@ -137,6 +495,294 @@ public class NCMBQuery<T extends NCMBBase> {
         }
     }
 
+    /**
+     * search data from NIFCLOUD mobile backend asynchronously<br>
+     * With CACHE_THEN_NETWORK the task is completed with the first results, cached results if any
+     * @return task completed with the search results
+     */
+    public NCMBTask<List<T>> findTask() {
+        final NCMBTask<List<T>> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            findInBackground(new FindCallback<T>() {
+                @Override
+                public void done(List<T> results, NCMBException e) {
+                    task.complete(results, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * search data with the conditions asynchronously
+     * @param conditions search conditions
+     * @return task completed with the search results
+     */
+    NCMBTask<List<T>> findTask(JSONObject conditions) {
+        final NCMBTask<List<T>> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            findInBackground(conditions, new FindCallback<T>() {
+                @Override
+                public void done(List<T> results, NCMBException e) {
+                    task.complete(results, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * search data from NIFCLOUD mobile backend and receive each result while the response is read.<br>
+     * Results are not kept in a list, so a large page can be processed with small memory
+     * @param callback callback receiving each search result
+     * @return number of search results
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int findEach(SearchEachCallback<T> callback) throws NCMBException {
+        SearchEachCallback each = callback;
+        if (mClassName.equals("user")) {
+            NCMBUserService userServ = (NCMBUserService) NCMB.factory(NCMB.ServiceType.USER);
+            return userServ.searchUserEach(getConditions(), each);
+        } else if (mClassName.equals("role")) {
+            NCMBRoleService roleServ = (NCMBRoleService) NCMB.factory(NCMB.ServiceType.ROLE);
+            return roleServ.searchRoleEach(getConditions(), each);
+        } else if (mClassName.equals("push")) {
+            NCMBPushService pushServ = (NCMBPushService) NCMB.factory(NCMB.ServiceType.PUSH);
+            return pushServ.searchPushEach(getConditions(), each);
+        } else if (mClassName.equals("installation")) {
+            NCMBInstallationService installationServ = (NCMBInstallationService)NCMB.factory(NCMB.ServiceType.INSTALLATION);
+            return installationServ.searchInstallationEach(getConditions(), each);
+        } else if (mClassName.equals("file")) {
+            NCMBFileService fileServ = (NCMBFileService)NCMB.factory(NCMB.ServiceType.FILE);
+            return fileServ.searchFileEach(getConditions(), each);
+        } else {
+            NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
+            return objServ.searchObjectEach(mClassName, getConditions(), each);
+        }
+    }
+
+    /**
+     * search data from NIFCLOUD mobile backend asynchronously and receive each result while the response is read
+     * @param callback callback receiving each search result
+     */
+    public void findEachInBackground(SearchEachCallback<T> callback) {
+        findEachInBackground(getConditions(), callback);
+    }
+
+    /**
+     * search data with the conditions asynchronously and receive each result while the response is read
+     * @param conditions search conditions
+     * @param callback callback receiving each search result
+     */
+    void findEachInBackground(JSONObject conditions, SearchEachCallback<T> callback) {
+        SearchEachCallback each = callback;
+        if (mClassName.equals("user")) {
+            NCMBUserService userServ = (NCMBUserService) NCMB.factory(NCMB.ServiceType.USER);
+            userServ.searchUserEachInBackground(conditions, each);
+        } else if (mClassName.equals("role")) {
+            NCMBRoleService roleServ = (NCMBRoleService) NCMB.factory(NCMB.ServiceType.ROLE);
+            roleServ.searchRoleEachInBackground(conditions, each);
+        } else if (mClassName.equals("push")) {
+            NCMBPushService pushServ = (NCMBPushService) NCMB.factory(NCMB.ServiceType.PUSH);
+            pushServ.searchPushEachInBackground(conditions, each);
+        } else if (mClassName.equals("installation")) {
+            NCMBInstallationService installationServ = (NCMBInstallationService)NCMB.factory(NCMB.ServiceType.INSTALLATION);
+            installationServ.searchInstallationEachInBackground(conditions, each);
+        } else if (mClassName.equals("file")) {
+            NCMBFileService fileServ = (NCMBFileService)NCMB.factory(NCMB.ServiceType.FILE);
+            fileServ.searchFileEachInBackground(conditions, each);
+        } else {
+            NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
+            objServ.searchObjectEachInBackground(mClassName, conditions, each);
+        }
+    }
+
+    /**
+     * iterate all search results page by page.<br>
+     * Pages are read with a cursor on createDate and objectId instead of skip, so reading a large class
+     * does not get slower, and the next page is requested while the current page is read.
+     * The page size starts with the limit (100 if not set) and grows up to 1000.
+     * skip and order of the query are not used.<br>
+     * Do not use on the main thread, because the pages are received on the callback thread
+     * @return iterator of search results
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public NCMBQueryIterator<T> iterate() throws NCMBException {
+        return new NCMBQueryIterator<>(this, new NCMBQueryCursor(this));
+    }
+
+    /**
+     * search all data from NIFCLOUD mobile backend asynchronously, page by page with a cursor
+     * on createDate and objectId, and receive each result while the response is read.<br>
+     * The page size starts with the limit (100 if not set) and grows up to 1000.
+     * skip and order of the query are not used
+     * @param callback callback receiving each search result
+     */
+    public void findAllInBackground(SearchEachCallback<T> callback) {
+        findAllInBackground(new NCMBQueryCursor(this), callback);
+    }
+
+    /**
+     * search all data from NIFCLOUD mobile backend asynchronously, splitting the query into
+     * the ranges of createDate which are read at the same time.<br>
+     * The ranges are decided from the oldest and the newest createDate of the search results.
+     * When ordered is false, results are passed in the order received from any range.
+     * When ordered is true, results are passed in order of createDate and objectId,
+     * and the results of later ranges are kept in memory until the earlier ranges are finished.<br>
+     * The query is not split if it has a condition of createDate
+     * @param partitions number of ranges to split
+     * @param parallelism maximum number of ranges read at the same time
+     * @param ordered true to pass results in order of createDate
+     * @param callback callback receiving each search result. item is called on one thread at a time
+     */
+    public void findAllInBackground(int partitions, int parallelism, boolean ordered,
+                                                 SearchEachCallback<T> callback) {
+        if (partitions < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("partitions and parallelism must be greater than 0");
+        }
+        new NCMBPartitionedScan<>(this, partitions, parallelism, ordered, callback).start();
+    }
+
+    /**
+     * search all data from the position of the cursor asynchronously, page by page
+     * @param cursor cursor of paging
+     * @param callback callback receiving each search result
+     */
+    void findAllInBackground(NCMBQueryCursor cursor, SearchEachCallback<T> callback) {
+        new AllPagesCallback(callback, cursor).start();
+    }
+
+    // 全件検索で各ページの検索結果を受け取り、続けて次のページを検索する
+    private class AllPagesCallback implements SearchEachCallback<T> {
+        private final SearchEachCallback<T> mCallback;
+        private final NCMBQueryCursor mCursor;
+        private int mTotal = 0;
+        private T mLast = null;
+
+        AllPagesCallback(SearchEachCallback<T> callback, NCMBQueryCursor cursor) {
+            mCallback = callback;
+            mCursor = cursor;
+        }
+
+        void start() {
+            try {
+                findEachInBackground(mCursor.nextConditions(), this);
+            } catch (NCMBException e) {
+                mCallback.done(mTotal, e);
+            }
+        }
+
+        @Override
+        public void item(T item) {
+            mTotal++;
+            mLast = item;
+            mCallback.item(item);
+        }
+
+        @Override
+        public void done(int count, NCMBException e) {
+            if (e == null) {
+                try {
+                    if (mLast != null) {
+                        mCursor.moveTo(mLast);
+                    }
+                    if (mCursor.finishPage(count)) {
+                        start();
+                        return;
+                    }
+                } catch (NCMBException cursorException) {
+                    e = cursorException;
+                }
+            }
+            mCallback.done(mTotal, e);
+        }
+    }
+
+    /**
+     * create search conditions of a page read with the cursor
+     * @param cursorDate createDate of the last result of previous page, or null for the first page
+     * @param cursorKey objectId of the last result of previous page
+     * @param limit page size
+     * @param fromDate lower limit of createDate, or null
+     * @param toDate upper limit of createDate not included, or null
+     * @return search conditions
+     * @throws NCMBException conditions can not be combined with the cursor
+     */
+    JSONObject getPageConditions(String cursorDate, String cursorKey, int limit, String fromDate, String toDate)
+            throws NCMBException {
+        String key = getCursorKey();
+        try {
+            JSONObject where = new JSONObject(mWhereConditions.toString());
+            if (where.has("$or")) {
+                throw new NCMBException(NCMBException.INVALID_FORMAT, "$or condition can not be used with paging by cursor.");
+            }
+            if (cursorDate != null) {
+                //(createDate, objectId) が前のページの最後の検索結果より後のデータ
+                JSONObject date = new JSONObject("{'__type':'Date'}");
+                date.put("iso", cursorDate);
+                JSONArray after = new JSONArray();
+                after.put(new JSONObject().put("createDate", new JSONObject().put("$gt", date)));
+                after.put(new JSONObject().put("createDate", date).put(key, new JSONObject().put("$gt", cursorKey)));
+                where.put("$or", after);
+            }
+            if (fromDate != null || toDate != null) {
+                JSONObject range = new JSONObject();
+                if (fromDate != null) {
+                    range.put("$gte", convertConditionValue(NCMBDateFormat.getIso8601().parse(fromDate)));
+                }
+                if (toDate != null) {
+                    range.put("$lt", convertConditionValue(NCMBDateFormat.getIso8601().parse(toDate)));
+                }
+                where.put("createDate", range);
+            }
+            JSONObject conditions = new JSONObject();
+            if (where.length() > 0) {
+                conditions.put("where", where);
+            }
+            conditions.put("limit", limit);
+            conditions.put("order", "createDate," + key);
+            if (includeKey != null && !includeKey.isEmpty()) {
+                conditions.put("include", includeKey);
+            }
+            return conditions;
+        } catch (JSONException e) {
+            throw new NCMBException(NCMBException.INVALID_JSON, e.getMessage());
+        } catch (ParseException e) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT, e.getMessage());
+        }
+    }
+
+    /**
+     * check whether the query has a condition of the key
+     * @param key field name
+     * @return true if the condition is set
+     */
+    boolean hasCondition(String key) {
+        return mWhereConditions.has(key);
+    }
+
+    /**
+     * get key to order results which have the same createDate
+     * @return objectId, or fileName for file
+     */
+    String getCursorKey() {
+        return mClassName.equals("file") ? "fileName" : "objectId";
+    }
+
+    /**
+     * get limit set to the query
+     * @return limit, or 0 if not set
+     */
+    int getLimit() {
+        return limitNumber;
+    }
+
     /**
      * get current search condition
      * @return current search condition
@@ -728,6 +1374,9 @@ public class NCMBQuery<T extends NCMBBase> {
      * @throws NCMBException exception from NIFCLOUD mobile backend
      */
     public int count () throws NCMBException {
+        if (mFromLocalDatastore) {
+            return NCMBLocalDatastore.count(mClassName, getConditions());
+        }
         int iSetLimitNumber = limitNumber;
         countFlag = true;
         limitNumber = 1;
@@ -743,16 +1392,79 @@ public class NCMBQuery<T extends NCMBBase> {
      * return number of search results asynchronously
      * @param callback callback for after object search and count results
      */
-    public void countInBackground(CountCallback callback) {
-        int iSetLimitNumber = limitNumber;
-        countFlag = true;
-        limitNumber = 1;
-        NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
+    public void countInBackground(final CountCallback callback) {
+        final NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        try {
+            if (mFromLocalDatastore) {
+                final JSONObject countConditions = getConditions();
+                NCMBRequestDispatcher.getInstance().executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int count = 0;
+                        NCMBException error = null;
+                        try {
+                            //キャンセル済みの場合は検索しない
+                            if (!handle.isCancelled()) {
+                                count = NCMBLocalDatastore.count(mClassName, countConditions);
+                            }
+                        } catch (NCMBException e) {
+                            error = e;
+                        } catch (RuntimeException e) {
+                            error = new NCMBException(e);
+                        }
+                        final int result = count;
+                        final NCMBException resultError = error;
+                        NCMBConnection.runOnCallbackThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (handle.isCancelled()) {
+                                    callback.done(0, createCancelledError());
+                                    return;
+                                }
+                                NCMBRequestHandle.enter(handle);
+                                try {
+                                    callback.done(result, resultError);
+                                } finally {
+                                    NCMBRequestHandle.end(handle);
+                                }
+                            }
+                        });
+                    }
+                });
+                return;
+            }
+            int iSetLimitNumber = limitNumber;
+            countFlag = true;
+            limitNumber = 1;
+            NCMBObjectService objServ = (NCMBObjectService)NCMB.factory(NCMB.ServiceType.OBJECT);
 
-        JSONObject countConditions = getConditions();
-        limitNumber = iSetLimitNumber;
-        countFlag = false;
-        objServ.countObjectInBackground(mClassName, countConditions, callback);
+            JSONObject countConditions = getConditions();
+            limitNumber = iSetLimitNumber;
+            countFlag = false;
+            objServ.countObjectInBackground(mClassName, countConditions, callback);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+    }
+
+    /**
+     * return number of search results asynchronously
+     * @return task completed with the number of search results
+     */
+    public NCMBTask<Integer> countTask() {
+        final NCMBTask<Integer> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            countInBackground(new CountCallback() {
+                @Override
+                public void done(int result, NCMBException e) {
+                    task.complete(e == null ? result : null, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
     }
 
 }
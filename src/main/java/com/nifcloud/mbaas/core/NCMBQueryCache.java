@@ -0,0 +1,379 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NCMBQueryCache keeps search results of NCMBQuery in memory.<br>
+ * Results are cached by application, logged-in user, class name and search conditions, and used by queries
+ * with a cache policy other than NETWORK_ONLY. The cache is cleared when a user logs in or out. The cache is limited by the number of entries and the size of results,
+ * and the least recently used entries are evicted first. Entries expire after the time to live
+ * set for each class.
+ */
+public class NCMBQueryCache {
+
+    /** default maximum number of cached search results */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+    /** default maximum size of cached search results */
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    /** default time to live of cached search results */
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    private static class Entry {
+        final String className;
+        final String results;
+        final long bytes;
+        final long expiresAt;
+
+        Entry(String className, String results, long expiresAt) {
+            this.className = className;
+            this.results = results;
+            //文字列のメモリ使用量として扱う
+            this.bytes = results.length() * 2L;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final Object sLock = new Object();
+    // アクセス順に並べたキャッシュ
+    private static final LinkedHashMap<String, Entry> sEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<String, Long> sTimeToLive = new HashMap<>();
+    private static int sMaxEntries = DEFAULT_MAX_ENTRIES;
+    private static long sMaxBytes = DEFAULT_MAX_BYTES;
+    private static long sDefaultTimeToLive = DEFAULT_TIME_TO_LIVE;
+    private static long sBytes = 0;
+
+    private static long sHits = 0;
+    private static long sMisses = 0;
+    private static long sEvictions = 0;
+
+    NCMBQueryCache() {
+    }
+
+    /**
+     * Set the maximum number of cached search results
+     *
+     * @param maxEntries maximum number of entries
+     */
+    public static void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        synchronized (sLock) {
+            sMaxEntries = maxEntries;
+            trim();
+        }
+    }
+
+    /**
+     * Set the maximum size of cached search results
+     *
+     * @param maxBytes maximum size in bytes
+     */
+    public static void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        synchronized (sLock) {
+            sMaxBytes = maxBytes;
+            trim();
+        }
+    }
+
+    /**
+     * Set time to live of search results for classes without their own time to live
+     *
+     * @param timeToLive milliseconds. 0 or less does not cache results
+     */
+    public static void setDefaultTimeToLive(long timeToLive) {
+        synchronized (sLock) {
+            sDefaultTimeToLive = timeToLive;
+        }
+    }
+
+    /**
+     * Set time to live of search results of the class
+     *
+     * @param className  class name, such as "user" for member
+     * @param timeToLive milliseconds. 0 or less does not cache results of the class
+     */
+    public static void setTimeToLive(String className, long timeToLive) {
+        synchronized (sLock) {
+            sTimeToLive.put(className, timeToLive);
+        }
+    }
+
+    /**
+     * Remove all cached search results
+     */
+    public static void clear() {
+        synchronized (sLock) {
+            sEntries.clear();
+            sBytes = 0;
+        }
+    }
+
+    /**
+     * Remove cached search results of the class
+     *
+     * @param className class name
+     */
+    public static void clear(String className) {
+        synchronized (sLock) {
+            Iterator<Entry> iterator = sEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.className.equals(className)) {
+                    sBytes -= entry.bytes;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of searches answered from the cache
+     *
+     * @return number of hits
+     */
+    public static long getHitCount() {
+        synchronized (sLock) {
+            return sHits;
+        }
+    }
+
+    /**
+     * Get the number of searches not found or expired in the cache
+     *
+     * @return number of misses
+     */
+    public static long getMissCount() {
+        synchronized (sLock) {
+            return sMisses;
+        }
+    }
+
+    /**
+     * Get the number of search results removed to keep the cache under its limits
+     *
+     * @return number of evictions
+     */
+    public static long getEvictionCount() {
+        synchronized (sLock) {
+            return sEvictions;
+        }
+    }
+
+    /**
+     * Get the number of cached search results
+     *
+     * @return number of entries
+     */
+    public static int getEntryCount() {
+        synchronized (sLock) {
+            return sEntries.size();
+        }
+    }
+
+    /**
+     * Get the size of cached search results
+     *
+     * @return size in bytes
+     */
+    public static long getBytes() {
+        synchronized (sLock) {
+            return sBytes;
+        }
+    }
+
+    /**
+     * Reset the counters of hits, misses and evictions
+     */
+    public static void resetStats() {
+        synchronized (sLock) {
+            sHits = 0;
+            sMisses = 0;
+            sEvictions = 0;
+        }
+    }
+
+    /**
+     * Get cached search results
+     *
+     * @param className  class name
+     * @param conditions search conditions
+     * @return fields of each search result, or null if not cached
+     */
+    static List<JSONObject> get(String className, JSONObject conditions) {
+        String key = createKey(className, conditions);
+        String results;
+        synchronized (sLock) {
+            Entry entry = sEntries.get(key);
+            if (entry != null && entry.expiresAt <= now()) {
+                sEntries.remove(key);
+                sBytes -= entry.bytes;
+                entry = null;
+            }
+            if (entry == null) {
+                sMisses++;
+                return null;
+            }
+            sHits++;
+            results = entry.results;
+        }
+        //呼び出し元が変更できるように毎回新しいオブジェクトを作成する
+        try {
+            JSONArray array = new JSONArray(results);
+            List<JSONObject> items = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                items.add(array.getJSONObject(i));
+            }
+            return items;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cache search results
+     *
+     * @param className  class name
+     * @param conditions search conditions
+     * @param items      search results
+     */
+    static void put(String className, JSONObject conditions, List<? extends NCMBBase> items) {
+        long timeToLive;
+        synchronized (sLock) {
+            Long classTimeToLive = sTimeToLive.get(className);
+            timeToLive = classTimeToLive != null ? classTimeToLive : sDefaultTimeToLive;
+        }
+        if (timeToLive <= 0 || items == null) {
+            return;
+        }
+        String key = createKey(className, conditions);
+        Entry entry = new Entry(className, toJson(items), now() + timeToLive);
+        synchronized (sLock) {
+            Entry previous = sEntries.put(key, entry);
+            if (previous != null) {
+                sBytes -= previous.bytes;
+            }
+            sBytes += entry.bytes;
+            trim();
+        }
+    }
+
+    /**
+     * Convert search results to json array string
+     *
+     * @param items search results
+     * @return json array of the fields of search results
+     */
+    static String toJson(List<? extends NCMBBase> items) {
+        JSONArray array = new JSONArray();
+        for (NCMBBase item : items) {
+            array.put(item.mFields);
+        }
+        return array.toString();
+    }
+
+    /**
+     * Delete search results of persisted queries saved in the storage
+     */
+    public static void clearSnapshots() {
+        NCMBQuerySnapshot.deleteAll();
+    }
+
+    // sLockを取得して呼び出すこと
+    private static void trim() {
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (iterator.hasNext() && (sEntries.size() > sMaxEntries || sBytes > sMaxBytes)) {
+            Entry entry = iterator.next();
+            sBytes -= entry.bytes;
+            iterator.remove();
+            sEvictions++;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Create key of search results from application key, objectId of the logged-in user,
+     * class name and search conditions.<br>
+     * Keys of json objects are sorted, so the same conditions set in a different order have the same key.
+     *
+     * @param className  class name
+     * @param conditions search conditions
+     * @return cache key
+     */
+    static String createKey(String className, JSONObject conditions) {
+        StringBuilder builder = new StringBuilder(currentScope()).append('\n').append(className).append('\n');
+        appendCanonical(builder, conditions);
+        return builder.toString();
+    }
+
+    // ACLにより検索結果が変わるため、アプリケーションとログイン中のユーザー毎に分ける
+    private static String currentScope() {
+        return NCMB.getCurrentContext().applicationKey + "\n" + NCMBUser.getCurrentUser().getObjectId();
+    }
+
+    static void appendCanonical(StringBuilder builder, Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            List<String> keys = new ArrayList<>();
+            Iterator<String> iterator = object.keys();
+            while (iterator.hasNext()) {
+                keys.add(iterator.next());
+            }
+            Collections.sort(keys);
+            builder.append('{');
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(JSONObject.quote(keys.get(i))).append(':');
+                appendCanonical(builder, object.opt(keys.get(i)));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendCanonical(builder, array.opt(i));
+            }
+            builder.append(']');
+        } else if (value instanceof String) {
+            builder.append(JSONObject.quote((String) value));
+        } else {
+            builder.append(value);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONObject;
+
+/**
+ * NCMBQueryCursor keeps the position of paging by createDate and objectId.<br>
+ * The page size starts with the limit of the query and doubles on every full page up to MAX_LIMIT.
+ */
+class NCMBQueryCursor {
+
+    // 1回の検索で取得できる最大件数
+    static final int MAX_LIMIT = 1000;
+    // limitが設定されていない場合の最初のページの件数
+    static final int DEFAULT_LIMIT = 100;
+
+    private final NCMBQuery<?> mQuery;
+    // 検索するcreateDateの範囲
+    private final String mFromDate;
+    private final String mToDate;
+    private String mLastDate = null;
+    private String mLastKey = null;
+    private int mLimit;
+
+    /**
+     * Constructor
+     *
+     * @param query query to read page by page
+     */
+    NCMBQueryCursor(NCMBQuery<?> query) {
+        this(query, null, null);
+    }
+
+    /**
+     * Constructor with range of createDate
+     *
+     * @param query    query to read page by page
+     * @param fromDate lower limit of createDate, or null
+     * @param toDate   upper limit of createDate not included, or null
+     */
+    NCMBQueryCursor(NCMBQuery<?> query, String fromDate, String toDate) {
+        mQuery = query;
+        mFromDate = fromDate;
+        mToDate = toDate;
+        int limit = query.getLimit();
+        mLimit = limit > 0 ? Math.min(limit, MAX_LIMIT) : DEFAULT_LIMIT;
+    }
+
+    /**
+     * Get page size of the next page
+     *
+     * @return page size
+     */
+    int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Create search conditions of the next page
+     *
+     * @return search conditions
+     * @throws NCMBException conditions can not be combined with the cursor
+     */
+    JSONObject nextConditions() throws NCMBException {
+        return mQuery.getPageConditions(mLastDate, mLastKey, mLimit, mFromDate, mToDate);
+    }
+
+    /**
+     * Move the cursor to the last result of the page
+     *
+     * @param item last result of the page
+     * @throws NCMBException result without createDate or objectId
+     */
+    void moveTo(NCMBBase item) throws NCMBException {
+        String key = mQuery.getCursorKey();
+        String date = item.mFields.optString("createDate", null);
+        String value = item.mFields.optString(key, null);
+        if (date == null || value == null) {
+            throw new NCMBException(NCMBException.MISSING_VALUE, "createDate and " + key + " are required for paging.");
+        }
+        mLastDate = date;
+        mLastKey = value;
+    }
+
+    /**
+     * Finish reading the page and grow the page size
+     *
+     * @param count number of results of the page
+     * @return true if there may be the next page
+     */
+    boolean finishPage(int count) {
+        if (count < mLimit) {
+            return false;
+        }
+        mLimit = Math.min(mLimit * 2, MAX_LIMIT);
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * NCMBQueryIterator reads all search results of a query page by page.<br>
+ * While the results of a page are read, the next page is requested in background,
+ * so at most two pages are kept in memory.
+ * Do not use on the main thread, because the pages are received on the callback thread.
+ *
+ * @param <T> type of search results
+ */
+public class NCMBQueryIterator<T extends NCMBBase> {
+
+    private final NCMBQuery<T> mQuery;
+    private final NCMBQueryCursor mCursor;
+    private List<T> mPage = Collections.emptyList();
+    private int mIndex = 0;
+    // 取得中の次のページ
+    private NCMBTask<List<T>> mNextPage;
+
+    NCMBQueryIterator(NCMBQuery<T> query, NCMBQueryCursor cursor) throws NCMBException {
+        mQuery = query;
+        mCursor = cursor;
+        mNextPage = query.findTask(cursor.nextConditions());
+    }
+
+    /**
+     * Check whether there is the next search result.<br>
+     * Waits for the next page if all results of the current page have been read.
+     *
+     * @return true if there is the next search result
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public boolean hasNext() throws NCMBException {
+        while (mIndex >= mPage.size()) {
+            if (mNextPage == null) {
+                return false;
+            }
+            List<T> page;
+            try {
+                page = mNextPage.get();
+            } finally {
+                mNextPage = null;
+            }
+            mPage = page != null ? page : Collections.<T>emptyList();
+            mIndex = 0;
+            if (!mPage.isEmpty()) {
+                mCursor.moveTo(mPage.get(mPage.size() - 1));
+            }
+            if (mCursor.finishPage(mPage.size())) {
+                //現在のページを読んでいる間に次のページを取得する
+                mNextPage = mQuery.findTask(mCursor.nextConditions());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the next search result
+     *
+     * @return search result
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public T next() throws NCMBException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T item = mPage.get(mIndex);
+        //読み込んだ検索結果は保持しない
+        mPage.set(mIndex, null);
+        mIndex++;
+        return item;
+    }
+
+    /**
+     * Stop reading and cancel the request of the next page
+     */
+    public void close() {
+        NCMBTask<List<T>> nextPage = mNextPage;
+        mNextPage = null;
+        if (nextPage != null) {
+            nextPage.cancel();
+        }
+        mPage = Collections.emptyList();
+        mIndex = 0;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * NCMBQuerySnapshot keeps the last search results of persisted queries in the private NCMB folder.<br>
+ * Each query is saved to a gzip compressed json file named with the hash of its cache key,
+ * which contains the application key, objectId of the logged-in user, class name and search conditions,
+ * so the results can be shown before the search of the next launch completes.<br>
+ * Saved results are deleted when the user logs out, and only the most recently used
+ * {@value #MAX_FILES} files are kept.
+ */
+class NCMBQuerySnapshot {
+
+    static final String FILE_PREFIX = "querySnapshot_";
+
+    /** 保存する検索結果のファイル数の上限 */
+    static final int MAX_FILES = 50;
+
+    /**
+     * Get file of the query
+     *
+     * @param key cache key of the query created by {@link NCMBQueryCache#createKey(String, JSONObject)}
+     * @return snapshot file
+     */
+    static File getFile(String key) {
+        return NCMBLocalFile.create(FILE_PREFIX + hash(key));
+    }
+
+    /**
+     * Read saved search results
+     *
+     * @param key cache key of the query created by {@link NCMBQueryCache#createKey(String, JSONObject)}
+     * @return fields of each search result, or null if not saved
+     */
+    static List<JSONObject> read(String key) {
+        NCMBLocalFile.checkNCMBContext();
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            InputStream in = new GZIPInputStream(new FileInputStream(file));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try {
+                byte[] data = new byte[8192];
+                int nRead;
+                while ((nRead = in.read(data, 0, data.length)) != -1) {
+                    buffer.write(data, 0, nRead);
+                }
+            } finally {
+                in.close();
+            }
+            JSONObject snapshot = new JSONObject(buffer.toString("UTF-8"));
+            //ハッシュが衝突した別の検索条件の結果は使わない
+            if (!key.equals(snapshot.optString("key"))) {
+                return null;
+            }
+            JSONArray results = snapshot.getJSONArray("results");
+            List<JSONObject> items = new ArrayList<>(results.length());
+            for (int i = 0; i < results.length(); i++) {
+                items.add(results.getJSONObject(i));
+            }
+            //上限を超えた場合に残すため、読み込んだ日時を記録する
+            file.setLastModified(System.currentTimeMillis());
+            return items;
+        } catch (IOException | JSONException e) {
+            //読み込めないファイルは削除する
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save search results
+     *
+     * @param key     cache key of the query
+     * @param results search results in json array
+     */
+    static synchronized void write(String key, String results) {
+        NCMBLocalFile.checkNCMBContext();
+        File file = getFile(key);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            String snapshot = "{\"key\":" + JSONObject.quote(key) + ",\"results\":" + results + "}";
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(temp));
+            try {
+                out.write(snapshot.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            //読み込み中のファイルを壊さないように書き込み後に置き換える
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+        trim();
+    }
+
+    // 上限を超えたファイルを使われていない順に削除する
+    private static void trim() {
+        File[] files = listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Delete all saved search results
+     */
+    static void deleteAll() {
+        NCMBLocalFile.checkNCMBContext();
+        File[] files = listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    // 保存した検索結果のファイル一覧
+    private static File[] listFiles() {
+        File dir = NCMB.getCurrentContext().context.getDir(NCMBLocalFile.FOLDER_NAME, Context.MODE_PRIVATE);
+        return dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(FILE_PREFIX);
+            }
+        });
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : bytes) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCMBRateLimiter limits the request rate of the SDK on the client side.<br>
+ * Each application key has a token bucket shared by all services using this limiter,
+ * and each pair of application key and service has its own token bucket.
+ * A request takes one token from both buckets. When a bucket is empty the request waits for the next token,
+ * so bursts are spread out instead of being rejected by the server with E429001.<br>
+ * Asynchronous requests wait before they are dispatched, so waiting requests do not use worker threads.<br>
+ * If the request would wait longer than the maximum waiting time,
+ * it is not sent and fails with NCMBException.RESTRICTED.
+ */
+public class NCMBRateLimiter {
+
+    // 既定の最大待機時間(ミリ秒)
+    static final long DEFAULT_MAX_WAIT = 5000;
+
+    private final double mPermitsPerSecond;
+    private final int mBurst;
+    private volatile long mMaxWait = DEFAULT_MAX_WAIT;
+    private volatile double mApplicationPermitsPerSecond;
+    private volatile int mApplicationBurst;
+
+    // アプリケーションキーとサービス毎のバケット
+    private final ConcurrentHashMap<String, Bucket> mBuckets = new ConcurrentHashMap<>();
+    // アプリケーションキー毎のバケット
+    private final ConcurrentHashMap<String, Bucket> mApplicationBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * Token bucket
+     */
+    static class Bucket {
+        private final double mPermitsPerNano;
+        private final int mBurst;
+        private double mTokens;
+        private long mLastNanos;
+
+        Bucket(double permitsPerSecond, int burst, long nowNanos) {
+            mPermitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            mBurst = burst;
+            mTokens = burst;
+            mLastNanos = nowNanos;
+        }
+
+        /**
+         * Take a token. If no token is left, the next token is reserved.
+         *
+         * @param nowNanos     current time
+         * @param maxWaitNanos maximum waiting time
+         * @return nanoseconds to wait before sending, or -1 if the request is shed
+         */
+        synchronized long reserve(long nowNanos, long maxWaitNanos) {
+            refill(nowNanos);
+            if (mTokens >= 1) {
+                mTokens -= 1;
+                return 0;
+            }
+            long wait = (long) Math.ceil((1 - mTokens) / mPermitsPerNano);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            //待機中のリクエストの分だけトークンを前借りする
+            mTokens -= 1;
+            return wait;
+        }
+
+        /**
+         * Return a token reserved by a request which was not sent
+         */
+        synchronized void release() {
+            mTokens = Math.min(mBurst, mTokens + 1);
+        }
+
+        synchronized double available(long nowNanos) {
+            refill(nowNanos);
+            return mTokens;
+        }
+
+        private void refill(long nowNanos) {
+            if (nowNanos > mLastNanos) {
+                mTokens = Math.min(mBurst, mTokens + (nowNanos - mLastNanos) * mPermitsPerNano);
+                mLastNanos = nowNanos;
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param permitsPerSecond requests allowed per second for each application key and service
+     * @param burst            requests allowed to be sent at once
+     */
+    public NCMBRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be greater than 0");
+        }
+        mPermitsPerSecond = permitsPerSecond;
+        mBurst = burst;
+        mApplicationPermitsPerSecond = permitsPerSecond;
+        mApplicationBurst = burst;
+    }
+
+    /**
+     * Set the rate of requests for each application key, counting all services using this limiter.<br>
+     * By default it is the same as the rate for each service,
+     * so that the total rate of an application does not exceed the rate given to the constructor.
+     * Buckets already created are not changed.
+     *
+     * @param permitsPerSecond requests allowed per second for each application key
+     * @param burst            requests allowed to be sent at once
+     */
+    public void setApplicationRate(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be greater than 0");
+        }
+        mApplicationPermitsPerSecond = permitsPerSecond;
+        mApplicationBurst = burst;
+    }
+
+    /**
+     * Get requests allowed per second for each application key
+     *
+     * @return requests per second
+     */
+    public double getApplicationPermitsPerSecond() {
+        return mApplicationPermitsPerSecond;
+    }
+
+    /**
+     * Get requests allowed to be sent at once for each application key
+     *
+     * @return burst size
+     */
+    public int getApplicationBurst() {
+        return mApplicationBurst;
+    }
+
+    /**
+     * Get requests allowed per second
+     *
+     * @return requests per second
+     */
+    public double getPermitsPerSecond() {
+        return mPermitsPerSecond;
+    }
+
+    /**
+     * Get requests allowed to be sent at once
+     *
+     * @return burst size
+     */
+    public int getBurst() {
+        return mBurst;
+    }
+
+    /**
+     * Set the maximum time a request waits for a token.<br>
+     * Requests which would wait longer are shed.
+     *
+     * @param maxWait milliseconds
+     */
+    public void setMaxWait(long maxWait) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maxWait must not be negative");
+        }
+        mMaxWait = maxWait;
+    }
+
+    /**
+     * Get the maximum time a request waits for a token
+     *
+     * @return milliseconds
+     */
+    public long getMaxWait() {
+        return mMaxWait;
+    }
+
+    /**
+     * Get the tokens currently available for the application key and service
+     *
+     * @param applicationKey application key
+     * @param serviceType    service type
+     * @return available tokens. negative if requests are waiting
+     */
+    public double getAvailableTokens(String applicationKey, NCMB.ServiceType serviceType) {
+        long now = System.nanoTime();
+        Bucket bucket = mBuckets.get(bucketKey(applicationKey, NCMB.getServicePath(serviceType)));
+        Bucket applicationBucket = mApplicationBuckets.get(String.valueOf(applicationKey));
+        double available = bucket == null ? mBurst : bucket.available(now);
+        if (applicationBucket != null) {
+            available = Math.min(available, applicationBucket.available(now));
+        } else {
+            available = Math.min(available, mApplicationBurst);
+        }
+        return available;
+    }
+
+    /**
+     * Reserve tokens for the request without waiting
+     *
+     * @param applicationKey application key of the request
+     * @param servicePath    service path of the request
+     * @return milliseconds to wait before sending the request
+     * @throws NCMBException RESTRICTED if the request is shed
+     */
+    long reserve(String applicationKey, String servicePath) throws NCMBException {
+        long now = System.nanoTime();
+        long maxWait = TimeUnit.MILLISECONDS.toNanos(mMaxWait);
+        Bucket applicationBucket = getApplicationBucket(applicationKey);
+        long applicationWait = applicationBucket.reserve(now, maxWait);
+        long wait = applicationWait < 0 ? -1 : getBucket(applicationKey, servicePath).reserve(now, maxWait);
+        if (wait < 0) {
+            if (applicationWait >= 0) {
+                //送信しないリクエストの分を返却する
+                applicationBucket.release();
+            }
+            NCMBConnectionStats.requestShed();
+            throw new NCMBException(NCMBException.RESTRICTED, "Request was shed by client rate limit.");
+        }
+        wait = Math.max(wait, applicationWait);
+        if (wait > 0) {
+            NCMBConnectionStats.requestWaited(wait);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(wait + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * Wait until the request can be sent.<br>
+     * The running slot of the dispatcher is released while waiting.
+     *
+     * @param applicationKey application key of the request
+     * @param servicePath    service path of the request
+     * @throws NCMBException RESTRICTED if the request is shed
+     */
+    void acquire(String applicationKey, String servicePath) throws NCMBException {
+        long wait = reserve(applicationKey, servicePath);
+        if (wait > 0) {
+            try {
+                NCMBRequestDispatcher.getInstance().sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NCMBException(e);
+            }
+        }
+    }
+
+    Bucket getBucket(String applicationKey, String servicePath) {
+        return getBucket(mBuckets, bucketKey(applicationKey, servicePath), mPermitsPerSecond, mBurst);
+    }
+
+    Bucket getApplicationBucket(String applicationKey) {
+        return getBucket(mApplicationBuckets, String.valueOf(applicationKey),
+                mApplicationPermitsPerSecond, mApplicationBurst);
+    }
+
+    private static Bucket getBucket(ConcurrentHashMap<String, Bucket> buckets, String key,
+                                    double permitsPerSecond, int burst) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(permitsPerSecond, burst, System.nanoTime());
+            Bucket current = buckets.putIfAbsent(key, bucket);
+            if (current != null) {
+                bucket = current;
+            }
+        }
+        return bucket;
+    }
+
+    private static String bucketKey(String applicationKey, String servicePath) {
+        return applicationKey + "\n" + servicePath;
+    }
+}
@@ -17,7 +17,6 @@ package com.nifcloud.mbaas.core;
 
 import android.annotation.SuppressLint;
 import android.os.Build;
-import android.util.Base64;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -26,18 +25,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.sql.Timestamp;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.SimpleTimeZone;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * NCMBRequest class is used to config api request
@@ -81,6 +79,16 @@ public class NCMBRequest {
     private static final String SIGNATURE_VERSION_KEY = "SignatureVersion";
     // シグネチャバージョンの値
     private static final String SIGNATURE_VERSION_VALUE = "2";
+    // タイムスタンプの書式(スレッド毎に再利用する)
+    private static final ThreadLocal<DateFormat> TIMESTAMP_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            @SuppressLint("SimpleDateFormat")
+            DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss.SSS'Z'");
+            df.setTimeZone(new SimpleTimeZone(0, "GMT"));
+            return df;
+        }
+    };
     // endregion
 
     // region property
@@ -98,11 +106,12 @@ public class NCMBRequest {
     private String timestamp = "";
 
     /** リクエストヘッダーのリスト */
-    private HashMap<String, String> requestProperties = new HashMap<String, String>();
+    private HashMap<String, String> requestProperties;
 
     // リクエスト生成用(File)
     private String fileName = "";
     private byte[] fileData = null;
+    private NCMBFileData fileBody = null;
     private String contentType = null;
 
     // レスポンスシグネチャ計算ハッシュデータ用
@@ -183,6 +192,15 @@ public class NCMBRequest {
         return this.fileData;
     }
 
+    /**
+     * Get source of file data written to request body
+     *
+     * @return file data source
+     */
+    NCMBFileData getFileBody() {
+        return this.fileBody;
+    }
+
     /**
      * Get fileName
      *
@@ -265,6 +283,24 @@ public class NCMBRequest {
         this(url, method, aclJson.toString(),fileName, fileData, HEADER_CONTENT_TYPE_FILE, null, sessionToken, applicationKey, clientKey, null);
     }
 
+    /**
+     * constructor for fileStore with streaming file data
+     *
+     * @param url            URL
+     * @param method         HTTPMethod
+     * @param fileName       fileName
+     * @param fileBody       source of file data
+     * @param aclJson        contentData
+     * @param sessionToken   sessionToken
+     * @param applicationKey applicationKey
+     * @param clientKey      clientKey
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBRequest(String url, String method, String fileName, NCMBFileData fileBody, JSONObject aclJson, String sessionToken, String applicationKey, String clientKey) throws NCMBException {
+        this(url, method, aclJson.toString(), fileName, null, HEADER_CONTENT_TYPE_FILE, null, sessionToken, applicationKey, clientKey, null);
+        this.fileBody = fileBody;
+    }
+
     /**
      * コンストラクタ
      *
@@ -294,108 +330,111 @@ public class NCMBRequest {
         this.contentType = contentType;
         this.fileName = fileName;
         this.fileData = fileData;
-
-
-        try {
-            this.url = new URL(url);
-        } catch (MalformedURLException e) {
-            throw new NCMBException(NCMBException.INVALID_FORMAT, e.getMessage());
+        if (fileData != null) {
+            this.fileBody = NCMBFileData.of(fileData);
         }
-        String query = "";
 
+
+        // クエリ文字列とシグネチャ用パラメータを一度に生成する
         List<String> parameterList = new ArrayList<String>();
+        String requestUrl = url;
         if (queryParam != null && this.queryParam.length() > 0) {
             try {
-                query = query + "?";//検索条件 連結
-                Iterator<?> keys = queryParam.keys();
-                while (keys.hasNext()) {
-                    String key = (String) keys.next();
-                    //String value = queryParam.get(key).toString();
-                    //Log.v("tag", "KEY:" + key + " VALUE:" + value);
-                    String param = key + "=" + URLEncoder.encode(queryParam.get(key).toString(), "UTF-8");
-                    if (NCMBRequest.HTTP_METHOD_GET.equals(method)) {
-                        parameterList.add(param);//シグネチャ生成で使用
-                    }
-                    query = query + param;
-                    if (keys.hasNext()) {
-                        query = query + "&";//検索条件 区切り
-                    }
-
-                }
-                this.url = new URL(this.url.toString() + query);
-            } catch (UnsupportedEncodingException | JSONException | MalformedURLException e) {
+                requestUrl = url + "?" + createQuery(queryParam, NCMBRequest.HTTP_METHOD_GET.equals(method) ? parameterList : null);
+            } catch (UnsupportedEncodingException | JSONException e) {
                 throw new NCMBException(e);
             }
         }
+        try {
+            this.url = new URL(requestUrl);
+        } catch (MalformedURLException e) {
+            throw new NCMBException(NCMBException.INVALID_FORMAT, e.getMessage());
+        }
 
-
-        //createHttpRequestで生成したRequestのヘッダ設定
-        //addHeader();
+        // アプリ毎に共通のヘッダーをコピーする
+        this.requestProperties = HeaderTemplate.get(this.applicationKey).newRequestProperties();
         // コンテンツタイプ設定
         if (this.contentType != null && this.contentType.length() > 0) {
             this.requestProperties.put(HEADER_CONTENT_TYPE, contentType);
-            //this.httpRequest.addHeader(HEADER_CONTENT_TYPE, contentType);
         } else {
             this.requestProperties.put(HEADER_CONTENT_TYPE, HEADER_CONTENT_TYPE_JSON);
         }
-        // アプリケーションキー設定
-        this.requestProperties.put(HEADER_APPLICATION_KEY, this.applicationKey);
 
-        try {
-            // タイムスタンプ生成/設定
-            if (this.timestamp == null) {
-                //timestamp引数なしコンストラクタの場合は現在時刻で生成する
-                @SuppressLint("SimpleDateFormat")
-                DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss.SSS'Z'");
-                df.setTimeZone(new SimpleTimeZone(0, "GMT"));
-                Timestamp ts = new Timestamp(System.currentTimeMillis());
-                this.timestamp = URLEncoder.encode(df.format(ts), "UTF-8");
-            }
-            this.requestProperties.put(HEADER_TIMESTAMP, this.timestamp);
-            // シグネチャ生成/設定
-            this.signatureHashData = createSignatureHashData(this.url.getPath(), parameterList);
-            String signature = createSignature(this.signatureHashData, this.clientKey);
-            this.requestProperties.put(HEADER_SIGNATURE, signature);
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e.getMessage());
+        // タイムスタンプ生成/設定
+        if (this.timestamp == null) {
+            //timestamp引数なしコンストラクタの場合は現在時刻で生成する
+            this.timestamp = createTimestamp(System.currentTimeMillis());
         }
-        // Access-Control-Allow-Origin設定
-        this.requestProperties.put(HEADER_ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        this.requestProperties.put(HEADER_TIMESTAMP, this.timestamp);
+        // シグネチャ生成/設定
+        this.signatureHashData = createSignatureHashData(this.url.getPath(), parameterList);
+        String signature = createSignature(this.signatureHashData, this.clientKey);
+        this.requestProperties.put(HEADER_SIGNATURE, signature);
         // セッショントークン設定
         if (this.sessionToken != null && this.sessionToken.length() > 0) {
             this.requestProperties.put(HEADER_APPS_SESSION_TOKEN, this.sessionToken);
         }
-
-        // 独自UserAgent設定
-        this.requestProperties.put(HEADER_SDK_VERSION, "android-" + NCMB.SDK_VERSION);
-        String osVersion = Build.VERSION.RELEASE;
-        this.requestProperties.put(HEADER_OS_VERSION, "android-" + osVersion);
-
-        //createHttpRequestで生成したRequestのコンテント設定
-        //addContent();
-        this.content = content;
-
     }
     //endregion
 
     // region Method
 
+    /**
+     * Sign the request again with the current time.<br>
+     * Used when the request is sent again after waiting, so that the server does not reject an old timestamp.
+     */
+    void resign() {
+        List<String> parameterList = new ArrayList<String>();
+        String query = this.url.getQuery();
+        if (HTTP_METHOD_GET.equals(this.method) && query != null && query.length() > 0) {
+            //エンコード済みのクエリ文字列はシグネチャ用パラメータと同じ形式
+            Collections.addAll(parameterList, query.split("&"));
+        }
+        this.timestamp = createTimestamp(System.currentTimeMillis());
+        this.requestProperties.put(HEADER_TIMESTAMP, this.timestamp);
+        this.signatureHashData = createSignatureHashData(this.url.getPath(), parameterList);
+        this.requestProperties.put(HEADER_SIGNATURE, createSignature(this.signatureHashData, this.clientKey));
+    }
+
     // シグネチャ文字列の生成
     String createSignature(String data, String key) {
-        String result = null;
-        try {
-            SecretKeySpec signingKey = new SecretKeySpec(key.getBytes("UTF-8"), SIGNATURE_METHOD_VALUE);
+        return NCMBSigner.getInstance(key).sign(data);
+    }
 
-            Mac mac = Mac.getInstance(SIGNATURE_METHOD_VALUE);
-            mac.init(signingKey);
+    // シグネチャ計算用のMacの生成
+    Mac createSignatureMac(String key) {
+        return NCMBSigner.getInstance(key).newMac();
+    }
 
-            byte[] rawHmac = mac.doFinal(data.getBytes("UTF-8"));
+    // クエリ文字列の生成。キーの昇順で連結し、GETの場合はシグネチャ用パラメータも追加する
+    private static String createQuery(JSONObject queryParam, List<String> parameterList)
+            throws UnsupportedEncodingException, JSONException {
+        List<String> keys = new ArrayList<String>(queryParam.length());
+        Iterator<?> it = queryParam.keys();
+        while (it.hasNext()) {
+            keys.add((String) it.next());
+        }
+        Collections.sort(keys);
 
-            result = Base64.encodeToString(rawHmac, Base64.NO_WRAP);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("signature");
+        StringBuilder query = new StringBuilder();
+        for (String key : keys) {
+            String param = key + "=" + URLEncoder.encode(queryParam.get(key).toString(), "UTF-8");
+            if (parameterList != null) {
+                parameterList.add(param);//シグネチャ生成で使用
+            }
+            if (query.length() > 0) {
+                query.append('&');//検索条件 区切り
+            }
+            query.append(param);
         }
-        return result;
+        return query.toString();
+    }
+
+    // URLエンコード済みのタイムスタンプを生成
+    static String createTimestamp(long time) {
+        String formatted = TIMESTAMP_FORMAT.get().format(new Date(time));
+        // 日時の書式で変換が必要な文字は':'のみ
+        return formatted.replace(":", "%3A");
     }
 
     //シグネチャのためハッシュ化するデータの生成
@@ -432,4 +471,49 @@ public class NCMBRequest {
         return data.toString();
     }
     //endregion
+
+    /**
+     * Request headers common to all requests of the application
+     */
+    static final class HeaderTemplate {
+        private static volatile HeaderTemplate sTemplate;
+
+        private final String mApplicationKey;
+        private final String mOsVersion;
+        private final HashMap<String, String> mProperties = new HashMap<String, String>();
+
+        private HeaderTemplate(String applicationKey, String osVersion) {
+            mApplicationKey = applicationKey;
+            mOsVersion = osVersion;
+            // アプリケーションキー設定
+            mProperties.put(HEADER_APPLICATION_KEY, applicationKey);
+            // Access-Control-Allow-Origin設定
+            mProperties.put(HEADER_ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            // 独自UserAgent設定
+            mProperties.put(HEADER_SDK_VERSION, "android-" + NCMB.SDK_VERSION);
+            mProperties.put(HEADER_OS_VERSION, "android-" + osVersion);
+        }
+
+        static HeaderTemplate get(String applicationKey) {
+            HeaderTemplate template = sTemplate;
+            String osVersion = Build.VERSION.RELEASE;
+            if (template == null || !equals(template.mApplicationKey, applicationKey)
+                    || !equals(template.mOsVersion, osVersion)) {
+                template = new HeaderTemplate(applicationKey, osVersion);
+                sTemplate = template;
+            }
+            return template;
+        }
+
+        HashMap<String, String> newRequestProperties() {
+            // 共通ヘッダーに加えてリクエスト毎のヘッダーを設定するため容量を確保する
+            HashMap<String, String> properties = new HashMap<String, String>(16);
+            properties.putAll(mProperties);
+            return properties;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 }
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NCMBRequestDispatcher runs API requests of the whole SDK on a shared thread pool.<br>
+ * Synchronous and asynchronous requests are queued and started within the limits of
+ * running requests in total, per host and per service.
+ */
+public class NCMBRequestDispatcher {
+
+    /**
+     * Policy applied when the queue of waiting requests is full
+     */
+    public enum RejectionPolicy {
+        /** reject the new request */
+        ABORT,
+        /** drop the oldest waiting request and accept the new one */
+        DISCARD_OLDEST
+    }
+
+    // 同時実行数の既定値
+    static final int DEFAULT_MAX_REQUESTS = 8;
+    // ホスト毎の同時実行数の既定値
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+    // サービス毎の同時実行数の既定値
+    static final int DEFAULT_MAX_REQUESTS_PER_SERVICE = 4;
+    // 待機キューの上限の既定値
+    static final int DEFAULT_MAX_QUEUE_SIZE = 256;
+    // アイドル状態のスレッドを破棄するまでの秒数
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    /** 待機キューから破棄されたリクエストのエラーメッセージ */
+    static final String DISCARDED_MESSAGE = "Request was discarded because the request queue is full.";
+
+    // スレッドで実行中のリクエスト
+    private static final ThreadLocal<AsyncCall> sCurrentCall = new ThreadLocal<>();
+
+    private static NCMBRequestDispatcher sInstance;
+
+    private int mMaxRequests = DEFAULT_MAX_REQUESTS;
+    private int mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private int mMaxRequestsPerService = DEFAULT_MAX_REQUESTS_PER_SERVICE;
+    private int mMaxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private RejectionPolicy mRejectionPolicy = RejectionPolicy.ABORT;
+
+    private ExecutorService mExecutorService;
+    // テストで差し替えた実行スレッド
+    private Executor mExecutor;
+    private ScheduledThreadPoolExecutor mScheduler;
+
+    /** 実行待ちのリクエスト */
+    private final ArrayDeque<AsyncCall> mReadyCalls = new ArrayDeque<>();
+    /** 実行中の非同期リクエスト */
+    private final ArrayDeque<AsyncCall> mRunningCalls = new ArrayDeque<>();
+    /** 待機を終えて実行枠の空きを待っているリクエスト */
+    private final ArrayDeque<AsyncCall> mResumingCalls = new ArrayDeque<>();
+    /** 拒否または破棄されたリクエスト数 */
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * Get the dispatcher shared by the SDK
+     *
+     * @return dispatcher instance
+     */
+    public static synchronized NCMBRequestDispatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new NCMBRequestDispatcher();
+        }
+        return sInstance;
+    }
+
+    NCMBRequestDispatcher() {
+    }
+
+    /**
+     * Set the maximum number of requests in flight at the same time.<br>
+     * This is not the number of worker threads. A request waiting for a retry or for the rate limit
+     * releases its slot while its thread sleeps, so more threads than this number can be alive.
+     *
+     * @param maxRequests maximum number of running requests
+     */
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests must be greater than 0");
+        }
+        synchronized (this) {
+            mMaxRequests = maxRequests;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * Get the maximum number of asynchronous requests running at the same time
+     *
+     * @return maximum number of running requests
+     */
+    public synchronized int getMaxRequests() {
+        return mMaxRequests;
+    }
+
+    /**
+     * Set the maximum number of asynchronous requests running for each host
+     *
+     * @param maxRequestsPerHost maximum number of running requests per host
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost must be greater than 0");
+        }
+        synchronized (this) {
+            mMaxRequestsPerHost = maxRequestsPerHost;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * Get the maximum number of asynchronous requests running for each host
+     *
+     * @return maximum number of running requests per host
+     */
+    public synchronized int getMaxRequestsPerHost() {
+        return mMaxRequestsPerHost;
+    }
+
+    /**
+     * Set the maximum number of asynchronous requests running for each service (classes, users, files ...)
+     *
+     * @param maxRequestsPerService maximum number of running requests per service
+     */
+    public void setMaxRequestsPerService(int maxRequestsPerService) {
+        if (maxRequestsPerService < 1) {
+            throw new IllegalArgumentException("maxRequestsPerService must be greater than 0");
+        }
+        synchronized (this) {
+            mMaxRequestsPerService = maxRequestsPerService;
+        }
+        promoteAndExecute();
+    }
+
+    /**
+     * Get the maximum number of asynchronous requests running for each service
+     *
+     * @return maximum number of running requests per service
+     */
+    public synchronized int getMaxRequestsPerService() {
+        return mMaxRequestsPerService;
+    }
+
+    /**
+     * Set the maximum number of requests waiting in the queue
+     *
+     * @param maxQueueSize maximum number of waiting requests
+     */
+    public synchronized void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("maxQueueSize must not be negative");
+        }
+        mMaxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Get the maximum number of requests waiting in the queue
+     *
+     * @return maximum number of waiting requests
+     */
+    public synchronized int getMaxQueueSize() {
+        return mMaxQueueSize;
+    }
+
+    /**
+     * Set the policy applied when the queue is full
+     *
+     * @param policy rejection policy
+     */
+    public synchronized void setRejectionPolicy(RejectionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        mRejectionPolicy = policy;
+    }
+
+    /**
+     * Get the policy applied when the queue is full
+     *
+     * @return rejection policy
+     */
+    public synchronized RejectionPolicy getRejectionPolicy() {
+        return mRejectionPolicy;
+    }
+
+    /**
+     * Get the number of requests waiting in the queue
+     *
+     * @return number of waiting requests
+     */
+    public synchronized int getQueuedRequestCount() {
+        return mReadyCalls.size();
+    }
+
+    /**
+     * Get the number of requests in flight (asynchronous and synchronous)
+     *
+     * @return number of running requests
+     */
+    public synchronized int getRunningRequestCount() {
+        return mRunningCalls.size();
+    }
+
+    /**
+     * Get the number of requests rejected or discarded because the queue was full
+     *
+     * @return number of rejected requests
+     */
+    public long getRejectedRequestCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * Replace the executor running dispatched requests.<br>
+     * Tests set an executor running requests on the calling thread, so that the results are passed
+     * to the main looper before the test checks them.
+     *
+     * @param executor executor running requests, or null to use the shared thread pool
+     */
+    synchronized void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Executor shared by dispatched requests.<br>
+     * Idle threads are released after a while, so no thread is kept by finished requests.
+     *
+     * @return executor
+     */
+    synchronized Executor executor() {
+        if (mExecutor != null) {
+            return mExecutor;
+        }
+        if (mExecutorService == null) {
+            mExecutorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NCMB Dispatcher #" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutorService;
+    }
+
+    // 遅延させたリクエストを待機キューに積むスケジューラー
+    private synchronized ScheduledExecutorService scheduler() {
+        if (mScheduler == null) {
+            mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NCMB Dispatcher Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mScheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            mScheduler.allowCoreThreadTimeOut(true);
+        }
+        return mScheduler;
+    }
+
+    /**
+     * Run a synchronous request within the limits of the dispatcher.<br>
+     * The request waits in the queue like asynchronous requests. If the current thread is already running
+     * a dispatched request, the request runs on the current thread so that it does not wait for itself.
+     *
+     * @param callable request task
+     * @param host     request host
+     * @param service  service path of request
+     * @param <T>      result type
+     * @return future of the request. cancelled if the request is discarded from the queue
+     */
+    <T> Future<T> submit(Callable<T> callable, String host, String service) {
+        FutureTask<T> future = new FutureTask<>(callable);
+        if (sCurrentCall.get() != null) {
+            future.run();
+            return future;
+        }
+        enqueue(new AsyncCall(future, host, service, null));
+        return future;
+    }
+
+    /**
+     * Create executor that enqueues the given task as a request to host and service
+     *
+     * @param host        request host
+     * @param service     service path of request
+     * @param onDiscarded called instead of the task when the request is discarded from the queue
+     * @return executor for one request
+     */
+    Executor newCallExecutor(final String host, final String service, final Runnable onDiscarded) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                enqueue(new AsyncCall(command, host, service, onDiscarded));
+            }
+        };
+    }
+
+    /**
+     * Sleep without holding the running slot of the current request.<br>
+     * Other requests can run while waiting, and the request continues when a slot is available again.
+     * Waiting for the slot has priority over the requests in the queue.
+     *
+     * @param millis milliseconds to sleep
+     * @throws InterruptedException if the current thread is interrupted while sleeping
+     */
+    void sleep(long millis) throws InterruptedException {
+        AsyncCall call = sCurrentCall.get();
+        if (call == null) {
+            Thread.sleep(millis);
+            return;
+        }
+        finished(call);
+        try {
+            Thread.sleep(millis);
+        } finally {
+            resume(call);
+        }
+    }
+
+    // 実行枠が空くまで待機する
+    private void resume(AsyncCall call) {
+        synchronized (this) {
+            mResumingCalls.addLast(call);
+        }
+        promoteAndExecute();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (!mRunningCalls.contains(call)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create executor that enqueues the given task after the delay.<br>
+     * The task does not use a worker thread while it is delayed.
+     * If the queue is full when the delay has passed, the request is discarded.
+     *
+     * @param host        request host
+     * @param service     service path of request
+     * @param onDiscarded called instead of the task when the request is discarded
+     * @param delay       milliseconds to wait before the request is enqueued
+     * @return executor for one request
+     */
+    Executor newCallExecutor(final String host, final String service, final Runnable onDiscarded, final long delay) {
+        if (delay <= 0) {
+            return newCallExecutor(host, service, onDiscarded);
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                final AsyncCall call = new AsyncCall(command, host, service, onDiscarded);
+                scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            enqueue(call);
+                        } catch (RejectedExecutionException e) {
+                            call.discard();
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    void enqueue(AsyncCall call) {
+        AsyncCall discarded = null;
+        synchronized (this) {
+            if (mReadyCalls.size() >= mMaxQueueSize
+                    && mRunningCalls.size() >= mMaxRequests) {
+                if (mRejectionPolicy == RejectionPolicy.DISCARD_OLDEST && !mReadyCalls.isEmpty()) {
+                    discarded = mReadyCalls.pollFirst();
+                } else {
+                    mRejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException("Request queue is full");
+                }
+            }
+            mReadyCalls.addLast(call);
+        }
+        if (discarded != null) {
+            mRejectedCount.incrementAndGet();
+            discarded.discard();
+        }
+        promoteAndExecute();
+    }
+
+    // 実行可能なリクエストを待機キューから取り出して実行する
+    private void promoteAndExecute() {
+        List<AsyncCall> executableCalls = new ArrayList<>();
+        synchronized (this) {
+            boolean resumed = false;
+            for (Iterator<AsyncCall> i = mResumingCalls.iterator(); i.hasNext(); ) {
+                AsyncCall call = i.next();
+                if (mRunningCalls.size() >= mMaxRequests) {
+                    break;
+                }
+                if (runningCallsForHost(call.host) >= mMaxRequestsPerHost
+                        || runningCallsForService(call.service) >= mMaxRequestsPerService) {
+                    continue;
+                }
+                i.remove();
+                mRunningCalls.add(call);
+                resumed = true;
+            }
+            if (resumed) {
+                notifyAll();
+            }
+            for (Iterator<AsyncCall> i = mReadyCalls.iterator(); i.hasNext(); ) {
+                AsyncCall call = i.next();
+                if (mRunningCalls.size() >= mMaxRequests) {
+                    break;
+                }
+                if (runningCallsForHost(call.host) >= mMaxRequestsPerHost) {
+                    continue;
+                }
+                if (runningCallsForService(call.service) >= mMaxRequestsPerService) {
+                    continue;
+                }
+                i.remove();
+                executableCalls.add(call);
+                mRunningCalls.add(call);
+            }
+        }
+        for (AsyncCall call : executableCalls) {
+            executor().execute(call);
+        }
+    }
+
+    private void finished(AsyncCall call) {
+        synchronized (this) {
+            mRunningCalls.remove(call);
+        }
+        promoteAndExecute();
+    }
+
+    private int runningCallsForHost(String host) {
+        int count = 0;
+        for (AsyncCall call : mRunningCalls) {
+            if (call.host.equals(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int runningCallsForService(String service) {
+        int count = 0;
+        for (AsyncCall call : mRunningCalls) {
+            if (call.service.equals(service)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Queued request
+     */
+    final class AsyncCall implements Runnable {
+        final Runnable task;
+        final String host;
+        final String service;
+        final Runnable onDiscarded;
+
+        AsyncCall(Runnable task, String host, String service, Runnable onDiscarded) {
+            this.task = task;
+            this.onDiscarded = onDiscarded;
+            this.host = host != null ? host : "";
+            this.service = service != null ? service : "";
+        }
+
+        // 待機キューから破棄された場合、呼び出し元に結果を通知する
+        void discard() {
+            if (onDiscarded != null) {
+                onDiscarded.run();
+            } else if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            sCurrentCall.set(this);
+            try {
+                task.run();
+            } finally {
+                sCurrentCall.remove();
+                finished(this);
+            }
+        }
+    }
+}
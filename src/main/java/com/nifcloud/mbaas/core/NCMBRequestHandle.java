@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * NCMBRequestHandle cancels the requests started by methods running in background.<br>
+ * Call the methods in NCMBRequestHandle.run to get the handle of their requests.
+ * Requests started in the callback of the requests also belong to the same handle,
+ * so cancelling the handle stops the whole operation, for example saving a file and then its ACL.<br>
+ * Cancelled requests are aborted by closing the connection, and their callbacks are executed
+ * with NCMBException.GENERIC_ERROR.
+ */
+public class NCMBRequestHandle {
+
+    // スレッド毎の実行中のハンドル
+    private static final ThreadLocal<ArrayDeque<NCMBRequestHandle>> sCurrent =
+            new ThreadLocal<ArrayDeque<NCMBRequestHandle>>() {
+                @Override
+                protected ArrayDeque<NCMBRequestHandle> initialValue() {
+                    return new ArrayDeque<>();
+                }
+            };
+
+    private final List<NCMBConnection> mConnections = new ArrayList<>();
+    // NCMBConnectionを使わないリクエストの中断処理
+    private final List<Runnable> mCancelActions = new ArrayList<>();
+    // 子のハンドル。実行中のリクエストやタスクから参照されている間のみ保持する
+    private final List<WeakReference<NCMBRequestHandle>> mChildren = new ArrayList<>();
+    // 親のハンドル。子のハンドルが使われている間、親から子を辿れるように保持する
+    private final NCMBRequestHandle mParent;
+    private boolean mCancelled = false;
+
+    NCMBRequestHandle() {
+        this(null);
+    }
+
+    private NCMBRequestHandle(NCMBRequestHandle parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Run the operation and get the handle of the requests started by the background methods called in it.<br>
+     * When called in the callback of a request, the handle of that request is returned.
+     *
+     * @param operation operation calling background methods
+     * @return handle to cancel the requests
+     */
+    public static NCMBRequestHandle run(Runnable operation) {
+        NCMBRequestHandle handle = begin();
+        try {
+            operation.run();
+        } finally {
+            end(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Cancel the requests started with this handle.<br>
+     * Requests started later with this handle are cancelled immediately.
+     * Handles of tasks started in the scope of this handle are also cancelled.
+     *
+     * @return false if already cancelled
+     */
+    public boolean cancel() {
+        List<NCMBConnection> connections;
+        List<Runnable> cancelActions;
+        List<WeakReference<NCMBRequestHandle>> children;
+        synchronized (this) {
+            if (mCancelled) {
+                return false;
+            }
+            mCancelled = true;
+            connections = new ArrayList<>(mConnections);
+            mConnections.clear();
+            cancelActions = new ArrayList<>(mCancelActions);
+            mCancelActions.clear();
+            children = new ArrayList<>(mChildren);
+            mChildren.clear();
+        }
+        for (NCMBConnection connection : connections) {
+            connection.cancel();
+        }
+        for (Runnable cancelAction : cancelActions) {
+            cancelAction.run();
+        }
+        for (WeakReference<NCMBRequestHandle> child : children) {
+            NCMBRequestHandle handle = child.get();
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get whether the handle has been cancelled
+     *
+     * @return true if cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Add running request
+     *
+     * @param connection connection of the request
+     */
+    void add(NCMBConnection connection) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mConnections.add(connection);
+                return;
+            }
+        }
+        connection.cancel();
+    }
+
+    /**
+     * Remove finished request
+     *
+     * @param connection connection of the request
+     */
+    synchronized void remove(NCMBConnection connection) {
+        mConnections.remove(connection);
+    }
+
+    /**
+     * Add running request not sent by NCMBConnection.<br>
+     * The action is run at once if the handle has already been cancelled
+     *
+     * @param cancelAction action aborting the request
+     */
+    void add(Runnable cancelAction) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mCancelActions.add(cancelAction);
+                return;
+            }
+        }
+        cancelAction.run();
+    }
+
+    /**
+     * Remove finished request not sent by NCMBConnection
+     *
+     * @param cancelAction action added with the request
+     */
+    synchronized void remove(Runnable cancelAction) {
+        mCancelActions.remove(cancelAction);
+    }
+
+    /**
+     * Start scope of a background method.<br>
+     * Joins the handle of the enclosing scope if any. Must be paired with end.
+     *
+     * @return handle of the scope
+     */
+    static NCMBRequestHandle begin() {
+        ArrayDeque<NCMBRequestHandle> stack = sCurrent.get();
+        NCMBRequestHandle handle = stack.peek();
+        if (handle == null) {
+            handle = new NCMBRequestHandle();
+        }
+        stack.push(handle);
+        return handle;
+    }
+
+    /**
+     * Start scope of a new handle, linked to the handle of the enclosing scope if any.<br>
+     * Cancelling the enclosing handle cancels the new handle, but cancelling the new handle
+     * does not cancel the enclosing handle or the other handles linked to it. Must be paired with end.
+     *
+     * @return new handle of the scope
+     */
+    static NCMBRequestHandle beginChild() {
+        ArrayDeque<NCMBRequestHandle> stack = sCurrent.get();
+        NCMBRequestHandle parent = stack.peek();
+        NCMBRequestHandle handle = new NCMBRequestHandle(parent);
+        if (parent != null) {
+            parent.addChild(handle);
+        }
+        stack.push(handle);
+        return handle;
+    }
+
+    // 子のハンドルを登録する。キャンセル済みの場合は子もキャンセルする
+    private void addChild(NCMBRequestHandle child) {
+        synchronized (this) {
+            if (!mCancelled) {
+                //使われなくなった子を取り除く
+                for (Iterator<WeakReference<NCMBRequestHandle>> i = mChildren.iterator(); i.hasNext(); ) {
+                    if (i.next().get() == null) {
+                        i.remove();
+                    }
+                }
+                mChildren.add(new WeakReference<>(child));
+                return;
+            }
+        }
+        child.cancel();
+    }
+
+    /**
+     * Enter scope of the handle, to run the callback of its request
+     *
+     * @param handle handle of the request
+     */
+    static void enter(NCMBRequestHandle handle) {
+        sCurrent.get().push(handle);
+    }
+
+    /**
+     * End scope started by begin or enter
+     *
+     * @param handle handle of the scope
+     */
+    static void end(NCMBRequestHandle handle) {
+        ArrayDeque<NCMBRequestHandle> stack = sCurrent.get();
+        if (stack.peek() == handle) {
+            stack.pop();
+        }
+    }
+
+    /**
+     * Get handle of the current scope
+     *
+     * @return handle, or null if not in a background method
+     */
+    static NCMBRequestHandle current() {
+        return sCurrent.get().peek();
+    }
+}
@@ -15,14 +15,18 @@
  */
 package com.nifcloud.mbaas.core;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
@@ -35,9 +39,17 @@ public class NCMBResponse {
     public static final int HTTP_STATUS_OK = 200;
     public static final int HTTP_STATUS_CREATED = 201;
 
-    //通信結果文字列
+    //通信結果json
     public JSONObject responseData = null;
+    /**
+     * 通信結果文字列。互換性のため受信時にresponseDataから作成して設定する
+     *
+     * @deprecated use responseData or getResponseDataString. This field will be removed in the next major version
+     */
+    @Deprecated
     public String responseDataString = null;
+    //シグネチャ検証用の受信したjsonデータ。検証が必要な場合のみ保持する
+    byte[] rawBody = null;
     //通信結果byte(file取得)
     public byte[] responseByte = null;
     //通信結果ステータスコード
@@ -56,24 +68,42 @@ public class NCMBResponse {
      * @throws NCMBException exception from NIFCLOUD mobile backend
      */
     public NCMBResponse(InputStream in, int responseCode, Map<String, List<String>> responseHeaders) throws NCMBException {
+        this(in, responseCode, responseHeaders, NCMB.getResponseValidation());
+    }
+
+    /**
+     * API response
+     *
+     * @param in              InputStream
+     * @param responseCode    statusCode
+     * @param responseHeaders responseHeaders
+     * @param keepRawBody     true to keep received json data for responseSignatureCheck
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse(InputStream in, int responseCode, Map<String, List<String>> responseHeaders, boolean keepRawBody) throws NCMBException {
         statusCode = responseCode;
         String contentType = responseHeaders.get("Content-Type").get(0);
         try {
-            if (contentType.equals("application/json") || contentType.equals("application/json;charset=UTF-8")) {
+            if (isJsonContentType(contentType)) {
                 // Set response json data
-                BufferedReader br = new BufferedReader(new InputStreamReader(in));
-                StringBuilder sb = new StringBuilder();
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    sb.append(line);
-
+                if (keepRawBody) {
+                    // シグネチャ検証と同じデータを使うため受信したバイト列を保持する
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    byte[] data = new byte[8192];
+                    int nRead;
+                    while ((nRead = in.read(data, 0, data.length)) != -1) {
+                        buffer.write(data, 0, nRead);
+                    }
+                    in.close();
+                    rawBody = buffer.toByteArray();
+                    responseData = readJson(new ByteArrayInputStream(rawBody));
+                } else {
+                    // 文字列を経由せずに読み込み、json以外のコピーを保持しない
+                    responseData = readJson(in);
                 }
-                br.close();
-
-                if (sb.length() > 0) {
-                    responseData = new JSONObject(new String(sb));
-                    responseDataString = new String(sb);
+                //公開フィールドを参照している既存のコードのために設定する
+                if (responseData != null) {
+                    responseDataString = responseData.toString();
                 }
 
             } else {
@@ -94,7 +124,7 @@ public class NCMBResponse {
                 mbErrorMessage = responseData.getString("error");
                 //throw new NCMBException(mbStatus, responseData.getString("error"));
             }
-        } catch (IOException | JSONException e) {
+        } catch (IOException | JSONException | IllegalStateException | NumberFormatException e) {
             throw new NCMBException(e);
         }
 
@@ -104,6 +134,100 @@ public class NCMBResponse {
         //TODO:Checking response signature
     }
 
+    /**
+     * Response without body. Used when response body is written to file directly
+     *
+     * @param responseCode statusCode
+     */
+    NCMBResponse(int responseCode) {
+        statusCode = responseCode;
+    }
+
+    /**
+     * Create a copy of the response that can be modified independently
+     *
+     * @return copy of the response
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse copy() throws NCMBException {
+        NCMBResponse copy = new NCMBResponse(statusCode);
+        if (responseData != null) {
+            try {
+                copy.responseData = new JSONObject(responseData.toString());
+            } catch (JSONException e) {
+                throw new NCMBException(e);
+            }
+        }
+        if (responseByte != null) {
+            copy.responseByte = responseByte.clone();
+        }
+        copy.responseDataString = responseDataString;
+        copy.mbStatus = mbStatus;
+        copy.mbErrorMessage = mbErrorMessage;
+        return copy;
+    }
+
+    /**
+     * Get json data of the response as string.<br>
+     * The string is created from responseData if responseDataString is not set
+     *
+     * @return json string, or null if the response has no json data
+     */
+    public String getResponseDataString() {
+        if (responseDataString == null && responseData != null) {
+            responseDataString = responseData.toString();
+        }
+        return responseDataString;
+    }
+
+    /**
+     * Read json data from response body
+     *
+     * @param in response body
+     * @return json data, or null if the body is empty. Array data is set to "results" of json data
+     * @throws IOException   exception from connection or invalid json
+     * @throws JSONException invalid json
+     */
+    static JSONObject readJson(InputStream in) throws IOException, JSONException {
+        PushbackInputStream body = new PushbackInputStream(in, 1);
+        int first = body.read();
+        if (first == -1) {
+            //delete,logout API has no response data
+            body.close();
+            return null;
+        }
+        body.unread(first);
+        JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+        try {
+            JSONObject data;
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                //配列のレスポンス(バッチ処理)は検索結果と同じくresultsに保持する
+                data = new JSONObject();
+                data.put("results", NCMBResultReader.readValue(reader));
+            } else {
+                data = NCMBResultReader.readObject(reader);
+            }
+            //シグネチャ計算のため残りのデータも読み込む
+            byte[] buffer = new byte[256];
+            while (body.read(buffer) != -1) {
+                //読み込みのみ
+            }
+            return data;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Check whether the response body is json data
+     *
+     * @param contentType Content-Type of response
+     * @return true if json data
+     */
+    static boolean isJsonContentType(String contentType) {
+        return "application/json".equals(contentType) || "application/json;charset=UTF-8".equals(contentType);
+    }
+
     /**
      * check invalid sessionToken
      * automatic logout when 'E404001' error
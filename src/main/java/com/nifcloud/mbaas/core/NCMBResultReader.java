@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NCMBResultReader reads search results from the response body one by one.<br>
+ * Each item of "results" is converted and passed to the callback while the body is read,
+ * so only one item is kept in memory instead of the whole response.<br>
+ * When the response signature is validated, the items are kept until the signature is checked
+ * and passed to the callback by flush, so that no unverified item is passed.
+ */
+abstract class NCMBResultReader<T extends NCMBBase> {
+
+    static final String RESULTS = "results";
+
+    private final SearchEachCallback<T> mCallback;
+    // コールバックに渡した検索結果の件数
+    private volatile int mCount = 0;
+    // シグネチャの検証までコールバックに渡さない検索結果
+    private final List<T> mPending = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param callback callback receiving each item
+     */
+    NCMBResultReader(SearchEachCallback<T> callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Convert json of a search result to the item
+     *
+     * @param item json of the search result
+     * @return item passed to the callback
+     * @throws NCMBException exception in conversion
+     */
+    abstract T createItem(JSONObject item) throws NCMBException;
+
+    /**
+     * Get the number of items passed to the callback
+     *
+     * @return number of items
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Read response body and pass each search result to the callback
+     *
+     * @param in           response body
+     * @param responseCode statusCode
+     * @return response containing the fields other than results
+     * @throws IOException   exception from connection
+     * @throws NCMBException exception in parsing or conversion
+     */
+    NCMBResponse read(InputStream in, int responseCode) throws IOException, NCMBException {
+        return read(in, responseCode, false);
+    }
+
+    /**
+     * Read response body and pass each search result to the callback,
+     * or keep the results until flush is called
+     *
+     * @param in           response body
+     * @param responseCode statusCode
+     * @param pending      true to keep the results until flush is called
+     * @return response containing the fields other than results
+     * @throws IOException   exception from connection
+     * @throws NCMBException exception in parsing or conversion
+     */
+    NCMBResponse read(InputStream in, int responseCode, boolean pending) throws IOException, NCMBException {
+        mPending.clear();
+        JSONObject rest = new JSONObject();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (RESULTS.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        T item = createItem(readObject(reader));
+                        if (pending) {
+                            mPending.add(item);
+                        } else {
+                            deliver(item);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    rest.put(name, readValue(reader));
+                }
+            }
+            reader.endObject();
+            //シグネチャ計算のため残りのデータも読み込む
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) != -1) {
+                //読み込みのみ
+            }
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException | JSONException e) {
+            throw new NCMBException(NCMBException.INVALID_JSON, "Invalid JSON format.");
+        } finally {
+            reader.close();
+        }
+        NCMBResponse res = new NCMBResponse(responseCode);
+        res.responseData = rest;
+        return res;
+    }
+
+    /**
+     * Pass the results kept by read to the callback, after the signature of the response is checked
+     */
+    void flush() {
+        for (T item : mPending) {
+            deliver(item);
+        }
+        mPending.clear();
+    }
+
+    private void deliver(T item) {
+        mCount++;
+        if (mCallback != null) {
+            mCallback.item(item);
+        }
+    }
+
+    /**
+     * Execute callback after the request finished
+     *
+     * @param e exception of the request, or null
+     */
+    void done(NCMBException e) {
+        if (mCallback != null) {
+            mCallback.done(mCount, e);
+        }
+    }
+
+    // JsonReaderからJSONObjectを読み込む
+    static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            object.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    static Object readValue(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return parseNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new IllegalStateException("Unexpected token " + token);
+        }
+    }
+
+    // new JSONObject(String)と同じ型で数値を返す
+    static Object parseNumber(String literal) {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                //long に収まらない場合は double として扱う
+            }
+        }
+        return Double.valueOf(literal);
+    }
+}
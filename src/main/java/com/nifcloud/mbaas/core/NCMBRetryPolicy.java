@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.Random;
+
+/**
+ * NCMBRetryPolicy decides whether a failed API request is sent again.<br>
+ * Requests failed by network error or by a temporary server error (429, 500, 502, 503, 504)
+ * are retried with exponential backoff and full jitter. Retry-After header from server is honoured.<br>
+ * GET, PUT and DELETE requests are retried. POST requests are not retried by default,
+ * because a retried POST request may create a duplicate object.
+ * They are retried only when the idempotency key is enabled, so that the server can recognize the same request.<br>
+ * Each retry is signed again with the current time, and the worker thread of the request is released
+ * to other requests while waiting.<br>
+ * Retries are limited by a retry budget shared by all requests using the policy,
+ * to avoid sending more requests to a server that is already overloaded.
+ */
+public class NCMBRetryPolicy {
+
+    /** header of idempotency key given to POST requests */
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    // 既定の最大リトライ回数
+    static final int DEFAULT_MAX_RETRIES = 2;
+    // 既定の初回待機時間(ミリ秒)
+    static final long DEFAULT_INITIAL_BACKOFF = 500;
+    // 既定の最大待機時間(ミリ秒)
+    static final long DEFAULT_MAX_BACKOFF = 10000;
+    // 既定のリトライバジェットのトークン数
+    static final int DEFAULT_MAX_TOKENS = 10;
+    // 既定の成功時に回復するトークン数
+    static final double DEFAULT_TOKEN_RATIO = 0.1;
+
+    private static final Random sRandom = new Random();
+
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+    private long mInitialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long mMaxBackoff = DEFAULT_MAX_BACKOFF;
+    private boolean mIdempotencyKeyEnabled = false;
+
+    // リトライバジェット
+    private int mMaxTokens = DEFAULT_MAX_TOKENS;
+    private double mTokenRatio = DEFAULT_TOKEN_RATIO;
+    private double mTokens = DEFAULT_MAX_TOKENS;
+
+    /**
+     * Set the maximum number of retries for a request
+     *
+     * @param maxRetries maximum number of retries
+     */
+    public synchronized void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        mMaxRetries = maxRetries;
+    }
+
+    /**
+     * Get the maximum number of retries for a request
+     *
+     * @return maximum number of retries
+     */
+    public synchronized int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Set backoff time of the first retry.<br>
+     * The upper limit of waiting time doubles on every retry, and actual time is chosen at random under the limit.
+     *
+     * @param initialBackoff milliseconds
+     */
+    public synchronized void setInitialBackoff(long initialBackoff) {
+        if (initialBackoff < 0) {
+            throw new IllegalArgumentException("initialBackoff must not be negative");
+        }
+        mInitialBackoff = initialBackoff;
+    }
+
+    /**
+     * Get backoff time of the first retry
+     *
+     * @return milliseconds
+     */
+    public synchronized long getInitialBackoff() {
+        return mInitialBackoff;
+    }
+
+    /**
+     * Set the maximum backoff time.<br>
+     * If Retry-After from server is longer than this, the request is not retried.
+     *
+     * @param maxBackoff milliseconds
+     */
+    public synchronized void setMaxBackoff(long maxBackoff) {
+        if (maxBackoff < 0) {
+            throw new IllegalArgumentException("maxBackoff must not be negative");
+        }
+        mMaxBackoff = maxBackoff;
+    }
+
+    /**
+     * Get the maximum backoff time
+     *
+     * @return milliseconds
+     */
+    public synchronized long getMaxBackoff() {
+        return mMaxBackoff;
+    }
+
+    /**
+     * Send a client generated idempotency key with POST requests and allow them to be retried.<br>
+     * The same key is sent on every retry of a request. Disabled by default.<br>
+     * Enable this only when the server recognizes the Idempotency-Key header.
+     * Otherwise a POST request whose response was lost is processed again,
+     * and the retry creates a duplicate object.
+     *
+     * @param idempotencyKeyEnabled true to retry POST requests with idempotency key
+     */
+    public synchronized void setIdempotencyKeyEnabled(boolean idempotencyKeyEnabled) {
+        mIdempotencyKeyEnabled = idempotencyKeyEnabled;
+    }
+
+    /**
+     * Get whether POST requests are retried with idempotency key
+     *
+     * @return true if POST requests are retried
+     */
+    public synchronized boolean isIdempotencyKeyEnabled() {
+        return mIdempotencyKeyEnabled;
+    }
+
+    /**
+     * Set retry budget.<br>
+     * Each failed request takes one token and each successful request returns tokenRatio tokens.
+     * Retries are stopped while tokens are half of maxTokens or less.
+     *
+     * @param maxTokens  maximum number of tokens
+     * @param tokenRatio tokens returned by a successful request
+     */
+    public synchronized void setRetryBudget(int maxTokens, double tokenRatio) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens must be greater than 0");
+        }
+        if (tokenRatio <= 0) {
+            throw new IllegalArgumentException("tokenRatio must be greater than 0");
+        }
+        mMaxTokens = maxTokens;
+        mTokenRatio = tokenRatio;
+        mTokens = maxTokens;
+    }
+
+    /**
+     * Get the remaining tokens of retry budget
+     *
+     * @return remaining tokens
+     */
+    public synchronized double getRetryTokens() {
+        return mTokens;
+    }
+
+    /**
+     * Check whether the request method can be retried
+     *
+     * @param method HTTP method
+     * @return true if the request can be sent again
+     */
+    synchronized boolean isRetryableMethod(String method) {
+        if (NCMBRequest.HTTP_METHOD_POST.equals(method)) {
+            return mIdempotencyKeyEnabled;
+        }
+        return NCMBRequest.HTTP_METHOD_GET.equals(method)
+                || NCMBRequest.HTTP_METHOD_PUT.equals(method)
+                || NCMBRequest.HTTP_METHOD_DELETE.equals(method);
+    }
+
+    /**
+     * Check whether the response is a temporary error
+     *
+     * @param response response from NIFCLOUD mobile backend
+     * @return true if the request should be retried
+     */
+    boolean isRetryableResponse(NCMBResponse response) {
+        switch (response.statusCode) {
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return NCMBException.RESTRICTED.equals(response.mbStatus)
+                        || NCMBException.INTERNAL_SERVER_ERROR.equals(response.mbStatus)
+                        || NCMBException.STORAGE_ERROR.equals(response.mbStatus);
+        }
+    }
+
+    /**
+     * Compute waiting time before the retry with full jitter
+     *
+     * @param retryCount number of retries already done
+     * @param retryAfter waiting time requested by Retry-After header, or -1
+     * @return milliseconds to wait, or -1 if the request should not be retried
+     */
+    synchronized long computeBackoff(int retryCount, long retryAfter) {
+        if (retryAfter > mMaxBackoff) {
+            return -1;
+        }
+        long limit = mInitialBackoff;
+        for (int i = 0; i < retryCount && limit < mMaxBackoff; i++) {
+            limit *= 2;
+        }
+        limit = Math.min(limit, mMaxBackoff);
+        long backoff = limit > 0 ? (long) (sRandom.nextDouble() * limit) : 0;
+        return Math.max(backoff, retryAfter);
+    }
+
+    /**
+     * Upper limit of total waiting time for a request
+     *
+     * @return milliseconds
+     */
+    synchronized long getMaxTotalBackoff() {
+        return mMaxBackoff * mMaxRetries;
+    }
+
+    /**
+     * Record a failed request and check retry budget
+     *
+     * @return true if retry is allowed
+     */
+    synchronized boolean acquireRetry() {
+        mTokens = Math.max(0, mTokens - 1);
+        return mTokens > mMaxTokens / 2.0;
+    }
+
+    /**
+     * Record a successful request
+     */
+    synchronized void recordSuccess() {
+        mTokens = Math.min(mMaxTokens, mTokens + mTokenRatio);
+    }
+}
@@ -338,17 +338,19 @@ public class NCMBRoleService extends NCMBService {
         reqParams.query = conditions;
         try {
             sendRequestAsync(reqParams, new RoleServiceCallback(this, callback) {
+                ArrayList<NCMBRole> mResults = null;
+
+                @Override
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
+                    mResults = createSearchResults(response.responseData);
+                }
+
                 @Override
                 public void handleResponse(NCMBResponse response) {
 
                     SearchRoleCallback callback = (SearchRoleCallback) mCallback;
                     if (callback != null) {
-                        try {
-                            callback.done(createSearchResults(response.responseData), null);
-                        } catch (NCMBException callbackException) {
-                            callback.done(null, callbackException);
-                        }
-
+                        callback.done(mResults, null);
                     }
                 }
 
@@ -369,6 +371,39 @@ public class NCMBRoleService extends NCMBService {
         }
     }
 
+    /**
+     * Search roles and pass each found role to the callback while the response is read.<br>
+     * Found roles are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found role
+     * @return number of found roles
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchRoleEach(JSONObject conditions, SearchEachCallback<NCMBRole> callback) throws NCMBException {
+        return searchEach(mContext.baseUrl + mServicePath, conditions, createResultReader(callback));
+    }
+
+    /**
+     * Search roles in background and pass each found role to the callback while the response is read
+     *
+     * @param conditions search conditions
+     * @param callback   callback receiving each found role
+     */
+    public void searchRoleEachInBackground(JSONObject conditions, SearchEachCallback<NCMBRole> callback) {
+        searchEachInBackground(mContext.baseUrl + mServicePath, conditions, createResultReader(callback));
+    }
+
+    // 検索結果をNCMBRoleに変換しながら読み込む
+    private NCMBResultReader<NCMBRole> createResultReader(SearchEachCallback<NCMBRole> callback) {
+        return new NCMBResultReader<NCMBRole>(callback) {
+            @Override
+            NCMBRole createItem(JSONObject item) {
+                return new NCMBRole(item);
+            }
+        };
+    }
+
 
     ArrayList<NCMBRole> createSearchResults(JSONObject responseData) throws NCMBException {
         try {
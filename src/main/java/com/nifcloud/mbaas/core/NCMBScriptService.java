@@ -28,8 +28,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.nifcloud.mbaas.core.NCMBScript.MethodType;
 
@@ -93,16 +95,18 @@ public class NCMBScriptService extends NCMBService {
      * @throws NCMBException exception from NIFCLOUD mobile backend
      */
     public byte[] executeScript(String scriptName, MethodType method, Map<String, String> header, JSONObject body, JSONObject query, String baseUrl) throws NCMBException {
+        return executeScript(scriptName, method, header, body, query, baseUrl, null);
+    }
 
-        String scriptUrl;
-        if (baseUrl != null && baseUrl.length() > 0) {
-            scriptUrl = baseUrl + "/" + scriptName;
-        } else {
-            scriptUrl = DEFAULT_SCRIPT_DOMAIN_URL + "/" + DEFAULT_SCRIPT_API_VERSION + "/" + mServicePath + "/" + scriptName;
-        }
+    // taskを指定した場合、コネクションを登録してキャンセル時に切断できるようにする
+    byte[] executeScript(String scriptName, MethodType method, Map<String, String> header, JSONObject body, JSONObject query, String baseUrl, StaticAsyncTask task) throws NCMBException {
+
+        String scriptUrl = createScriptUrl(scriptName, baseUrl);
 
         byte[] responseByte = null;
+        NCMBTransport transport = NCMB.getTransport();
         HttpURLConnection urlConnection = null;
+        boolean responseRead = false;
         String type;
         try {
             switch (method) {
@@ -137,7 +141,13 @@ public class NCMBScriptService extends NCMBService {
 
             // query連結済みURLでコネクション作成
             URL url = request.getUrl();
-            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection = transport.openConnection(url);
+            if (task != null) {
+                task.setActiveConnection(urlConnection);
+            }
+            // 応答のないスクリプトが実行枠を占有し続けないようにする
+            urlConnection.setConnectTimeout(NCMBConnection.sConnectionTimeout);
+            urlConnection.setReadTimeout(NCMBConnection.sConnectionTimeout);
 
             // メソッド設定
             urlConnection.setRequestMethod(request.getMethod());
@@ -178,6 +188,7 @@ public class NCMBScriptService extends NCMBService {
                     buffer.write(data, 0, nRead);
                 }
                 responseByte = buffer.toByteArray();
+                responseRead = true;
             } else {
                 // 失敗
                 BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getErrorStream()));
@@ -188,6 +199,7 @@ public class NCMBScriptService extends NCMBService {
                     sb.append(line);
                 }
                 br.close();
+                responseRead = true;
 
                 String statusCode = String.valueOf(urlConnection.getResponseCode());
                 String message = sb.toString();
@@ -208,7 +220,7 @@ public class NCMBScriptService extends NCMBService {
             throw new NCMBException(e);
         } finally {
             if (urlConnection != null) {
-                urlConnection.disconnect();
+                NCMBDefaultTransport.releaseConnection(transport, urlConnection, responseRead);
             }
         }
         return responseByte;
@@ -226,7 +238,37 @@ public class NCMBScriptService extends NCMBService {
      * @param callback   callback for after script execute
      */
     public void executeScriptInBackground(final String scriptName, final MethodType method, final Map<String, String> header, final JSONObject body, final JSONObject query, final String baseUrl, final ExecuteScriptCallback callback) {
-        new StaticAsyncTask(this, callback).execute(scriptName, method, header, body, query, baseUrl);
+        String host = null;
+        try {
+            host = new URL(createScriptUrl(scriptName, baseUrl)).getHost();
+        } catch (MalformedURLException e) {
+            // executeScript reports invalid url
+        }
+        final StaticAsyncTask task = new StaticAsyncTask(this, callback);
+        //ハンドルのキャンセルで通信を中断する
+        task.handle = NCMBRequestHandle.current();
+        if (task.handle != null) {
+            task.handle.add(task.cancelAction);
+        }
+        try {
+            task.executeOnExecutor(
+                    NCMBRequestDispatcher.getInstance().newCallExecutor(host, mServicePath, new Runnable() {
+                        @Override
+                        public void run() {
+                            task.discard();
+                        }
+                    }),
+                    scriptName, method, header, body, query, baseUrl);
+        } catch (RejectedExecutionException e) {
+            task.deliver(null, new NCMBException(NCMBException.GENERIC_ERROR, e.getMessage()));
+        }
+    }
+
+    String createScriptUrl(String scriptName, String baseUrl) {
+        if (baseUrl != null && baseUrl.length() > 0) {
+            return baseUrl + "/" + scriptName;
+        }
+        return DEFAULT_SCRIPT_DOMAIN_URL + "/" + DEFAULT_SCRIPT_API_VERSION + "/" + mServicePath + "/" + scriptName;
     }
 
     boolean isJSONString(String str){
@@ -239,12 +281,24 @@ public class NCMBScriptService extends NCMBService {
     }
 
 
-    private static class StaticAsyncTask extends AsyncTask<Object, Void, Void> {
+    static class StaticAsyncTask extends AsyncTask<Object, Void, Void> {
         byte[] res = null;
         NCMBException error = null;
 
         NCMBScriptService scriptService;
         ExecuteScriptCallback callback;
+        //待機キューから破棄された場合のエラー
+        volatile NCMBException rejection = null;
+        //リクエストが属するハンドル
+        NCMBRequestHandle handle = null;
+        private volatile boolean cancelled = false;
+        private volatile HttpURLConnection activeConnection = null;
+        final Runnable cancelAction = new Runnable() {
+            @Override
+            public void run() {
+                cancelRequest();
+            }
+        };
 
         public StaticAsyncTask(NCMBScriptService scriptService, ExecuteScriptCallback callback) {
             this.scriptService = scriptService;
@@ -262,7 +316,7 @@ public class NCMBScriptService extends NCMBService {
                 String baseUrl = (String) params[5];
 
                 try {
-                    res = scriptService.executeScript(scriptName, method, header, body, query, baseUrl);
+                    res = scriptService.executeScript(scriptName, method, header, body, query, baseUrl, this);
                 } catch (NCMBException e) {
                     error = e;
                 }
@@ -273,8 +327,60 @@ public class NCMBScriptService extends NCMBService {
 
         @Override
         protected void onPostExecute(Void o) {
-            if (scriptService!= null && callback!= null) {
-                callback.done(res, error);
+            if (scriptService!= null) {
+                deliver(res, error);
+            }
+        }
+
+        void discard() {
+            rejection = new NCMBException(NCMBException.GENERIC_ERROR, NCMBRequestDispatcher.DISCARDED_MESSAGE);
+            cancel(false);
+        }
+
+        // 通信中のコネクションを登録する。キャンセル済みの場合は通信しない
+        void setActiveConnection(HttpURLConnection urlConnection) throws NCMBException {
+            activeConnection = urlConnection;
+            if (cancelled) {
+                throw new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled.");
+            }
+        }
+
+        // 読み込み中のソケットを閉じて通信を中断する
+        void cancelRequest() {
+            cancelled = true;
+            HttpURLConnection urlConnection = activeConnection;
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            cancel(false);
+        }
+
+        @Override
+        protected void onCancelled() {
+            if (scriptService!= null) {
+                deliver(null, rejection != null
+                        ? rejection : new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+            }
+        }
+
+        // ハンドル内でコールバックを実行する。コールバック内のリクエストも同じハンドルに属する
+        void deliver(byte[] result, NCMBException e) {
+            NCMBRequestHandle current = handle != null && !handle.isCancelled() ? handle : null;
+            if (handle != null) {
+                handle.remove(cancelAction);
+            }
+            if (callback == null) {
+                return;
+            }
+            if (current != null) {
+                NCMBRequestHandle.enter(current);
+            }
+            try {
+                callback.done(result, e);
+            } finally {
+                if (current != null) {
+                    NCMBRequestHandle.end(current);
+                }
             }
         }
     }
@@ -32,6 +32,11 @@ public abstract class NCMBService {
      */
     protected String mServicePath;
 
+    /**
+     * Whether json request body may be compressed with gzip
+     */
+    boolean mRequestCompression = false;
+
     /**
      * Innter class for params of request
      */
@@ -49,6 +54,9 @@ public abstract class NCMBService {
         public CallbackBase mCallback = null;
         /** options */
         public JSONObject mOptions = null;
+        // prepareResponseの実行結果
+        private boolean mPrepared = false;
+        private NCMBException mPrepareError = null;
 
         /**
          * Generic constructor
@@ -114,6 +122,31 @@ public abstract class NCMBService {
             this(service, (CallbackBase) callback);
         }
 
+        /**
+         * Convert response data to result objects before handleResponse.<br>
+         * Called on worker thread unless background materialization is disabled,
+         * so that large search results are not built on the main thread.
+         *
+         * @param response response object
+         * @throws NCMBException exception passed to handleError
+         */
+        public void prepareResponse(NCMBResponse response) throws NCMBException {
+        }
+
+        /**
+         * Execute prepareResponse and keep its error for done
+         *
+         * @param response response object
+         */
+        final void prepare(NCMBResponse response) {
+            try {
+                prepareResponse(response);
+            } catch (NCMBException e) {
+                mPrepareError = e;
+            }
+            mPrepared = true;
+        }
+
         abstract public void handleResponse(NCMBResponse response);
 
         abstract public void handleError(NCMBException e);
@@ -130,6 +163,12 @@ public abstract class NCMBService {
                 if (e != null) {
                     throw e;
                 }
+                if (!mPrepared) {
+                    prepare(response);
+                }
+                if (mPrepareError != null) {
+                    throw mPrepareError;
+                }
                 handleResponse(response);
             } catch (NCMBException e2) {
                 handleError(e2);
@@ -196,6 +235,8 @@ public abstract class NCMBService {
                 sessionToken, applicationKey, clientKey);
 
         NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setRequestCompression(mRequestCompression);
         NCMBResponse response = connection.sendRequest();
         return response;
     }
@@ -224,10 +265,179 @@ public abstract class NCMBService {
         NCMBRequest request = new NCMBRequest(url, method, fileName, fileData, aclJson, sessionToken, applicationKey, clientKey);
 
         NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        NCMBResponse response = connection.sendRequest();
+        return response;
+    }
+
+    /**
+     * Send request file with streaming file data
+     *
+     * @param url      URL
+     * @param method   http method
+     * @param fileName file name
+     * @param fileBody source of file data
+     * @param aclJson  JSON of acl
+     * @return NCMBResponse response object
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse sendRequestFile(String url, String method, String fileName, NCMBFileData fileBody, JSONObject aclJson)
+            throws NCMBException {
+
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(url, method, fileName, fileBody, aclJson, sessionToken, applicationKey, clientKey);
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
         NCMBResponse response = connection.sendRequest();
         return response;
     }
 
+    /**
+     * Send GET request and write response body to the destination
+     *
+     * @param url      URL
+     * @param download destination of response body
+     * @return NCMBResponse response object
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse sendDownloadRequest(String url, NCMBFileDownload download) throws NCMBException {
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(url, NCMBRequest.HTTP_METHOD_GET, null, null,
+                sessionToken, applicationKey, clientKey);
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setDownload(download);
+        return connection.sendRequest();
+    }
+
+    /**
+     * Send GET request and write response body to the destination in asynchronously
+     *
+     * @param url      URL
+     * @param download destination of response body
+     * @param callback callback on finished
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    void sendDownloadRequestAsync(String url, NCMBFileDownload download, RequestApiCallback callback)
+            throws NCMBException {
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(url, NCMBRequest.HTTP_METHOD_GET, null, null,
+                sessionToken, applicationKey, clientKey);
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setDownload(download);
+        connection.sendRequestAsynchronously(callback);
+    }
+
+    /**
+     * Send GET request and pass each search result to the reader while response body is read
+     *
+     * @param url         URL
+     * @param queryString query string
+     * @param reader      reader of search results
+     * @return NCMBResponse response object without search results
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    NCMBResponse sendStreamRequest(String url, JSONObject queryString, NCMBResultReader<?> reader)
+            throws NCMBException {
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(url, NCMBRequest.HTTP_METHOD_GET, null, queryString,
+                sessionToken, applicationKey, clientKey);
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setResultReader(reader);
+        return connection.sendRequest();
+    }
+
+    /**
+     * Send GET request and pass each search result to the reader in asynchronously
+     *
+     * @param url         URL
+     * @param queryString query string
+     * @param reader      reader of search results
+     * @param callback    callback on finished
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    void sendStreamRequestAsync(String url, JSONObject queryString, NCMBResultReader<?> reader,
+                                RequestApiCallback callback) throws NCMBException {
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(url, NCMBRequest.HTTP_METHOD_GET, null, queryString,
+                sessionToken, applicationKey, clientKey);
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setResultReader(reader);
+        connection.sendRequestAsynchronously(callback);
+    }
+
+    /**
+     * Search and pass each result to the callback of the reader
+     *
+     * @param url        URL
+     * @param conditions search conditions
+     * @param reader     reader of search results
+     * @return number of search results
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    int searchEach(String url, JSONObject conditions, NCMBResultReader<?> reader) throws NCMBException {
+        sendStreamRequest(url, conditions, reader);
+        return reader.getCount();
+    }
+
+    /**
+     * Search and pass each result to the callback of the reader in background
+     *
+     * @param url        URL
+     * @param conditions search conditions
+     * @param reader     reader of search results
+     */
+    void searchEachInBackground(String url, JSONObject conditions, final NCMBResultReader<?> reader) {
+        try {
+            sendStreamRequestAsync(url, conditions, reader, new RequestApiCallback() {
+                @Override
+                public void done(NCMBResponse res, NCMBException e) {
+                    reader.done(e);
+                }
+            });
+        } catch (NCMBException e) {
+            reader.done(e);
+        }
+    }
+
     protected NCMBResponse sendRequest(RequestParams params) throws NCMBException {
         return this.sendRequest(params.url, params.type, params.content, params.query);
     }
@@ -262,6 +472,8 @@ public abstract class NCMBService {
                 clientKey);
 
         NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.setRequestCompression(mRequestCompression);
         connection.sendRequestAsynchronously(new RequestApiCallback() {
             @Override
             public void done(NCMBResponse res, NCMBException e) {
@@ -321,10 +533,48 @@ public abstract class NCMBService {
         );
 
         NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
         connection.sendRequestAsynchronously(callback);
 
     }
 
+    /**
+     * Send request file with streaming file data in asynchronously
+     *
+     * @param url      URL
+     * @param method   http method
+     * @param fileName file name
+     * @param fileBody source of file data
+     * @param aclJson  JSON of acl
+     * @param callback callback on finished
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    void sendRequestFileAsync(String url, String method, String fileName, NCMBFileData fileBody, JSONObject aclJson,
+                              RequestApiCallback callback)
+            throws NCMBException {
+        if (mContext.sessionToken == null) {
+            mContext.sessionToken = NCMBUser.getSessionToken();
+        }
+        String sessionToken = mContext.sessionToken;
+        String applicationKey = mContext.applicationKey;
+        String clientKey = mContext.clientKey;
+
+        NCMBRequest request = new NCMBRequest(
+                url,
+                method,
+                fileName,
+                fileBody,
+                aclJson,
+                sessionToken,
+                applicationKey,
+                clientKey
+        );
+
+        NCMBConnection connection = new NCMBConnection(request);
+        connection.setServicePath(mServicePath);
+        connection.sendRequestAsynchronously(callback);
+    }
+
     /**
      * Send request in asynchronously with parameter bag
      *
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.util.Base64;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import javax.crypto.Mac;
+
+/**
+ * NCMBSignedInputStream calculates the response signature while the response body is read.<br>
+ * The body is hashed as it is for json data, and as hexadecimal string for file data,
+ * without building the whole string in memory.
+ */
+class NCMBSignedInputStream extends FilterInputStream {
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private final Mac mMac;
+    private final boolean mHex;
+    private final byte[] mSingleByte = new byte[1];
+    private byte[] mHexBuffer;
+    // ボディを1バイト以上読み込んだか
+    private boolean mHasBody = false;
+    // シグネチャに含めたボディのバイト数
+    private long mCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param in      response body
+     * @param request request of the response
+     * @param hex     true if the body is file data
+     */
+    NCMBSignedInputStream(InputStream in, NCMBRequest request, boolean hex) {
+        super(in);
+        mMac = request.createSignatureMac(request.getClientKey());
+        mHex = hex;
+        try {
+            mMac.update(request.getSignatureHashData().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mSingleByte[0] = (byte) b;
+            update(mSingleByte, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count > 0) {
+            update(buffer, offset, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //読み飛ばしたデータもシグネチャに含める
+        byte[] buffer = new byte[(int) Math.min(n, NCMBFileDownload.BUFFER_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Continue calculating the signature with the rest of the body read from another stream.<br>
+     * Used to verify a download resumed with Range request as one body.
+     *
+     * @param in rest of the body
+     */
+    void resume(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Get the number of body bytes included in the signature
+     *
+     * @return number of bytes
+     */
+    long count() {
+        return mCount;
+    }
+
+    /**
+     * Get signature of the data read so far
+     *
+     * @return response signature
+     */
+    String signature() {
+        return Base64.encodeToString(mMac.doFinal(), Base64.NO_WRAP);
+    }
+
+    private void update(byte[] data, int offset, int length) {
+        if (!mHasBody) {
+            //ボディがある場合のみ改行で区切る
+            mMac.update((byte) '\n');
+            mHasBody = true;
+        }
+        mCount += length;
+        if (mHex) {
+            if (mHexBuffer == null || mHexBuffer.length < length * 2) {
+                mHexBuffer = new byte[Math.max(length * 2, 1024)];
+            }
+            updateHex(mMac, data, offset, length, mHexBuffer);
+        } else {
+            mMac.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Update mac with hexadecimal string of data
+     *
+     * @param mac       mac to update
+     * @param data      data
+     * @param offset    start of data
+     * @param length    length of data
+     * @param hexBuffer work buffer with at least length * 2 bytes
+     */
+    static void updateHex(Mac mac, byte[] data, int offset, int length, byte[] hexBuffer) {
+        for (int i = 0; i < length; i++) {
+            int b = data[offset + i] & 0xff;
+            hexBuffer[i * 2] = HEX_DIGITS[b >>> 4];
+            hexBuffer[i * 2 + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        mac.update(hexBuffer, 0, length * 2);
+    }
+}
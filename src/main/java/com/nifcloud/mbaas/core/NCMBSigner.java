@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.util.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * NCMBSigner calculates HmacSHA256 signatures with a client key.<br>
+ * The key is initialized once per client key, and each thread signs with its own Mac
+ * cloned from the initialized prototype.
+ */
+class NCMBSigner {
+
+    static final String SIGNATURE_METHOD = "HmacSHA256";
+
+    // 保持する署名オブジェクトの上限。通常クライアントキーは1つのため小さくする
+    static final int MAX_SIGNERS = 4;
+
+    // クライアントキー毎の署名オブジェクト
+    private static final ConcurrentHashMap<String, NCMBSigner> sSigners = new ConcurrentHashMap<>();
+
+    private final String mClientKey;
+    private final Mac mPrototype;
+    private final ThreadLocal<Mac> mThreadMac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            return newMac();
+        }
+    };
+
+    /**
+     * Get signer for the client key
+     *
+     * @param clientKey client key
+     * @return signer
+     */
+    static NCMBSigner getInstance(String clientKey) {
+        if (clientKey == null) {
+            throw new IllegalArgumentException("signature");
+        }
+        NCMBSigner signer = sSigners.get(clientKey);
+        if (signer == null) {
+            if (sSigners.size() >= MAX_SIGNERS) {
+                //上限を超える場合は破棄して作り直す
+                sSigners.clear();
+            }
+            signer = new NCMBSigner(clientKey);
+            NCMBSigner current = sSigners.putIfAbsent(clientKey, signer);
+            if (current != null) {
+                signer = current;
+            }
+        }
+        return signer;
+    }
+
+    /**
+     * Get the number of cached signers
+     *
+     * @return number of signers
+     */
+    static int size() {
+        return sSigners.size();
+    }
+
+    NCMBSigner(String clientKey) {
+        mClientKey = clientKey;
+        mPrototype = createMac(clientKey);
+    }
+
+    /**
+     * Create new Mac initialized with the client key.<br>
+     * The Mac is not shared, so it can be kept while reading a response.
+     *
+     * @return initialized mac
+     */
+    Mac newMac() {
+        try {
+            synchronized (mPrototype) {
+                return (Mac) mPrototype.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            //クローンできないプロバイダの場合は初期化し直す
+            return createMac(mClientKey);
+        }
+    }
+
+    /**
+     * Calculate signature of data
+     *
+     * @param data data to sign
+     * @return signature encoded with Base64
+     */
+    String sign(String data) {
+        Mac mac = mThreadMac.get();
+        try {
+            byte[] rawHmac = mac.doFinal(data.getBytes("UTF-8"));
+            return Base64.encodeToString(rawHmac, Base64.NO_WRAP);
+        } catch (UnsupportedEncodingException e) {
+            mac.reset();
+            throw new IllegalArgumentException("signature");
+        }
+    }
+
+    private static Mac createMac(String clientKey) {
+        try {
+            SecretKeySpec signingKey = new SecretKeySpec(clientKey.getBytes("UTF-8"), SIGNATURE_METHOD);
+            Mac mac = Mac.getInstance(SIGNATURE_METHOD);
+            mac.init(signingKey);
+            return mac;
+        } catch (UnsupportedEncodingException | GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("signature");
+        }
+    }
+}
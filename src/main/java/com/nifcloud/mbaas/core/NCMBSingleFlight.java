@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCMBSingleFlight shares one network round trip between identical GET requests running at the same time.<br>
+ * The first request leads the call and sends the request. Requests started before it completes
+ * wait for the result of the leader instead of sending the same request again.<br>
+ * The call is removed when it completes, and every path where the leader stops without sending
+ * (rejection, discard, timeout) completes the call with an error so that no waiter is left.
+ * Each waiter receives its own exception instance.<br>
+ * When the leader is cancelled, the call is released instead and the waiters send the request by themselves,
+ * so cancelling one request does not cancel identical requests of other callers.
+ */
+class NCMBSingleFlight {
+
+    // 実行中の呼び出し
+    private static final ConcurrentHashMap<String, Call> sCalls = new ConcurrentHashMap<>();
+
+    /**
+     * Call of identical requests
+     */
+    static class Call {
+        private final String mKey;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final List<NCMBConnection> mWaiters = new ArrayList<>();
+        private boolean mCompleted = false;
+        private boolean mReleased = false;
+        private NCMBResponse mResponse;
+        private NCMBException mError;
+
+        Call(String key) {
+            mKey = key;
+        }
+
+        /**
+         * Receive the result when the call completes
+         *
+         * @param connection connection having the callback
+         * @return false if the call has already completed
+         */
+        synchronized boolean addWaiter(NCMBConnection connection) {
+            if (mCompleted) {
+                return false;
+            }
+            mWaiters.add(connection);
+            return true;
+        }
+
+        /**
+         * Stop waiting for the result
+         *
+         * @param connection connection added by addWaiter
+         * @return false if the call has already completed
+         */
+        synchronized boolean removeWaiter(NCMBConnection connection) {
+            return !mCompleted && mWaiters.remove(connection);
+        }
+
+        /**
+         * Wait for the result of the call
+         *
+         * @param timeout milliseconds
+         * @return response shared with other requests, or null if released by the cancelled leader
+         * @throws NCMBException error of the call, or timeout
+         */
+        NCMBResponse await(long timeout) throws NCMBException {
+            try {
+                if (!mDone.await(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new NCMBException(NCMBException.GENERIC_ERROR, "Request timed out.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NCMBException(e);
+            }
+            synchronized (this) {
+                if (mReleased) {
+                    return null;
+                }
+                if (mError != null) {
+                    throw copyOf(mError);
+                }
+                return mResponse;
+            }
+        }
+
+        /**
+         * Set the result of the call and notify waiting requests
+         *
+         * @param response response of the leader, or null
+         * @param error    error of the leader, or null
+         */
+        void complete(final NCMBResponse response, final NCMBException error) {
+            List<NCMBConnection> waiters;
+            synchronized (this) {
+                if (mCompleted) {
+                    return;
+                }
+                mResponse = response;
+                mError = error;
+                mCompleted = true;
+                waiters = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+            }
+            sCalls.remove(mKey, this);
+            mDone.countDown();
+            for (NCMBConnection waiter : waiters) {
+                waiter.deliverShared(response, error != null ? copyOf(error) : null);
+            }
+        }
+
+        /**
+         * Release the waiting requests without the result, when the leader has been cancelled.<br>
+         * Each waiting request is sent again by itself.
+         */
+        void release() {
+            List<NCMBConnection> waiters;
+            synchronized (this) {
+                if (mCompleted) {
+                    return;
+                }
+                mReleased = true;
+                mCompleted = true;
+                waiters = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+            }
+            sCalls.remove(mKey, this);
+            mDone.countDown();
+            for (NCMBConnection waiter : waiters) {
+                waiter.resend();
+            }
+        }
+    }
+
+    // 呼び出し毎に別の例外を渡す
+    static NCMBException copyOf(NCMBException error) {
+        NCMBException copy = new NCMBException(error.getCode(), error.getMessage());
+        if (error.getCause() != null) {
+            copy.initCause(error.getCause());
+        }
+        return copy;
+    }
+
+    /**
+     * Start the call, or join the running call with the same key
+     *
+     * @param call new call
+     * @return the given call if it leads, otherwise the running call
+     */
+    static Call start(Call call) {
+        Call running = sCalls.putIfAbsent(call.mKey, call);
+        return running != null ? running : call;
+    }
+
+    /**
+     * Create key identifying the request
+     *
+     * @param request request
+     * @return key, or null if the request can not be shared
+     */
+    static String createKey(NCMBRequest request) {
+        if (!NCMBRequest.HTTP_METHOD_GET.equals(request.getMethod())) {
+            return null;
+        }
+        //URLのクエリは作成時に並び替え済み
+        return request.getMethod() + " " + request.getUrl() + "\n"
+                + request.getApplicationKey() + "\n" + request.getSessionToken();
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NCMBTask is the result of an asynchronous request that can be composed with other tasks.<br>
+ * Dependent requests are chained with thenCompose, and independent requests are started together
+ * and joined with allOf or anyOf, instead of nesting callbacks.<br>
+ * Continuations and callbacks run on the thread which completes the task,
+ * which is the main thread for requests of the SDK.
+ * Do not call get on the main thread, because the task is completed on the main thread.
+ *
+ * @param <T> type of the result
+ */
+public class NCMBTask<T> {
+
+    /**
+     * Continuation starting the next task with the result of the task
+     *
+     * @param <T> type of the result
+     * @param <R> type of the result of the next task
+     */
+    public interface Continuation<T, R> {
+        /**
+         * Start the next task
+         *
+         * @param result result of the task
+         * @return next task
+         * @throws NCMBException exception completing the next task with error
+         */
+        NCMBTask<R> then(T result) throws NCMBException;
+    }
+
+    /**
+     * Callback executed when the task completes
+     *
+     * @param <T> type of the result
+     */
+    public interface Callback<T> {
+        /**
+         * Override this method with the code you want to run after the task completed
+         *
+         * @param result result of the task, or null if failed
+         * @param e      exception from NIFCLOUD mobile backend
+         */
+        void done(T result, NCMBException e);
+    }
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final List<Callback<? super T>> mCallbacks = new ArrayList<>();
+    private boolean mCompleted = false;
+    private boolean mCancelled = false;
+    private T mResult;
+    private NCMBException mError;
+    private NCMBRequestHandle mHandle;
+    // thenCompose等で作成元となったタスク
+    private List<NCMBTask<?>> mSources = Collections.emptyList();
+
+    NCMBTask() {
+    }
+
+    /**
+     * Create task already completed with the result
+     *
+     * @param result result
+     * @param <T>    type of the result
+     * @return completed task
+     */
+    public static <T> NCMBTask<T> forResult(T result) {
+        NCMBTask<T> task = new NCMBTask<>();
+        task.complete(result, null);
+        return task;
+    }
+
+    /**
+     * Create task already failed with the error
+     *
+     * @param error error
+     * @param <T>   type of the result
+     * @return failed task
+     */
+    public static <T> NCMBTask<T> forError(NCMBException error) {
+        NCMBTask<T> task = new NCMBTask<>();
+        task.complete(null, error);
+        return task;
+    }
+
+    /**
+     * Complete the task. Ignored if the task has already completed.
+     *
+     * @param result result, or null
+     * @param error  error, or null
+     * @return false if already completed
+     */
+    boolean complete(T result, NCMBException error) {
+        List<Callback<? super T>> callbacks;
+        synchronized (this) {
+            if (mCompleted) {
+                return false;
+            }
+            mCompleted = true;
+            mResult = error == null ? result : null;
+            mError = error;
+            callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+        }
+        mDone.countDown();
+        for (Callback<? super T> callback : callbacks) {
+            callback.done(mResult, mError);
+        }
+        return true;
+    }
+
+    /**
+     * Start scope of the requests completing the task. Must be paired with NCMBRequestHandle.end.<br>
+     * Each task has its own handle, so cancelling the task does not cancel other tasks started
+     * in the same scope, while cancelling the enclosing handle cancels the task.
+     *
+     * @return handle of the scope
+     */
+    NCMBRequestHandle begin() {
+        NCMBRequestHandle handle = NCMBRequestHandle.beginChild();
+        synchronized (this) {
+            mHandle = handle;
+        }
+        return handle;
+    }
+
+    /**
+     * Execute callback when the task completes.<br>
+     * If the task has already completed, the callback is executed immediately.
+     *
+     * @param callback callback
+     * @return this task
+     */
+    public NCMBTask<T> whenComplete(Callback<? super T> callback) {
+        synchronized (this) {
+            if (!mCompleted) {
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        callback.done(mResult, mError);
+        return this;
+    }
+
+    /**
+     * Start the next task with the result of this task.<br>
+     * If this task fails, the next task is not started and the returned task fails with the same error.
+     *
+     * @param continuation continuation starting the next task
+     * @param <R>          type of the result of the next task
+     * @return task completed with the result of the next task
+     */
+    public <R> NCMBTask<R> thenCompose(final Continuation<? super T, R> continuation) {
+        final NCMBTask<R> composed = new NCMBTask<>();
+        composed.mSources = Collections.<NCMBTask<?>>singletonList(this);
+        whenComplete(new Callback<T>() {
+            @Override
+            public void done(T result, NCMBException e) {
+                if (e != null) {
+                    composed.complete(null, e);
+                    return;
+                }
+                if (composed.isCancelled()) {
+                    return;
+                }
+                NCMBTask<R> next;
+                try {
+                    next = continuation.then(result);
+                } catch (NCMBException error) {
+                    composed.complete(null, error);
+                    return;
+                } catch (RuntimeException error) {
+                    //他のコールバックを止めずに、合成したタスクをエラーで完了する
+                    composed.complete(null, new NCMBException(error));
+                    return;
+                }
+                if (next == null) {
+                    composed.complete(null, null);
+                    return;
+                }
+                synchronized (composed) {
+                    composed.mSources = Collections.<NCMBTask<?>>singletonList(next);
+                }
+                next.whenComplete(new Callback<R>() {
+                    @Override
+                    public void done(R nextResult, NCMBException nextError) {
+                        composed.complete(nextResult, nextError);
+                    }
+                });
+            }
+        });
+        return composed;
+    }
+
+    /**
+     * Create task completed when all the tasks complete.<br>
+     * The task fails with the first error, without waiting for the other tasks.
+     *
+     * @param tasks tasks
+     * @param <T>   type of the results
+     * @return task completed with the results in the order of the tasks
+     */
+    public static <T> NCMBTask<List<T>> allOf(Collection<? extends NCMBTask<? extends T>> tasks) {
+        final NCMBTask<List<T>> all = new NCMBTask<>();
+        final List<NCMBTask<? extends T>> sources = new ArrayList<>(tasks);
+        all.mSources = new ArrayList<NCMBTask<?>>(sources);
+        if (sources.isEmpty()) {
+            all.complete(new ArrayList<T>(), null);
+            return all;
+        }
+        final AtomicInteger remaining = new AtomicInteger(sources.size());
+        for (NCMBTask<? extends T> task : sources) {
+            task.whenComplete(new Callback<T>() {
+                @Override
+                public void done(T result, NCMBException e) {
+                    if (e != null) {
+                        all.complete(null, e);
+                    } else if (remaining.decrementAndGet() == 0) {
+                        List<T> results = new ArrayList<>(sources.size());
+                        for (NCMBTask<? extends T> source : sources) {
+                            results.add(source.getResult());
+                        }
+                        all.complete(results, null);
+                    }
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Create task completed when all the tasks complete
+     *
+     * @param tasks tasks
+     * @return task completed with the results in the order of the tasks
+     */
+    public static NCMBTask<List<Object>> allOf(NCMBTask<?>... tasks) {
+        return NCMBTask.<Object>allOf(Arrays.<NCMBTask<?>>asList(tasks));
+    }
+
+    /**
+     * Create task completed when any of the tasks completes, with its result or error
+     *
+     * @param tasks tasks
+     * @param <T>   type of the results
+     * @return task completed with the first completed task
+     */
+    public static <T> NCMBTask<T> anyOf(Collection<? extends NCMBTask<? extends T>> tasks) {
+        final NCMBTask<T> any = new NCMBTask<>();
+        any.mSources = new ArrayList<NCMBTask<?>>(tasks);
+        if (tasks.isEmpty()) {
+            any.complete(null, new NCMBException(NCMBException.GENERIC_ERROR, "No task is given."));
+            return any;
+        }
+        for (NCMBTask<? extends T> task : tasks) {
+            task.whenComplete(new Callback<T>() {
+                @Override
+                public void done(T result, NCMBException e) {
+                    any.complete(result, e);
+                }
+            });
+        }
+        return any;
+    }
+
+    /**
+     * Create task completed when any of the tasks completes, with its result or error
+     *
+     * @param tasks tasks
+     * @return task completed with the first completed task
+     */
+    public static NCMBTask<Object> anyOf(NCMBTask<?>... tasks) {
+        return NCMBTask.<Object>anyOf(Arrays.<NCMBTask<?>>asList(tasks));
+    }
+
+    /**
+     * Cancel the requests of the task and the tasks it depends on.<br>
+     * The task fails with NCMBException.GENERIC_ERROR.
+     *
+     * @return false if the task has already completed
+     */
+    public boolean cancel() {
+        NCMBRequestHandle handle;
+        List<NCMBTask<?>> sources;
+        synchronized (this) {
+            if (mCompleted) {
+                return false;
+            }
+            mCancelled = true;
+            handle = mHandle;
+            sources = new ArrayList<>(mSources);
+        }
+        if (handle != null) {
+            handle.cancel();
+        }
+        for (NCMBTask<?> source : sources) {
+            source.cancel();
+        }
+        complete(null, new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+        return true;
+    }
+
+    /**
+     * Wait until the task completes and get the result.<br>
+     * Must not be called on the main thread.
+     *
+     * @return result of the task
+     * @throws NCMBException error of the task, or interruption
+     */
+    public T get() throws NCMBException {
+        try {
+            mDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NCMBException(e);
+        }
+        return getResultOrThrow();
+    }
+
+    /**
+     * Wait until the task completes and get the result.<br>
+     * Must not be called on the main thread.
+     *
+     * @param timeout milliseconds
+     * @return result of the task
+     * @throws NCMBException error of the task, timeout or interruption
+     */
+    public T get(long timeout) throws NCMBException {
+        try {
+            if (!mDone.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new NCMBException(NCMBException.GENERIC_ERROR, "Task timed out.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NCMBException(e);
+        }
+        return getResultOrThrow();
+    }
+
+    /**
+     * Get whether the task has completed
+     *
+     * @return true if completed with result or error
+     */
+    public synchronized boolean isCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * Get whether the task has been cancelled
+     *
+     * @return true if cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Get the result of the completed task
+     *
+     * @return result, or null if not completed or failed
+     */
+    public synchronized T getResult() {
+        return mResult;
+    }
+
+    /**
+     * Get the error of the completed task
+     *
+     * @return error, or null if not completed or succeeded
+     */
+    public synchronized NCMBException getError() {
+        return mError;
+    }
+
+    private synchronized T getResultOrThrow() throws NCMBException {
+        if (mError != null) {
+            throw mError;
+        }
+        return mResult;
+    }
+}
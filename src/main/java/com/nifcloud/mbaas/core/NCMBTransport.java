@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * NCMBTransport opens the HTTP connections used to communicate with NIFCLOUD mobile backend.<br>
+ * The transport is selected when calling NCMB.initialize.
+ * Implement this interface to use another HTTP client,
+ * for example a client providing an HttpURLConnection backed by HTTP/2.
+ */
+public interface NCMBTransport {
+
+    /**
+     * Open connection to the given URL
+     *
+     * @param url request URL
+     * @return connection not connected yet
+     * @throws IOException exception while opening connection
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+
+    /**
+     * Release connection after the response has been read or the request has failed
+     *
+     * @param connection connection opened by this transport
+     */
+    void releaseConnection(HttpURLConnection connection);
+}
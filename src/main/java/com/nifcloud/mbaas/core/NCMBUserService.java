@@ -22,6 +22,7 @@ import org.json.JSONObject;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -192,6 +193,26 @@ public class NCMBUserService extends NCMBService {
         }
     }
 
+    /**
+     * Register new user by name in background
+     *
+     * @param userName user name
+     * @param password password
+     * @return task completed with the registered user
+     */
+    public NCMBTask<NCMBUser> registerByNameTask(String userName, String password) {
+        final NCMBTask<NCMBUser> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            registerByNameInBackground(userName, password, new TaskLoginCallback(task));
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Register new user by name in background
      *
@@ -731,6 +752,30 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Get user entity from NIFCLOUD mobile backend in background
+     *
+     * @param userId user id
+     * @return task completed with the fetched user
+     */
+    public NCMBTask<NCMBUser> fetchUserTask(String userId) {
+        final NCMBTask<NCMBUser> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            fetchUserInBackground(userId, new FetchCallback<NCMBUser>() {
+                @Override
+                public void done(NCMBUser user, NCMBException e) {
+                    task.complete(user, e);
+                }
+            });
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Set up to update user information
      *
@@ -817,6 +862,26 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Update user information in background
+     *
+     * @param userId user id
+     * @param params update values
+     * @return task completed with the result of updating user
+     */
+    public NCMBTask<JSONObject> updateUserTask(String userId, JSONObject params) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            updateUserInBackground(userId, params, new TaskExecuteCallback(task));
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Setup params to login by user name
      *
@@ -903,6 +968,26 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Login by user name in background
+     *
+     * @param userName user name
+     * @param password password
+     * @return task completed with the login user
+     */
+    public NCMBTask<NCMBUser> loginByNameTask(String userName, String password) {
+        final NCMBTask<NCMBUser> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            loginByNameInBackground(userName, password, new TaskLoginCallback(task));
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Setup params to login by mail address
      *
@@ -994,6 +1079,26 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Login by mail address in background
+     *
+     * @param mailAddress mail address
+     * @param password    password
+     * @return task completed with the login user
+     */
+    public NCMBTask<NCMBUser> loginByMailTask(String mailAddress, String password) {
+        final NCMBTask<NCMBUser> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            loginByMailInBackground(mailAddress, password, new TaskLoginCallback(task));
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * process after login
      *
@@ -1012,6 +1117,8 @@ public class NCMBUserService extends NCMBService {
             mContext.userId = userId;
             // create currentUser. empty JSONObject for POST
             writeCurrentUser(new JSONObject(), result);
+            //別のユーザーの検索結果を使わない
+            NCMBQueryCache.clear();
 
             return new NCMBUser(result);
         } catch (JSONException e) {
@@ -1091,6 +1198,25 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Delete user by given id in background
+     *
+     * @param userId user id
+     * @return task completed with the result of deleting user
+     */
+    public NCMBTask<JSONObject> deleteUserTask(String userId) {
+        final NCMBTask<JSONObject> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            deleteUserInBackground(userId, new TaskExecuteCallback(task));
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Setup parameters to logout
      *
@@ -1167,6 +1293,29 @@ public class NCMBUserService extends NCMBService {
         });
     }
 
+    /**
+     * Logout from session in background
+     *
+     * @return task completed with null after logout
+     */
+    public NCMBTask<Void> logoutTask() {
+        final NCMBTask<Void> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            logoutInBackground(new DoneCallback() {
+                @Override
+                public void done(NCMBException e) {
+                    task.complete(null, e);
+                }
+            });
+        } catch (NCMBException e) {
+            task.complete(null, e);
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
     /**
      * Setup parameters to search users
      *
@@ -1246,17 +1395,17 @@ public class NCMBUserService extends NCMBService {
             RequestParams reqParams = searchUserParams(conditions);
 
             sendRequestAsync(reqParams, new UserServiceCallback(this, callback) {
+                ArrayList<NCMBUser> mResults = null;
+
                 @Override
-                public void handleResponse(NCMBResponse response) {
+                public void prepareResponse(NCMBResponse response) throws NCMBException {
+                    mResults = getUserService().searchUserPostProcess(response.responseData);
+                }
 
-                    ArrayList<NCMBUser> users = null;
-                    try {
-                        users = getUserService().searchUserPostProcess(response.responseData);
-                    } catch (NCMBException e) {
-                        callback.done(null, e);
-                    }
+                @Override
+                public void handleResponse(NCMBResponse response) {
                     SearchUserCallback callback = (SearchUserCallback) mCallback;
-                    callback.done(users, null);
+                    callback.done(mResults, null);
                 }
 
                 @Override
@@ -1270,7 +1419,63 @@ public class NCMBUserService extends NCMBService {
                 callback.done(null, e);
             }
         }
+    }
+
+    /**
+     * Search users in background
+     *
+     * @param conditions search conditions
+     * @return task completed with the list of users
+     */
+    public NCMBTask<List<NCMBUser>> searchUserTask(JSONObject conditions) {
+        final NCMBTask<List<NCMBUser>> task = new NCMBTask<>();
+        NCMBRequestHandle handle = task.begin();
+        try {
+            searchUserInBackground(conditions, new SearchUserCallback() {
+                @Override
+                public void done(ArrayList<NCMBUser> users, NCMBException e) {
+                    task.complete(users, e);
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        return task;
+    }
+
+    /**
+     * Search users and pass each found user to the callback while the response is read.<br>
+     * Found users are not kept in a list, so memory usage does not grow with the number of results
+     *
+     * @param conditions search conditions, if no condition set to null
+     * @param callback   callback receiving each found user
+     * @return number of found users
+     * @throws NCMBException exception from NIFCLOUD mobile backend
+     */
+    public int searchUserEach(JSONObject conditions, SearchEachCallback<NCMBUser> callback) throws NCMBException {
+        RequestParams reqParams = searchUserParams(conditions);
+        return searchEach(reqParams.url, reqParams.query, createResultReader(callback));
+    }
+
+    /**
+     * Search users in background and pass each found user to the callback while the response is read
+     *
+     * @param conditions search conditions, if no condition set to null
+     * @param callback   callback receiving each found user
+     */
+    public void searchUserEachInBackground(JSONObject conditions, SearchEachCallback<NCMBUser> callback) {
+        RequestParams reqParams = searchUserParams(conditions);
+        searchEachInBackground(reqParams.url, reqParams.query, createResultReader(callback));
+    }
 
+    // 検索結果をNCMBUserに変換しながら読み込む
+    private NCMBResultReader<NCMBUser> createResultReader(SearchEachCallback<NCMBUser> callback) {
+        return new NCMBResultReader<NCMBUser>(callback) {
+            @Override
+            NCMBUser createItem(JSONObject item) throws NCMBException {
+                return new NCMBUser(item);
+            }
+        };
     }
 
     /**
@@ -1314,6 +1519,9 @@ public class NCMBUserService extends NCMBService {
         NCMBUser.currentUser = null;
         NCMB.getCurrentContext().sessionToken = null;
         NCMB.getCurrentContext().userId = null;
+        //ログアウトしたユーザーの検索結果を破棄する
+        NCMBQueryCache.clear();
+        NCMBQuerySnapshot.deleteAll();
     }
 
     /**
@@ -1334,4 +1542,32 @@ public class NCMBUserService extends NCMBService {
             throw new NCMBException(NCMBException.NOT_EFFICIENT_VALUE, error.getMessage());
         }
     }
+
+    // タスクを完了するログイン用コールバック
+    private static class TaskLoginCallback implements LoginCallback {
+        private final NCMBTask<NCMBUser> mTask;
+
+        TaskLoginCallback(NCMBTask<NCMBUser> task) {
+            mTask = task;
+        }
+
+        @Override
+        public void done(NCMBUser user, NCMBException e) {
+            mTask.complete(user, e);
+        }
+    }
+
+    // タスクを完了する更新用コールバック
+    private static class TaskExecuteCallback implements ExecuteServiceCallback {
+        private final NCMBTask<JSONObject> mTask;
+
+        TaskExecuteCallback(NCMBTask<JSONObject> task) {
+            mTask = task;
+        }
+
+        @Override
+        public void done(JSONObject json, NCMBException e) {
+            mTask.complete(json, e);
+        }
+    }
 }
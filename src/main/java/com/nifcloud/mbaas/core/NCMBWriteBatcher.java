@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCMBWriteBatcher collects saveInBackground and deleteObjectInBackground of NCMBObject
+ * issued within the batching window, and sends them as one request of batch api.<br>
+ * Only objects of NCMBObject class itself are collected, because batch api sends them to classes/className
+ * and subclasses such as NCMBInstallation and NCMBUser use other paths.<br>
+ * Writes waiting for the window are kept only in memory and are lost when the process is killed.<br>
+ * The result of each request is passed to the callback of the method that issued it.
+ * Writes waiting for the window are dropped when their handle is cancelled,
+ * but a batch request already sent is shared by all writes in it and is not cancelled.
+ */
+class NCMBWriteBatcher {
+
+    // まとめて送信するまでの待機時間(ミリ秒)。0以下は無効
+    static volatile long sWindow = 0;
+
+    private static NCMBWriteBatcher sInstance;
+
+    private static class Entry {
+        final JSONObject request;
+        final ExecuteServiceCallback callback;
+        final NCMBRequestHandle handle;
+
+        Entry(JSONObject request, ExecuteServiceCallback callback, NCMBRequestHandle handle) {
+            this.request = request;
+            this.callback = callback;
+            this.handle = handle;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private List<Entry> mPending = new ArrayList<>();
+    private ScheduledFuture<?> mFlush = null;
+    private ScheduledExecutorService mScheduler = null;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Get shared batcher
+     *
+     * @return batcher
+     */
+    static synchronized NCMBWriteBatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new NCMBWriteBatcher();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Check whether background writes of the object are collected
+     *
+     * @param object object to save or delete
+     * @return true if the batching window is set and the object is not a subclass
+     */
+    static boolean isEnabled(NCMBObject object) {
+        //サブクラスはclasses以外のパスで保存するためまとめない
+        return sWindow > 0 && object.getClass() == NCMBObject.class;
+    }
+
+    /**
+     * Add saving or deleting the object to the next batch request
+     *
+     * @param object   object to save or delete
+     * @param delete   true to delete the object
+     * @param callback callback receiving the result of the request
+     */
+    void add(NCMBObject object, boolean delete, ExecuteServiceCallback callback) {
+        JSONObject request;
+        try {
+            NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
+            request = NCMBObjectBatch.createRequest(objService, object, delete);
+        } catch (NCMBException e) {
+            if (callback != null) {
+                callback.done(null, e);
+            }
+            return;
+        }
+        Entry entry = new Entry(request, callback, NCMBRequestHandle.current());
+        List<Entry> full = null;
+        synchronized (mLock) {
+            mPending.add(entry);
+            if (mPending.size() >= NCMBObjectService.BATCH_MAX_REQUESTS) {
+                //上限に達した場合は待たずに送信する
+                full = take();
+            } else if (mFlush == null) {
+                mFlush = scheduler().schedule(mFlushTask, Math.max(sWindow, 0), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Send the collected writes now
+     */
+    void flush() {
+        List<Entry> entries;
+        synchronized (mLock) {
+            entries = take();
+        }
+        if (!entries.isEmpty()) {
+            send(entries);
+        }
+    }
+
+    // mLockを取得して呼び出すこと
+    private List<Entry> take() {
+        if (mFlush != null) {
+            mFlush.cancel(false);
+            mFlush = null;
+        }
+        List<Entry> entries = mPending;
+        mPending = new ArrayList<>();
+        return entries;
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (mScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NCMB Write Batcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            mScheduler = scheduler;
+        }
+        return mScheduler;
+    }
+
+    private void send(List<Entry> entries) {
+        JSONArray requests = new JSONArray();
+        final List<Entry> sent = new ArrayList<>();
+        for (final Entry entry : entries) {
+            if (entry.handle != null && entry.handle.isCancelled()) {
+                NCMBConnection.runOnCallbackThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(entry, null, new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+                    }
+                });
+                continue;
+            }
+            requests.put(entry.request);
+            sent.add(entry);
+        }
+        if (sent.isEmpty()) {
+            return;
+        }
+        //バッチリクエストは各書き込みのハンドルに属さない
+        NCMBRequestHandle handle = new NCMBRequestHandle();
+        NCMBRequestHandle.enter(handle);
+        try {
+            NCMBObjectService objService = new NCMBObjectService(NCMB.getCurrentContext());
+            objService.batchInBackground(requests, new ExecuteServiceCallback() {
+                @Override
+                public void done(JSONObject jsonData, NCMBException e) {
+                    JSONArray results = e == null ? jsonData.optJSONArray("results") : null;
+                    for (int i = 0; i < sent.size(); i++) {
+                        if (e != null) {
+                            deliver(sent.get(i), null, e);
+                            continue;
+                        }
+                        JSONObject result = results.optJSONObject(i);
+                        if (result != null && result.has("success")) {
+                            JSONObject success = result.optJSONObject("success");
+                            deliver(sent.get(i), success != null ? success : new JSONObject(), null);
+                        } else {
+                            deliver(sent.get(i), null, NCMBObjectService.getBatchError(result));
+                        }
+                    }
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+    }
+
+    private static void deliver(Entry entry, JSONObject data, NCMBException e) {
+        if (entry.callback == null) {
+            return;
+        }
+        //書き込みを発行したハンドルで実行し、続くリクエストを同じハンドルに含める
+        if (entry.handle == null) {
+            entry.callback.done(data, e);
+            return;
+        }
+        NCMBRequestHandle.enter(entry.handle);
+        try {
+            entry.callback.done(data, e);
+        } finally {
+            NCMBRequestHandle.end(entry.handle);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+/**
+ * Interface for callback receiving search results one by one
+ */
+public interface SearchEachCallback<T extends NCMBBase> extends CallbackBase {
+    /**
+     * Override this method with the code you want to run for each found item.<br>
+     * Called on worker thread while the response is read, before the next item is parsed.
+     * When response validation is enabled, items are kept in memory and called after the signature is checked
+     * @param item found item
+     */
+    void item(T item);
+
+    /**
+     * Override this method with the code you want to run after all items are received.<br>
+     * Called only by the methods running in background
+     * @param count number of received items
+     * @param e exception sdk internal or NIFCLOUD mobile backend
+     */
+    void done(int count, NCMBException e);
+}
@@ -17,6 +17,7 @@ package com.nifcloud.mbaas.core;
 
 import org.junit.runners.model.InitializationError;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.TestLifecycle;
 import org.robolectric.internal.bytecode.InstrumentationConfiguration;
 import org.robolectric.internal.bytecode.ShadowMap;
 
@@ -35,6 +36,12 @@ public class CustomRobolectricTestRunner extends RobolectricTestRunner {
                 .build();
     }
 
+    @Override
+    protected Class<? extends TestLifecycle> getTestLifecycleClass() {
+        //非同期のリクエストを呼び出し元のスレッドで実行する
+        return NCMBTestLifecycle.class;
+    }
+
     public InstrumentationConfiguration createClassLoaderConfig() {
         return InstrumentationConfiguration.newBuilder()
                 //モック対象のクラスを登録する
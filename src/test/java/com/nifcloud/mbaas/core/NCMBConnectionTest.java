@@ -15,7 +15,10 @@
  */
 package com.nifcloud.mbaas.core;
 
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
 
 import junit.framework.Assert;
 
@@ -29,6 +32,22 @@ import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import okio.Buffer;
 
 /**
  * 主に通信を行う自動化テストクラス
@@ -322,6 +341,146 @@ public class NCMBConnectionTest {
 
     }
 
+    /**
+     * - 内容：NCMBPooledTransportを指定してGET通信が成功することを確認する
+     * - 結果：連続したリクエストでステータスコード200及びresponseDataが返却されること
+     */
+    @Test
+    public void connectionGetMethodWithPooledTransport() throws Exception {
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "appKey",
+                "cliKey",
+                mServer.getUrl("/").toString(),
+                null,
+                null,
+                new NCMBPooledTransport());
+        String url = mServer.getUrl("/2013-09-01/classes/TestClass/7FrmPTBKSNtVjajm").toString();
+
+        for (int i = 0; i < 2; i++) {
+            NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, "sessionToken", "appKey", "clientKey");
+            NCMBResponse response = new NCMBConnection(request).sendRequest();
+
+            Assert.assertEquals(200, response.statusCode);
+            Assert.assertEquals("7FrmPTBKSNtVjajm", response.responseData.getString("objectId"));
+        }
+    }
+
+    /**
+     * - 内容：NCMBPooledTransportでHTTPSのコネクションを作成する
+     * - 結果：指定しない場合はHttpsURLConnectionの既定のファクトリ、指定した場合は指定したファクトリが使われること
+     */
+    @Test
+    public void pooledTransportSocketFactory() throws Exception {
+        URL url = new URL("https://localhost/2013-09-01/classes/TestClass");
+        HttpsURLConnection connection = (HttpsURLConnection) new NCMBPooledTransport().openConnection(url);
+        Assert.assertSame(HttpsURLConnection.getDefaultSSLSocketFactory(), connection.getSSLSocketFactory());
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        SSLSocketFactory factory = sslContext.getSocketFactory();
+        connection = (HttpsURLConnection) new NCMBPooledTransport(factory).openConnection(url);
+        Assert.assertSame(factory, connection.getSSLSocketFactory());
+    }
+
+    /**
+     * - 内容：コネクション再利用を有効にして連続したGET通信を行う
+     * - 結果：全てのコネクションがキープアライブとして返却されたと計上されること
+     */
+    @Test
+    public void connectionReuseCountsKeptAliveRelease() throws Exception {
+        NCMB.enableConnectionReuse(true);
+        NCMBConnectionStats.reset();
+        String url = mServer.getUrl("/2013-09-01/classes/TestClass/7FrmPTBKSNtVjajm").toString();
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, "sessionToken", "appKey", "clientKey");
+                NCMBResponse response = new NCMBConnection(request).sendRequest();
+                Assert.assertEquals(200, response.statusCode);
+            }
+        } finally {
+            NCMB.enableConnectionReuse(false);
+        }
+
+        Assert.assertEquals(3, NCMBConnectionStats.getKeptAliveReleaseCount());
+        Assert.assertEquals(0, NCMBConnectionStats.getDisconnectCount());
+    }
+
+    /**
+     * - 内容：gzip圧縮されたレスポンスを受信する
+     * - 結果：展開されたレスポンスが取得でき、圧縮前後のバイト数が計上されること
+     */
+    @Test
+    public void gzipResponseIsDecoded() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            value.append("value");
+        }
+        byte[] json = ("{\"objectId\":\"7FrmPTBKSNtVjajm\",\"key\":\"" + value + "\"}").getBytes("UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(json);
+        gzip.close();
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Content-Encoding", "gzip")
+                .setBody(new Buffer().write(compressed.toByteArray())));
+        server.start();
+        NCMBConnectionStats.reset();
+
+        String url = server.getUrl("/2013-09-01/classes/TestClass/7FrmPTBKSNtVjajm").toString();
+        NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, "sessionToken", "appKey", "clientKey");
+        NCMBResponse response = new NCMBConnection(request).sendRequest();
+
+        Assert.assertEquals("7FrmPTBKSNtVjajm", response.responseData.getString("objectId"));
+        Assert.assertEquals("gzip", server.takeRequest().getHeader("Accept-Encoding"));
+        Assert.assertEquals(compressed.size(), NCMBConnectionStats.getResponseBytesReceived());
+        Assert.assertEquals(json.length, NCMBConnectionStats.getResponseBytes());
+        server.shutdown();
+    }
+
+    /**
+     * - 内容：閾値以上のjsonリクエストボディをgzip圧縮して送信する
+     * - 結果：Content-Encodingが設定され、展開すると元のボディになること
+     */
+    @Test
+    public void gzipRequestBodyOverThreshold() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse()
+                .setResponseCode(201)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"objectId\":\"7FrmPTBKSNtVjajm\"}"));
+        server.start();
+        NCMB.setRequestCompressionThreshold(10);
+        NCMBConnectionStats.reset();
+
+        String content = "{\"key\":\"valuevaluevaluevaluevalue\"}";
+        try {
+            String url = server.getUrl("/2013-09-01/classes/TestClass").toString();
+            NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_POST, content, null, "sessionToken", "appKey", "clientKey");
+            NCMBConnection connection = new NCMBConnection(request);
+            connection.setRequestCompression(true);
+            connection.sendRequest();
+        } finally {
+            NCMB.setRequestCompressionThreshold(0);
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        Assert.assertEquals("gzip", recorded.getHeader("Content-Encoding"));
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(recorded.getBody().readByteArray()));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            body.write(buffer, 0, length);
+        }
+        Assert.assertEquals(content, body.toString("UTF-8"));
+        Assert.assertEquals(content.length(), NCMBConnectionStats.getRequestBytes());
+        server.shutdown();
+    }
+
     /**
      * - 内容：timeoutの設定が出来るかを確認する
      * - 結果：タイムアウト時間5000ミリ秒が取得出来ること
@@ -333,4 +492,58 @@ public class NCMBConnectionTest {
         Assert.assertEquals(5000, NCMB.getTimeout());
     }
 
+
+    /**
+     * - 内容：同時に実行された同じGETリクエストを確認する
+     * - 結果：通信は1回のみで、それぞれ別のレスポンスが返却されること
+     */
+    @Test
+    public void identicalGetRequestsAreCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await();
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setBody("{\"objectId\":\"7FrmPTBKSNtVjajm\"}");
+            }
+        });
+        server.start();
+        NCMBConnectionStats.reset();
+        NCMB.enableRequestCoalescing(true);
+
+        final String url = server.getUrl("/2013-09-01/classes/TestClass/7FrmPTBKSNtVjajm").toString();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Callable<NCMBResponse> fetch = new Callable<NCMBResponse>() {
+            @Override
+            public NCMBResponse call() throws Exception {
+                NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, "sessionToken", "appKey", "clientKey");
+                return new NCMBConnection(request).sendRequest();
+            }
+        };
+        NCMBResponse firstResponse;
+        NCMBResponse secondResponse;
+        try {
+            Future<NCMBResponse> first = executor.submit(fetch);
+            Future<NCMBResponse> second = executor.submit(fetch);
+            // 後続のリクエストが待機してからレスポンスを返す
+            while (NCMBConnectionStats.getCoalescedRequestCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            firstResponse = first.get();
+            secondResponse = second.get();
+        } finally {
+            NCMB.enableRequestCoalescing(false);
+        }
+        Assert.assertEquals("7FrmPTBKSNtVjajm", firstResponse.responseData.getString("objectId"));
+        Assert.assertEquals("7FrmPTBKSNtVjajm", secondResponse.responseData.getString("objectId"));
+        Assert.assertNotSame(firstResponse.responseData, secondResponse.responseData);
+        Assert.assertEquals(1, server.getRequestCount());
+        executor.shutdown();
+        server.shutdown();
+    }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NCMBEventuallyQueue自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBEventuallyQueueTest {
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setup() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(NCMBDispatcher.dispatcher);
+        mServer.start();
+
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "appKey",
+                "cliKey",
+                mServer.getUrl("/").toString(),
+                null);
+        Robolectric.getForegroundThreadScheduler().pause();
+    }
+
+    @After
+    public void teardown() {
+        NCMBEventuallyQueue.setMaxJournalBytes(NCMBEventuallyQueue.DEFAULT_MAX_JOURNAL_BYTES);
+    }
+
+    // キューのスレッドの処理が終わるまで待つ
+    private void waitQueue() throws Exception {
+        NCMBEventuallyQueue.getInstance().mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    private NCMBEventuallyQueue.Operation createOperation(long seq, String kind, String objectId, String body)
+            throws Exception {
+        return new NCMBEventuallyQueue.Operation(seq, kind, "TestClass", objectId, null,
+                body == null ? null : new JSONObject(body));
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：saveEventuallyでオブジェクトを保存する
+     * - 結果：保存された結果がオブジェクトに反映され、ジャーナルが削除されること
+     */
+    @Test
+    public void save_eventually() throws Exception {
+        final NCMBException[] error = {new NCMBException(NCMBException.GENERIC_ERROR, "not called")};
+        long flushed = NCMBEventuallyQueue.getFlushedCount();
+        NCMBObject obj = new NCMBObject("SaveObjectTest");
+        obj.put("key", "value");
+        obj.saveEventually(new DoneCallback() {
+            @Override
+            public void done(NCMBException e) {
+                error[0] = e;
+            }
+        });
+        Assert.assertEquals(0, obj.mUpdateKeys.size());
+
+        waitQueue();
+
+        Assert.assertNull(error[0]);
+        Assert.assertEquals("7FrmPTBKSNtVjajm9", obj.getObjectId());
+        Assert.assertNull(obj.mLocalId);
+        Assert.assertEquals(flushed + 1, NCMBEventuallyQueue.getFlushedCount());
+        Assert.assertEquals(0, NCMBEventuallyQueue.getPendingCount());
+        Assert.assertFalse(NCMBLocalFile.create(NCMBEventuallyQueue.JOURNAL_FILE_NAME).exists());
+    }
+
+    /**
+     * - 内容：登録されていないオブジェクトをdeleteEventuallyで削除する
+     * - 結果：objectIdが必要なエラーがコールバックに渡されること
+     */
+    @Test
+    public void delete_eventually_without_objectId() throws Exception {
+        final NCMBException[] error = {null};
+        new NCMBObject("TestClass").deleteEventually(new DoneCallback() {
+            @Override
+            public void done(NCMBException e) {
+                error[0] = e;
+            }
+        });
+        ShadowLooper.runUiThreadTasks();
+
+        Assert.assertNotNull(error[0]);
+        Assert.assertEquals(NCMBException.REQUIRED, error[0].getCode());
+    }
+
+    /**
+     * - 内容：同じオブジェクトへの更新を結合する
+     * - 結果：値は後の更新で上書きされ、Incrementは合算されること
+     */
+    @Test
+    public void merge_save() throws Exception {
+        NCMBEventuallyQueue.Operation last = createOperation(1, NCMBEventuallyQueue.KIND_SAVE, "objectId",
+                "{\"key\":\"value\",\"count\":{\"__op\":\"Increment\",\"amount\":1}}");
+        NCMBEventuallyQueue.Operation next = createOperation(2, NCMBEventuallyQueue.KIND_SAVE, "objectId",
+                "{\"key\":\"newValue\",\"count\":{\"__op\":\"Increment\",\"amount\":2},\"other\":1}");
+
+        Assert.assertTrue(NCMBEventuallyQueue.merge(last, next));
+        Assert.assertEquals(2, last.seqs.size());
+        Assert.assertEquals("newValue", last.body.getString("key"));
+        Assert.assertEquals(3, last.body.getJSONObject("count").getLong("amount"));
+        Assert.assertEquals(1, last.body.getInt("other"));
+    }
+
+    /**
+     * - 内容：同じキーに異なる操作を行う更新を結合する
+     * - 結果：結合されず、前の更新が変更されないこと
+     */
+    @Test
+    public void merge_save_conflict() throws Exception {
+        NCMBEventuallyQueue.Operation last = createOperation(1, NCMBEventuallyQueue.KIND_SAVE, "objectId",
+                "{\"key\":\"value\",\"list\":{\"__op\":\"Add\",\"objects\":[1]}}");
+        NCMBEventuallyQueue.Operation next = createOperation(2, NCMBEventuallyQueue.KIND_SAVE, "objectId",
+                "{\"key\":\"newValue\",\"list\":{\"__op\":\"Remove\",\"objects\":[1]}}");
+
+        Assert.assertFalse(NCMBEventuallyQueue.merge(last, next));
+        Assert.assertEquals(1, last.seqs.size());
+        Assert.assertEquals("value", last.body.getString("key"));
+    }
+
+    /**
+     * - 内容：更新の後に削除を行う
+     * - 結果：削除のみが送信されること
+     */
+    @Test
+    public void merge_save_delete() throws Exception {
+        NCMBEventuallyQueue.Operation last = createOperation(1, NCMBEventuallyQueue.KIND_SAVE, "objectId",
+                "{\"key\":\"value\"}");
+        NCMBEventuallyQueue.Operation next = createOperation(2, NCMBEventuallyQueue.KIND_DELETE, "objectId", null);
+
+        Assert.assertTrue(NCMBEventuallyQueue.merge(last, next));
+        Assert.assertEquals(NCMBEventuallyQueue.KIND_DELETE, last.kind);
+        Assert.assertNull(last.body);
+    }
+
+    /**
+     * - 内容：登録前のオブジェクトを削除する
+     * - 結果：登録と削除がどちらも取り消されること
+     */
+    @Test
+    public void merge_create_delete() throws Exception {
+        NCMBEventuallyQueue.Operation last = new NCMBEventuallyQueue.Operation(1, NCMBEventuallyQueue.KIND_SAVE,
+                "TestClass", null, "localId", new JSONObject("{\"key\":\"value\"}"));
+        NCMBEventuallyQueue.Operation next = new NCMBEventuallyQueue.Operation(2, NCMBEventuallyQueue.KIND_DELETE,
+                "TestClass", null, "localId", null);
+
+        Assert.assertTrue(NCMBEventuallyQueue.merge(last, next));
+        Assert.assertNull(last.kind);
+    }
+
+    /**
+     * - 内容：saveEventuallyで送信前のオブジェクトをdeleteEventuallyで削除し、再度saveEventuallyで保存する
+     * - 結果：削除で値と登録待ちの識別子が消され、再度の保存は新しいオブジェクトとして登録されること
+     */
+    @Test
+    public void save_delete_save() throws Exception {
+        //最初の登録は一時的なエラーにして送信待ちにする
+        final AtomicInteger count = new AtomicInteger();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (count.getAndIncrement() == 0) {
+                    return new MockResponse().setResponseCode(400)
+                            .setHeader("Content-Type", "application/json")
+                            .setBody("{\"code\":\"E000001\",\"error\":\"error\"}");
+                }
+                return new MockResponse().setResponseCode(201)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody("{\"objectId\":\"7FrmPTBKSNtVjajm9\",\"createDate\":\"2014-06-03T11:28:30.348Z\"}");
+            }
+        });
+        final NCMBException[] error = {new NCMBException(NCMBException.GENERIC_ERROR, "not called")};
+        NCMBObject obj = new NCMBObject("SaveObjectTest");
+        obj.put("key", "value");
+        obj.saveEventually();
+        String localId = obj.mLocalId;
+        waitQueue();
+        obj.deleteEventually(new DoneCallback() {
+            @Override
+            public void done(NCMBException e) {
+                error[0] = e;
+            }
+        });
+        waitQueue();
+
+        Assert.assertNull(error[0]);
+        Assert.assertNull(obj.mLocalId);
+        Assert.assertFalse(obj.containsKey("key"));
+        Assert.assertEquals(0, NCMBEventuallyQueue.getPendingCount());
+
+        obj.put("key2", "value2");
+        obj.saveEventually();
+        Assert.assertNotNull(obj.mLocalId);
+        Assert.assertFalse(localId.equals(obj.mLocalId));
+        NCMBEventuallyQueue.flush();
+        waitQueue();
+
+        Assert.assertEquals(2, mServer.getRequestCount());
+        mServer.takeRequest();
+        RecordedRequest request = mServer.takeRequest();
+        Assert.assertEquals("POST", request.getMethod());
+        JSONObject body = new JSONObject(request.getBody().readUtf8());
+        Assert.assertEquals("value2", body.getString("key2"));
+        Assert.assertFalse(body.has("key"));
+        Assert.assertEquals("7FrmPTBKSNtVjajm9", obj.getObjectId());
+    }
+
+    /**
+     * - 内容：再送するエラーを確認する
+     * - 結果：通信エラーとサーバの一時的なエラーのみ再送され、サーバが返した認証エラーは再送されないこと
+     */
+    @Test
+    public void transient_error() throws Exception {
+        Assert.assertTrue(NCMBEventuallyQueue.isTransient(NCMBConnection.networkError(new IOException("timeout"))));
+        Assert.assertFalse(NCMBEventuallyQueue.isTransient(
+                new NCMBException(NCMBException.AUTH_FAILURE, "Authentication error")));
+        Assert.assertTrue(NCMBEventuallyQueue.isTransient(
+                new NCMBException(NCMBException.INTERNAL_SERVER_ERROR, "error")));
+        Assert.assertFalse(NCMBEventuallyQueue.isTransient(
+                new NCMBException(NCMBException.DATA_NOT_FOUND, "not found")));
+        Assert.assertFalse(NCMBEventuallyQueue.isTransient(new NCMBException(NCMBException.INVALID_JSON, "json")));
+    }
+
+    /**
+     * - 内容：ジャーナルに書き込めない状態でsaveEventuallyでオブジェクトを保存する
+     * - 結果：エラーがコールバックに渡され、次の保存で全ての値が送信されるように戻されること
+     */
+    @Test
+    public void save_eventually_journal_full() throws Exception {
+        final NCMBException[] error = {null};
+        NCMBEventuallyQueue.setMaxJournalBytes(1);
+        NCMBObject obj = new NCMBObject("SaveObjectTest");
+        obj.put("key", "value");
+        obj.saveEventually(new DoneCallback() {
+            @Override
+            public void done(NCMBException e) {
+                error[0] = e;
+            }
+        });
+        Assert.assertEquals(0, obj.mUpdateKeys.size());
+
+        waitQueue();
+
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, error[0].getCode());
+        Assert.assertTrue(obj.mUpdateKeys.contains("key"));
+        Assert.assertNull(obj.mLocalId);
+        Assert.assertNull(obj.getObjectId());
+    }
+
+    /**
+     * - 内容：文字数では上限以下で、バイト数では上限を超える値をsaveEventuallyで保存する
+     * - 結果：ジャーナルの上限を超えるエラーがコールバックに渡されること
+     */
+    @Test
+    public void save_eventually_journal_full_multibyte() throws Exception {
+        final NCMBException[] error = {null};
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append("あ");
+        }
+        NCMBEventuallyQueue.setMaxJournalBytes(2000);
+        NCMBObject obj = new NCMBObject("SaveObjectTest");
+        obj.put("key", value.toString());
+        obj.saveEventually(new DoneCallback() {
+            @Override
+            public void done(NCMBException e) {
+                error[0] = e;
+            }
+        });
+
+        waitQueue();
+
+        Assert.assertNotNull(error[0]);
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, error[0].getCode());
+        Assert.assertEquals(0, mServer.getRequestCount());
+    }
+
+    /**
+     * - 内容：再送する回数を確認する
+     * - 結果：通信エラーは上限なく、それ以外の一時的なエラーは上限まで再送されること
+     */
+    @Test
+    public void retry_limit() throws Exception {
+        NCMBEventuallyQueue.Operation operation = createOperation(1, NCMBEventuallyQueue.KIND_SAVE, "objectId", "{}");
+        NCMBException networkError = NCMBConnection.networkError(new IOException("timeout"));
+        NCMBException serverError = new NCMBException(NCMBException.GENERIC_ERROR, "error");
+        for (int i = 0; i < NCMBEventuallyQueue.MAX_RETRIES; i++) {
+            Assert.assertTrue(NCMBEventuallyQueue.shouldRetry(operation, serverError));
+            Assert.assertTrue(NCMBEventuallyQueue.shouldRetry(operation, networkError));
+        }
+        Assert.assertFalse(NCMBEventuallyQueue.shouldRetry(operation, serverError));
+        Assert.assertTrue(NCMBEventuallyQueue.shouldRetry(operation, networkError));
+        Assert.assertFalse(NCMBEventuallyQueue.shouldRetry(operation,
+                new NCMBException(NCMBException.DATA_NOT_FOUND, "not found")));
+    }
+}
@@ -15,7 +15,9 @@
  */
 package com.nifcloud.mbaas.core;
 
+import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
 
 import junit.framework.Assert;
 
@@ -30,6 +32,12 @@ import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 import org.robolectric.shadows.ShadowLooper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
 
 @RunWith(CustomRobolectricTestRunner.class)
@@ -87,6 +95,49 @@ public class NCMBFileServiceTest {
         Assert.assertTrue(callbackFlag);
     }
 
+    /**
+     * - 内容：Fileを指定したsaveFileInBackgroundでファイル内容がストリーミング送信されることを確認する
+     * - 結果：コールバックが実行され、リクエストボディにファイル内容が含まれること
+     */
+    @Test
+    public void saveFileInBackground_with_file() throws Exception {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+
+        File file = File.createTempFile("ncmb", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Hello,NCMB".getBytes("UTF-8"));
+        out.close();
+
+        fileService.saveFileInBackground("Sample.txt", file, new JSONObject(), new ExecuteServiceCallback() {
+            @Override
+            public void done(JSONObject json, NCMBException e) {
+                callbackFlag = true;
+            }
+        });
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasks();
+        Assert.assertTrue(callbackFlag);
+
+        RecordedRequest request = mServer.takeRequest();
+        Assert.assertTrue(request.getBody().readUtf8().contains("Hello,NCMB"));
+    }
+
+    /**
+     * - 内容：InputStreamを指定したsaveFileでファイル内容がストリーミング送信されることを確認する
+     * - 結果：リクエストボディにストリームの内容が含まれること
+     */
+    @Test
+    public void saveFile_with_stream() throws Exception {
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+
+        byte[] data = "Hello,NCMB".getBytes("UTF-8");
+        fileService.saveFile("Sample.txt", new ByteArrayInputStream(data), -1, new JSONObject());
+
+        RecordedRequest request = mServer.takeRequest();
+        Assert.assertTrue(request.getBody().readUtf8().contains("Hello,NCMB"));
+    }
+
     /**
      * - 内容：updateFileInBackgroundのコールバックが実行されることを確認する
      * - 結果：コールバックが実行されること
@@ -125,6 +176,103 @@ public class NCMBFileServiceTest {
         Assert.assertTrue(callbackFlag);
     }
 
+    /**
+     * - 内容：fetchFileToFileでファイルデータがファイルに書き込まれることを確認する
+     * - 結果：ダウンロードしたデータがファイルに保存されていること
+     */
+    @Test
+    public void fetchFileToFile() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/plain")
+                .setBody("Hello,NCMB"));
+        server.start();
+        NCMB.initialize(RuntimeEnvironment.application, "appKey", "clientKKey", server.getUrl("/").toString(), null);
+
+        File file = File.createTempFile("ncmb", ".txt");
+        file.deleteOnExit();
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToFile("Sample.txt", file);
+
+        Assert.assertEquals("Hello,NCMB", readFile(file));
+        Assert.assertNull(server.takeRequest().getHeader("Range"));
+        server.shutdown();
+    }
+
+    /**
+     * - 内容：resume指定のfetchFileToFileで既存ファイルの続きからダウンロードされることを確認する
+     * - 結果：Rangeヘッダーが送信され、部分レスポンスが既存ファイルに追記されること
+     */
+    @Test
+    public void fetchFileToFile_resume() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Type", "text/plain")
+                .setHeader("Content-Range", "bytes 6-9/10")
+                .setBody("NCMB"));
+        server.start();
+        NCMB.initialize(RuntimeEnvironment.application, "appKey", "clientKKey", server.getUrl("/").toString(), null);
+
+        File file = File.createTempFile("ncmb", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("Hello,".getBytes("UTF-8"));
+        out.close();
+
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToFile("Sample.txt", file, true);
+
+        Assert.assertEquals("Hello,NCMB", readFile(file));
+        Assert.assertEquals("bytes=6-", server.takeRequest().getHeader("Range"));
+        server.shutdown();
+    }
+
+    /**
+     * - 内容：fetchFileToStreamでファイルデータがストリームに書き込まれることを確認する
+     * - 結果：ダウンロードしたデータがストリームに書き込まれていること
+     */
+    @Test
+    public void fetchFileToStream() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/plain")
+                .setBody("Hello,NCMB"));
+        server.start();
+        NCMB.initialize(RuntimeEnvironment.application, "appKey", "clientKKey", server.getUrl("/").toString(), null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NCMBFileService fileService = (NCMBFileService) NCMB.factory(NCMB.ServiceType.FILE);
+        fileService.fetchFileToStream("Sample.txt", out);
+
+        Assert.assertEquals("Hello,NCMB", out.toString("UTF-8"));
+        server.shutdown();
+    }
+
+    /**
+     * - 内容：Rangeリクエストが無視されたストリームへのダウンロードを再開する
+     * - 結果：書き込み済みのデータと一致する場合のみ続きが書き込まれること
+     */
+    @Test
+    public void streamDownload_skip_verifies_written_data() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NCMBFileDownload download = NCMBFileDownload.toStream(out);
+        download.transfer(new ByteArrayInputStream("Hello,".getBytes("UTF-8")), 0);
+        Assert.assertFalse(download.restart());
+
+        try {
+            download.transfer(new ByteArrayInputStream("Hellx,NCMB".getBytes("UTF-8")), download.position());
+            Assert.fail("different data must not be skipped");
+        } catch (IOException e) {
+            Assert.assertEquals("Response does not match the data already written.", e.getMessage());
+        }
+        Assert.assertEquals("Hello,", out.toString("UTF-8"));
+
+        download.transfer(new ByteArrayInputStream("Hello,NCMB".getBytes("UTF-8")), download.position());
+        Assert.assertEquals("Hello,NCMB", out.toString("UTF-8"));
+        Assert.assertEquals(10, download.position());
+    }
+
     /**
      * - 内容：fetchFileInBackgroundのコールバックが実行されることを確認する
      * - 結果：コールバックが実行されること
@@ -162,4 +310,16 @@ public class NCMBFileServiceTest {
         ShadowLooper.runUiThreadTasks();
         Assert.assertTrue(callbackFlag);
     }
+
+    private String readFile(File file) throws Exception {
+        FileInputStream in = new FileInputStream(file);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
 }
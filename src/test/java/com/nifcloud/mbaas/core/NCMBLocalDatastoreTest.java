@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.location.Location;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * NCMBLocalDatastore自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBLocalDatastoreTest {
+
+    @Before
+    public void setup() throws Exception {
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "appKey",
+                "cliKey",
+                "http://localhost/",
+                null);
+        Robolectric.getForegroundThreadScheduler().pause();
+        NCMBLocalDatastore.clear();
+    }
+
+    private List<NCMBObject> pinObjects(int count) throws Exception {
+        List<NCMBObject> objects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            NCMBObject obj = new NCMBObject("LocalTest");
+            obj.setObjectId(String.format("object%03d", i));
+            obj.put("number", i);
+            obj.put("group", "group" + (i % 3));
+            if (i % 5 == 0) {
+                obj.put("tags", Arrays.asList("tag" + i));
+            }
+            objects.add(obj);
+        }
+        NCMBObject.pinAll(objects);
+        return objects;
+    }
+
+    private List<String> objectIds(List<NCMBObject> objects) {
+        List<String> objectIds = new ArrayList<>();
+        for (NCMBObject obj : objects) {
+            objectIds.add(obj.getObjectId());
+        }
+        return objectIds;
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：pinしたオブジェクトをローカルデータストアから検索する
+     * - 結果：保存した値を持つオブジェクトが取得できること
+     */
+    @Test
+    public void pin_find() throws Exception {
+        pinObjects(10);
+
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        query.whereEqualTo("group", "group1");
+        List<NCMBObject> results = query.find();
+
+        Assert.assertEquals(Arrays.asList("object001", "object004", "object007"), objectIds(results));
+        Assert.assertEquals(4, results.get(1).getInt("number"));
+        Assert.assertEquals(3, query.count());
+    }
+
+    /**
+     * - 内容：インデックスの有無で同じ条件の検索を行う
+     * - 結果：インデックスを使った検索とメモリ上の検索で同じ結果になること
+     */
+    @Test
+    public void find_with_index() throws Exception {
+        pinObjects(30);
+        List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            if (i == 1) {
+                NCMBLocalDatastore.createIndex("LocalTest", "number");
+                NCMBLocalDatastore.createIndex("LocalTest", "group");
+            }
+            NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+            query.fromLocalDatastore();
+            query.whereGreaterThanOrEqualTo("number", 5);
+            query.whereLessThan("number", 20);
+            query.whereContainedIn("group", Arrays.asList("group0", "group2"));
+            query.addOrderByDescending("number");
+            query.setSkip(1);
+            query.setLimit(4);
+            results.add(objectIds(query.find()));
+        }
+        Assert.assertEquals(Arrays.asList("object017", "object015", "object014", "object012"), results.get(0));
+        Assert.assertEquals(results.get(0), results.get(1));
+    }
+
+    /**
+     * - 内容：インデックスで評価できる条件をSQLに変換する
+     * - 結果：インデックスのキーの条件のみSQLで評価され、他の条件があれば完全一致にならないこと
+     */
+    @Test
+    public void statement_pushdown() throws Exception {
+        JSONObject conditions = new JSONObject(
+                "{\"where\":{\"number\":{\"$gt\":1},\"name\":\"test\"},\"order\":\"number\",\"limit\":10}");
+        NCMBLocalDatastore.Statement statement = new NCMBLocalDatastore.Statement("LocalTest", conditions,
+                new HashSet<>(Arrays.asList("number")));
+        Assert.assertFalse(statement.exact);
+        Assert.assertTrue(statement.pushedKeys.contains("number"));
+        Assert.assertTrue(statement.toSql("o.data", conditions).contains("type = ? AND num > ?"));
+
+        conditions.getJSONObject("where").remove("name");
+        statement = new NCMBLocalDatastore.Statement("LocalTest", conditions, new HashSet<>(Arrays.asList("number")));
+        statement.createOrder(conditions, new HashSet<>(Arrays.asList("number")));
+        Assert.assertTrue(statement.exact);
+        Assert.assertTrue(statement.ordered);
+        Assert.assertTrue(statement.toSql("o.data", conditions).endsWith("LIMIT 10 OFFSET 0"));
+    }
+
+    /**
+     * - 内容：配列を保存したキーにインデックスを作成して検索する
+     * - 結果：配列の要素と一致するオブジェクトが取得できること
+     */
+    @Test
+    public void find_array_with_index() throws Exception {
+        pinObjects(10);
+        NCMBLocalDatastore.createIndex("LocalTest", "tags");
+
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        query.whereEqualTo("tags", "tag5");
+        Assert.assertEquals(Arrays.asList("object005"), objectIds(query.find()));
+        Assert.assertEquals(1, query.count());
+    }
+
+    /**
+     * - 内容：unpinしたオブジェクトを検索する
+     * - 結果：unpinしたオブジェクトが取得されないこと
+     */
+    @Test
+    public void unpin() throws Exception {
+        List<NCMBObject> objects = pinObjects(3);
+        NCMBLocalDatastore.createIndex("LocalTest", "number");
+        objects.get(1).unpin();
+
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        query.whereLessThanOrEqualTo("number", 2);
+        Assert.assertEquals(Arrays.asList("object000", "object002"), objectIds(query.find()));
+    }
+
+    /**
+     * - 内容：objectIdのないオブジェクトをpinする
+     * - 結果：objectIdが必要なエラーになること
+     */
+    @Test
+    public void pin_without_objectId() throws Exception {
+        NCMBException error = null;
+        try {
+            new NCMBObject("LocalTest").pin();
+        } catch (NCMBException e) {
+            error = e;
+        }
+        Assert.assertNotNull(error);
+        Assert.assertEquals(NCMBException.REQUIRED, error.getCode());
+    }
+
+    /**
+     * - 内容：ローカルデータストアで対応していない条件で検索する
+     * - 結果：INVALID_FORMATのエラーになること
+     */
+    @Test
+    public void find_unsupported_condition() throws Exception {
+        pinObjects(1);
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        query.whereWithinKilometers("location", new Location("test"), 1.0);
+        NCMBException error = null;
+        try {
+            query.find();
+        } catch (NCMBException e) {
+            error = e;
+        }
+        Assert.assertNotNull(error);
+        Assert.assertEquals(NCMBException.INVALID_FORMAT, error.getCode());
+    }
+
+    /**
+     * - 内容：ローカルデータストアから非同期で検索する
+     * - 結果：コールバックに検索結果が渡されること
+     */
+    @Test
+    public void find_in_background() throws Exception {
+        pinObjects(5);
+        final List<NCMBObject> results = new ArrayList<>();
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        query.whereNotEqualTo("group", "group0");
+        query.findInBackground(new FindCallback<NCMBObject>() {
+            @Override
+            public void done(List<NCMBObject> objects, NCMBException e) {
+                Assert.assertNull(e);
+                results.addAll(objects);
+            }
+        });
+        for (int i = 0; i < 100 && results.isEmpty(); i++) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+        Assert.assertEquals(Arrays.asList("object001", "object002", "object004"), objectIds(results));
+    }
+
+    /**
+     * - 内容：ローカルデータストアの非同期の検索と件数取得をキャンセルする
+     * - 結果：通信をキャンセルした場合と同じエラーがコールバックに渡されること
+     */
+    @Test
+    public void find_in_background_cancel() throws Exception {
+        pinObjects(5);
+        final List<NCMBException> errors = new ArrayList<>();
+        final NCMBQuery<NCMBObject> query = new NCMBQuery<>("LocalTest");
+        query.fromLocalDatastore();
+        NCMBRequestHandle handle = NCMBRequestHandle.run(new Runnable() {
+            @Override
+            public void run() {
+                query.findInBackground(new FindCallback<NCMBObject>() {
+                    @Override
+                    public void done(List<NCMBObject> objects, NCMBException e) {
+                        Assert.assertNull(objects);
+                        errors.add(e);
+                    }
+                });
+                query.countInBackground(new CountCallback() {
+                    @Override
+                    public void done(int count, NCMBException e) {
+                        errors.add(e);
+                    }
+                });
+            }
+        });
+        Assert.assertTrue(handle.cancel());
+        for (int i = 0; i < 100 && errors.size() < 2; i++) {
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasks();
+        }
+        Assert.assertEquals(2, errors.size());
+        for (NCMBException error : errors) {
+            Assert.assertEquals(NCMBException.GENERIC_ERROR, error.getCode());
+            Assert.assertEquals("Request was cancelled.", error.getMessage());
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.robolectric.shadows.ShadowLooper;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * NCMBObjectServiceTest
@@ -68,6 +69,8 @@ public class NCMBObjectServiceTest {
     @After
     public void teardown() {
         response = null;
+        NCMB.setCallbackExecutor(null);
+        NCMB.enableBackgroundMaterialization(true);
     }
 
 
@@ -247,4 +250,58 @@ public class NCMBObjectServiceTest {
         Assert.assertEquals("8FgKqFlH8dZRDrBJ", searchResult.get(0).getObjectId());
     }
 
+    /**
+     * - 内容：コールバックの実行スレッドを指定して検索する
+     * - 結果：メインスレッドを経由せず指定したExecutorでコールバックが実行されること
+     */
+    @Test
+    public void searchObjectInBackground_callback_executor() throws Exception {
+        final List<Runnable> executed = new ArrayList<>();
+        NCMB.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.add(command);
+                command.run();
+            }
+        });
+        NCMBObjectService objServ = (NCMBObjectService) NCMB.factory(NCMB.ServiceType.OBJECT);
+        JSONObject conditions = new JSONObject("{\"where\":{\"key\":\"value\"},\"limit\":1}");
+        objServ.searchObjectInBackground("TestClass", conditions, new SearchObjectCallback() {
+            @Override
+            public void done(List result, NCMBException e) {
+                searchResult = (ArrayList<NCMBObject>) result;
+                callbackFlag = true;
+            }
+        });
+
+        Robolectric.flushBackgroundThreadScheduler();
+
+        Assert.assertTrue(callbackFlag);
+        Assert.assertEquals(1, executed.size());
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", searchResult.get(0).getObjectId());
+    }
+
+    /**
+     * - 内容：ワーカースレッドでの結果変換を無効にして検索する
+     * - 結果：コールバック時に変換した検索結果が取得できること
+     */
+    @Test
+    public void searchObjectInBackground_without_background_materialization() throws Exception {
+        NCMB.enableBackgroundMaterialization(false);
+        NCMBObjectService objServ = (NCMBObjectService) NCMB.factory(NCMB.ServiceType.OBJECT);
+        JSONObject conditions = new JSONObject("{\"where\":{\"key\":\"value\"},\"limit\":1}");
+        objServ.searchObjectInBackground("TestClass", conditions, new SearchObjectCallback() {
+            @Override
+            public void done(List result, NCMBException e) {
+                searchResult = (ArrayList<NCMBObject>) result;
+                callbackFlag = true;
+            }
+        });
+
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasks();
+
+        Assert.assertTrue(callbackFlag);
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", searchResult.get(0).getObjectId());
+    }
 }
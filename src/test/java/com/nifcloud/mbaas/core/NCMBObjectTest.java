@@ -668,4 +668,141 @@ public class NCMBObjectTest {
         }
     }
 
+    /**
+     * - 内容：バッチ処理で複数のオブジェクトを保存する
+     * - 結果：成功したオブジェクトにobjectIdと日時が設定され、失敗したオブジェクトのエラーが返ること
+     */
+    @Test
+    public void save_all_batch() throws Exception {
+        List<NCMBObject> objects = createBatchObjects();
+
+        List<NCMBException> errors = NCMBObject.saveAll(objects);
+
+        assertBatchResults(objects, errors);
+    }
+
+    /**
+     * - 内容：バッチ処理で複数のオブジェクトを非同期で保存する
+     * - 結果：成功したオブジェクトにobjectIdと日時が設定され、失敗したオブジェクトのエラーが返ること
+     */
+    @Test
+    public void save_all_batch_asynchronously() throws Exception {
+        final List<NCMBObject> objects = createBatchObjects();
+
+        NCMBObject.saveAllInBackground(objects, new BatchCallback() {
+            @Override
+            public void done(List<NCMBException> errors, NCMBException e) {
+                Assert.assertNull(e);
+                try {
+                    assertBatchResults(objects, errors);
+                } catch (ParseException parseException) {
+                    Assert.fail(parseException.getMessage());
+                }
+                callbackFlag = true;
+            }
+        });
+
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasks();
+
+        Assert.assertTrue(callbackFlag);
+    }
+
+    /**
+     * - 内容：objectIdのないオブジェクトをバッチ処理で削除する
+     * - 結果：リクエストを送信せずにオブジェクトのエラーが返ること
+     */
+    @Test
+    public void delete_all_without_objectId() throws Exception {
+        NCMBObject obj = new NCMBObject("DeleteBatchTest");
+        int requestCount = mServer.getRequestCount();
+
+        List<NCMBException> errors = NCMBObject.deleteAll(Arrays.asList(obj));
+
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(NCMBException.REQUIRED, errors.get(0).getCode());
+        Assert.assertEquals(requestCount, mServer.getRequestCount());
+    }
+
+    /**
+     * - 内容：バッチ処理の待機時間内に複数のオブジェクトを非同期で保存する
+     * - 結果：まとめて送信され、それぞれのコールバックに結果が渡されること
+     */
+    @Test
+    public void save_object_asynchronously_write_batch() throws Exception {
+        final List<NCMBObject> objects = createBatchObjects();
+        final NCMBException[] errors = new NCMBException[objects.size()];
+        final int[] doneCount = {0};
+        NCMB.setWriteBatchWindow(60000);
+        try {
+            int requestCount = mServer.getRequestCount();
+            for (int i = 0; i < objects.size(); i++) {
+                final int index = i;
+                objects.get(i).saveInBackground(new DoneCallback() {
+                    @Override
+                    public void done(NCMBException e) {
+                        errors[index] = e;
+                        doneCount[0]++;
+                    }
+                });
+            }
+            //待機時間内は送信されないこと
+            Assert.assertEquals(requestCount, mServer.getRequestCount());
+            NCMBWriteBatcher.getInstance().flush();
+
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.runUiThreadTasks();
+
+            Assert.assertEquals(3, doneCount[0]);
+            Assert.assertEquals(requestCount + 1, mServer.getRequestCount());
+            assertBatchResults(objects, Arrays.asList(errors));
+        } finally {
+            NCMB.setWriteBatchWindow(0);
+        }
+    }
+
+    /**
+     * - 内容：書き込みをまとめる対象のオブジェクトを確認する
+     * - 結果：NCMBObjectのみまとめられ、NCMBUserやNCMBInstallationはまとめられないこと
+     */
+    @Test
+    public void write_batch_only_plain_object() throws Exception {
+        NCMB.setWriteBatchWindow(60000);
+        try {
+            Assert.assertTrue(NCMBWriteBatcher.isEnabled(new NCMBObject("SaveBatchTest")));
+            Assert.assertFalse(NCMBWriteBatcher.isEnabled(new NCMBUser()));
+            Assert.assertFalse(NCMBWriteBatcher.isEnabled(new NCMBInstallation()));
+        } finally {
+            NCMB.setWriteBatchWindow(0);
+        }
+        Assert.assertFalse(NCMBWriteBatcher.isEnabled(new NCMBObject("SaveBatchTest")));
+    }
+
+    private List<NCMBObject> createBatchObjects() throws NCMBException {
+        NCMBObject created = new NCMBObject("SaveBatchTest");
+        created.put("key", "value");
+        NCMBObject updated = new NCMBObject("SaveBatchTest");
+        updated.setObjectId("batchUpdateId");
+        updated.put("key", "value");
+        NCMBObject missing = new NCMBObject("SaveBatchTest");
+        missing.setObjectId("batchMissingId");
+        missing.put("key", "value");
+        return Arrays.asList(created, updated, missing);
+    }
+
+    private void assertBatchResults(List<NCMBObject> objects, List<NCMBException> errors) throws ParseException {
+        SimpleDateFormat df = NCMBDateFormat.getIso8601();
+        Assert.assertEquals(3, errors.size());
+        Assert.assertNull(errors.get(0));
+        Assert.assertEquals("7FrmPTBKSNtVjajm9", objects.get(0).getObjectId());
+        Assert.assertTrue(objects.get(0).getCreateDate().equals(df.parse("2014-06-03T11:28:30.348Z")));
+        Assert.assertEquals(0, objects.get(0).mUpdateKeys.size());
+
+        Assert.assertNull(errors.get(1));
+        Assert.assertTrue(objects.get(1).getUpdateDate().equals(df.parse("2014-06-04T11:28:30.348Z")));
+        Assert.assertEquals(0, objects.get(1).mUpdateKeys.size());
+
+        Assert.assertEquals(NCMBException.DATA_NOT_FOUND, errors.get(2).getCode());
+        Assert.assertEquals(1, objects.get(2).mUpdateKeys.size());
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NCMBQueryCache自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBQueryCacheTest {
+
+    @Before
+    public void setup() {
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "appKey",
+                "cliKey",
+                "http://localhost/",
+                null);
+        NCMBUser.currentUser = null;
+        NCMBQueryCache.clear();
+        NCMBQueryCache.resetStats();
+    }
+
+    @After
+    public void teardown() {
+        NCMBUser.currentUser = null;
+        NCMBQueryCache.clear();
+        NCMBQueryCache.resetStats();
+        NCMBQueryCache.setMaxEntries(NCMBQueryCache.DEFAULT_MAX_ENTRIES);
+        NCMBQueryCache.setMaxBytes(NCMBQueryCache.DEFAULT_MAX_BYTES);
+        NCMBQueryCache.setDefaultTimeToLive(NCMBQueryCache.DEFAULT_TIME_TO_LIVE);
+        NCMBQueryCache.setTimeToLive("ExpireClass", NCMBQueryCache.DEFAULT_TIME_TO_LIVE);
+    }
+
+    private List<NCMBObject> createResults(String objectId) throws Exception {
+        return Arrays.asList(new NCMBObject("TestClass", new JSONObject("{\"objectId\":\"" + objectId + "\"}")));
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：キーの順序が異なる同じ検索条件のキャッシュキーを確認する
+     * - 結果：同じキーになり、値が異なる場合は別のキーになること
+     */
+    @Test
+    public void createKey() throws Exception {
+        String key = NCMBQueryCache.createKey("TestClass",
+                new JSONObject("{\"where\":{\"a\":1,\"b\":[{\"d\":\"x\",\"c\":null}]},\"limit\":10}"));
+        Assert.assertEquals(key, NCMBQueryCache.createKey("TestClass",
+                new JSONObject("{\"limit\":10,\"where\":{\"b\":[{\"c\":null,\"d\":\"x\"}],\"a\":1}}")));
+        Assert.assertFalse(key.equals(NCMBQueryCache.createKey("OtherClass",
+                new JSONObject("{\"where\":{\"a\":1,\"b\":[{\"d\":\"x\",\"c\":null}]},\"limit\":10}"))));
+        Assert.assertFalse(key.equals(NCMBQueryCache.createKey("TestClass",
+                new JSONObject("{\"where\":{\"a\":\"1\",\"b\":[{\"d\":\"x\",\"c\":null}]},\"limit\":10}"))));
+    }
+
+    /**
+     * - 内容：アプリケーションとログイン中のユーザーを変えてキャッシュキーを確認する
+     * - 結果：別のキーになること
+     */
+    @Test
+    public void createKey_scope() throws Exception {
+        JSONObject conditions = new JSONObject("{\"where\":{\"a\":1}}");
+        String key = NCMBQueryCache.createKey("TestClass", conditions);
+
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user1\"}"));
+        String userKey = NCMBQueryCache.createKey("TestClass", conditions);
+        Assert.assertFalse(key.equals(userKey));
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user2\"}"));
+        Assert.assertFalse(userKey.equals(NCMBQueryCache.createKey("TestClass", conditions)));
+
+        NCMBUser.currentUser = null;
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "otherAppKey",
+                "cliKey",
+                "http://localhost/",
+                null);
+        Assert.assertFalse(key.equals(NCMBQueryCache.createKey("TestClass", conditions)));
+    }
+
+    /**
+     * - 内容：ログアウトしたユーザーの検索結果がキャッシュされた状態でログアウト処理を行う
+     * - 結果：キャッシュが破棄されること
+     */
+    @Test
+    public void clear_on_logout() throws Exception {
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user1\"}"));
+        NCMBQueryCache.put("TestClass", new JSONObject(), createResults("objectId1"));
+        Assert.assertNotNull(NCMBQueryCache.get("TestClass", new JSONObject()));
+
+        NCMBUserService.clearCurrentUser();
+
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user1\"}"));
+        Assert.assertNull(NCMBQueryCache.get("TestClass", new JSONObject()));
+    }
+
+    /**
+     * - 内容：検索結果をキャッシュして取得する
+     * - 結果：同じ値の別のオブジェクトが取得でき、ヒットとミスが数えられること
+     */
+    @Test
+    public void put_get() throws Exception {
+        JSONObject conditions = new JSONObject("{\"limit\":10}");
+        Assert.assertNull(NCMBQueryCache.get("TestClass", conditions));
+
+        List<NCMBObject> results = createResults("objectId1");
+        NCMBQueryCache.put("TestClass", conditions, results);
+        List<JSONObject> cached = NCMBQueryCache.get("TestClass", conditions);
+        Assert.assertEquals("objectId1", cached.get(0).getString("objectId"));
+        //取得した値を変更してもキャッシュに影響しないこと
+        cached.get(0).put("objectId", "changed");
+        Assert.assertEquals("objectId1", NCMBQueryCache.get("TestClass", conditions).get(0).getString("objectId"));
+
+        Assert.assertEquals(2, NCMBQueryCache.getHitCount());
+        Assert.assertEquals(1, NCMBQueryCache.getMissCount());
+        Assert.assertEquals(1, NCMBQueryCache.getEntryCount());
+        Assert.assertTrue(NCMBQueryCache.getBytes() > 0);
+
+        NCMBQueryCache.clear("TestClass");
+        Assert.assertEquals(0, NCMBQueryCache.getEntryCount());
+        Assert.assertEquals(0, NCMBQueryCache.getBytes());
+    }
+
+    /**
+     * - 内容：件数とサイズの上限を超えて検索結果をキャッシュする
+     * - 結果：最も使われていない検索結果から削除されること
+     */
+    @Test
+    public void evict_least_recently_used() throws Exception {
+        NCMBQueryCache.setMaxEntries(2);
+        NCMBQueryCache.put("TestClass", new JSONObject("{\"skip\":1}"), createResults("objectId1"));
+        NCMBQueryCache.put("TestClass", new JSONObject("{\"skip\":2}"), createResults("objectId2"));
+        //1件目を使用する
+        Assert.assertNotNull(NCMBQueryCache.get("TestClass", new JSONObject("{\"skip\":1}")));
+        NCMBQueryCache.put("TestClass", new JSONObject("{\"skip\":3}"), createResults("objectId3"));
+
+        Assert.assertEquals(2, NCMBQueryCache.getEntryCount());
+        Assert.assertEquals(1, NCMBQueryCache.getEvictionCount());
+        Assert.assertNotNull(NCMBQueryCache.get("TestClass", new JSONObject("{\"skip\":1}")));
+        Assert.assertNull(NCMBQueryCache.get("TestClass", new JSONObject("{\"skip\":2}")));
+
+        //サイズの上限
+        long bytes = NCMBQueryCache.getBytes();
+        NCMBQueryCache.setMaxBytes(bytes / 2);
+        Assert.assertEquals(1, NCMBQueryCache.getEntryCount());
+        Assert.assertEquals(bytes / 2, NCMBQueryCache.getBytes());
+    }
+
+    /**
+     * - 内容：クラス毎の有効期間を過ぎた検索結果を取得する
+     * - 結果：取得できず、有効期間が0のクラスはキャッシュされないこと
+     */
+    @Test
+    public void time_to_live() throws Exception {
+        JSONObject conditions = new JSONObject();
+        NCMBQueryCache.setTimeToLive("ExpireClass", 1);
+        NCMBQueryCache.put("ExpireClass", conditions, createResults("objectId1"));
+        Thread.sleep(10);
+        Assert.assertNull(NCMBQueryCache.get("ExpireClass", conditions));
+        Assert.assertEquals(0, NCMBQueryCache.getEntryCount());
+
+        NCMBQueryCache.setTimeToLive("ExpireClass", 0);
+        NCMBQueryCache.put("ExpireClass", conditions, createResults("objectId1"));
+        Assert.assertEquals(0, NCMBQueryCache.getEntryCount());
+        //他のクラスは既定の有効期間でキャッシュされること
+        NCMBQueryCache.put("TestClass", conditions, createResults("objectId1"));
+        Assert.assertNotNull(NCMBQueryCache.get("TestClass", conditions));
+    }
+}
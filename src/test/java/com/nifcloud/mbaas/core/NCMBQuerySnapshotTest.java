@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * NCMBQuerySnapshot自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBQuerySnapshotTest {
+
+    private String mKey;
+
+    @Before
+    public void setup() throws Exception {
+        NCMB.initialize(RuntimeEnvironment.application.getApplicationContext(),
+                "appKey",
+                "cliKey",
+                "http://localhost/",
+                null);
+        NCMBUser.currentUser = null;
+        mKey = NCMBQueryCache.createKey("TestClass", new JSONObject("{\"limit\":10}"));
+    }
+
+    @After
+    public void teardown() {
+        NCMBUser.currentUser = null;
+        NCMBQuerySnapshot.deleteAll();
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：検索結果を保存して読み込む
+     * - 結果：保存した検索結果が読み込めること
+     */
+    @Test
+    public void write_read() throws Exception {
+        Assert.assertNull(NCMBQuerySnapshot.read(mKey));
+
+        List<NCMBObject> results = Arrays.asList(
+                new NCMBObject("TestClass", new JSONObject("{\"objectId\":\"objectId1\",\"key\":\"value\"}")));
+        NCMBQuerySnapshot.write(mKey, NCMBQueryCache.toJson(results));
+
+        List<JSONObject> items = NCMBQuerySnapshot.read(mKey);
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals("objectId1", items.get(0).getString("objectId"));
+        Assert.assertEquals("value", items.get(0).getString("key"));
+        //別の検索条件の結果は読み込まれないこと
+        Assert.assertNull(NCMBQuerySnapshot.read(NCMBQueryCache.createKey("TestClass", new JSONObject())));
+    }
+
+    /**
+     * - 内容：読み込めないファイルを読み込む
+     * - 結果：nullが返り、ファイルが削除されること
+     */
+    @Test
+    public void read_invalid_file() throws Exception {
+        File file = NCMBQuerySnapshot.getFile(mKey);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("invalid".getBytes("UTF-8"));
+        out.close();
+
+        Assert.assertNull(NCMBQuerySnapshot.read(mKey));
+        Assert.assertFalse(file.exists());
+    }
+
+    /**
+     * - 内容：保存した検索結果を全て削除する
+     * - 結果：検索結果のファイルのみ削除されること
+     */
+    @Test
+    public void deleteAll() throws Exception {
+        NCMBQuerySnapshot.write(mKey, "[]");
+        File other = NCMBLocalFile.create("Test");
+        NCMBLocalFile.writeFile(other, new JSONObject("{\"key\":\"value\"}"));
+
+        NCMBQueryCache.clearSnapshots();
+
+        Assert.assertFalse(NCMBQuerySnapshot.getFile(mKey).exists());
+        Assert.assertTrue(other.exists());
+        NCMBLocalFile.deleteFile(other);
+    }
+
+    /**
+     * - 内容：別のユーザーでログインして同じ検索条件の保存した検索結果を読み込む
+     * - 結果：別のファイルになり、読み込まれないこと
+     */
+    @Test
+    public void read_other_user() throws Exception {
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user1\"}"));
+        String key = NCMBQueryCache.createKey("TestClass", new JSONObject("{\"limit\":10}"));
+        NCMBQuerySnapshot.write(key, "[]");
+        Assert.assertNotNull(NCMBQuerySnapshot.read(key));
+
+        NCMBUser.currentUser = new NCMBUser(new JSONObject("{\"objectId\":\"user2\"}"));
+        String otherKey = NCMBQueryCache.createKey("TestClass", new JSONObject("{\"limit\":10}"));
+        Assert.assertFalse(NCMBQuerySnapshot.getFile(key).equals(NCMBQuerySnapshot.getFile(otherKey)));
+        Assert.assertNull(NCMBQuerySnapshot.read(otherKey));
+    }
+
+    /**
+     * - 内容：検索結果を保存した状態でログアウト処理を行う
+     * - 結果：保存した検索結果が削除されること
+     */
+    @Test
+    public void delete_on_logout() throws Exception {
+        NCMBQuerySnapshot.write(mKey, "[]");
+
+        NCMBUserService.clearCurrentUser();
+
+        Assert.assertFalse(NCMBQuerySnapshot.getFile(mKey).exists());
+    }
+
+    /**
+     * - 内容：上限を超える数の検索結果を保存する
+     * - 結果：上限の数だけ残り、最も古いファイルが削除されること
+     */
+    @Test
+    public void write_over_max_files() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < NCMBQuerySnapshot.MAX_FILES; i++) {
+            String key = NCMBQueryCache.createKey("TestClass", new JSONObject("{\"skip\":" + i + "}"));
+            NCMBQuerySnapshot.write(key, "[]");
+            NCMBQuerySnapshot.getFile(key).setLastModified(now - (NCMBQuerySnapshot.MAX_FILES - i) * 1000L);
+        }
+        String oldest = NCMBQueryCache.createKey("TestClass", new JSONObject("{\"skip\":0}"));
+        Assert.assertTrue(NCMBQuerySnapshot.getFile(oldest).exists());
+
+        NCMBQuerySnapshot.write(mKey, "[]");
+
+        Assert.assertFalse(NCMBQuerySnapshot.getFile(oldest).exists());
+        Assert.assertTrue(NCMBQuerySnapshot.getFile(mKey).exists());
+        Assert.assertTrue(NCMBQuerySnapshot.getFile(
+                NCMBQueryCache.createKey("TestClass", new JSONObject("{\"skip\":1}"))).exists());
+    }
+
+    /**
+     * - 内容：検索結果を保存した状態で、保存した結果を読み込む前に通信に失敗する検索を行う
+     * - 結果：通信のエラーの後に保存した検索結果が渡されること
+     */
+    @Test
+    public void findInBackground_network_failure() throws Exception {
+        List<NCMBObject> saved = Arrays.asList(
+                new NCMBObject("TestClass", new JSONObject("{\"objectId\":\"objectId1\"}")));
+        NCMBQuerySnapshot.write(mKey, NCMBQueryCache.toJson(saved));
+
+        //保存した結果の読み込みだけを保留し、通信は先に失敗させる
+        final List<Runnable> deferred = new ArrayList<>();
+        NCMBRequestDispatcher.getInstance().setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (deferred.isEmpty()) {
+                    deferred.add(command);
+                } else {
+                    command.run();
+                }
+            }
+        });
+        NCMB.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        final List<List<NCMBObject>> results = new ArrayList<>();
+        final List<NCMBException> errors = new ArrayList<>();
+        try {
+            NCMBQuery<NCMBObject> query = new NCMBQuery<>("TestClass");
+            query.setLimit(10);
+            query.setPersisted(true);
+            query.findInBackground(new FindCallback<NCMBObject>() {
+                @Override
+                public void done(List<NCMBObject> objects, NCMBException e) {
+                    results.add(objects);
+                    errors.add(e);
+                }
+            });
+            Assert.assertEquals(1, errors.size());
+            Assert.assertNotNull(errors.get(0));
+
+            deferred.get(0).run();
+        } finally {
+            NCMB.setCallbackExecutor(null);
+        }
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertNull(errors.get(1));
+        Assert.assertEquals("objectId1", results.get(1).get(0).getObjectId());
+    }
+}
@@ -846,4 +846,159 @@ public class NCMBQueryTest {
 
         Assert.assertTrue(callbackFlag);
     }
+
+    /**
+     * - 内容：カーソルを使ったページ毎の検索条件を確認する
+     * - 結果：前のページの最後の検索結果より後のデータを検索する条件が作成されること
+     */
+    @Test
+    public void page_conditions() throws Exception {
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("TestClass");
+        query.whereEqualTo("key", "value");
+        query.setSkip(10);
+        query.addOrderByDescending("key");
+
+        JSONObject first = query.getPageConditions(null, null, 100, null, null);
+        Assert.assertEquals("value", first.getJSONObject("where").getString("key"));
+        Assert.assertFalse(first.getJSONObject("where").has("$or"));
+        Assert.assertEquals(100, first.getInt("limit"));
+        Assert.assertEquals("createDate,objectId", first.getString("order"));
+        Assert.assertFalse(first.has("skip"));
+
+        JSONObject next = query.getPageConditions("2014-06-03T11:28:30.348Z", "8FgKqFlH8dZRDrBJ", 200, null, null);
+        JSONObject where = next.getJSONObject("where");
+        Assert.assertEquals("value", where.getString("key"));
+        JSONObject after = where.getJSONArray("$or").getJSONObject(0).getJSONObject("createDate").getJSONObject("$gt");
+        Assert.assertEquals("2014-06-03T11:28:30.348Z", after.getString("iso"));
+        JSONObject same = where.getJSONArray("$or").getJSONObject(1);
+        Assert.assertEquals("2014-06-03T11:28:30.348Z", same.getJSONObject("createDate").getString("iso"));
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", same.getJSONObject("objectId").getString("$gt"));
+        Assert.assertEquals(200, next.getInt("limit"));
+
+        //ファイルはファイル名で並べる
+        Assert.assertEquals("createDate,fileName", NCMBFile.getQuery().getPageConditions(null, null, 100, null, null).getString("order"));
+
+        //$orを使った検索条件とは併用できない
+        NCMBQuery<NCMBObject> orQuery = new NCMBQuery<>("TestClass");
+        orQuery.or(Arrays.<NCMBQuery>asList(query));
+        try {
+            orQuery.getPageConditions(null, null, 100, null, null);
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.INVALID_FORMAT, e.getCode());
+        }
+    }
+
+    /**
+     * - 内容：ページを読み込む毎のカーソルの位置と件数を確認する
+     * - 結果：最後の検索結果に移動し、件数が1000件まで増えること
+     */
+    @Test
+    public void page_cursor() throws Exception {
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("TestClass");
+        query.setLimit(300);
+        NCMBQueryCursor cursor = new NCMBQueryCursor(query);
+        Assert.assertEquals(300, cursor.getLimit());
+
+        cursor.moveTo(new NCMBObject("TestClass",
+                new JSONObject("{\"objectId\":\"8FgKqFlH8dZRDrBJ\",\"createDate\":\"2014-06-03T11:28:30.348Z\"}")));
+        Assert.assertTrue(cursor.finishPage(300));
+        Assert.assertEquals(600, cursor.getLimit());
+        JSONObject where = cursor.nextConditions().getJSONObject("where");
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", where.getJSONArray("$or").getJSONObject(1).getJSONObject("objectId").getString("$gt"));
+
+        Assert.assertTrue(cursor.finishPage(600));
+        Assert.assertEquals(1000, cursor.getLimit());
+        //件数が足りない場合は最後のページ
+        Assert.assertFalse(cursor.finishPage(999));
+
+        try {
+            cursor.moveTo(new NCMBObject("TestClass", new JSONObject("{\"objectId\":\"8FgKqFlH8dZRDrBJ\"}")));
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.MISSING_VALUE, e.getCode());
+        }
+    }
+
+    /**
+     * - 内容：createDateの範囲を指定したページの検索条件を確認する
+     * - 結果：範囲の開始日時以上、終了日時未満の条件が追加されること
+     */
+    @Test
+    public void page_conditions_range() throws Exception {
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("TestClass");
+        query.whereEqualTo("key", "value");
+        NCMBQueryCursor cursor = new NCMBQueryCursor(query, "2014-06-03T00:00:00.000Z", "2014-06-04T00:00:00.000Z");
+        JSONObject where = cursor.nextConditions().getJSONObject("where");
+        Assert.assertEquals("value", where.getString("key"));
+        Assert.assertEquals("2014-06-03T00:00:00.000Z", where.getJSONObject("createDate").getJSONObject("$gte").getString("iso"));
+        Assert.assertEquals("2014-06-04T00:00:00.000Z", where.getJSONObject("createDate").getJSONObject("$lt").getString("iso"));
+
+        //開始日時のみの場合
+        where = new NCMBQueryCursor(query, "2014-06-03T00:00:00.000Z", null).nextConditions().getJSONObject("where");
+        Assert.assertFalse(where.getJSONObject("createDate").has("$lt"));
+        //範囲がない場合
+        where = new NCMBQueryCursor(query).nextConditions().getJSONObject("where");
+        Assert.assertFalse(where.has("createDate"));
+    }
+
+    /**
+     * - 内容：最初と最後のcreateDateの間を分割した範囲を確認する
+     * - 結果：同じ長さの範囲に分割され、最初と最後の範囲は制限がないこと
+     */
+    @Test
+    public void partition_split_range() throws Exception {
+        SimpleDateFormat format = NCMBDateFormat.getIso8601();
+        List<String[]> ranges = NCMBPartitionedScan.splitRange(
+                format.parse("2014-06-01T00:00:00.000Z"), format.parse("2014-06-05T00:00:00.000Z"), 4);
+        Assert.assertEquals(4, ranges.size());
+        Assert.assertNull(ranges.get(0)[0]);
+        Assert.assertEquals("2014-06-02T00:00:00.000Z", ranges.get(0)[1]);
+        Assert.assertEquals("2014-06-02T00:00:00.000Z", ranges.get(1)[0]);
+        Assert.assertEquals("2014-06-04T00:00:00.000Z", ranges.get(2)[1]);
+        Assert.assertEquals("2014-06-04T00:00:00.000Z", ranges.get(3)[0]);
+        Assert.assertNull(ranges.get(3)[1]);
+
+        //期間が分割数より短い場合は同じ境界の範囲を作らない
+        ranges = NCMBPartitionedScan.splitRange(
+                format.parse("2014-06-01T00:00:00.000Z"), format.parse("2014-06-01T00:00:00.002Z"), 4);
+        Assert.assertEquals(2, ranges.size());
+        //1件のみの場合
+        ranges = NCMBPartitionedScan.splitRange(
+                format.parse("2014-06-01T00:00:00.000Z"), format.parse("2014-06-01T00:00:00.000Z"), 4);
+        Assert.assertEquals(1, ranges.size());
+        Assert.assertNull(ranges.get(0)[0]);
+        Assert.assertNull(ranges.get(0)[1]);
+    }
+
+    /**
+     * - 内容：キャッシュポリシーを指定して検索する
+     * - 結果：キャッシュがある場合は通信せずにキャッシュした検索結果が返ること
+     */
+    @Test
+    public void find_cache_policy() throws Exception {
+        NCMBQueryCache.clear();
+        NCMBQuery<NCMBObject> query = new NCMBQuery<>("TestClass");
+        query.setCachePolicy(NCMBQuery.CachePolicy.CACHE_ONLY);
+        try {
+            query.find();
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.DATA_NOT_FOUND, e.getCode());
+        }
+
+        query.setCachePolicy(NCMBQuery.CachePolicy.CACHE_ELSE_NETWORK);
+        int requestCount = mServer.getRequestCount();
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", query.find().get(0).getObjectId());
+        Assert.assertEquals(requestCount + 1, mServer.getRequestCount());
+        List<NCMBObject> cached = query.find();
+        Assert.assertEquals("8FgKqFlH8dZRDrBJ", cached.get(0).getObjectId());
+        Assert.assertEquals(requestCount + 1, mServer.getRequestCount());
+
+        //キャッシュを使わない場合は通信すること
+        query.setCachePolicy(NCMBQuery.CachePolicy.NETWORK_ONLY);
+        query.find();
+        Assert.assertEquals(requestCount + 2, mServer.getRequestCount());
+        NCMBQueryCache.clear();
+    }
 }
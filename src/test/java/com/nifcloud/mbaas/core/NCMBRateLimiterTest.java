@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCMBRateLimiter自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Before
+    public void setup() {
+        NCMBConnectionStats.reset();
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：バースト数を超えるリクエストの待機時間を確認する
+     * - 結果：バースト数までは待機せず、以降はトークンの補充間隔ずつ待機すること
+     */
+    @Test
+    public void reserve_burst() {
+        NCMBRateLimiter.Bucket bucket = new NCMBRateLimiter.Bucket(2, 2, 0);
+        Assert.assertEquals(0, bucket.reserve(0, SECOND));
+        Assert.assertEquals(0, bucket.reserve(0, SECOND));
+        Assert.assertEquals(SECOND / 2, bucket.reserve(0, SECOND));
+        Assert.assertEquals(SECOND, bucket.reserve(0, SECOND));
+        // 最大待機時間を超える場合は破棄されトークンを消費しないこと
+        Assert.assertEquals(-1, bucket.reserve(0, SECOND));
+        Assert.assertEquals(-2.0, bucket.available(0), 0.0001);
+    }
+
+    /**
+     * - 内容：時間経過によるトークンの補充を確認する
+     * - 結果：経過時間に応じて補充され、バースト数を超えないこと
+     */
+    @Test
+    public void reserve_refill() {
+        NCMBRateLimiter.Bucket bucket = new NCMBRateLimiter.Bucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, bucket.reserve(0, 0));
+        }
+        Assert.assertEquals(-1, bucket.reserve(0, 0));
+        Assert.assertEquals(0, bucket.reserve(SECOND / 10, 0));
+        Assert.assertEquals(5.0, bucket.available(10 * SECOND), 0.0001);
+    }
+
+    /**
+     * - 内容：アプリケーションキーとサービス毎のバケットを確認する
+     * - 結果：別のバケットのトークンを消費しないこと
+     */
+    @Test
+    public void separate_buckets() throws Exception {
+        NCMBRateLimiter limiter = new NCMBRateLimiter(0.001, 1);
+        limiter.setApplicationRate(100, 10);
+        limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+        Assert.assertTrue(limiter.getAvailableTokens("appKey", NCMB.ServiceType.OBJECT) < 1);
+        Assert.assertEquals(1.0, limiter.getAvailableTokens("appKey", NCMB.ServiceType.USER));
+        Assert.assertEquals(1.0, limiter.getAvailableTokens("otherKey", NCMB.ServiceType.OBJECT));
+        limiter.acquire("appKey", NCMBUserService.SERVICE_PATH);
+        limiter.acquire("otherKey", NCMBObjectService.SERVICE_PATH);
+        Assert.assertEquals(0, NCMBConnectionStats.getRateLimitWaitCount());
+    }
+
+    /**
+     * - 内容：アプリケーションキー毎のバケットを確認する
+     * - 結果：サービスが異なっても同じアプリケーションキーのトークンを消費し、
+     *         破棄されたリクエストはアプリケーションキーのトークンを返却すること
+     */
+    @Test
+    public void application_bucket() throws Exception {
+        NCMBRateLimiter limiter = new NCMBRateLimiter(0.001, 1);
+        limiter.setApplicationRate(0.001, 2);
+        limiter.setMaxWait(0);
+        limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+        try {
+            limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.RESTRICTED, e.getCode());
+        }
+        limiter.acquire("appKey", NCMBUserService.SERVICE_PATH);
+        try {
+            limiter.acquire("appKey", NCMBFileService.SERVICE_PATH);
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.RESTRICTED, e.getCode());
+        }
+        Assert.assertEquals(0.0, limiter.getAvailableTokens("appKey", NCMB.ServiceType.FILE), 0.01);
+        limiter.acquire("otherKey", NCMBFileService.SERVICE_PATH);
+        Assert.assertEquals(2, NCMBConnectionStats.getRateLimitShedCount());
+    }
+
+    /**
+     * - 内容：最大待機時間を超えるリクエストを確認する
+     * - 結果：E429001のエラーとなり、破棄数が記録されること
+     */
+    @Test
+    public void acquire_shed() throws Exception {
+        NCMBRateLimiter limiter = new NCMBRateLimiter(0.001, 1);
+        limiter.setMaxWait(0);
+        limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+        try {
+            limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.RESTRICTED, e.getCode());
+        }
+        Assert.assertEquals(1, NCMBConnectionStats.getRateLimitShedCount());
+    }
+
+    /**
+     * - 内容：トークンが無い場合の待機を確認する
+     * - 結果：待機後に送信可能となり、待機回数が記録されること
+     */
+    @Test
+    public void acquire_wait() throws Exception {
+        NCMBRateLimiter limiter = new NCMBRateLimiter(20, 1);
+        limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+        long start = System.nanoTime();
+        limiter.acquire("appKey", NCMBObjectService.SERVICE_PATH);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertEquals(1, NCMBConnectionStats.getRateLimitWaitCount());
+    }
+}
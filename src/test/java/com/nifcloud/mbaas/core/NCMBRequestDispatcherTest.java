@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NCMBRequestDispatcher自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBRequestDispatcherTest {
+
+    private NCMBRequestDispatcher mDispatcher;
+
+    @Before
+    public void setup() throws Exception {
+        mDispatcher = new NCMBRequestDispatcher();
+    }
+
+    private Runnable blockingTask(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：同時実行数の上限を超えたリクエストがキューで待機することを確認する
+     * - 結果：上限数のみ実行され、残りは待機キューに積まれること
+     */
+    @Test
+    public void enqueue_over_max_requests() throws Exception {
+        mDispatcher.setMaxRequests(2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        for (int i = 0; i < 4; i++) {
+            mDispatcher.newCallExecutor("host" + i, "service" + i, null).execute(blockingTask(started, release));
+        }
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, mDispatcher.getRunningRequestCount());
+        Assert.assertEquals(2, mDispatcher.getQueuedRequestCount());
+
+        release.countDown();
+    }
+
+    /**
+     * - 内容：サービス毎の同時実行数の上限を確認する
+     * - 結果：同一サービスのリクエストは上限数のみ実行されること
+     */
+    @Test
+    public void enqueue_over_max_requests_per_service() throws Exception {
+        mDispatcher.setMaxRequestsPerService(1);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+        mDispatcher.newCallExecutor("host", "users", null).execute(blockingTask(started, release));
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, mDispatcher.getRunningRequestCount());
+        Assert.assertEquals(1, mDispatcher.getQueuedRequestCount());
+
+        release.countDown();
+    }
+
+    /**
+     * - 内容：実行中のリクエストがsleepで待機する
+     * - 結果：待機中は待機キューのリクエストが実行され、待機後は実行枠が空いてから再開すること
+     */
+    @Test
+    public void sleep_releases_running_slot() throws Exception {
+        mDispatcher.setMaxRequests(1);
+        final CountDownLatch sleeping = new CountDownLatch(1);
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(new Runnable() {
+            @Override
+            public void run() {
+                sleeping.countDown();
+                try {
+                    mDispatcher.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                resumed.countDown();
+            }
+        });
+        Assert.assertTrue(sleeping.await(5, TimeUnit.SECONDS));
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(resumed.await(300, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, mDispatcher.getRunningRequestCount());
+
+        release.countDown();
+        Assert.assertTrue(resumed.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * - 内容：遅延を指定したリクエストを実行する
+     * - 結果：遅延中は待機キューにも実行中にも含まれず、遅延後に実行されること
+     */
+    @Test
+    public void enqueue_with_delay() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        mDispatcher.newCallExecutor("host", "classes/", null, 200).execute(blockingTask(started, release));
+        Assert.assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, mDispatcher.getRunningRequestCount());
+        Assert.assertEquals(0, mDispatcher.getQueuedRequestCount());
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, mDispatcher.getRunningRequestCount());
+        release.countDown();
+    }
+
+    /**
+     * - 内容：待機キューが上限に達した場合にリクエストが拒否されることを確認する
+     * - 結果：RejectedExecutionExceptionが発生し、拒否数が加算されること
+     */
+    @Test
+    public void enqueue_reject_when_queue_is_full() throws Exception {
+        mDispatcher.setMaxRequests(1);
+        mDispatcher.setMaxQueueSize(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Executor executor = mDispatcher.newCallExecutor("host", "classes/", null);
+        executor.execute(blockingTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(blockingTask(started, release));
+
+        RejectedExecutionException error = null;
+        try {
+            executor.execute(blockingTask(started, release));
+        } catch (RejectedExecutionException e) {
+            error = e;
+        }
+        Assert.assertNotNull(error);
+        Assert.assertEquals(1, mDispatcher.getRejectedRequestCount());
+
+        release.countDown();
+    }
+
+    /**
+     * - 内容：DISCARD_OLDESTの場合に最も古い待機リクエストが破棄されることを確認する
+     * - 結果：古いリクエストがキャンセルされ、新しいリクエストが待機キューに積まれること
+     */
+    @Test
+    public void enqueue_discard_oldest_when_queue_is_full() throws Exception {
+        mDispatcher.setMaxRequests(1);
+        mDispatcher.setMaxQueueSize(1);
+        mDispatcher.setRejectionPolicy(NCMBRequestDispatcher.RejectionPolicy.DISCARD_OLDEST);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Executor executor = mDispatcher.newCallExecutor("host", "classes/", null);
+        executor.execute(blockingTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        FutureTask<Void> oldest = new FutureTask<>(blockingTask(started, release), null);
+        executor.execute(oldest);
+        executor.execute(blockingTask(started, release));
+
+        Assert.assertTrue(oldest.isCancelled());
+        Assert.assertEquals(1, mDispatcher.getQueuedRequestCount());
+        Assert.assertEquals(1, mDispatcher.getRejectedRequestCount());
+
+        release.countDown();
+    }
+
+    /**
+     * - 内容：DISCARD_OLDESTで破棄されたリクエストの通知を確認する
+     * - 結果：タスクは実行されず、破棄時の処理が呼ばれること
+     */
+    @Test
+    public void enqueue_discard_oldest_notifies_discarded() throws Exception {
+        mDispatcher.setMaxRequests(1);
+        mDispatcher.setMaxQueueSize(1);
+        mDispatcher.setRejectionPolicy(NCMBRequestDispatcher.RejectionPolicy.DISCARD_OLDEST);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch discarded = new CountDownLatch(1);
+
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        final boolean[] ran = {false};
+        mDispatcher.newCallExecutor("host", "classes/", new Runnable() {
+            @Override
+            public void run() {
+                discarded.countDown();
+            }
+        }).execute(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+
+        Assert.assertTrue(discarded.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        Assert.assertFalse(ran[0]);
+    }
+
+    /**
+     * - 内容：同期リクエストが同時実行数の上限に従うことを確認する
+     * - 結果：上限に達している間は待機キューで待ち、実行中のリクエストが終わると実行されること
+     */
+    @Test
+    public void submit_within_max_requests() throws Exception {
+        mDispatcher.setMaxRequests(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        mDispatcher.newCallExecutor("host", "classes/", null).execute(blockingTask(started, release));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> future = mDispatcher.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        }, "host", "users");
+        Assert.assertEquals(1, mDispatcher.getQueuedRequestCount());
+        Assert.assertFalse(future.isDone());
+
+        release.countDown();
+        Assert.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * NCMBRequestHandle自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBRequestHandleTest {
+
+    private NCMBException mCallbackError;
+
+    @Before
+    public void setup() {
+        NCMBConnectionStats.reset();
+        mCallbackError = null;
+    }
+
+    private NCMBConnection createConnection() throws Exception {
+        NCMBRequest request = new NCMBRequest(
+                "https://mbaas.api.nifcloud.com/2013-09-01/classes/TestClass/7FrmPTBKSNtVjajm",
+                Constants.HTTP_METHOD_GET, null, null, "sessionToken", "appKey", "clientKey");
+        return new NCMBConnection(request);
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：入れ子になったバックグラウンド処理のハンドルを確認する
+     * - 結果：内側の処理は外側と同じハンドルを返し、終了後はハンドルが残らないこと
+     */
+    @Test
+    public void begin_nested() {
+        Assert.assertNull(NCMBRequestHandle.current());
+        NCMBRequestHandle outer = NCMBRequestHandle.begin();
+        NCMBRequestHandle inner = NCMBRequestHandle.begin();
+        Assert.assertSame(outer, inner);
+        NCMBRequestHandle.end(inner);
+        Assert.assertSame(outer, NCMBRequestHandle.current());
+        NCMBRequestHandle.end(outer);
+        Assert.assertNull(NCMBRequestHandle.current());
+
+        // 別の処理では新しいハンドルとなること
+        NCMBRequestHandle other = NCMBRequestHandle.begin();
+        NCMBRequestHandle.end(other);
+        Assert.assertNotSame(outer, other);
+    }
+
+    /**
+     * - 内容：コールバック実行中に開始したリクエストのハンドルを確認する
+     * - 結果：コールバック元のリクエストと同じハンドルに属すること
+     */
+    @Test
+    public void enter_callback() {
+        NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        NCMBRequestHandle.end(handle);
+
+        NCMBRequestHandle.enter(handle);
+        NCMBRequestHandle next = NCMBRequestHandle.begin();
+        NCMBRequestHandle.end(next);
+        NCMBRequestHandle.end(handle);
+        Assert.assertSame(handle, next);
+        Assert.assertNull(NCMBRequestHandle.current());
+    }
+
+    /**
+     * - 内容：runで実行した処理のハンドルを取得する
+     * - 結果：処理の中で開始したスコープのハンドルが返却され、処理の後にスコープが終了すること
+     */
+    @Test
+    public void run_operation() {
+        final NCMBRequestHandle[] current = new NCMBRequestHandle[1];
+        NCMBRequestHandle handle = NCMBRequestHandle.run(new Runnable() {
+            @Override
+            public void run() {
+                current[0] = NCMBRequestHandle.current();
+            }
+        });
+        Assert.assertSame(handle, current[0]);
+        Assert.assertNull(NCMBRequestHandle.current());
+    }
+
+    /**
+     * - 内容：キャンセル済みのハンドルでリクエストを開始する
+     * - 結果：送信されずにコールバックでエラーが返却され、キャンセル数が記録されること
+     */
+    @Test
+    public void cancel_before_request() throws Exception {
+        NCMBRequestHandle handle = NCMBRequestHandle.begin();
+        try {
+            Assert.assertTrue(handle.cancel());
+            Assert.assertFalse(handle.cancel());
+            createConnection().sendRequestAsynchronously(new RequestApiCallback() {
+                @Override
+                public void done(NCMBResponse res, NCMBException e) {
+                    mCallbackError = e;
+                }
+            });
+        } finally {
+            NCMBRequestHandle.end(handle);
+        }
+        Assert.assertTrue(handle.isCancelled());
+        Assert.assertNotNull(mCallbackError);
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, mCallbackError.getCode());
+        Assert.assertEquals(1, NCMBConnectionStats.getCancelledRequestCount());
+    }
+
+    /**
+     * - 内容：実行中のリクエストをキャンセルする
+     * - 結果：ハンドルに属する全てのリクエストがキャンセルされること
+     */
+    @Test
+    public void cancel_running_requests() throws Exception {
+        NCMBRequestHandle handle = new NCMBRequestHandle();
+        handle.add(createConnection());
+        handle.add(createConnection());
+        Assert.assertEquals(0, NCMBConnectionStats.getCancelledRequestCount());
+        handle.cancel();
+        Assert.assertEquals(2, NCMBConnectionStats.getCancelledRequestCount());
+    }
+}
@@ -140,6 +140,63 @@ public class NCMBRequestTest {
         Assert.assertEquals("AltGkQgXurEV7u0qMd+87ud7BKuueldoCjaMgVc9Bes=", request.getRequestProperty("X-NCMB-Signature"));
     }
 
+    /**
+     * - 内容：クエリ文字列がキーの昇順で生成されるかを確認する
+     * - 結果：指定順に関わらず同じURLが生成されること
+     */
+    @Test
+    public void requestQueryOrderCheck() throws Exception {
+        JSONObject query = new JSONObject();
+        query.put("limit", 10);
+        query.put("count", 1);
+        query.put("where", new JSONObject("{\"key\":\"value\"}"));
+
+        NCMBRequest request = new NCMBRequest("https://mbaas.api.nifcloud.com/2013-09-01/classes/TestClass",
+                Constants.HTTP_METHOD_GET,
+                null,
+                query,
+                null,
+                "applicationKey",
+                "clientKey");
+
+        Assert.assertEquals("https://mbaas.api.nifcloud.com/2013-09-01/classes/TestClass"
+                        + "?count=1&limit=10&where=%7B%22key%22%3A%22value%22%7D",
+                request.getUrl().toString());
+    }
+
+    /**
+     * - 内容：検索条件を含むリクエストを現在時刻で署名し直す
+     * - 結果：タイムスタンプが更新され、同じタイムスタンプで生成したリクエストと同じシグネチャになること
+     */
+    @Test
+    public void requestResignCheck() throws Exception {
+        JSONObject query = new JSONObject();
+        query.put("limit", 10);
+        query.put("where", new JSONObject("{\"key\":\"value\"}"));
+        String url = "https://mbaas.api.nifcloud.com/2013-09-01/classes/TestClass";
+        String oldTimestamp = "2013-12-02T02%3A44%3A35.452Z";
+        NCMBRequest request = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, null, null,
+                query, null, "applicationKey", "clientKey", oldTimestamp);
+
+        request.resign();
+
+        Assert.assertFalse(oldTimestamp.equals(request.getTimestamp()));
+        Assert.assertEquals(request.getTimestamp(), request.getRequestProperty("X-NCMB-Timestamp"));
+        NCMBRequest expected = new NCMBRequest(url, Constants.HTTP_METHOD_GET, null, null, null, null,
+                query, null, "applicationKey", "clientKey", request.getTimestamp());
+        Assert.assertEquals(expected.getSignatureHashData(), request.getSignatureHashData());
+        Assert.assertEquals(expected.getRequestProperty("X-NCMB-Signature"), request.getRequestProperty("X-NCMB-Signature"));
+    }
+
+    /**
+     * - 内容：タイムスタンプが正しい書式で生成されるかを確認する
+     * - 結果：URLエンコード済みの書式で生成されること
+     */
+    @Test
+    public void createTimestampCheck() throws Exception {
+        Assert.assertEquals("2013-12-02T02%3A44%3A35.452Z", NCMBRequest.createTimestamp(1385952275452L));
+    }
+
     /**
      * - 内容：独自UserAgentが正しく設定されているかを確認する
      * - 結果：独自UserAgentが正しく設定されること
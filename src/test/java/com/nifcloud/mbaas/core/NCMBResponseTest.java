@@ -28,10 +28,15 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * NCMBResponse自動化テストクラス
@@ -177,5 +182,95 @@ public class NCMBResponseTest {
 
     }
 
+    /**
+     * - 内容：検証用のデータを保持せずにjsonデータを読み込む
+     * - 結果：文字列から解析した場合と同じ値が設定され、受信したデータは保持されないこと
+     */
+    @Test
+    public void responseWithoutRawBody() throws Exception {
+        String body = "{\"objectId\":\"7FrmPTBKSNtVjajm\",\"int\":1,\"long\":12345678901,"
+                + "\"double\":1.5,\"array\":[\"a\",{\"b\":null}]}";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json"));
+        NCMBResponse response = new NCMBResponse(new ByteArrayInputStream(body.getBytes("UTF-8")),
+                200, headers, false);
+
+        Assert.assertEquals(new JSONObject(body).toString(), response.responseData.toString());
+        Assert.assertNull(response.rawBody);
+
+        //ボディが空の場合
+        response = new NCMBResponse(new ByteArrayInputStream(new byte[0]), 200, headers, false);
+        Assert.assertNull(response.responseData);
+    }
+
+    /**
+     * - 内容：jsonデータの後に余分なデータがあるレスポンスを読み込む
+     * - 結果：JSONObject(String)と同じく後続のデータは無視され、ボディの最後まで読み込まれること
+     */
+    @Test
+    public void responseWithTrailingBytes() throws Exception {
+        String json = "{\"objectId\":\"7FrmPTBKSNtVjajm\",\"count\":2}";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json"));
+        for (String trailing : new String[]{"\n", "  \r\n", "xyz", "{\"objectId\":\"other\"}"}) {
+            ByteArrayInputStream in = new ByteArrayInputStream((json + trailing).getBytes("UTF-8"));
+            NCMBResponse response = new NCMBResponse(in, 200, headers, false);
+
+            Assert.assertEquals(new JSONObject(json + trailing).toString(), response.responseData.toString());
+            Assert.assertEquals(0, in.available());
+        }
+    }
+
+    /**
+     * - 内容：非推奨のresponseDataStringを取得する
+     * - 結果：シグネチャ検証の有無に関わらず受信時に設定されること
+     */
+    @Test
+    public void responseDataString() throws Exception {
+        String body = "{\"objectId\":\"7FrmPTBKSNtVjajm\"}";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json"));
+        NCMBResponse response = new NCMBResponse(new ByteArrayInputStream(body.getBytes("UTF-8")),
+                200, headers, false);
+
+        Assert.assertEquals(body, response.responseDataString);
+        Assert.assertEquals(body, response.getResponseDataString());
+        Assert.assertEquals(body, new NCMBResponse(new ByteArrayInputStream(body.getBytes("UTF-8")),
+                200, headers, true).responseDataString);
+        Assert.assertEquals(body, response.responseDataString);
+        Assert.assertEquals(body, response.copy().responseDataString);
+    }
+
+    /**
+     * - 内容：エラーレスポンスのjsonデータを読み込む
+     * - 結果：エラーコードとメッセージが設定されること
+     */
+    @Test
+    public void responseError() throws Exception {
+        String body = "{\"code\":\"E404001\",\"error\":\"No data available.\"}";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json;charset=UTF-8"));
+        NCMBResponse response = new NCMBResponse(new ByteArrayInputStream(body.getBytes("UTF-8")),
+                404, headers, false);
 
+        Assert.assertEquals("E404001", response.mbStatus);
+        Assert.assertEquals("No data available.", response.mbErrorMessage);
+    }
+
+    /**
+     * - 内容：配列のjsonデータを読み込む
+     * - 結果：配列がresultsに設定されること
+     */
+    @Test
+    public void responseArray() throws Exception {
+        String body = "[{\"success\":{\"objectId\":\"7FrmPTBKSNtVjajm\"}},{\"error\":{\"code\":\"E404001\"}}]";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json"));
+        NCMBResponse response = new NCMBResponse(new ByteArrayInputStream(body.getBytes("UTF-8")),
+                200, headers, false);
+
+        Assert.assertEquals(2, response.responseData.getJSONArray("results").length());
+        Assert.assertEquals("7FrmPTBKSNtVjajm", response.responseData.getJSONArray("results")
+                .getJSONObject(0).getJSONObject("success").getString("objectId"));
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NCMBResultReader自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBResultReaderTest {
+
+    private static final String BODY = "{\"results\":["
+            + "{\"objectId\":\"8FgKqFlH8dZRDrBJ\",\"key\":\"value\",\"int\":1,\"long\":12345678901,"
+            + "\"double\":1.5,\"flag\":true,\"none\":null,\"array\":[1,\"a\",{\"b\":2}],\"object\":{\"c\":[]}},"
+            + "{\"objectId\":\"dummyObjectId02\"}"
+            + "],\"count\":2}\n";
+
+    private final List<JSONObject> mItems = new ArrayList<>();
+    private int mDoneCount = -1;
+    private NCMBException mDoneError = null;
+
+    private NCMBResultReader<NCMBObject> createReader() {
+        return new NCMBResultReader<NCMBObject>(new SearchEachCallback<NCMBObject>() {
+            @Override
+            public void item(NCMBObject item) {
+                mItems.add(item.mFields);
+            }
+
+            @Override
+            public void done(int count, NCMBException e) {
+                mDoneCount = count;
+                mDoneError = e;
+            }
+        }) {
+            @Override
+            NCMBObject createItem(JSONObject item) {
+                return new NCMBObject("TestClass", item);
+            }
+        };
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：検索結果を1件ずつ読み込む
+     * - 結果：JSONObjectで解析した場合と同じ値が順番にコールバックに渡されること
+     */
+    @Test
+    public void read_results() throws Exception {
+        NCMBResultReader<NCMBObject> reader = createReader();
+        NCMBResponse res = reader.read(new ByteArrayInputStream(BODY.getBytes("UTF-8")), 200);
+
+        Assert.assertEquals(2, reader.getCount());
+        Assert.assertEquals(2, mItems.size());
+        JSONObject expected = new JSONObject(BODY).getJSONArray("results").getJSONObject(0);
+        JSONObject item = mItems.get(0);
+        Assert.assertEquals(expected.toString(), item.toString());
+        Assert.assertEquals(Integer.class, item.get("int").getClass());
+        Assert.assertEquals(Long.class, item.get("long").getClass());
+        Assert.assertEquals(Double.class, item.get("double").getClass());
+        Assert.assertTrue(item.isNull("none"));
+        Assert.assertEquals("dummyObjectId02", mItems.get(1).getString("objectId"));
+
+        //results以外の項目はレスポンスに残ること
+        Assert.assertEquals(200, res.statusCode);
+        Assert.assertFalse(res.responseData.has("results"));
+        Assert.assertEquals(2, res.responseData.getInt("count"));
+
+        reader.done(null);
+        Assert.assertEquals(2, mDoneCount);
+        Assert.assertNull(mDoneError);
+    }
+
+    /**
+     * - 内容：検索結果の後のデータも読み込まれることを確認する
+     * - 結果：シグネチャ計算のためボディの最後まで読み込まれること
+     */
+    @Test
+    public void read_whole_body() throws Exception {
+        final int[] remaining = new int[1];
+        InputStream in = new ByteArrayInputStream(BODY.getBytes("UTF-8")) {
+            @Override
+            public synchronized void close() {
+                remaining[0] = available();
+            }
+        };
+        createReader().read(in, 200);
+        Assert.assertEquals(0, remaining[0]);
+    }
+
+    /**
+     * - 内容：シグネチャの検証まで検索結果を保持して読み込む
+     * - 結果：flushを呼ぶまでコールバックに渡されないこと
+     */
+    @Test
+    public void read_pending_until_flush() throws Exception {
+        NCMBResultReader<NCMBObject> reader = createReader();
+        reader.read(new ByteArrayInputStream(BODY.getBytes("UTF-8")), 200, true);
+        Assert.assertEquals(0, reader.getCount());
+        Assert.assertEquals(0, mItems.size());
+
+        reader.flush();
+        Assert.assertEquals(2, reader.getCount());
+        Assert.assertEquals("dummyObjectId02", mItems.get(1).getString("objectId"));
+    }
+
+    /**
+     * - 内容：コールバックを指定せずに検索結果を読み込む
+     * - 結果：例外が発生せずに件数が数えられること
+     */
+    @Test
+    public void read_without_callback() throws Exception {
+        NCMBResultReader<NCMBObject> reader = new NCMBResultReader<NCMBObject>(null) {
+            @Override
+            NCMBObject createItem(JSONObject item) {
+                return new NCMBObject("TestClass", item);
+            }
+        };
+        reader.read(new ByteArrayInputStream(BODY.getBytes("UTF-8")), 200);
+        Assert.assertEquals(2, reader.getCount());
+        reader.done(null);
+    }
+
+    /**
+     * - 内容：不正なJSONを読み込む
+     * - 結果：読み込めた検索結果まで渡され、E100001エラーとなること
+     */
+    @Test
+    public void read_invalid_json() throws Exception {
+        String body = "{\"results\":[{\"objectId\":\"8FgKqFlH8dZRDrBJ\"},{\"objectId\":}]}";
+        NCMBResultReader<NCMBObject> reader = createReader();
+        try {
+            reader.read(new ByteArrayInputStream(body.getBytes("UTF-8")), 200);
+            Assert.fail("exception not thrown");
+        } catch (NCMBException e) {
+            Assert.assertEquals(NCMBException.INVALID_JSON, e.getCode());
+        }
+        Assert.assertEquals(1, reader.getCount());
+    }
+}
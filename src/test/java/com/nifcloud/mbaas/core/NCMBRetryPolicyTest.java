@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * NCMBRetryPolicy自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBRetryPolicyTest {
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：リトライ毎の待機時間を確認する
+     * - 結果：待機時間の上限が倍増し、最大待機時間を超えないこと
+     */
+    @Test
+    public void computeBackoff() {
+        NCMBRetryPolicy policy = new NCMBRetryPolicy();
+        policy.setInitialBackoff(100);
+        policy.setMaxBackoff(1000);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.computeBackoff(0, -1);
+            Assert.assertTrue(first >= 0 && first < 100);
+            long third = policy.computeBackoff(2, -1);
+            Assert.assertTrue(third >= 0 && third < 400);
+            long tenth = policy.computeBackoff(9, -1);
+            Assert.assertTrue(tenth >= 0 && tenth < 1000);
+        }
+    }
+
+    /**
+     * - 内容：Retry-Afterヘッダーを指定した場合の待機時間を確認する
+     * - 結果：Retry-After以上待機し、最大待機時間を超える場合はリトライしないこと
+     */
+    @Test
+    public void computeBackoff_retry_after() {
+        NCMBRetryPolicy policy = new NCMBRetryPolicy();
+        policy.setInitialBackoff(100);
+        policy.setMaxBackoff(5000);
+        Assert.assertTrue(policy.computeBackoff(0, 3000) >= 3000);
+        Assert.assertEquals(-1, policy.computeBackoff(0, 6000));
+    }
+
+    /**
+     * - 内容：HTTPメソッド毎にリトライ可能か確認する
+     * - 結果：POSTは冪等キーが有効な場合のみリトライ可能であること
+     */
+    @Test
+    public void isRetryableMethod() {
+        NCMBRetryPolicy policy = new NCMBRetryPolicy();
+        Assert.assertFalse(policy.isIdempotencyKeyEnabled());
+        Assert.assertTrue(policy.isRetryableMethod(NCMBRequest.HTTP_METHOD_GET));
+        Assert.assertTrue(policy.isRetryableMethod(NCMBRequest.HTTP_METHOD_PUT));
+        Assert.assertTrue(policy.isRetryableMethod(NCMBRequest.HTTP_METHOD_DELETE));
+        Assert.assertFalse(policy.isRetryableMethod(NCMBRequest.HTTP_METHOD_POST));
+        policy.setIdempotencyKeyEnabled(true);
+        Assert.assertTrue(policy.isRetryableMethod(NCMBRequest.HTTP_METHOD_POST));
+    }
+
+    /**
+     * - 内容：レスポンス毎にリトライ対象か確認する
+     * - 結果：429と一時的なサーバーエラーのみリトライ対象であること
+     */
+    @Test
+    public void isRetryableResponse() {
+        NCMBRetryPolicy policy = new NCMBRetryPolicy();
+        Assert.assertTrue(policy.isRetryableResponse(new NCMBResponse(429)));
+        Assert.assertTrue(policy.isRetryableResponse(new NCMBResponse(503)));
+        Assert.assertFalse(policy.isRetryableResponse(new NCMBResponse(200)));
+        Assert.assertFalse(policy.isRetryableResponse(new NCMBResponse(404)));
+        NCMBResponse restricted = new NCMBResponse(403);
+        restricted.mbStatus = NCMBException.RESTRICTED;
+        Assert.assertTrue(policy.isRetryableResponse(restricted));
+    }
+
+    /**
+     * - 内容：失敗が続いた場合のリトライバジェットを確認する
+     * - 結果：トークンが半分以下になるとリトライが止まり、成功により回復すること
+     */
+    @Test
+    public void retryBudget() {
+        NCMBRetryPolicy policy = new NCMBRetryPolicy();
+        policy.setRetryBudget(4, 0.5);
+        Assert.assertTrue(policy.acquireRetry());
+        Assert.assertFalse(policy.acquireRetry());
+        Assert.assertFalse(policy.acquireRetry());
+        Assert.assertEquals(1.0, policy.getRetryTokens());
+        for (int i = 0; i < 5; i++) {
+            policy.recordSuccess();
+        }
+        Assert.assertEquals(3.5, policy.getRetryTokens());
+        Assert.assertTrue(policy.acquireRetry());
+    }
+}
@@ -86,6 +86,44 @@ public class NCMBScriptServiceTest {
     }
 
 
+    /**
+     * - 内容：executeScriptInBackgroundをハンドルでキャンセルする
+     * - 結果：キャンセルのエラーがコールバックに渡されること
+     */
+    @Test
+    public void executeScriptInBackground_cancel() throws Exception {
+        final NCMBException[] error = {null};
+        final NCMBScriptService scriptService = (NCMBScriptService) NCMB.factory(NCMB.ServiceType.SCRIPT);
+        NCMBRequestHandle handle = NCMBRequestHandle.run(new Runnable() {
+            @Override
+            public void run() {
+                scriptService.executeScriptInBackground(
+                        "testScript.js",
+                        NCMBScript.MethodType.GET,
+                        null,
+                        null,
+                        null,
+                        mScriptUrl,
+                        new ExecuteScriptCallback() {
+                            @Override
+                            public void done(byte[] result, NCMBException e) {
+                                Assert.assertNull(result);
+                                error[0] = e;
+                                mCallbackFlag = true;
+                            }
+                        });
+            }
+        });
+        Assert.assertTrue(handle.cancel());
+
+        Robolectric.flushBackgroundThreadScheduler();
+        ShadowLooper.runUiThreadTasks();
+
+        Assert.assertTrue(mCallbackFlag);
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, error[0].getCode());
+        Assert.assertEquals("Request was cancelled.", error[0].getMessage());
+    }
+
     /**
      * - 内容：executeScriptInBackgroundが成功することを確認する
      * - 結果：エラーが発生しないこと
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * NCMBSignedInputStream自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBSignedInputStreamTest {
+
+    private NCMBRequest mRequest;
+
+    @Before
+    public void setup() throws Exception {
+        mRequest = new NCMBRequest(
+                "https://mbaas.api.nifcloud.com/2013-09-01/classes/TestClass",
+                Constants.HTTP_METHOD_GET,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                "appKey",
+                "clientKey",
+                "2016-05-27T04%3A46%3A09.376Z");
+    }
+
+    private void readAll(InputStream in) throws Exception {
+        byte[] buffer = new byte[3];
+        while (in.read(buffer) != -1) {
+            //読み込みのみ
+        }
+        in.close();
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：jsonデータを読み込みながら計算したシグネチャを確認する
+     * - 結果：ボディ全体から計算したシグネチャと一致すること
+     */
+    @Test
+    public void signature_json() throws Exception {
+        String body = "{\"objectId\":\"7FrmPTBKSNtVjajm\",\"url\":\"https://example.com/\"}";
+        NCMBSignedInputStream in = new NCMBSignedInputStream(
+                new ByteArrayInputStream(body.getBytes("UTF-8")), mRequest, false);
+        readAll(in);
+
+        String expected = mRequest.createSignature(mRequest.getSignatureHashData() + "\n" + body, "clientKey");
+        Assert.assertEquals(expected, in.signature());
+    }
+
+    /**
+     * - 内容：サーバーが署名したレスポンスのシグネチャを確認する
+     * - 結果：受信したバイト列から計算したシグネチャは一致し、
+     *         JSONObjectに変換後の文字列から計算したシグネチャは一致しないこと
+     */
+    @Test
+    public void signature_signed_response() throws Exception {
+        //空白やエスケープを含むレスポンスボディとサーバーが付与したX-NCMB-Response-Signature
+        String body = "{\"objectId\": \"7FrmPTBKSNtVjajm\", \"url\": \"https:\\/\\/example.com\\/\", \"name\": \"\\u3042\"}";
+        String responseSignature = "ARcu/PJBMacAzSHN7lTMl7UKRsjFVU3l+kLZ6wjYlSg=";
+
+        NCMBSignedInputStream in = new NCMBSignedInputStream(
+                new ByteArrayInputStream(body.getBytes("UTF-8")), mRequest, false);
+        readAll(in);
+        Assert.assertEquals(responseSignature, in.signature());
+
+        //以前はパース後のJSONObjectを文字列に戻して計算していた
+        String reserialized = new JSONObject(body).toString();
+        Assert.assertFalse(body.equals(reserialized));
+        Assert.assertFalse(responseSignature.equals(
+                mRequest.createSignature(mRequest.getSignatureHashData() + "\n" + reserialized, "clientKey")));
+    }
+
+    /**
+     * - 内容：ファイルデータを読み込みながら計算したシグネチャを確認する
+     * - 結果：16進数文字列から計算したシグネチャと一致すること
+     */
+    @Test
+    public void signature_file() throws Exception {
+        byte[] data = new byte[]{0x00, 0x0f, 0x10, (byte) 0xab, (byte) 0xff, 0x7f, 0x01};
+        NCMBSignedInputStream in = new NCMBSignedInputStream(new ByteArrayInputStream(data), mRequest, true);
+        Assert.assertEquals(0x00, in.read());
+        readAll(in);
+
+        String expected = mRequest.createSignature(mRequest.getSignatureHashData() + "\n" + "000f10abff7f01", "clientKey");
+        Assert.assertEquals(expected, in.signature());
+    }
+
+    /**
+     * - 内容：途中から別のストリームで読み込みを再開したファイルデータのシグネチャを確認する
+     * - 結果：ファイルデータ全体から計算したシグネチャと一致し、読み込んだバイト数が計上されること
+     */
+    @Test
+    public void signature_resume() throws Exception {
+        byte[] head = new byte[]{0x00, 0x0f, 0x10};
+        byte[] rest = new byte[]{(byte) 0xab, (byte) 0xff, 0x7f, 0x01};
+        NCMBSignedInputStream in = new NCMBSignedInputStream(new ByteArrayInputStream(head), mRequest, true);
+        readAll(in);
+        Assert.assertEquals(3, in.count());
+        in.resume(new ByteArrayInputStream(rest));
+        readAll(in);
+        Assert.assertEquals(7, in.count());
+
+        String expected = mRequest.createSignature(mRequest.getSignatureHashData() + "\n" + "000f10abff7f01", "clientKey");
+        Assert.assertEquals(expected, in.signature());
+    }
+
+    /**
+     * - 内容：ボディが空の場合のシグネチャを確認する
+     * - 結果：シグネチャ用ハッシュデータのみから計算したシグネチャと一致すること
+     */
+    @Test
+    public void signature_empty_body() throws Exception {
+        NCMBSignedInputStream in = new NCMBSignedInputStream(new ByteArrayInputStream(new byte[0]), mRequest, false);
+        readAll(in);
+
+        String expected = mRequest.createSignature(mRequest.getSignatureHashData(), "clientKey");
+        Assert.assertEquals(expected, in.signature());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import android.util.Base64;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * NCMBSigner自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBSignerTest {
+
+    private static final String CLIENT_KEY = "9714b04345bcdad2d609d3b9ba9bd89c7bed612189d4e6a923c70bf87da60e76";
+    private static final String DATA = "POST\nmbaas.api.nifcloud.com\n/2013-09-01/classes/TestClass\n"
+            + "SignatureMethod=HmacSHA256&SignatureVersion=2&X-NCMB-Application-Key=appKey"
+            + "&X-NCMB-Timestamp=2016-05-27T04:46:09.376Z";
+
+    // キャッシュを使わない従来のシグネチャ計算
+    private static String legacySignature(String data, String key) throws Exception {
+        SecretKeySpec signingKey = new SecretKeySpec(key.getBytes("UTF-8"), "HmacSHA256");
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(signingKey);
+        return Base64.encodeToString(mac.doFinal(data.getBytes("UTF-8")), Base64.NO_WRAP);
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：キャッシュした署名オブジェクトのシグネチャを確認する
+     * - 結果：従来の方法で計算したシグネチャと一致すること
+     */
+    @Test
+    public void sign() throws Exception {
+        NCMBSigner signer = NCMBSigner.getInstance(CLIENT_KEY);
+        Assert.assertSame(signer, NCMBSigner.getInstance(CLIENT_KEY));
+        Assert.assertEquals(legacySignature(DATA, CLIENT_KEY), signer.sign(DATA));
+        // 続けて計算しても前回の状態が残らないこと
+        Assert.assertEquals(legacySignature("data", CLIENT_KEY), signer.sign("data"));
+    }
+
+    /**
+     * - 内容：複数スレッドから同時にシグネチャを計算する
+     * - 結果：全てのスレッドで正しいシグネチャが計算されること
+     */
+    @Test
+    public void sign_multi_thread() throws Exception {
+        final NCMBSigner signer = NCMBSigner.getInstance(CLIENT_KEY);
+        final String expected = legacySignature(DATA, CLIENT_KEY);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int j = 0; j < 500; j++) {
+                        if (!expected.equals(signer.sign(DATA))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * - 内容：newMacで生成したMacが独立していることを確認する
+     * - 結果：初期化済みで、別のMacの計算に影響しないこと
+     */
+    @Test
+    public void newMac() throws Exception {
+        NCMBSigner signer = NCMBSigner.getInstance(CLIENT_KEY);
+        Mac mac = signer.newMac();
+        mac.update("partial".getBytes("UTF-8"));
+        Assert.assertEquals(legacySignature(DATA, CLIENT_KEY), signer.sign(DATA));
+        mac.update(DATA.getBytes("UTF-8"));
+        Assert.assertEquals(legacySignature("partial" + DATA, CLIENT_KEY),
+                Base64.encodeToString(mac.doFinal(), Base64.NO_WRAP));
+    }
+
+    /**
+     * - 内容：上限を超える数のクライアントキーでシグネチャを計算する
+     * - 結果：全てのクライアントキーで正しいシグネチャが計算され、保持する署名オブジェクト数が上限を超えないこと
+     */
+    @Test
+    public void sign_many_client_keys() throws Exception {
+        for (int i = 0; i < NCMBSigner.MAX_SIGNERS * 3; i++) {
+            String clientKey = CLIENT_KEY + i;
+            Assert.assertEquals(legacySignature(DATA, clientKey), NCMBSigner.getInstance(clientKey).sign(DATA));
+            Assert.assertTrue(NCMBSigner.size() <= NCMBSigner.MAX_SIGNERS);
+        }
+        Assert.assertEquals(legacySignature(DATA, CLIENT_KEY), NCMBSigner.getInstance(CLIENT_KEY).sign(DATA));
+    }
+
+    /**
+     * - 内容：シグネチャ計算のマイクロベンチマーク。実行時間が環境に依存するため通常のテストでは実行しない
+     * - 結果：従来の方法とキャッシュ利用時の1秒あたりの計算回数を出力すること
+     */
+    @Ignore("microbenchmark, remove @Ignore to run manually")
+    @Test
+    public void benchmark() throws Exception {
+        final int count = 20000;
+        NCMBSigner signer = NCMBSigner.getInstance(CLIENT_KEY);
+        // ウォームアップ
+        for (int i = 0; i < count; i++) {
+            legacySignature(DATA, CLIENT_KEY);
+            signer.sign(DATA);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            legacySignature(DATA, CLIENT_KEY);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            signer.sign(DATA);
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("signatures/sec: before=%d after=%d",
+                count * 1000000000L / Math.max(legacyNanos, 1),
+                count * 1000000000L / Math.max(cachedNanos, 1)));
+        Assert.assertEquals(legacySignature(DATA, CLIENT_KEY), signer.sign(DATA));
+    }
+}
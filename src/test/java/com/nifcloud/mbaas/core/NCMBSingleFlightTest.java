@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+/**
+ * NCMBSingleFlight自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBSingleFlightTest {
+
+    private NCMBException await(NCMBSingleFlight.Call call) {
+        try {
+            call.await(1000);
+        } catch (NCMBException e) {
+            return e;
+        }
+        Assert.fail("exception not thrown");
+        return null;
+    }
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：エラーで終了した呼び出しを複数の呼び出し元が待機する
+     * - 結果：それぞれ別の例外インスタンスを受け取り、次の呼び出しが新たに開始されること
+     */
+    @Test
+    public void complete_with_error() throws Exception {
+        NCMBSingleFlight.Call call = new NCMBSingleFlight.Call("GET key");
+        Assert.assertSame(call, NCMBSingleFlight.start(call));
+        Assert.assertSame(call, NCMBSingleFlight.start(new NCMBSingleFlight.Call("GET key")));
+
+        call.complete(null, new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+
+        NCMBException first = await(call);
+        NCMBException second = await(call);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, first.getCode());
+        Assert.assertEquals("Request was cancelled.", second.getMessage());
+
+        NCMBSingleFlight.Call next = new NCMBSingleFlight.Call("GET key");
+        Assert.assertSame(next, NCMBSingleFlight.start(next));
+        next.complete(null, first);
+    }
+
+    /**
+     * - 内容：先行する呼び出しがキャンセルされて待機中の呼び出しを解放する
+     * - 結果：待機中の呼び出しにエラーが返却されず、次の呼び出しが新たに開始されること
+     */
+    @Test
+    public void release_cancelled_leader() throws Exception {
+        NCMBSingleFlight.Call call = new NCMBSingleFlight.Call("GET key");
+        Assert.assertSame(call, NCMBSingleFlight.start(call));
+
+        call.release();
+
+        Assert.assertNull(call.await(1000));
+        call.complete(null, new NCMBException(NCMBException.GENERIC_ERROR, "Request was cancelled."));
+        Assert.assertNull(call.await(1000));
+
+        NCMBSingleFlight.Call next = new NCMBSingleFlight.Call("GET key");
+        Assert.assertSame(next, NCMBSingleFlight.start(next));
+        next.release();
+    }
+}
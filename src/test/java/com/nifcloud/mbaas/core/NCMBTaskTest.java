@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * NCMBTask自動化テストクラス
+ */
+@RunWith(CustomRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, manifest = Config.NONE)
+public class NCMBTaskTest {
+
+    /*** Test Case ***/
+
+    /**
+     * - 内容：thenComposeで続けて実行するタスクを確認する
+     * - 結果：前のタスクの結果を使って次のタスクが開始され、その結果で完了すること
+     */
+    @Test
+    public void thenCompose() throws Exception {
+        final NCMBTask<String> first = new NCMBTask<>();
+        final NCMBTask<Integer> second = new NCMBTask<>();
+        NCMBTask<Integer> composed = first.thenCompose(new NCMBTask.Continuation<String, Integer>() {
+            @Override
+            public NCMBTask<Integer> then(String result) {
+                Assert.assertEquals("login", result);
+                return second;
+            }
+        });
+        Assert.assertFalse(composed.isCompleted());
+        first.complete("login", null);
+        Assert.assertFalse(composed.isCompleted());
+        second.complete(3, null);
+        Assert.assertEquals(Integer.valueOf(3), composed.get());
+    }
+
+    /**
+     * - 内容：失敗したタスクにthenComposeした場合を確認する
+     * - 結果：次のタスクは開始されず、同じエラーで完了すること
+     */
+    @Test
+    public void thenCompose_error() {
+        NCMBException error = new NCMBException(NCMBException.AUTH_FAILURE, "error");
+        NCMBTask<Integer> composed = NCMBTask.<String>forError(error).thenCompose(new NCMBTask.Continuation<String, Integer>() {
+            @Override
+            public NCMBTask<Integer> then(String result) {
+                Assert.fail("continuation executed");
+                return null;
+            }
+        });
+        Assert.assertTrue(composed.isCompleted());
+        Assert.assertSame(error, composed.getError());
+    }
+
+    /**
+     * - 内容：allOfで複数のタスクを待ち合わせる
+     * - 結果：完了順に関係なく、タスクの順序で結果が返却されること
+     */
+    @Test
+    public void allOf() throws Exception {
+        NCMBTask<String> first = new NCMBTask<>();
+        NCMBTask<String> second = new NCMBTask<>();
+        NCMBTask<List<String>> all = NCMBTask.allOf(Arrays.asList(first, second));
+        second.complete("second", null);
+        Assert.assertFalse(all.isCompleted());
+        first.complete("first", null);
+        Assert.assertEquals(Arrays.asList("first", "second"), all.get());
+    }
+
+    /**
+     * - 内容：allOfでいずれかのタスクが失敗した場合を確認する
+     * - 結果：他のタスクを待たずにエラーで完了すること
+     */
+    @Test
+    public void allOf_error() {
+        NCMBTask<String> first = new NCMBTask<>();
+        NCMBTask<Integer> second = new NCMBTask<>();
+        NCMBTask<List<Object>> all = NCMBTask.allOf(first, second);
+        NCMBException error = new NCMBException(NCMBException.GENERIC_ERROR, "error");
+        second.complete(null, error);
+        Assert.assertTrue(all.isCompleted());
+        Assert.assertSame(error, all.getError());
+    }
+
+    /**
+     * - 内容：anyOfで最初に完了したタスクを確認する
+     * - 結果：最初に完了したタスクの結果で完了すること
+     */
+    @Test
+    public void anyOf() throws Exception {
+        NCMBTask<String> first = new NCMBTask<>();
+        NCMBTask<String> second = new NCMBTask<>();
+        NCMBTask<String> any = NCMBTask.anyOf(Arrays.asList(first, second));
+        second.complete("second", null);
+        first.complete("first", null);
+        Assert.assertEquals("second", any.get());
+    }
+
+    /**
+     * - 内容：合成したタスクをキャンセルする
+     * - 結果：元のタスクのリクエストもキャンセルされ、エラーで完了すること
+     */
+    @Test
+    public void cancel() {
+        NCMBTask<String> first = new NCMBTask<>();
+        NCMBRequestHandle handle = first.begin();
+        NCMBRequestHandle.end(handle);
+        NCMBTask<List<Object>> all = NCMBTask.allOf(first, new NCMBTask<Integer>());
+        Assert.assertTrue(all.cancel());
+        Assert.assertTrue(all.isCancelled());
+        Assert.assertTrue(handle.isCancelled());
+        Assert.assertTrue(first.isCompleted());
+        Assert.assertEquals(NCMBException.GENERIC_ERROR, all.getError().getCode());
+        Assert.assertFalse(all.cancel());
+    }
+
+    /**
+     * - 内容：同じハンドル内で開始したタスクの一方をキャンセルする
+     * - 結果：他方のタスクと外側のハンドルはキャンセルされず、外側のハンドルをキャンセルすると他方もキャンセルされること
+     */
+    @Test
+    public void cancel_sibling() {
+        final NCMBTask<String> first = new NCMBTask<>();
+        final NCMBTask<String> second = new NCMBTask<>();
+        final NCMBRequestHandle[] handles = new NCMBRequestHandle[2];
+        NCMBRequestHandle parent = NCMBRequestHandle.run(new Runnable() {
+            @Override
+            public void run() {
+                handles[0] = first.begin();
+                NCMBRequestHandle.end(handles[0]);
+                handles[1] = second.begin();
+                NCMBRequestHandle.end(handles[1]);
+            }
+        });
+        Assert.assertNotSame(handles[0], handles[1]);
+        Assert.assertNotSame(parent, handles[0]);
+
+        Assert.assertTrue(first.cancel());
+        Assert.assertTrue(handles[0].isCancelled());
+        Assert.assertFalse(handles[1].isCancelled());
+        Assert.assertFalse(parent.isCancelled());
+
+        Assert.assertTrue(parent.cancel());
+        Assert.assertTrue(handles[1].isCancelled());
+    }
+
+    /**
+     * - 内容：thenComposeの処理で実行時例外が発生する
+     * - 結果：合成したタスクがエラーで完了し、他のコールバックも実行されること
+     */
+    @Test
+    public void thenCompose_runtime_exception() throws Exception {
+        NCMBTask<String> first = new NCMBTask<>();
+        NCMBTask<Integer> composed = first.thenCompose(new NCMBTask.Continuation<String, Integer>() {
+            @Override
+            public NCMBTask<Integer> then(String result) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        final boolean[] called = {false};
+        first.whenComplete(new NCMBTask.Callback<String>() {
+            @Override
+            public void done(String result, NCMBException e) {
+                called[0] = true;
+            }
+        });
+
+        first.complete("login", null);
+
+        Assert.assertTrue(called[0]);
+        Assert.assertTrue(composed.isCompleted());
+        Assert.assertTrue(composed.getError().getCause() instanceof IllegalStateException);
+        try {
+            composed.get(1000);
+            Assert.fail();
+        } catch (NCMBException e) {
+            Assert.assertSame(composed.getError(), e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017-2022 FUJITSU CLOUD TECHNOLOGIES LIMITED All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nifcloud.mbaas.core;
+
+import org.robolectric.DefaultTestLifecycle;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+/**
+ * テスト毎にSDKの非同期処理を呼び出し元のスレッドで実行するように設定する
+ */
+public class NCMBTestLifecycle extends DefaultTestLifecycle {
+
+    @Override
+    public void beforeTest(Method method) {
+        super.beforeTest(method);
+        //非同期のリクエストはコールバックをメインスレッドに積むまで実行されるため、結果を待たずに確認できる
+        NCMBRequestDispatcher.getInstance().setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @Override
+    public void afterTest(Method method) {
+        NCMBRequestDispatcher.getInstance().setExecutor(null);
+        super.afterTest(method);
+    }
+}